@@ -0,0 +1,535 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apkcheck;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+
+/**
+ * Flattened public API in a compact, read-only form.
+ *
+ * Parsing and flattening the public API XML takes far longer than
+ * checking a typical APK.  This holds the result of doing it once, and
+ * can be written to a file ("--compile-api") and mapped back in by later
+ * runs without any parsing at all.
+ *
+ * Every name and member key is stored once, in a table of UTF-8 strings
+ * sorted by their bytes, so string IDs sort in the same order as the
+ * strings themselves.  Packages, classes, and each class's fields and
+ * methods are sorted arrays of string IDs, which we binary search.
+ * Layout (all ints big-endian):
+ *
+ *   magic, version
+ *   stringCount, packageCount, classCount, memberCount
+ *   int[stringCount+1]   string offsets, relative to the string data
+ *   int[packageCount]    package name IDs
+ *   int[classCount * 6]  package ID, class name ID, flags,
+ *                        first member, field count, method count
+ *   int[memberCount]     "name:type" field and "name:descr" method IDs
+ *   byte[]               string data
+ *
+ * A database never changes once built, and the buffer is only read at
+ * absolute positions, so one instance can be shared by any number of
+ * threads.
+ */
+public class ApiDatabase {
+    private static final int MAGIC = 0x61706b64;    // "apkd"
+    private static final int VERSION = 1;
+
+    private static final int HEADER_SIZE = 6 * 4;
+    private static final int CLASS_SIZE = 6 * 4;
+
+    private static final int FLAG_ENUM = 0x01;
+    private static final int FLAG_ANNOTATION = 0x02;
+
+    private final ByteBuffer mBuf;
+    private final int mStringCount;
+    private final int mPackageCount;
+    private final int mClassCount;
+
+    /* start of each section */
+    private final int mStringOffsets;
+    private final int mPackages;
+    private final int mClasses;
+    private final int mMembers;
+    private final int mStringData;
+
+    private ApiDatabase(ByteBuffer buf) throws IOException {
+        mBuf = buf;
+        if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC)
+            throw new IOException("not an API database");
+        if (buf.getInt(4) != VERSION)
+            throw new IOException("unsupported API database version " +
+                buf.getInt(4));
+
+        mStringCount = buf.getInt(8);
+        mPackageCount = buf.getInt(12);
+        mClassCount = buf.getInt(16);
+        int memberCount = buf.getInt(20);
+
+        mStringOffsets = HEADER_SIZE;
+        mPackages = mStringOffsets + (mStringCount + 1) * 4;
+        mClasses = mPackages + mPackageCount * 4;
+        mMembers = mClasses + mClassCount * CLASS_SIZE;
+        mStringData = mMembers + memberCount * 4;
+        if (mStringData > buf.capacity() ||
+            mStringData + buf.getInt(mStringOffsets + mStringCount * 4) !=
+                buf.capacity())
+        {
+            throw new IOException("truncated API database");
+        }
+    }
+
+    /**
+     * Returns true if the file looks like an API database rather than
+     * an XML file.  Returns false if it can't be read; the XML parser
+     * will report that.
+     */
+    public static boolean isDatabase(String fileName) {
+        try {
+            DataInputStream in =
+                new DataInputStream(new FileInputStream(fileName));
+            try {
+                return in.readInt() == MAGIC;
+            } finally {
+                in.close();
+            }
+        } catch (IOException ioe) {
+            return false;
+        }
+    }
+
+    /**
+     * Maps an API database file written by {@link #write}.
+     */
+    public static ApiDatabase load(String fileName) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(fileName, "r");
+        try {
+            FileChannel channel = raf.getChannel();
+            return new ApiDatabase(
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Writes the database to a file, for {@link #load}.
+     */
+    public void write(String fileName) throws IOException {
+        FileOutputStream out = new FileOutputStream(fileName);
+        try {
+            ByteBuffer buf = mBuf.duplicate();
+            buf.clear();
+            out.getChannel().write(buf);
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Builds a database from a public API list.  The list must have been
+     * flattened.
+     */
+    public static ApiDatabase build(ApiList apiList) {
+        /*
+         * Gather up the strings, and number them in sorted order.
+         */
+        HashSet<String> strings = new HashSet<String>();
+        ArrayList<PackageInfo> packages = new ArrayList<PackageInfo>();
+        ArrayList<ClassInfo> classes = new ArrayList<ClassInfo>();
+        ArrayList<String> classPackages = new ArrayList<String>();
+        int memberCount = 0;
+
+        Iterator<PackageInfo> pkgIter = apiList.getPackageIterator();
+        while (pkgIter.hasNext()) {
+            PackageInfo pkgInfo = pkgIter.next();
+            packages.add(pkgInfo);
+            strings.add(pkgInfo.getName());
+
+            Iterator<ClassInfo> classIter = pkgInfo.getClassIterator();
+            while (classIter.hasNext()) {
+                ClassInfo classInfo = classIter.next();
+                classes.add(classInfo);
+                classPackages.add(pkgInfo.getName());
+                strings.add(classInfo.getName());
+
+                Iterator<FieldInfo> fieldIter = classInfo.getFieldIterator();
+                while (fieldIter.hasNext()) {
+                    strings.add(fieldIter.next().getNameAndType());
+                    memberCount++;
+                }
+                Iterator<MethodInfo> methIter = classInfo.getMethodIterator();
+                while (methIter.hasNext()) {
+                    strings.add(methIter.next().getNameAndDescriptor());
+                    memberCount++;
+                }
+            }
+        }
+
+        byte[][] sorted = new byte[strings.size()][];
+        int idx = 0;
+        for (String str : strings)
+            sorted[idx++] = utf8(str);
+        Arrays.sort(sorted, new Comparator<byte[]>() {
+            public int compare(byte[] a, byte[] b) {
+                return Arrays.compareUnsigned(a, b);
+            }
+        });
+        HashMap<String,Integer> ids =
+            new HashMap<String,Integer>(sorted.length * 4 / 3 + 1);
+        for (idx = 0; idx < sorted.length; idx++)
+            ids.put(new String(sorted[idx], StandardCharsets.UTF_8), idx);
+
+        /*
+         * Order the packages and classes by name.
+         */
+        int[] packageIds = new int[packages.size()];
+        for (idx = 0; idx < packageIds.length; idx++)
+            packageIds[idx] = ids.get(packages.get(idx).getName());
+        Arrays.sort(packageIds);
+
+        long[] classKeys = new long[classes.size()];
+        for (idx = 0; idx < classKeys.length; idx++) {
+            long pkgId = ids.get(classPackages.get(idx));
+            long nameId = ids.get(classes.get(idx).getName());
+            classKeys[idx] = pkgId << 32 | nameId;
+        }
+        Integer[] classOrder = new Integer[classes.size()];
+        for (idx = 0; idx < classOrder.length; idx++)
+            classOrder[idx] = idx;
+        final long[] keys = classKeys;
+        Arrays.sort(classOrder, new Comparator<Integer>() {
+            public int compare(Integer a, Integer b) {
+                return Long.compare(keys[a], keys[b]);
+            }
+        });
+
+        /*
+         * Write it all out.
+         */
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(sorted.length);
+            out.writeInt(packageIds.length);
+            out.writeInt(classOrder.length);
+            out.writeInt(memberCount);
+
+            int offset = 0;
+            for (byte[] str : sorted) {
+                out.writeInt(offset);
+                offset += str.length;
+            }
+            out.writeInt(offset);
+
+            for (int pkgId : packageIds)
+                out.writeInt(pkgId);
+
+            int firstMember = 0;
+            for (int classIdx : classOrder) {
+                ClassInfo classInfo = classes.get(classIdx);
+                int flags = 0;
+                if (classInfo.isEnum())
+                    flags |= FLAG_ENUM;
+                if (classInfo.isAnnotation())
+                    flags |= FLAG_ANNOTATION;
+                int fieldCount = countFields(classInfo);
+                int methodCount = countMethods(classInfo);
+
+                out.writeInt((int) (classKeys[classIdx] >>> 32));
+                out.writeInt((int) classKeys[classIdx]);
+                out.writeInt(flags);
+                out.writeInt(firstMember);
+                out.writeInt(fieldCount);
+                out.writeInt(methodCount);
+                firstMember += fieldCount + methodCount;
+            }
+
+            for (int classIdx : classOrder) {
+                ClassInfo classInfo = classes.get(classIdx);
+                int[] memberIds = new int[countFields(classInfo)];
+                Iterator<FieldInfo> fieldIter = classInfo.getFieldIterator();
+                for (idx = 0; idx < memberIds.length; idx++)
+                    memberIds[idx] = ids.get(fieldIter.next().getNameAndType());
+                writeSorted(out, memberIds);
+
+                memberIds = new int[countMethods(classInfo)];
+                Iterator<MethodInfo> methIter = classInfo.getMethodIterator();
+                for (idx = 0; idx < memberIds.length; idx++)
+                    memberIds[idx] = ids.get(methIter.next().getNameAndDescriptor());
+                writeSorted(out, memberIds);
+            }
+
+            for (byte[] str : sorted)
+                out.write(str);
+            out.close();
+
+            return new ApiDatabase(ByteBuffer.wrap(bytes.toByteArray()));
+        } catch (IOException ioe) {
+            // not expected from a ByteArrayOutputStream
+            throw new RuntimeException(ioe);
+        }
+    }
+
+    private static int countFields(ClassInfo classInfo) {
+        int count = 0;
+        for (Iterator<FieldInfo> iter = classInfo.getFieldIterator();
+                iter.hasNext(); iter.next())
+            count++;
+        return count;
+    }
+
+    private static int countMethods(ClassInfo classInfo) {
+        int count = 0;
+        for (Iterator<MethodInfo> iter = classInfo.getMethodIterator();
+                iter.hasNext(); iter.next())
+            count++;
+        return count;
+    }
+
+    private static void writeSorted(DataOutputStream out, int[] values)
+            throws IOException {
+        Arrays.sort(values);
+        for (int value : values)
+            out.writeInt(value);
+    }
+
+    /**
+     * Returns the number of classes in the database.
+     */
+    public int getClassCount() {
+        return mClassCount;
+    }
+
+    /**
+     * Returns the size of the database, in bytes.
+     */
+    public int getSize() {
+        return mBuf.capacity();
+    }
+
+    /**
+     * Returns true if the named package is part of the API.
+     */
+    public boolean hasPackage(String name) {
+        int id = findString(utf8(name));
+        return id >= 0 && findId(mPackages, mPackageCount, id) >= 0;
+    }
+
+    /**
+     * Finds a class.
+     *
+     * @param packageName Package name, e.g. "android.app".
+     * @param className Binary class name without the package name,
+     *      e.g. "AlertDialog$Builder".
+     * @return An index for the other class queries, or -1 if the class
+     *      isn't part of the API.
+     */
+    public int getClass(String packageName, String className) {
+        int pkgId = findString(utf8(packageName));
+        int nameId = findString(utf8(className));
+        if (pkgId < 0 || nameId < 0)
+            return -1;
+
+        int lo = 0;
+        int hi = mClassCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int entry = mClasses + mid * CLASS_SIZE;
+            int cmp = Integer.compare(mBuf.getInt(entry), pkgId);
+            if (cmp == 0)
+                cmp = Integer.compare(mBuf.getInt(entry + 4), nameId);
+            if (cmp < 0)
+                lo = mid + 1;
+            else if (cmp > 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -1;
+    }
+
+    /**
+     * Returns whether or not the class is an enumerated type.
+     */
+    public boolean isEnum(int classIdx) {
+        return (classInt(classIdx, 2) & FLAG_ENUM) != 0;
+    }
+
+    /**
+     * Returns whether or not the class is an annotation type.
+     */
+    public boolean isAnnotation(int classIdx) {
+        return (classInt(classIdx, 2) & FLAG_ANNOTATION) != 0;
+    }
+
+    /**
+     * Returns true if the class has the field, declared or inherited.
+     *
+     * @param nameAndType fieldName:type
+     */
+    public boolean hasField(int classIdx, String nameAndType) {
+        int id = findString(utf8(nameAndType));
+        return id >= 0 &&
+            findId(fieldStart(classIdx), classInt(classIdx, 4), id) >= 0;
+    }
+
+    /**
+     * Returns true if the class has the method, declared or inherited.
+     *
+     * @param nameAndDescr methodName:descriptor
+     */
+    public boolean hasMethod(int classIdx, String nameAndDescr) {
+        int id = findString(utf8(nameAndDescr));
+        return id >= 0 &&
+            findId(methodStart(classIdx), classInt(classIdx, 5), id) >= 0;
+    }
+
+    /**
+     * Returns true if the class has a method that matches on everything
+     * but the return type.  See {@link ClassInfo#getMethodIgnoringReturn}.
+     *
+     * @param nameAndDescr methodName:descriptor
+     */
+    public boolean hasMethodIgnoringReturn(int classIdx, String nameAndDescr) {
+        byte[] prefix =
+            utf8(nameAndDescr.substring(0, nameAndDescr.indexOf(')')+1));
+
+        /*
+         * Strings starting with the prefix sort right after it, so only
+         * the first method at or after the prefix can match.
+         */
+        int id = findString(prefix);
+        if (id < 0)
+            id = -(id + 1);
+        int start = methodStart(classIdx);
+        int count = classInt(classIdx, 5);
+        int pos = findId(start, count, id);
+        if (pos < 0)
+            pos = -(pos + 1);
+        return pos < count &&
+            startsWith(mBuf.getInt(start + pos * 4), prefix);
+    }
+
+    private int classInt(int classIdx, int field) {
+        return mBuf.getInt(mClasses + classIdx * CLASS_SIZE + field * 4);
+    }
+
+    private int fieldStart(int classIdx) {
+        return mMembers + classInt(classIdx, 3) * 4;
+    }
+
+    private int methodStart(int classIdx) {
+        return fieldStart(classIdx) + classInt(classIdx, 4) * 4;
+    }
+
+    /**
+     * Binary-searches a sorted array of IDs.
+     *
+     * @return The index of the ID, or (-(insertion point) - 1).
+     */
+    private int findId(int start, int count, int id) {
+        int lo = 0;
+        int hi = count - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int midId = mBuf.getInt(start + mid * 4);
+            if (midId < id)
+                lo = mid + 1;
+            else if (midId > id)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * Binary-searches the string table.
+     *
+     * @return The ID of the string, or (-(insertion point) - 1).
+     */
+    private int findString(byte[] str) {
+        int lo = 0;
+        int hi = mStringCount - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            int cmp = compareString(mid, str);
+            if (cmp < 0)
+                lo = mid + 1;
+            else if (cmp > 0)
+                hi = mid - 1;
+            else
+                return mid;
+        }
+        return -(lo + 1);
+    }
+
+    /**
+     * Compares string "id" in the table to "str", byte by byte.
+     */
+    private int compareString(int id, byte[] str) {
+        int start = mStringData + mBuf.getInt(mStringOffsets + id * 4);
+        int length = mStringData + mBuf.getInt(mStringOffsets + id * 4 + 4)
+            - start;
+        int common = Math.min(length, str.length);
+        for (int i = 0; i < common; i++) {
+            int cmp = Integer.compare(mBuf.get(start + i) & 0xff,
+                str[i] & 0xff);
+            if (cmp != 0)
+                return cmp;
+        }
+        return Integer.compare(length, str.length);
+    }
+
+    /**
+     * Returns true if string "id" in the table starts with "prefix".
+     */
+    private boolean startsWith(int id, byte[] prefix) {
+        int start = mStringData + mBuf.getInt(mStringOffsets + id * 4);
+        int length = mStringData + mBuf.getInt(mStringOffsets + id * 4 + 4)
+            - start;
+        if (length < prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (mBuf.get(start + i) != prefix[i])
+                return false;
+        }
+        return true;
+    }
+
+    private static byte[] utf8(String str) {
+        return str.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -25,7 +25,6 @@ import java.util.Iterator;
 public class ApiList {
     private HashMap<String,PackageInfo> mPackageList;
     private String mDebugString;
-    private int mWarnings, mErrors;
 
     /**
      * Constructs an ApiList.
@@ -44,34 +43,6 @@ public class ApiList {
         return mDebugString;
     }
 
-    /**
-     * Increment the number of warnings associated with this API list.
-     */
-    public void incrWarnings() {
-        mWarnings++;
-    }
-
-    /**
-     * Increment the errors of warnings associated with this API list.
-     */
-    public void incrErrors() {
-        mErrors++;
-    }
-
-    /**
-     * Returns the number of warnings associated with this API list.
-     */
-    public int getWarningCount() {
-        return mWarnings;
-    }
-
-    /**
-     * Returns the number of errors associated with this API list.
-     */
-    public int getErrorCount() {
-        return mErrors;
-    }
-
     /**
      * Retrieves the named package.
      *
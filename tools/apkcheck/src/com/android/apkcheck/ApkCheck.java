@@ -20,10 +20,16 @@ import org.xml.sax.*;
 import org.xml.sax.helpers.*;
 import java.io.FileReader;
 import java.io.IOException;
+import java.io.PrintStream;
 import java.io.Reader;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 
 /**
@@ -37,26 +43,31 @@ import java.util.Iterator;
  * libraries that would be included with a "uses-library" directive.
  *
  * For performance we want to allow processing of multiple APKs so
- * we don't have to re-parse the spec file each time.
+ * we don't have to re-parse the spec file each time.  The spec can also
+ * be flattened once and saved as an ApiDatabase, which later runs load
+ * without parsing any XML.
+ *
+ * The flattened API doesn't change once built, so the APKs are checked
+ * on a pool of threads.  Each one reports through its own CheckContext,
+ * and the reports are printed in the order the APKs were given.
  */
 public class ApkCheck {
-    /* keep track of current APK file name, for error messages */
-    private static ApiList sCurrentApk;
-
-    /* show warnings? */
-    private static boolean sShowWarnings = false;
-    /* show errors? */
-    private static boolean sShowErrors = true;
-
-    /* names of packages we're allowed to ignore */
-    private static HashSet<String> sIgnorablePackages = new HashSet<String>();
-
 
     /**
      * Program entry point.
      */
     public static void main(String[] args) {
         ApiList apiDescr = new ApiList("public-api");
+        String compileFile = null;
+
+        /* show warnings? */
+        boolean showWarnings = false;
+        /* show errors? */
+        boolean showErrors = true;
+        /* names of packages we're allowed to ignore */
+        HashSet<String> ignorablePackages = new HashSet<String>();
+        /* number of APKs to check at once */
+        int jobs = Runtime.getRuntime().availableProcessors();
 
         if (args.length < 2) {
             usage();
@@ -73,23 +84,36 @@ public class ApkCheck {
                 String libName = args[idx].substring(args[idx].indexOf('=')+1);
                 if ("BUILTIN".equals(libName)) {
                     Reader reader = Builtin.getReader();
-                    if (!parseXml(apiDescr, reader, "BUILTIN"))
+                    if (!parseXml(apiDescr, reader, "BUILTIN", System.err))
                         return;
                 } else {
-                    if (!parseApiDescr(apiDescr, libName))
+                    if (!parseApiDescr(apiDescr, libName, System.err))
                         return;
                 }
+            } else if (args[idx].startsWith("--compile-api=")) {
+                compileFile = args[idx].substring(args[idx].indexOf('=')+1);
             } else if (args[idx].startsWith("--ignore-package=")) {
                 String pkgName = args[idx].substring(args[idx].indexOf('=')+1);
-                sIgnorablePackages.add(pkgName);
+                ignorablePackages.add(pkgName);
+            } else if (args[idx].startsWith("--jobs=")) {
+                try {
+                    jobs = Integer.parseInt(
+                        args[idx].substring(args[idx].indexOf('=')+1));
+                } catch (NumberFormatException nfe) {
+                    jobs = 0;
+                }
+                if (jobs < 1) {
+                    System.err.println("ERROR: bad value for " + args[idx]);
+                    return;
+                }
             } else if (args[idx].equals("--warn")) {
-                sShowWarnings = true;
+                showWarnings = true;
             } else if (args[idx].equals("--no-warn")) {
-                sShowWarnings = false;
+                showWarnings = false;
             } else if (args[idx].equals("--error")) {
-                sShowErrors = true;
+                showErrors = true;
             } else if (args[idx].equals("--no-error")) {
-                sShowErrors = false;
+                showErrors = false;
 
             } else if (args[idx].startsWith("--")) {
                 if (args[idx].equals("--")) {
@@ -106,35 +130,126 @@ public class ApkCheck {
                 break;
             }
         }
-        if (idx > args.length - 2) {
+        if (compileFile != null ? idx != args.length - 1
+                                : idx > args.length - 2) {
             usage();
             return;
         }
 
-        /* parse base API description */
-        if (!parseApiDescr(apiDescr, args[idx++]))
-            return;
+        /* load base API description */
+        ApiDatabase pubApi;
+        String apiFileName = args[idx++];
+        if (ApiDatabase.isDatabase(apiFileName)) {
+            if (compileFile != null ||
+                apiDescr.getPackageIterator().hasNext())
+            {
+                System.err.println("ERROR: " + apiFileName +
+                    " is already compiled; use --uses-library and" +
+                    " --compile-api with the XML files");
+                return;
+            }
+            try {
+                pubApi = ApiDatabase.load(apiFileName);
+            } catch (IOException ioe) {
+                System.err.println("Error loading " + apiFileName + ": " +
+                    ioe.getMessage());
+                return;
+            }
+        } else {
+            if (!parseApiDescr(apiDescr, apiFileName, System.err))
+                return;
+
+            /* "flatten" superclasses and interfaces */
+            CheckContext context = new CheckContext(apiDescr.getDebugString(),
+                showWarnings, showErrors, ignorablePackages);
+            flattenInherited(apiDescr, context);
+            context.flush();
+            pubApi = ApiDatabase.build(apiDescr);
+        }
 
-        /* "flatten" superclasses and interfaces */
-        sCurrentApk = apiDescr;
-        flattenInherited(apiDescr);
+        if (compileFile != null) {
+            try {
+                pubApi.write(compileFile);
+            } catch (IOException ioe) {
+                System.err.println("Error writing " + compileFile + ": " +
+                    ioe.getMessage());
+                return;
+            }
+            System.out.println(compileFile + ": " + pubApi.getClassCount() +
+                " classes, " + pubApi.getSize() + " bytes");
+            return;
+        }
 
-        /* walk through list of libs we want to scan */
+        /* check the APKs we want to scan, several at a time */
+        long startTime = System.nanoTime();
+        int apkCount = args.length - idx;
+        jobs = Math.min(jobs, apkCount);
+        ExecutorService executor = Executors.newFixedThreadPool(jobs);
+        ArrayList<CheckContext> contexts = new ArrayList<CheckContext>();
+        ArrayList<Future<Boolean>> results = new ArrayList<Future<Boolean>>();
         for ( ; idx < args.length; idx++) {
-            ApiList apkDescr = new ApiList(args[idx]);
-            sCurrentApk = apkDescr;
-            boolean success = parseApiDescr(apkDescr, args[idx]);
+            final ApiDatabase api = pubApi;
+            final CheckContext context = new CheckContext(args[idx],
+                showWarnings, showErrors, ignorablePackages);
+            contexts.add(context);
+            results.add(executor.submit(new Callable<Boolean>() {
+                public Boolean call() {
+                    return checkApk(api, context);
+                }
+            }));
+        }
+        executor.shutdown();
+
+        /* report in order, as the results come in */
+        int failures = 0, errors = 0, warnings = 0;
+        for (int i = 0; i < apkCount; i++) {
+            CheckContext context = contexts.get(i);
+            boolean success;
+            try {
+                success = results.get(i).get();
+            } catch (ExecutionException ee) {
+                ee.getCause().printStackTrace(context.getErr());
+                success = false;
+            } catch (InterruptedException ie) {
+                executor.shutdownNow();
+                return;
+            }
+
+            context.flush();
             if (!success) {
-                if (idx < args.length-1)
+                failures++;
+                if (i < apkCount-1)
                     System.err.println("Skipping...");
                 continue;
             }
-
-            check(apiDescr, apkDescr);
-            System.out.println(args[idx] + ": summary: " +
-                apkDescr.getErrorCount() + " errors, " +
-                apkDescr.getWarningCount() + " warnings\n");
+            System.out.println(context.getName() + ": summary: " +
+                context.getErrorCount() + " errors, " +
+                context.getWarningCount() + " warnings\n");
+            errors += context.getErrorCount();
+            warnings += context.getWarningCount();
         }
+
+        double seconds = (System.nanoTime() - startTime) / 1e9;
+        System.out.println(String.format(
+            "Checked %d APKs in %.2fs (%.1f APKs/s, %d threads): " +
+            "%d errors, %d warnings, %d failed",
+            apkCount, seconds, apkCount / seconds, jobs,
+            errors, warnings, failures));
+    }
+
+    /**
+     * Parses one APK's dependency list and checks it against the public
+     * API.  Runs on a worker thread.
+     *
+     * @return false if the APK's file couldn't be parsed
+     */
+    static boolean checkApk(ApiDatabase pubApi, CheckContext context) {
+        ApiList apkDescr = new ApiList(context.getName());
+        if (!parseApiDescr(apkDescr, context.getName(), context.getErr()))
+            return false;
+
+        check(pubApi, apkDescr, context);
+        return true;
     }
 
     /**
@@ -143,11 +258,18 @@ public class ApkCheck {
     static void usage() {
         System.err.println("Android APK checker v1.0");
         System.err.println("Copyright (C) 2010 The Android Open Source Project\n");
-        System.err.println("Usage: apkcheck [options] public-api.xml apk1.xml ...\n");
+        System.err.println("Usage: apkcheck [options] public-api.xml apk1.xml ...");
+        System.err.println("       apkcheck [options] public-api.db apk1.xml ...");
+        System.err.println("       apkcheck --compile-api=public-api.db [options] " +
+            "public-api.xml\n");
         System.err.println("Options:");
         System.err.println("  --help                  show this message");
         System.err.println("  --uses-library=lib.xml  load additional public API list");
-        System.err.println("  --ignore-package=pkg    don't show errors for references to this package");
+        System.err.println("  --compile-api=api.db    save the flattened public API " +
+            "for later runs");
+        System.err.println("  --ignore-package=pkg    don't show errors for references " +
+            "to this package");
+        System.err.println("  --jobs=N                check N APKs at once (default: one per CPU)");
         System.err.println("  --[no-]warn             enable or disable display of warnings");
         System.err.println("  --[no-]error            enable or disable display of errors");
     }
@@ -157,15 +279,16 @@ public class ApkCheck {
      *
      * TODO: allow '-' as an alias for stdin?
      */
-    static boolean parseApiDescr(ApiList apiList, String fileName) {
+    static boolean parseApiDescr(ApiList apiList, String fileName,
+            PrintStream err) {
         boolean result = false;
 
         try {
             FileReader fileReader = new FileReader(fileName);
-            result = parseXml(apiList, fileReader, fileName);
+            result = parseXml(apiList, fileReader, fileName, err);
             fileReader.close();
         } catch (IOException ioe) {
-            System.err.println("Error opening " + fileName);
+            err.println("Error opening " + fileName);
         }
         return result;
     }
@@ -176,9 +299,10 @@ public class ApkCheck {
      * @param fileReader Data source.
      * @param apiList Container to add stuff to.
      * @param fileName Input file name, only used for debug messages.
+     * @param err Where to report problems with the file.
      */
     static boolean parseXml(ApiList apiList, Reader reader,
-            String fileName) {
+            String fileName, PrintStream err) {
         //System.out.println("--- parsing " + fileName);
         try {
             XMLReader xmlReader = XMLReaderFactory.createXMLReader();
@@ -191,12 +315,12 @@ public class ApkCheck {
             //dumpApi(apiList);
             return true;
         } catch (SAXParseException ex) {
-            System.err.println("Error parsing " + fileName + " line " +
+            err.println("Error parsing " + fileName + " line " +
                 ex.getLineNumber() + ": " + ex.getMessage());
         } catch (Exception ex) {
-            System.err.println("Error while reading " + fileName + ": " +
+            err.println("Error while reading " + fileName + ": " +
                 ex.getMessage());
-            ex.printStackTrace();
+            ex.printStackTrace(err);
         }
 
         // failed
@@ -226,7 +350,7 @@ public class ApkCheck {
      * We only need to do this for the public API list.  The dexdeps output
      * doesn't have this sort of information anyway.
      */
-    static void flattenInherited(ApiList pubList) {
+    static void flattenInherited(ApiList pubList, CheckContext context) {
         Iterator<PackageInfo> pkgIter = pubList.getPackageIterator();
         while (pkgIter.hasNext()) {
             PackageInfo pubPkgInfo = pkgIter.next();
@@ -235,7 +359,7 @@ public class ApkCheck {
             while (classIter.hasNext()) {
                 ClassInfo pubClassInfo = classIter.next();
 
-                pubClassInfo.flattenClass(pubList);
+                pubClassInfo.flattenClass(pubList, context);
             }
         }
     }
@@ -247,17 +371,18 @@ public class ApkCheck {
      *
      * @return true if all is well
      */
-    static boolean check(ApiList pubList, ApiList apkDescr) {
+    static boolean check(ApiDatabase pubApi, ApiList apkDescr,
+            CheckContext context) {
 
         Iterator<PackageInfo> pkgIter = apkDescr.getPackageIterator();
         while (pkgIter.hasNext()) {
             PackageInfo apkPkgInfo = pkgIter.next();
-            PackageInfo pubPkgInfo = pubList.getPackage(apkPkgInfo.getName());
+            String pkgName = apkPkgInfo.getName();
             boolean badPackage = false;
 
-            if (pubPkgInfo == null) {
+            if (!pubApi.hasPackage(pkgName)) {
                 // "illegal package" not a tremendously useful message
-                //apkError("Illegal package ref: " + apkPkgInfo.getName());
+                //context.error("Illegal package ref: " + pkgName);
                 badPackage = true;
             }
 
@@ -271,15 +396,15 @@ public class ApkCheck {
                      * but simply saying "bad package" isn't all that
                      * useful, so we emit the names of each of the classes.
                      */
-                    if (isIgnorable(apkPkgInfo)) {
-                        apkWarning("Ignoring class ref: " +
-                            apkPkgInfo.getName() + "." + apkClassInfo.getName());
+                    if (context.isIgnorable(pkgName)) {
+                        context.warning("Ignoring class ref: " +
+                            pkgName + "." + apkClassInfo.getName());
                     } else {
-                        apkError("Illegal class ref: " +
-                            apkPkgInfo.getName() + "." + apkClassInfo.getName());
+                        context.error("Illegal class ref: " +
+                            pkgName + "." + apkClassInfo.getName());
                     }
                 } else {
-                    checkClass(pubPkgInfo, apkClassInfo);
+                    checkClass(pubApi, pkgName, apkClassInfo, context);
                 }
             }
         }
@@ -291,39 +416,39 @@ public class ApkCheck {
      * Checks the class against the public API.  We check the class
      * itself and then any fields and methods.
      */
-    static boolean checkClass(PackageInfo pubPkgInfo, ClassInfo classInfo) {
+    static boolean checkClass(ApiDatabase pubApi, String pkgName,
+            ClassInfo classInfo, CheckContext context) {
 
-        ClassInfo pubClassInfo = pubPkgInfo.getClass(classInfo.getName());
+        int pubClass = pubApi.getClass(pkgName, classInfo.getName());
 
-        if (pubClassInfo == null) {
-            if (isIgnorable(pubPkgInfo)) {
-                apkWarning("Ignoring class ref: " +
-                    pubPkgInfo.getName() + "." + classInfo.getName());
+        if (pubClass < 0) {
+            if (context.isIgnorable(pkgName)) {
+                context.warning("Ignoring class ref: " +
+                    pkgName + "." + classInfo.getName());
             } else if (classInfo.hasNoFieldMethod()) {
-                apkWarning("Hidden class referenced: " +
-                    pubPkgInfo.getName() + "." + classInfo.getName());
+                context.warning("Hidden class referenced: " +
+                    pkgName + "." + classInfo.getName());
             } else {
-                apkError("Illegal class ref: " +
-                    pubPkgInfo.getName() + "." + classInfo.getName());
+                context.error("Illegal class ref: " +
+                    pkgName + "." + classInfo.getName());
                 // could list specific fields/methods used
             }
             return false;
         }
 
         /*
-         * Check the contents of classInfo against pubClassInfo.
+         * Check the contents of classInfo against pubClass.
          */
         Iterator<FieldInfo> fieldIter = classInfo.getFieldIterator();
         while (fieldIter.hasNext()) {
             FieldInfo apkFieldInfo = fieldIter.next();
             String nameAndType = apkFieldInfo.getNameAndType();
-            FieldInfo pubFieldInfo = pubClassInfo.getField(nameAndType);
-            if (pubFieldInfo == null) {
-                if (pubClassInfo.isEnum()) {
-                    apkWarning("Enum field ref: " + pubPkgInfo.getName() +
+            if (!pubApi.hasField(pubClass, nameAndType)) {
+                if (pubApi.isEnum(pubClass)) {
+                    context.warning("Enum field ref: " + pkgName +
                         "." + classInfo.getName() + "." + nameAndType);
                 } else {
-                    apkError("Illegal field ref: " + pubPkgInfo.getName() +
+                    context.error("Illegal field ref: " + pkgName +
                         "." + classInfo.getName() + "." + nameAndType);
                 }
             }
@@ -333,21 +458,19 @@ public class ApkCheck {
         while (methodIter.hasNext()) {
             MethodInfo apkMethodInfo = methodIter.next();
             String nameAndDescr = apkMethodInfo.getNameAndDescriptor();
-            MethodInfo pubMethodInfo = pubClassInfo.getMethod(nameAndDescr);
-            if (pubMethodInfo == null) {
-                pubMethodInfo = pubClassInfo.getMethodIgnoringReturn(nameAndDescr);
-                if (pubMethodInfo == null) {
-                    if (pubClassInfo.isAnnotation()) {
-                        apkWarning("Annotation method ref: " +
-                            pubPkgInfo.getName() + "." + classInfo.getName() +
+            if (!pubApi.hasMethod(pubClass, nameAndDescr)) {
+                if (!pubApi.hasMethodIgnoringReturn(pubClass, nameAndDescr)) {
+                    if (pubApi.isAnnotation(pubClass)) {
+                        context.warning("Annotation method ref: " +
+                            pkgName + "." + classInfo.getName() +
                             "." + nameAndDescr);
                     } else {
-                        apkError("Illegal method ref: " + pubPkgInfo.getName() +
+                        context.error("Illegal method ref: " + pkgName +
                             "." + classInfo.getName() + "." + nameAndDescr);
                     }
                 } else {
-                    apkWarning("Possibly covariant method ref: " +
-                        pubPkgInfo.getName() + "." + classInfo.getName() +
+                    context.warning("Possibly covariant method ref: " +
+                        pkgName + "." + classInfo.getName() +
                         "." + nameAndDescr);
                 }
             }
@@ -357,34 +480,6 @@ public class ApkCheck {
         return true;
     }
 
-    /**
-     * Returns true if the package is in the "ignored" list.
-     */
-    static boolean isIgnorable(PackageInfo pkgInfo) {
-        return sIgnorablePackages.contains(pkgInfo.getName());
-    }
-
-    /**
-     * Prints a warning message about an APK problem.
-     */
-    public static void apkWarning(String msg) {
-        if (sShowWarnings) {
-            System.out.println("(warn) " + sCurrentApk.getDebugString() +
-                ": " + msg);
-        }
-        sCurrentApk.incrWarnings();
-    }
-
-    /**
-     * Prints an error message about an APK problem.
-     */
-    public static void apkError(String msg) {
-        if (sShowErrors) {
-            System.out.println(sCurrentApk.getDebugString() + ": " + msg);
-        }
-        sCurrentApk.incrErrors();
-    }
-
     /**
      * Recursively dumps the contents of the API.  Sort order is not
      * specified.
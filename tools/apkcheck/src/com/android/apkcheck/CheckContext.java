@@ -0,0 +1,171 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.apkcheck;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Set;
+
+/**
+ * Collects the warnings and errors found while processing one file.
+ *
+ * Messages are held until the caller prints them, rather than printed as
+ * they are found.  That lets several APKs be checked at once while their
+ * output still comes out in the order they were given.  Within one file,
+ * stdout and stderr messages are kept in the order they were made.
+ */
+public class CheckContext {
+    private final String mName;
+    private final boolean mShowWarnings;
+    private final boolean mShowErrors;
+    private final Set<String> mIgnorablePackages;
+
+    /*
+     * Finished runs of output, each one for stdout or stderr, and the run
+     * that is still being added to.
+     */
+    private final ArrayList<String> mRuns = new ArrayList<String>();
+    private final ArrayList<Boolean> mRunIsErr = new ArrayList<Boolean>();
+    private final StringBuilder mOutput = new StringBuilder();
+    private final ByteArrayOutputStream mErrBytes = new ByteArrayOutputStream();
+
+    private final PrintStream mErr = new PrintStream(new OutputStream() {
+        @Override
+        public void write(int b) {
+            switchTo(true);
+            mErrBytes.write(b);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) {
+            switchTo(true);
+            mErrBytes.write(b, off, len);
+        }
+    }, true);
+
+    private int mWarnings, mErrors;
+
+    /**
+     * Constructs a CheckContext.
+     *
+     * @param name File name, shown with each message.
+     * @param showWarnings Include warnings in the output?
+     * @param showErrors Include errors in the output?
+     * @param ignorablePackages Names of packages whose missing classes are
+     *      only warned about.  Not modified.
+     */
+    public CheckContext(String name, boolean showWarnings, boolean showErrors,
+            Set<String> ignorablePackages) {
+        mName = name;
+        mShowWarnings = showWarnings;
+        mShowErrors = showErrors;
+        mIgnorablePackages = ignorablePackages;
+    }
+
+    /**
+     * Returns the file name.
+     */
+    public String getName() {
+        return mName;
+    }
+
+    /**
+     * Returns true if the package is in the "ignored" list.
+     */
+    public boolean isIgnorable(String pkgName) {
+        return mIgnorablePackages.contains(pkgName);
+    }
+
+    /**
+     * Records a warning message about an APK problem.
+     */
+    public void warning(String msg) {
+        if (mShowWarnings) {
+            switchTo(false);
+            mOutput.append("(warn) ").append(mName).append(": ").append(msg)
+                .append('\n');
+        }
+        mWarnings++;
+    }
+
+    /**
+     * Records an error message about an APK problem.
+     */
+    public void error(String msg) {
+        if (mShowErrors) {
+            switchTo(false);
+            mOutput.append(mName).append(": ").append(msg).append('\n');
+        }
+        mErrors++;
+    }
+
+    /**
+     * Returns the number of warnings recorded.
+     */
+    public int getWarningCount() {
+        return mWarnings;
+    }
+
+    /**
+     * Returns the number of errors recorded.
+     */
+    public int getErrorCount() {
+        return mErrors;
+    }
+
+    /**
+     * Returns a stream for diagnostics that aren't about the APK itself,
+     * e.g. failure to parse it.
+     */
+    public PrintStream getErr() {
+        return mErr;
+    }
+
+    /**
+     * Prints and clears the messages recorded so far, in order: warnings
+     * and errors to stdout, diagnostics to stderr.
+     */
+    public void flush() {
+        // End whichever run is pending.
+        switchTo(true);
+        switchTo(false);
+        for (int i = 0; i < mRuns.size(); i++) {
+            PrintStream stream = mRunIsErr.get(i) ? System.err : System.out;
+            stream.print(mRuns.get(i));
+            stream.flush();
+        }
+        mRuns.clear();
+        mRunIsErr.clear();
+    }
+
+    /**
+     * Ends the pending run of output for the other stream, if there is one.
+     */
+    private void switchTo(boolean err) {
+        if (err && mOutput.length() > 0) {
+            mRuns.add(mOutput.toString());
+            mRunIsErr.add(false);
+            mOutput.setLength(0);
+        } else if (!err && mErrBytes.size() > 0) {
+            mRuns.add(mErrBytes.toString());
+            mRunIsErr.add(true);
+            mErrBytes.reset();
+        }
+    }
+}
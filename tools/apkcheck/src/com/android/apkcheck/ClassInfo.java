@@ -217,8 +217,11 @@ public class ClassInfo {
      * The public API file must be fully parsed before calling here.
      *
      * This also detects if we're an Enum or Annotation.
+     *
+     * @param context Where to report superclasses and interfaces that
+     *      aren't in the API.
      */
-    public void flattenClass(ApiList apiList) {
+    public void flattenClass(ApiList apiList, CheckContext context) {
         if (mFlattened)
             return;
 
@@ -270,13 +273,13 @@ public class ClassInfo {
                     apiList);
             ClassInfo classInfo = lookupClass(interfaceName, apiList);
             if (classInfo == null) {
-                ApkCheck.apkWarning("Class " + interfaceName +
+                context.warning("Class " + interfaceName +
                     " not found (super of " + mName + ")");
                 continue;
             }
 
             /* flatten it */
-            classInfo.flattenClass(apiList);
+            classInfo.flattenClass(apiList, context);
 
             /* copy everything from it in here */
             mergeFrom(classInfo);
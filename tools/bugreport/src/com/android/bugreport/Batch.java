@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport;
+
+import com.android.bugreport.anr.AnrIndex;
+import com.android.bugreport.bugreport.Bugreport;
+import com.android.bugreport.bugreport.BugreportCache;
+import com.android.bugreport.bugreport.BugreportParser;
+import com.android.bugreport.html.Renderer;
+import com.android.bugreport.inspector.Inspector;
+import com.android.bugreport.util.Lines;
+
+import com.google.clearsilver.jsilver.JSilver;
+import com.google.clearsilver.jsilver.data.Data;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Processes a whole directory (or a list) of bugreports in one run.
+ *
+ * The bugreports are done on a fixed size pool of worker threads.  Each worker
+ * thread has its own parser, so the precompiled Matchers are reused from one
+ * bugreport to the next, and all of the workers share one template engine, so
+ * the template is only loaded and compiled once.  An html file is written for
+ * each bugreport that has an anr, and an index.html is written that links to
+ * all of them.
+ */
+public class Batch {
+    private static final int STATUS_RENDERED = 0;
+    private static final int STATUS_NO_ANR = 1;
+    private static final int STATUS_FAILED = 2;
+
+    private static final String INDEX_NAME = "index";
+
+    /**
+     * One bugreport, and what happened to it.
+     */
+    private static class Job {
+        public File bugreport;
+        public File html;
+        public int status;
+        public String processName;
+        public int pid;
+        public String reason;
+        public int previousCount;
+        public String error;
+    }
+
+    /**
+     * The things that each worker thread keeps for itself.
+     */
+    private class Worker {
+        public final BugreportParser parser = new BugreportParser();
+        public final Renderer renderer = new Renderer(mJsilver);
+
+        public Worker() {
+            renderer.setStreaming(mOptions.stream);
+        }
+    }
+
+    private final Options mOptions;
+    private final JSilver mJsilver;
+    private AnrIndex mAnrIndex;
+    private final BugreportCache mCache;
+    private final ThreadLocal<Worker> mWorkers = new ThreadLocal<Worker>() {
+        @Override
+        protected Worker initialValue() {
+            return new Worker();
+        }
+    };
+
+    // Totals across all of the workers.
+    private final AtomicLong mBytes = new AtomicLong();
+    private final AtomicLong mParseNanos = new AtomicLong();
+    private final AtomicLong mInspectNanos = new AtomicLong();
+    private final AtomicLong mRenderNanos = new AtomicLong();
+
+    /**
+     * Construct a Batch for the --batch, --out and --jobs options.
+     */
+    public Batch(Options options) {
+        mOptions = options;
+        mJsilver = Renderer.createJSilver();
+        mCache = options.cache ? new BugreportCache() : null;
+    }
+
+    /**
+     * Process all of the bugreports, write the index and print the totals.
+     *
+     * @return the process exit code.  It is 1 if any of the bugreports failed.
+     */
+    public int run() {
+        final long startTime = System.nanoTime();
+
+        // Find the bugreports
+        final ArrayList<File> inputs;
+        try {
+            inputs = getInputs(mOptions.batch);
+        } catch (IOException ex) {
+            System.err.println("Error reading batch list: " + mOptions.batch);
+            System.err.println("Error: " + ex.getMessage());
+            return 1;
+        }
+        if (mOptions.signatures != null) {
+            try {
+                mAnrIndex = AnrIndex.open(mOptions.signatures);
+            } catch (IOException ex) {
+                System.err.println("Error reading signatures file: " + mOptions.signatures);
+                System.err.println("Error: " + ex.getMessage());
+                return 1;
+            }
+        }
+        if (!mOptions.out.isDirectory() && !mOptions.out.mkdirs()) {
+            System.err.println("Error making output directory: " + mOptions.out);
+            return 1;
+        }
+
+        // Pick the output files up front, so the names don't depend on the order
+        // that the workers finish in.
+        final ArrayList<Job> jobs = new ArrayList<Job>();
+        final HashSet<String> names = new HashSet<String>();
+        names.add(INDEX_NAME);
+        for (File input: inputs) {
+            final Job job = new Job();
+            job.bugreport = input;
+            job.html = new File(mOptions.out, makeUniqueName(names, input.getName()) + ".html");
+            jobs.add(job);
+        }
+
+        // Run them
+        final ExecutorService pool = Executors.newFixedThreadPool(mOptions.jobs);
+        try {
+            final ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+            for (final Job job: jobs) {
+                futures.add(pool.submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        process(mWorkers.get(), job);
+                        return null;
+                    }
+                }));
+            }
+            final int N = futures.size();
+            for (int i=0; i<N; i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException ex) {
+                    final Job job = jobs.get(i);
+                    job.status = STATUS_FAILED;
+                    job.error = String.valueOf(ex.getCause());
+                } catch (InterruptedException ex) {
+                    System.err.println("Interrupted");
+                    return 1;
+                }
+            }
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // Write the index
+        final File indexFile = new File(mOptions.out, INDEX_NAME + ".html");
+        try {
+            writeIndex(indexFile, jobs);
+        } catch (IOException ex) {
+            System.err.println("Error writing index file: " + indexFile);
+            System.err.println("Error: " + ex.getMessage());
+            return 1;
+        }
+
+        return printTotals(jobs, System.nanoTime() - startTime);
+    }
+
+    /**
+     * Parse, inspect and render one bugreport.  Never throws for a bad bugreport;
+     * the problem is recorded in the Job instead.
+     */
+    private void process(Worker worker, Job job) {
+        try {
+            final long start = System.nanoTime();
+            final Bugreport bugreport = mCache != null
+                    ? mCache.parse(worker.parser, job.bugreport)
+                    : worker.parser.parse(Lines.mapLines(job.bugreport));
+            final long parsed = System.nanoTime();
+            mBytes.addAndGet(job.bugreport.length());
+            mParseNanos.addAndGet(parsed - start);
+
+            Inspector.inspect(bugreport);
+            final long inspected = System.nanoTime();
+            mInspectNanos.addAndGet(inspected - parsed);
+
+            if (bugreport.anr == null) {
+                job.status = STATUS_NO_ANR;
+                return;
+            }
+            job.processName = bugreport.anr.processName;
+            job.pid = bugreport.anr.pid;
+            job.reason = bugreport.anr.reason;
+
+            if (mAnrIndex != null) {
+                mAnrIndex.record(bugreport, job.bugreport, job.html);
+                job.previousCount = bugreport.anr.previousOccurrences.size();
+            }
+
+            worker.renderer.render(job.html, bugreport);
+            mRenderNanos.addAndGet(System.nanoTime() - inspected);
+            job.status = STATUS_RENDERED;
+        } catch (IOException ex) {
+            job.status = STATUS_FAILED;
+            job.error = ex.getMessage();
+        } catch (RuntimeException ex) {
+            // One broken bugreport shouldn't stop the rest of them.
+            job.status = STATUS_FAILED;
+            job.error = ex.toString();
+        }
+    }
+
+    /**
+     * Write the index.html that links to all of the html files.
+     */
+    private void writeIndex(File file, ArrayList<Job> jobs) throws IOException {
+        final Renderer renderer = new Renderer(mJsilver);
+        final Data hdf = renderer.createData();
+        final int N = jobs.size();
+        for (int i=0; i<N; i++) {
+            final Job job = jobs.get(i);
+            final Data jobHdf = hdf.createChild("reports." + i);
+            jobHdf.setValue("bugreport", job.bugreport.getPath());
+            if (job.status == STATUS_RENDERED) {
+                jobHdf.setValue("html", job.html.getName());
+                jobHdf.setValue("processName", job.processName);
+                jobHdf.setValue("pid", Integer.toString(job.pid));
+                jobHdf.setValue("reason", job.reason);
+                jobHdf.setValue("previousCount", Integer.toString(job.previousCount));
+            } else if (job.status == STATUS_NO_ANR) {
+                jobHdf.setValue("noAnr", "1");
+            } else {
+                jobHdf.setValue("error", job.error);
+            }
+        }
+        renderer.render(file, "index-template.html", hdf);
+    }
+
+    /**
+     * Print the counts and the timing to stdout.
+     *
+     * @return the process exit code.
+     */
+    private int printTotals(ArrayList<Job> jobs, long elapsedNanos) {
+        int rendered = 0;
+        int noAnr = 0;
+        int failed = 0;
+        for (Job job: jobs) {
+            if (job.status == STATUS_RENDERED) {
+                rendered++;
+            } else if (job.status == STATUS_NO_ANR) {
+                noAnr++;
+            } else {
+                failed++;
+                System.err.println("Error processing bugreport: " + job.bugreport);
+                System.err.println("Error: " + job.error);
+            }
+        }
+
+        final double seconds = Math.max(elapsedNanos, 1) / 1000000000.0;
+        System.out.println(String.format("Processed %d bugreports in %.2fs:"
+                    + " %.2f reports/sec, %.2f MB/sec",
+                jobs.size(), seconds, jobs.size() / seconds,
+                mBytes.get() / (1024.0 * 1024.0) / seconds));
+        System.out.println(String.format("  %d rendered, %d with no anr, %d failed",
+                rendered, noAnr, failed));
+        System.out.println(String.format("  parse %.2fs, inspect %.2fs, render %.2fs"
+                    + " (summed over %d workers)",
+                mParseNanos.get() / 1000000000.0, mInspectNanos.get() / 1000000000.0,
+                mRenderNanos.get() / 1000000000.0, mOptions.jobs));
+        if (mCache != null) {
+            final int hits = mCache.getHitCount();
+            final int lookups = hits + mCache.getMissCount();
+            System.out.println(String.format("  cache: %d of %d hit (%.0f%%),"
+                        + " %.2fs loading",
+                    hits, lookups, lookups > 0 ? (100.0 * hits / lookups) : 0.0,
+                    mCache.getLoadNanos() / 1000000000.0));
+        }
+
+        return failed == 0 ? 0 : 1;
+    }
+
+    /**
+     * Get the list of bugreports.  If file is a directory, it's all the files in it
+     * except for cache files, in name order.  Otherwise it's a file with one bugreport
+     * per line.  Blank lines and lines that start with '#' are skipped, and relative
+     * paths are relative to the list file.
+     */
+    private static ArrayList<File> getInputs(File file) throws IOException {
+        final ArrayList<File> result = new ArrayList<File>();
+        if (file.isDirectory()) {
+            final File[] files = file.listFiles();
+            if (files == null) {
+                throw new IOException("Can't list directory: " + file);
+            }
+            Arrays.sort(files);
+            for (File f: files) {
+                final String name = f.getName();
+                if (f.isFile() && !name.startsWith(".")
+                        && !BugreportCache.isCacheFileName(name)) {
+                    result.add(f);
+                }
+            }
+        } else {
+            final File dir = file.getAbsoluteFile().getParentFile();
+            final BufferedReader reader = new BufferedReader(new FileReader(file));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    line = line.trim();
+                    if (line.length() == 0 || line.startsWith("#")) {
+                        continue;
+                    }
+                    final File f = new File(line);
+                    result.add(f.isAbsolute() ? f : new File(dir, line));
+                }
+            } finally {
+                reader.close();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Make a name for the html file from the bugreport file name, that isn't already
+     * in names, and add it to names.
+     */
+    private static String makeUniqueName(HashSet<String> names, String fileName) {
+        final int dot = fileName.lastIndexOf('.');
+        final String base = dot > 0 ? fileName.substring(0, dot) : fileName;
+        String name = base;
+        int i = 2;
+        while (!names.add(name)) {
+            name = base + "-" + i;
+            i++;
+        }
+        return name;
+    }
+}
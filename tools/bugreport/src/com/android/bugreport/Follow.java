@@ -0,0 +1,471 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport;
+
+import com.android.bugreport.anr.Anr;
+import com.android.bugreport.anr.AnrIndex;
+import com.android.bugreport.anr.AnrParser;
+import com.android.bugreport.anr.AnrSignature;
+import com.android.bugreport.bugreport.Bugreport;
+import com.android.bugreport.inspector.DeadlockDetector;
+import com.android.bugreport.inspector.Inspector;
+import com.android.bugreport.logcat.LogLine;
+import com.android.bugreport.logcat.Logcat;
+import com.android.bugreport.logcat.LogcatParser;
+import com.android.bugreport.stacks.ProcessSnapshot;
+import com.android.bugreport.stacks.ProcessSnapshotParser;
+import com.android.bugreport.stacks.ThreadSnapshot;
+import com.android.bugreport.stacks.VmTraces;
+import com.android.bugreport.stacks.VmTracesParser;
+import com.android.bugreport.util.FileTailer;
+import com.android.bugreport.util.Line;
+import com.android.bugreport.util.Lines;
+import com.android.bugreport.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+
+/**
+ * Follows a logcat file and a directory of traces files while they are being
+ * written, and reports anrs and deadlocks as soon as they show up.
+ *
+ * Each file is only ever read from where the last poll left off.  The new logcat
+ * lines are parsed onto the end of the same Logcat, and the new processes in a
+ * traces file are parsed once their "----- end" line has been written.  Only the
+ * inspection passes that work on the new lines and processes are run again, plus
+ * the deadlock detection on the traces file that changed.
+ *
+ * An anr in the logcat is held back for a little while until a traces file with
+ * its process in it shows up, so that it can be given a proper signature.
+ */
+public class Follow {
+    /**
+     * How long to wait between looking at the files.
+     */
+    private static final long POLL_MILLIS = 500;
+
+    /**
+     * How long an anr waits for its traces.  Traces files that changed this long
+     * before the anr was logged are also considered to be for it.
+     */
+    private static final long ANR_TRACES_WAIT_MILLIS = 10000;
+
+    /**
+     * How long to wait for the rest of an anr's lines when the logcat goes quiet
+     * in the middle of one.
+     */
+    private static final long ANR_LINES_WAIT_MILLIS = 2000;
+
+    /**
+     * How many of the logcat lines to hold on to.  Only the new lines are ever
+     * looked at again, so once there are twice this many the older ones are
+     * dropped.
+     */
+    private static final int MAX_LOGCAT_LINES = 10000;
+
+    /**
+     * How many of the interesting log lines to hold on to.
+     */
+    private static final int MAX_INTERESTING_LOG_LINES = 1000;
+
+    /**
+     * A traces file, and what has been parsed out of it so far.
+     */
+    private static class TracesFile {
+        public FileTailer tailer;
+        public VmTraces vmTraces = new VmTraces();
+
+        /**
+         * The lines of the process that hasn't been finished yet.
+         */
+        public ArrayList<Line> pending = new ArrayList<Line>();
+
+        /**
+         * When processes were last added to vmTraces.
+         */
+        public long changedMillis;
+
+        /**
+         * The deadlocks that have already been reported for this file.
+         */
+        public HashSet<String> reportedDeadlocks = new HashSet<String>();
+
+        /**
+         * Whether the last read failed, so the error is only printed once.
+         */
+        public boolean failed;
+    }
+
+    /**
+     * An anr that was found in the logcat, but hasn't been reported yet.
+     */
+    private static class PendingAnr {
+        public Anr anr;
+        public long foundMillis;
+    }
+
+    private final Options mOptions;
+    private final Bugreport mBugreport = new Bugreport();
+    private final LogcatParser mLogcatParser = new LogcatParser();
+    private final VmTracesParser mVmTracesParser = new VmTracesParser();
+    private final AnrParser mAnrParser = new AnrParser();
+    private final Matcher mEndProcessRe = ProcessSnapshotParser.END_PROCESS_RE.matcher("");
+    private AnrIndex mAnrIndex;
+
+    private FileTailer mLogcatTailer;
+    private boolean mLogcatFailed;
+    private final HashMap<File,TracesFile> mTracesFiles = new HashMap<File,TracesFile>();
+
+    /**
+     * The ActivityManager lines of the anr that is being logged right now.
+     */
+    private final ArrayList<LogLine> mAnrLines = new ArrayList<LogLine>();
+    private long mAnrLinesMillis;
+    private final ArrayList<PendingAnr> mPendingAnrs = new ArrayList<PendingAnr>();
+
+    /**
+     * Construct a Follow for the --follow, --logcat and --traces options.
+     */
+    public Follow(Options options) {
+        mOptions = options;
+        if (options.logcat != null) {
+            mLogcatTailer = new FileTailer(options.logcat);
+            mBugreport.logcat = new Logcat();
+        }
+    }
+
+    /**
+     * Keep reading the files until interrupted.
+     *
+     * @return the process exit code.
+     */
+    public int run() {
+        if (mOptions.signatures != null) {
+            try {
+                mAnrIndex = AnrIndex.open(mOptions.signatures);
+            } catch (IOException ex) {
+                System.err.println("Error reading signatures file: " + mOptions.signatures);
+                System.err.println("Error: " + ex.getMessage());
+                return 1;
+            }
+        }
+
+        while (true) {
+            final long now = System.currentTimeMillis();
+
+            // The traces go first, because they are written before the anr is logged.
+            if (mOptions.traces != null) {
+                try {
+                    pollTraces(now);
+                } catch (IOException ex) {
+                    System.err.println("Error reading traces directory: " + mOptions.traces);
+                    System.err.println("Error: " + ex.getMessage());
+                    return 1;
+                }
+            }
+            if (mLogcatTailer != null) {
+                // The logcat file might not have been created yet, or be in the middle
+                // of being rotated, so keep trying.
+                try {
+                    pollLogcat(now);
+                    mLogcatFailed = false;
+                } catch (IOException ex) {
+                    if (!mLogcatFailed) {
+                        System.err.println("Error reading logcat file: " + mOptions.logcat);
+                        System.err.println("Error: " + ex.getMessage());
+                        mLogcatFailed = true;
+                    }
+                }
+            }
+            try {
+                reportAnrs(now);
+            } catch (IOException ex) {
+                System.err.println("Error writing signatures file: " + mOptions.signatures);
+                System.err.println("Error: " + ex.getMessage());
+                return 1;
+            }
+
+            try {
+                Thread.sleep(POLL_MILLIS);
+            } catch (InterruptedException ex) {
+                return 0;
+            }
+        }
+    }
+
+    /**
+     * Read what has been added to the files in the traces directory.
+     */
+    private void pollTraces(long now) throws IOException {
+        final File[] files = mOptions.traces.listFiles();
+        if (files == null) {
+            throw new IOException("Not a directory");
+        }
+        Arrays.sort(files);
+
+        // Forget the ones that have been deleted.
+        final HashSet<File> present = new HashSet<File>(Arrays.asList(files));
+        final Iterator<File> it = mTracesFiles.keySet().iterator();
+        while (it.hasNext()) {
+            if (!present.contains(it.next())) {
+                it.remove();
+            }
+        }
+
+        for (File file: files) {
+            if (file.getName().startsWith(".") || !file.isFile()) {
+                continue;
+            }
+            TracesFile tf = mTracesFiles.get(file);
+            if (tf == null) {
+                tf = new TracesFile();
+                tf.tailer = new FileTailer(file);
+                mTracesFiles.put(file, tf);
+            }
+            if (file.length() == tf.tailer.getOffset()) {
+                continue;
+            }
+            // The file can be rotated or deleted between listing and reading it.
+            // Skip it for now; the next poll will try again or forget it.
+            try {
+                pollTraces(tf, now);
+                tf.failed = false;
+            } catch (IOException ex) {
+                if (!tf.failed) {
+                    System.err.println("Error reading traces file: " + file);
+                    System.err.println("Error: " + ex.getMessage());
+                    tf.failed = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Parse the processes that have been finished since the last time, inspect
+     * them, and look for new deadlocks.
+     */
+    private void pollTraces(TracesFile tf, long now) throws IOException {
+        final ArrayList<Line> lines = tf.tailer.readLines();
+        if (tf.tailer.wasReset()) {
+            tf.vmTraces = new VmTraces();
+            tf.pending.clear();
+            tf.reportedDeadlocks.clear();
+        }
+
+        final ArrayList<ProcessSnapshot> added = new ArrayList<ProcessSnapshot>();
+        for (Line line: lines) {
+            tf.pending.add(line);
+            if (Utils.matches(mEndProcessRe, line.text)) {
+                added.addAll(mVmTracesParser.parse(new Lines<Line>(tf.pending)).processes);
+                tf.pending.clear();
+            }
+        }
+        if (added.size() == 0) {
+            return;
+        }
+
+        Inspector.inspectProcesses(mBugreport, added);
+        for (ProcessSnapshot process: added) {
+            // A process that was dumped again replaces its older snapshot.
+            final ArrayList<ProcessSnapshot> processes = tf.vmTraces.processes;
+            int i = processes.size() - 1;
+            while (i >= 0 && processes.get(i).pid != process.pid) {
+                i--;
+            }
+            if (i >= 0) {
+                processes.set(i, process);
+            } else {
+                processes.add(process);
+            }
+        }
+        tf.changedMillis = now;
+
+        final ArrayList<Set<ProcessSnapshot>> cycles = DeadlockDetector.detectCycles(tf.vmTraces);
+        tf.vmTraces.deadlockedProcesses.clear();
+        for (Set<ProcessSnapshot> cycle: cycles) {
+            tf.vmTraces.deadlockedProcesses.addAll(cycle);
+            final String text = makeDeadlockText(cycle);
+            if (tf.reportedDeadlocks.add(text)) {
+                System.out.println("Deadlock in " + tf.tailer.getFile() + ":");
+                System.out.print(text);
+            }
+        }
+    }
+
+    /**
+     * Describe the threads in a deadlock, one line for each.
+     */
+    private static String makeDeadlockText(Set<ProcessSnapshot> cycle) {
+        final StringBuilder result = new StringBuilder();
+        for (ProcessSnapshot process: cycle) {
+            for (ThreadSnapshot thread: process.threads) {
+                result.append("    pid ").append(process.pid)
+                        .append(' ').append(process.cmdLine)
+                        .append(" \"").append(thread.name).append("\"")
+                        .append(" sysTid=").append(thread.sysTid).append('\n');
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * Parse the lines that have been added to the logcat, inspect them, and pick
+     * out the anrs.
+     */
+    private void pollLogcat(long now) throws IOException {
+        final ArrayList<Line> lines = mLogcatTailer.readLines();
+        if (lines.size() == 0) {
+            if (now - mAnrLinesMillis >= ANR_LINES_WAIT_MILLIS) {
+                // Nothing else is coming for the anr that was being logged.
+                finishAnr(now);
+            }
+            return;
+        }
+
+        final Logcat logcat = mBugreport.logcat;
+        final int first = logcat.size();
+        mLogcatParser.parse(logcat, new Lines<Line>(lines));
+        final List<LogLine> added = logcat.lines.subList(first, logcat.size());
+
+        Inspector.inspectLogLines(mBugreport, logcat, first);
+
+        // The anr is logged as one message that spans several lines, which all
+        // have the same header.  Those are collected until something else is logged.
+        for (LogLine line: added) {
+            if ("ActivityManager".equals(line.tag) && line.level == 'E'
+                    && line.text.startsWith("ANR in ")) {
+                finishAnr(now);
+                mAnrLines.add(line);
+                mAnrLinesMillis = now;
+            } else if (mAnrLines.size() > 0 && "ActivityManager".equals(line.tag)
+                    && line.header.equals(mAnrLines.get(0).header)) {
+                mAnrLines.add(line);
+                mAnrLinesMillis = now;
+            } else if (line.tag != null) {
+                finishAnr(now);
+            }
+        }
+
+        trimLogcat();
+    }
+
+    /**
+     * Drop the older logcat lines and interesting log lines, so that following
+     * a busy logcat for a long time doesn't use up all the memory.
+     */
+    private void trimLogcat() {
+        final Logcat logcat = mBugreport.logcat;
+        if (logcat.size() > 2 * MAX_LOGCAT_LINES) {
+            final Logcat trimmed = new Logcat();
+            for (LogLine line: logcat.lines.subList(logcat.size() - MAX_LOGCAT_LINES,
+                        logcat.size())) {
+                trimmed.add(line);
+            }
+            mBugreport.logcat = trimmed;
+        }
+
+        final ArrayList<LogLine> interesting = mBugreport.interestingLogLines;
+        if (interesting.size() > 2 * MAX_INTERESTING_LOG_LINES) {
+            interesting.subList(0, interesting.size() - MAX_INTERESTING_LOG_LINES).clear();
+        }
+    }
+
+    /**
+     * Parse the anr lines that have been collected, and hold on to the anr until
+     * its traces show up.
+     */
+    private void finishAnr(long now) {
+        if (mAnrLines.size() == 0) {
+            return;
+        }
+        for (Anr anr: mAnrParser.parse(new Lines<LogLine>(mAnrLines), false)) {
+            final PendingAnr pending = new PendingAnr();
+            pending.anr = anr;
+            pending.foundMillis = now;
+            mPendingAnrs.add(pending);
+        }
+        mAnrLines.clear();
+    }
+
+    /**
+     * Report the anrs that have found their traces, or have waited long enough.
+     */
+    private void reportAnrs(long now) throws IOException {
+        final Iterator<PendingAnr> it = mPendingAnrs.iterator();
+        while (it.hasNext()) {
+            final PendingAnr pending = it.next();
+            final TracesFile tf = findTraces(pending);
+            if (tf == null && now - pending.foundMillis < ANR_TRACES_WAIT_MILLIS) {
+                continue;
+            }
+            it.remove();
+            reportAnr(pending.anr, tf);
+        }
+    }
+
+    /**
+     * Find the most recently changed traces file that has the anr's process
+     * in it, and that changed around the time the anr was logged.
+     */
+    private TracesFile findTraces(PendingAnr pending) {
+        TracesFile result = null;
+        for (TracesFile tf: mTracesFiles.values()) {
+            if (tf.changedMillis < pending.foundMillis - ANR_TRACES_WAIT_MILLIS) {
+                continue;
+            }
+            if (tf.vmTraces.getProcess(pending.anr.pid) == null) {
+                continue;
+            }
+            if (result == null || tf.changedMillis > result.changedMillis) {
+                result = tf;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Give the anr its signature, look it up in the signatures file and print it.
+     */
+    private void reportAnr(Anr anr, TracesFile tf) throws IOException {
+        anr.vmTraces = tf != null ? tf.vmTraces : new VmTraces();
+        anr.signature = AnrSignature.make(anr);
+        mBugreport.anr = anr;
+
+        final File source = tf != null ? tf.tailer.getFile() : mOptions.logcat;
+        if (mAnrIndex != null) {
+            mAnrIndex.record(mBugreport, source, null);
+        }
+
+        System.out.println("ANR in " + anr.processName + " (pid " + anr.pid + "): "
+                + anr.reason);
+        System.out.println("    signature " + anr.signature);
+        System.out.println("    traces " + (tf != null ? source : "not found"));
+        if (anr.previousOccurrences.size() > 0) {
+            System.out.println("    seen " + anr.previousOccurrences.size()
+                    + " times before, first in "
+                    + anr.previousOccurrences.get(0).bugreport);
+        }
+    }
+}
@@ -16,7 +16,9 @@
 
 package com.android.bugreport;
 
+import com.android.bugreport.anr.AnrIndex;
 import com.android.bugreport.bugreport.Bugreport;
+import com.android.bugreport.bugreport.BugreportCache;
 import com.android.bugreport.bugreport.BugreportParser;
 import com.android.bugreport.html.Renderer;
 import com.android.bugreport.inspector.Inspector;
@@ -60,7 +62,11 @@ public class Main {
      */
     private static int usage() {
         System.err.println("usage: bugreport --monkey MONKEYLOG --html HTML --logcat SYSTEMLOG"
-                + " BUGREPORT\n");
+                + " [--signatures FILE] [--cache] [--stream] BUGREPORT\n"
+                + "       bugreport --batch DIRECTORY|LIST --out DIRECTORY [--jobs N]"
+                + " [--signatures FILE] [--cache] [--stream]\n"
+                + "       bugreport --follow [--logcat LOGCAT] [--traces DIRECTORY]"
+                + " [--signatures FILE]\n");
         return 1;
     }
 
@@ -70,12 +76,28 @@ public class Main {
      * @return the process exit code.
      */
     public static int run(Options options) {
+        if (options.batch != null) {
+            return new Batch(options).run();
+        }
+        if (options.follow) {
+            return new Follow(options).run();
+        }
+
         Bugreport bugreport = null;
 
         // Parse bugreport file
         try {
             final BugreportParser parser = new BugreportParser();
-            bugreport = parser.parse(Lines.readLines(options.bugreport));
+            if (options.cache) {
+                final BugreportCache cache = new BugreportCache();
+                bugreport = cache.parse(parser, options.bugreport);
+                if (cache.getHitCount() > 0) {
+                    System.out.println("Loaded from cache in "
+                            + (cache.getLoadNanos() / 1000000) + " ms");
+                }
+            } else {
+                bugreport = parser.parse(Lines.mapLines(options.bugreport));
+            }
         } catch (IOException ex) {
             System.err.println("Error reading monkey file: " + options.bugreport);
             System.err.println("Error: " + ex.getMessage());
@@ -87,7 +109,7 @@ public class Main {
         if (options.monkey != null) {
             try {
                 final MonkeyLogParser parser = new MonkeyLogParser();
-                parser.parse(bugreport, Lines.readLines(options.monkey));
+                parser.parse(bugreport, Lines.mapLines(options.monkey));
             } catch (IOException ex) {
                 System.err.println("Error reading bugreport file: " + options.bugreport);
                 System.err.println("Error: " + ex.getMessage());
@@ -100,7 +122,7 @@ public class Main {
         if (options.logcat != null) {
             try {
                 final LogcatParser parser = new LogcatParser();
-                bugreport.logcat = parser.parse(Lines.readLines(options.logcat));
+                bugreport.logcat = parser.parse(Lines.mapLines(options.logcat));
             } catch (IOException ex) {
                 System.err.println("Error reading bugreport file: " + options.bugreport);
                 System.err.println("Error: " + ex.getMessage());
@@ -118,9 +140,22 @@ public class Main {
             return 0;
         }
 
+        // Look for this anr in earlier bugreports, and remember it for later ones.
+        if (options.signatures != null) {
+            try {
+                final AnrIndex index = AnrIndex.open(options.signatures);
+                index.record(bugreport, options.bugreport, options.html);
+            } catch (IOException ex) {
+                System.err.println("Error reading signatures file: " + options.signatures);
+                System.err.println("Error: " + ex.getMessage());
+                return 1;
+            }
+        }
+
         // Write the html
         try {
             Renderer renderer = new Renderer();
+            renderer.setStreaming(options.stream);
             renderer.render(options.html, bugreport);
         } catch (IOException ex) {
             System.err.println("Error reading output file: " + options.html);
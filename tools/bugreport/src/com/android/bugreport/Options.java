@@ -59,7 +59,7 @@ public class Options {
     /**
      * The logcat file to parse.
      *
-     * Will be used instead of the "SYSTEM LOG" section of the bugreport.
+     * Will be merged with the "SYSTEM LOG" and other log sections of the bugreport.
      */
     public File logcat;
 
@@ -68,6 +68,51 @@ public class Options {
      */
     public File html;
 
+    /**
+     * The file that keeps the anr signatures from earlier runs.  It is created if
+     * it doesn't exist.
+     */
+    public File signatures;
+
+    /**
+     * Whether to write the logcat and stack traces to the html as it goes, instead
+     * of building the whole page in memory first.
+     */
+    public boolean stream;
+
+    /**
+     * Whether to keep the parsed bugreports in cache files next to them, and use
+     * those instead of parsing again when they are up to date.
+     */
+    public boolean cache;
+
+    /**
+     * A directory of bugreports, or a file listing them one per line, to process
+     * all at once.  When this is set there is no bugreport argument.
+     */
+    public File batch;
+
+    /**
+     * The directory to write the html files into in batch mode.
+     */
+    public File out;
+
+    /**
+     * How many bugreports to process at the same time in batch mode.
+     */
+    public int jobs = Runtime.getRuntime().availableProcessors();
+
+    /**
+     * Whether to keep following the logcat file and traces directory as they are
+     * written, reporting anrs and deadlocks as they show up.
+     */
+    public boolean follow;
+
+    /**
+     * The directory of traces files (like /data/anr) to follow.
+     */
+    public File traces;
+
     /**
      * Parse the arguments.
      *
@@ -99,11 +144,89 @@ public class Options {
                             "--logcat flag requires an argument");
                 }
                 result.logcat = new File(argParser.nextData());
+            } else if ("--signatures".equals(flag)) {
+                if (result.signatures != null || !argParser.hasData(1)) {
+                    return new Options(args, argParser.pos(),
+                            "--signatures flag requires an argument");
+                }
+                result.signatures = new File(argParser.nextData());
+            } else if ("--follow".equals(flag)) {
+                result.follow = true;
+            } else if ("--traces".equals(flag)) {
+                if (result.traces != null || !argParser.hasData(1)) {
+                    return new Options(args, argParser.pos(),
+                            "--traces flag requires an argument");
+                }
+                result.traces = new File(argParser.nextData());
+            } else if ("--stream".equals(flag)) {
+                result.stream = true;
+            } else if ("--cache".equals(flag)) {
+                result.cache = true;
+            } else if ("--batch".equals(flag)) {
+                if (result.batch != null || !argParser.hasData(1)) {
+                    return new Options(args, argParser.pos(),
+                            "--batch flag requires an argument");
+                }
+                result.batch = new File(argParser.nextData());
+            } else if ("--out".equals(flag)) {
+                if (result.out != null || !argParser.hasData(1)) {
+                    return new Options(args, argParser.pos(),
+                            "--out flag requires an argument");
+                }
+                result.out = new File(argParser.nextData());
+            } else if ("--jobs".equals(flag)) {
+                if (!argParser.hasData(1)) {
+                    return new Options(args, argParser.pos(),
+                            "--jobs flag requires an argument");
+                }
+                try {
+                    result.jobs = Integer.parseInt(argParser.nextData());
+                } catch (NumberFormatException ex) {
+                    result.jobs = 0;
+                }
+                if (result.jobs <= 0) {
+                    return new Options(args, argParser.pos(),
+                            "--jobs flag requires a positive number");
+                }
             } else {
                 return new Options(args, argParser.pos(),
                         "Unknown flag: " + flag);
             }
         }
+        if (result.follow) {
+            if (result.logcat == null && result.traces == null) {
+                return new Options(args, argParser.pos(),
+                        "--follow requires --logcat or --traces");
+            }
+            if (result.batch != null || result.monkey != null || result.html != null) {
+                return new Options(args, argParser.pos(),
+                        "--batch, --monkey and --html can't be used with --follow");
+            }
+            if (argParser.remaining() != 0) {
+                return new Options(args, argParser.pos(),
+                        "No bugreport file name is used with --follow");
+            }
+            return result;
+        }
+        if (result.traces != null) {
+            return new Options(args, argParser.pos(),
+                    "--traces can only be used with --follow");
+        }
+        if (result.batch != null) {
+            if (result.out == null) {
+                return new Options(args, argParser.pos(),
+                        "--batch requires --out");
+            }
+            if (result.monkey != null || result.logcat != null || result.html != null) {
+                return new Options(args, argParser.pos(),
+                        "--monkey, --logcat and --html can't be used with --batch");
+            }
+            if (argParser.remaining() != 0) {
+                return new Options(args, argParser.pos(),
+                        "No bugreport file name is used with --batch");
+            }
+            return result;
+        }
         if ((!argParser.hasData(1)) || argParser.remaining() != 1) {
             return new Options(args, argParser.pos(),
                     "bugreport file name required");
@@ -34,4 +34,29 @@ public class Anr {
     public String reason;
     public ArrayList<CpuUsageSnapshot> cpuUsages = new ArrayList<CpuUsageSnapshot>();
     public VmTraces vmTraces;
+
+    /**
+     * Whether the device was using (nearly) all of its cpu around the time of the
+     * anr, which points at starvation rather than a lock or binder call.
+     */
+    public boolean cpuBound;
+
+    /**
+     * The cpu usage snapshot with the highest total from around the time of the
+     * anr, or null if there weren't any.
+     */
+    public CpuUsageSnapshot busiestCpuUsage;
+
+    /**
+     * Identifies the same hang across bugreports.
+     *
+     * @see AnrSignature
+     */
+    public String signature;
+
+    /**
+     * The earlier bugreports with the same signature, if an AnrIndex was used.
+     */
+    public ArrayList<AnrIndex.Occurrence> previousOccurrences
+            = new ArrayList<AnrIndex.Occurrence>();
 }
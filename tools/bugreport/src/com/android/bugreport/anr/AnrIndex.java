@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.anr;
+
+import com.android.bugreport.bugreport.Bugreport;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * An index of anr signatures, kept in a local file, so that an anr can be matched
+ * up with the earlier bugreports that had the same one.
+ *
+ * The file is a list of occurrences, one per line, with tab separated fields:
+ *
+ *   SIGNATURE TIME BUGREPORT HTML
+ *
+ * New occurrences are appended to the end of the file, and the whole file is
+ * read into a HashMap when the index is opened, so adding and looking up are
+ * both quick.  Lines that can't be parsed (like one that was cut off by a crash)
+ * are skipped.
+ *
+ * The methods are synchronized, so one index can be shared by several threads.
+ */
+public class AnrIndex {
+    /**
+     * One bugreport that had a given signature.
+     */
+    public static class Occurrence {
+        public String signature;
+
+        /**
+         * The time of the bugreport, in milliseconds since the epoch.
+         */
+        public long time;
+
+        /**
+         * The path of the bugreport file.
+         */
+        public String bugreport;
+
+        /**
+         * The path of the html that was written for it, or null if there wasn't one.
+         */
+        public String html;
+    }
+
+    private final File mFile;
+    private final HashMap<String,ArrayList<Occurrence>> mOccurrences
+            = new HashMap<String,ArrayList<Occurrence>>();
+
+    /**
+     * Open the index in the file, which doesn't have to exist yet.
+     */
+    public static AnrIndex open(File file) throws IOException {
+        final AnrIndex result = new AnrIndex(file);
+        result.read();
+        return result;
+    }
+
+    /**
+     * Constructor.
+     */
+    private AnrIndex(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Returns the occurrences of the signature that are in the index.
+     */
+    public synchronized ArrayList<Occurrence> lookup(String signature) {
+        final ArrayList<Occurrence> list = mOccurrences.get(signature);
+        return list != null ? new ArrayList<Occurrence>(list) : new ArrayList<Occurrence>();
+    }
+
+    /**
+     * Fill in bugreport.anr.previousOccurrences from the index, and then add this
+     * bugreport to it.  A bugreport that is already in the index under the same
+     * signature isn't added again, and isn't one of its own previous occurrences.
+     *
+     * The anr must already have its signature.
+     */
+    public synchronized void record(Bugreport bugreport, File bugreportFile, File htmlFile)
+            throws IOException {
+        final Anr anr = bugreport.anr;
+        final String path = bugreportFile.getAbsolutePath();
+
+        boolean found = false;
+        final ArrayList<Occurrence> list = mOccurrences.get(anr.signature);
+        if (list != null) {
+            for (Occurrence occurrence: list) {
+                if (path.equals(occurrence.bugreport)) {
+                    found = true;
+                } else {
+                    anr.previousOccurrences.add(occurrence);
+                }
+            }
+        }
+        if (found) {
+            return;
+        }
+
+        final Occurrence occurrence = new Occurrence();
+        occurrence.signature = anr.signature;
+        occurrence.time = bugreport.startTime != null
+                ? bugreport.startTime.getTimeInMillis()
+                : System.currentTimeMillis();
+        occurrence.bugreport = path;
+        occurrence.html = htmlFile != null ? htmlFile.getAbsolutePath() : null;
+
+        final Writer writer = new OutputStreamWriter(new FileOutputStream(mFile, true),
+                StandardCharsets.UTF_8);
+        try {
+            writer.write(occurrence.signature + "\t" + occurrence.time
+                    + "\t" + clean(occurrence.bugreport)
+                    + "\t" + (occurrence.html != null ? clean(occurrence.html) : "") + "\n");
+        } finally {
+            writer.close();
+        }
+        add(occurrence);
+    }
+
+    /**
+     * Read the file.
+     */
+    private void read() throws IOException {
+        final BufferedReader reader;
+        try {
+            reader = new BufferedReader(new InputStreamReader(new FileInputStream(mFile),
+                        StandardCharsets.UTF_8));
+        } catch (FileNotFoundException ex) {
+            // New index.
+            return;
+        }
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                final String[] fields = line.split("\t", -1);
+                if (fields.length != 4 || fields[0].length() == 0) {
+                    continue;
+                }
+                final Occurrence occurrence = new Occurrence();
+                occurrence.signature = fields[0];
+                try {
+                    occurrence.time = Long.parseLong(fields[1]);
+                } catch (NumberFormatException ex) {
+                    continue;
+                }
+                occurrence.bugreport = fields[2];
+                occurrence.html = fields[3].length() > 0 ? fields[3] : null;
+                add(occurrence);
+            }
+        } finally {
+            reader.close();
+        }
+    }
+
+    /**
+     * Add an occurrence to the in memory index.
+     */
+    private void add(Occurrence occurrence) {
+        ArrayList<Occurrence> list = mOccurrences.get(occurrence.signature);
+        if (list == null) {
+            list = new ArrayList<Occurrence>();
+            mOccurrences.put(occurrence.signature, list);
+        }
+        list.add(occurrence);
+    }
+
+    /**
+     * Make a path safe to put in a field.
+     */
+    private static String clean(String path) {
+        return path.replace('\t', ' ').replace('\n', ' ').replace('\r', ' ');
+    }
+}
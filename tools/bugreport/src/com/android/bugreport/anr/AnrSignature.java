@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.anr;
+
+import com.android.bugreport.stacks.JavaStackFrameSnapshot;
+import com.android.bugreport.stacks.LockSnapshot;
+import com.android.bugreport.stacks.StackFrameSnapshot;
+import com.android.bugreport.stacks.ThreadSnapshot;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.TreeSet;
+import java.util.regex.Pattern;
+
+/**
+ * Makes a signature for an anr that stays the same when the same hang happens
+ * again in another bugreport.
+ *
+ * The signature is made from the top java frames of the main thread of the
+ * process that anr'ed (without line numbers), the binder call it is making,
+ * and the classes of the locks it is blocked on.  Things that change from run
+ * to run, like pids, lock addresses and lambda class numbers, are left out.
+ */
+public class AnrSignature {
+    /**
+     * How many java frames from the top of the stack to use.
+     */
+    private static final int MAX_FRAMES = 10;
+
+    private static final Pattern LAMBDA_RE = Pattern.compile("\\$\\$Lambda\\$.*");
+    private static final Pattern NUMBER_RE = Pattern.compile("\\d+(\\.\\d+)?");
+
+    /**
+     * Make the signature for the anr, as a hex string.
+     */
+    public static String make(Anr anr) {
+        final byte[] digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1").digest(
+                    makeText(anr).getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException("SHA-1 is missing", ex);
+        }
+        final StringBuilder result = new StringBuilder();
+        for (byte b: digest) {
+            result.append(Character.forDigit((b >> 4) & 0xf, 16));
+            result.append(Character.forDigit(b & 0xf, 16));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Make the normalized text that the signature is a hash of.  If there is no
+     * main thread to look at, the reason is used instead, with the numbers taken
+     * out of it.
+     */
+    public static String makeText(Anr anr) {
+        final StringBuilder result = new StringBuilder();
+        result.append("process ").append(anr.processName).append('\n');
+
+        final ThreadSnapshot thread = anr.vmTraces != null
+                ? anr.vmTraces.getThread(anr.pid, "main")
+                : null;
+        if (thread == null) {
+            if (anr.reason != null) {
+                result.append("reason ").append(NUMBER_RE.matcher(anr.reason).replaceAll("#"))
+                        .append('\n');
+            }
+            return result.toString();
+        }
+
+        // Frames
+        int count = 0;
+        for (StackFrameSnapshot frame: thread.frames) {
+            if (frame.frameType != StackFrameSnapshot.FRAME_TYPE_JAVA) {
+                continue;
+            }
+            final JavaStackFrameSnapshot f = (JavaStackFrameSnapshot)frame;
+            result.append("at ").append(f.packageName).append('.')
+                    .append(normalizeClass(f.className)).append('.').append(f.methodName)
+                    .append('\n');
+            count++;
+            if (count >= MAX_FRAMES) {
+                break;
+            }
+        }
+
+        // Binder call
+        if (thread.outboundBinderClass != null) {
+            result.append("binder ").append(thread.outboundBinderPackage).append('.')
+                    .append(thread.outboundBinderClass).append('.')
+                    .append(thread.outboundBinderMethod).append('\n');
+        }
+
+        // Locks it is blocked on.  Sorted because the locks are in a HashMap.
+        final TreeSet<String> lockClasses = new TreeSet<String>();
+        for (LockSnapshot lock: thread.locks.values()) {
+            if ((lock.type & LockSnapshot.BLOCKED) != 0 && lock.className != null) {
+                lockClasses.add(lock.packageName + "." + normalizeClass(lock.className));
+            }
+        }
+        for (String lockClass: lockClasses) {
+            result.append("lock ").append(lockClass).append('\n');
+        }
+
+        return result.toString();
+    }
+
+    /**
+     * Take the parts that change from build to build out of a class name.
+     */
+    private static String normalizeClass(String className) {
+        if (className == null) {
+            return null;
+        }
+        return LAMBDA_RE.matcher(className).replaceFirst("\\$\\$Lambda");
+    }
+}
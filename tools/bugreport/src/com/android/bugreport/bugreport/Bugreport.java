@@ -17,8 +17,11 @@
 package com.android.bugreport.bugreport;
 
 import com.android.bugreport.anr.Anr;
+import com.android.bugreport.cpuinfo.CpuUsageSnapshot;
+import com.android.bugreport.cpuinfo.CpuUsageTimeline;
 import com.android.bugreport.logcat.Logcat;
 import com.android.bugreport.logcat.LogLine;
+import com.android.bugreport.logcat.MergedLogcat;
 import com.android.bugreport.stacks.ProcessSnapshot;
 import com.android.bugreport.stacks.VmTraces;
 
@@ -45,6 +48,11 @@ public class Bugreport {
      */
     public GregorianCalendar endTime;
 
+    /**
+     * The sections that were found in the bugreport, in file order.
+     */
+    public ArrayList<Section> sections = new ArrayList<Section>();
+
     /**
      * The information about the first ANR that contained in the bugreport.  If there
      * was a monkey report, this will be that one.  The first ANR is the most likely culprit.
@@ -57,10 +65,15 @@ public class Bugreport {
     public Anr monkeyAnr;
 
     /**
-     * The merged logcat section of a bugreport.
+     * The logcat that was supplied separately from the bugreport, if any.
      */
     public Logcat logcat;
 
+    /**
+     * All of the logcat buffers, merged by time.
+     */
+    public MergedLogcat mergedLogcat;
+
     /**
      * The 'SYSTEM LOG' section of a bugreport.
      */
@@ -71,6 +84,11 @@ public class Bugreport {
      */
     public Logcat eventLog;
 
+    /**
+     * The 'RADIO LOG' section of a bugreport.
+     */
+    public Logcat radioLog;
+
     /**
      * The stack traces from the VM TRACES JUST NOW section.
      */
@@ -81,6 +99,17 @@ public class Bugreport {
      */
     public VmTraces vmTracesLastAnr;
 
+    /**
+     * The cpu usage snapshots from the DUMPSYS CPUINFO section.
+     */
+    public ArrayList<CpuUsageSnapshot> cpuUsages = new ArrayList<CpuUsageSnapshot>();
+
+    /**
+     * All of the cpu usage snapshots, from the anrs and the DUMPSYS CPUINFO section,
+     * in time order.
+     */
+    public CpuUsageTimeline cpuUsageTimeline;
+
     /**
      * The logcat lines that have something interesting about them.
      */
@@ -0,0 +1,876 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.bugreport;
+
+import com.android.bugreport.cpuinfo.CpuUsage;
+import com.android.bugreport.cpuinfo.CpuUsageSnapshot;
+import com.android.bugreport.logcat.Logcat;
+import com.android.bugreport.logcat.LogLine;
+import com.android.bugreport.stacks.JavaStackFrameSnapshot;
+import com.android.bugreport.stacks.KernelStackFrameSnapshot;
+import com.android.bugreport.stacks.LockSnapshot;
+import com.android.bugreport.stacks.NativeStackFrameSnapshot;
+import com.android.bugreport.stacks.ProcessSnapshot;
+import com.android.bugreport.stacks.StackFrameSnapshot;
+import com.android.bugreport.stacks.ThreadSnapshot;
+import com.android.bugreport.stacks.VmTraces;
+import com.android.bugreport.util.Lines;
+import com.android.bugreport.util.Utils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.GregorianCalendar;
+import java.util.HashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the parsed Bugreport in a compact binary file next to the bugreport, so
+ * that the next time the same bugreport is looked at the parsing can be skipped.
+ *
+ * The cache file is keyed by the size, modification time and SHA-1 of the
+ * bugreport.  If the size and time match, it is used right away.  If only the
+ * time is different (because the file was copied, for example), the bugreport is
+ * hashed to see whether it is really the same, and if it is the cache file is
+ * written again with the new time.  The whole cache file is memory mapped and
+ * decoded in one pass.
+ *
+ * Only what BugreportParser's own section parsers produce is kept: the metadata,
+ * the sections, the system, event and radio logs, the vm traces and the cpu usage.  Results from
+ * SectionParsers added with addSectionParser or found by the ServiceLoader are not.
+ *
+ * This class is thread safe, so one can be shared by several threads.
+ */
+public class BugreportCache {
+    /**
+     * The suffix added to the bugreport file name to make the cache file name.
+     */
+    public static final String SUFFIX = ".parsed";
+
+    private static final int MAGIC = 0x42524350; // "BRCP"
+
+    /**
+     * Change this whenever the format or the parsed model changes.
+     */
+    private static final int VERSION = 2;
+
+    private static final int HASH_SIZE = 20;
+
+    // How a string that is part of another one is written.
+    private static final int PART_STRING = 0;
+    private static final int PART_PREFIX = 1;
+    private static final int PART_SUFFIX = 2;
+
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+    private final AtomicLong mLoadNanos = new AtomicLong();
+
+    /**
+     * Construct a BugreportCache.
+     */
+    public BugreportCache() {
+    }
+
+    /**
+     * Load the bugreport from its cache file if that's up to date.  Otherwise parse
+     * it with parser, and write the cache file for next time.  Failing to write the
+     * cache file is not an error.
+     */
+    public Bugreport parse(BugreportParser parser, File file) throws IOException {
+        final File cacheFile = getCacheFile(file);
+        final long length = file.length();
+        final long lastModified = file.lastModified();
+        final byte[][] hash = new byte[1][];
+
+        if (cacheFile.isFile()) {
+            final long start = System.nanoTime();
+            final Bugreport result = load(cacheFile, file, length, lastModified, hash);
+            if (result != null) {
+                mLoadNanos.addAndGet(System.nanoTime() - start);
+                mHits.incrementAndGet();
+                return result;
+            }
+        }
+
+        mMisses.incrementAndGet();
+        final Bugreport result = parser.parse(Lines.mapLines(file));
+        try {
+            if (hash[0] == null) {
+                hash[0] = hashFile(file);
+            }
+            save(cacheFile, result, length, lastModified, hash[0]);
+        } catch (IOException ex) {
+            System.err.println("Warning: Can't write cache file: " + cacheFile);
+            System.err.println("Warning: " + ex.getMessage());
+        }
+        return result;
+    }
+
+    /**
+     * Returns the number of bugreports that were loaded from cache files.
+     */
+    public int getHitCount() {
+        return mHits.get();
+    }
+
+    /**
+     * Returns the number of bugreports that had to be parsed.
+     */
+    public int getMissCount() {
+        return mMisses.get();
+    }
+
+    /**
+     * Returns the total time spent loading cache files that were used, in nanoseconds.
+     */
+    public long getLoadNanos() {
+        return mLoadNanos.get();
+    }
+
+    /**
+     * Returns the cache file for a bugreport file.
+     */
+    public static File getCacheFile(File file) {
+        return new File(file.getPath() + SUFFIX);
+    }
+
+    /**
+     * Returns whether name is the name of a cache file, or of a temporary file that
+     * one is being written to.
+     */
+    public static boolean isCacheFileName(String name) {
+        return name.endsWith(SUFFIX) || (name.contains(SUFFIX) && name.endsWith(".tmp"));
+    }
+
+    /**
+     * Read the cache file.  Returns null if it doesn't match the bugreport, or if it
+     * can't be read.  If the bugreport has to be hashed, the hash is left in hash[0].
+     */
+    private static Bugreport load(File cacheFile, File file, long length, long lastModified,
+            byte[][] hash) {
+        try {
+            final ByteBuffer buffer = mapFile(cacheFile);
+
+            // Header
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                return null;
+            }
+            if (buffer.getLong() != length) {
+                return null;
+            }
+            final long cachedModified = buffer.getLong();
+            final byte[] cachedHash = new byte[HASH_SIZE];
+            buffer.get(cachedHash);
+            final boolean restamp = cachedModified != lastModified;
+            if (restamp) {
+                hash[0] = hashFile(file);
+                if (!Arrays.equals(hash[0], cachedHash)) {
+                    return null;
+                }
+            }
+
+            final ByteBuffer body = buffer.duplicate();
+            final Bugreport result = (new Reader(buffer)).readBugreport();
+            if (restamp) {
+                try {
+                    restamp(cacheFile, body, length, lastModified, hash[0]);
+                } catch (IOException ex) {
+                    System.err.println("Warning: Can't update cache file: " + cacheFile);
+                    System.err.println("Warning: " + ex.getMessage());
+                }
+            }
+            return result;
+        } catch (IOException ex) {
+            return null;
+        } catch (BufferUnderflowException ex) {
+            // Cut off.
+            return null;
+        } catch (RuntimeException ex) {
+            // Otherwise corrupt.
+            return null;
+        }
+    }
+
+    /**
+     * Write the cache file.
+     */
+    private static void save(File cacheFile, Bugreport bugreport, long length,
+            long lastModified, byte[] hash) throws IOException {
+        final Writer writer = new Writer();
+        writer.writeBugreport(bugreport);
+        writeCacheFile(cacheFile, length, lastModified, hash, writer);
+    }
+
+    /**
+     * Write the cache file again with the new modification time of the bugreport,
+     * after hashing showed that it hasn't really changed, so that the next load
+     * doesn't have to hash it again.  The body is copied from the old cache file
+     * as it is.
+     */
+    private static void restamp(File cacheFile, final ByteBuffer body, long length,
+            long lastModified, byte[] hash) throws IOException {
+        writeCacheFile(cacheFile, length, lastModified, hash, new Body() {
+                @Override
+                public void writeTo(DataOutputStream out) throws IOException {
+                    Channels.newChannel(out).write(body);
+                }
+            });
+    }
+
+    /**
+     * Write the header and the body.  It's written to a temporary file of its own
+     * and renamed, so other processes never see half of one, and two processes
+     * writing the same cache file don't write over each other's.
+     */
+    private static void writeCacheFile(File cacheFile, long length, long lastModified,
+            byte[] hash, Body body) throws IOException {
+        final File tmpFile = File.createTempFile(cacheFile.getName(), ".tmp",
+                cacheFile.getAbsoluteFile().getParentFile());
+        final DataOutputStream out = new DataOutputStream(new FileOutputStream(tmpFile));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(length);
+            out.writeLong(lastModified);
+            out.write(hash);
+            body.writeTo(out);
+            out.close();
+        } catch (IOException ex) {
+            try {
+                out.close();
+            } catch (IOException e) {
+            }
+            tmpFile.delete();
+            throw ex;
+        }
+        if (!tmpFile.renameTo(cacheFile)) {
+            tmpFile.delete();
+            throw new IOException("Can't rename " + tmpFile + " to " + cacheFile);
+        }
+    }
+
+    /**
+     * Map the whole file.
+     */
+    private static ByteBuffer mapFile(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + file);
+            }
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the SHA-1 of the file's contents.
+     */
+    private static byte[] hashFile(File file) throws IOException {
+        final MessageDigest digest;
+        try {
+            digest = MessageDigest.getInstance("SHA-1");
+        } catch (NoSuchAlgorithmException ex) {
+            throw new RuntimeException("SHA-1 is missing", ex);
+        }
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final ByteBuffer buffer = ByteBuffer.allocateDirect(1024 * 1024);
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                digest.update(buffer);
+                buffer.clear();
+            }
+        } finally {
+            raf.close();
+        }
+        return digest.digest();
+    }
+
+    /**
+     * The part of a cache file after the header.
+     */
+    private interface Body {
+        void writeTo(DataOutputStream out) throws IOException;
+    }
+
+    /**
+     * Encodes a Bugreport.  All of the strings go into one table, so repeated ones
+     * (tags, class names, thread names) are only stored once.  Numbers are stored
+     * as zigzag varints.
+     */
+    private static class Writer implements Body {
+        private final HashMap<String,Integer> mStringIds = new HashMap<String,Integer>();
+        private final ArrayList<String> mStrings = new ArrayList<String>();
+        private final ByteArrayOutputStream mBody = new ByteArrayOutputStream();
+
+        /**
+         * Write the string table and then the body.
+         */
+        @Override
+        public void writeTo(DataOutputStream out) throws IOException {
+            final ByteArrayOutputStream table = new ByteArrayOutputStream();
+            writeVarint(table, mStrings.size());
+            for (String s: mStrings) {
+                final byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+                writeVarint(table, bytes.length);
+                table.write(bytes, 0, bytes.length);
+            }
+            table.writeTo(out);
+            mBody.writeTo(out);
+        }
+
+        public void writeBugreport(Bugreport bugreport) {
+            writeString(bugreport.buildId);
+            writeCalendar(bugreport.startTime);
+            writeCalendar(bugreport.endTime);
+
+            writeInt(bugreport.sections.size());
+            for (Section section: bugreport.sections) {
+                writeString(section.name);
+                writeString(section.command);
+                writeInt(section.durationMs);
+                writeInt(section.from);
+                writeInt(section.to);
+            }
+
+            writeLogcat(bugreport.systemLog);
+            writeLogcat(bugreport.eventLog);
+            writeLogcat(bugreport.radioLog);
+
+            writeVmTraces(bugreport.vmTracesJustNow);
+            writeVmTraces(bugreport.vmTracesLastAnr);
+
+            writeInt(bugreport.cpuUsages.size());
+            for (CpuUsageSnapshot snapshot: bugreport.cpuUsages) {
+                writeCpuUsageSnapshot(snapshot);
+            }
+        }
+
+        private void writeCalendar(GregorianCalendar calendar) {
+            writeBoolean(calendar != null);
+            if (calendar != null) {
+                writeLong(calendar.getTimeInMillis());
+            }
+        }
+
+        private void writeLogcat(Logcat logcat) {
+            writeBoolean(logcat != null);
+            if (logcat == null) {
+                return;
+            }
+            writeInt(logcat.lines.size());
+            for (LogLine line: logcat.lines) {
+                writeInt(line.lineno);
+                writeString(line.rawText);
+                writePart(line.rawText, line.text);
+                writeString(line.bufferBegin);
+                writePart(line.rawText, line.header);
+                writeLong(line.time);
+                writeInt(line.pid);
+                writeInt(line.tid);
+                writeInt(line.level);
+                writeString(line.tag);
+                writeInt((line.regionAnr ? 1 : 0) | (line.regionBugreport ? 2 : 0));
+            }
+        }
+
+        private void writeVmTraces(VmTraces vmTraces) {
+            writeBoolean(vmTraces != null);
+            if (vmTraces == null) {
+                return;
+            }
+            writeInt(vmTraces.processes.size());
+            for (ProcessSnapshot process: vmTraces.processes) {
+                writeInt(process.pid);
+                writeString(process.cmdLine);
+                writeString(process.date);
+                writeInt(process.threads.size());
+                for (ThreadSnapshot thread: process.threads) {
+                    writeThread(thread);
+                }
+            }
+        }
+
+        private void writeCpuUsageSnapshot(CpuUsageSnapshot snapshot) {
+            writeLong(snapshot.msStart);
+            writeLong(snapshot.msEnd);
+            writeBoolean(snapshot.later);
+            writeString(snapshot.timeStart);
+            writeString(snapshot.timeEnd);
+            writeLong(snapshot.startTime);
+            writeLong(snapshot.endTime);
+            writeInt(snapshot.awakePercent);
+            writeFloat(snapshot.totalPercent);
+            writeFloat(snapshot.totalUser);
+            writeFloat(snapshot.totalKernel);
+            writeFloat(snapshot.totalIoWait);
+            writeFloat(snapshot.totalIrq);
+            writeFloat(snapshot.totalSoftIrq);
+
+            final CpuUsage row = new CpuUsage();
+            final int N = snapshot.size();
+            writeInt(N);
+            for (int i=0; i<N; i++) {
+                snapshot.get(i, row);
+                writeInt(row.pid);
+                writeString(row.name);
+                writeFloat(row.percent);
+                writeFloat(row.user);
+                writeFloat(row.kernel);
+                writeFloat(row.ioWait);
+                writeFloat(row.irq);
+                writeFloat(row.softIrq);
+                writeInt(row.minorFaults);
+                writeInt(row.majorFaults);
+                writeInt((row.thread ? 1 : 0) | (row.added ? 2 : 0) | (row.removed ? 4 : 0));
+            }
+        }
+
+        private void writeThread(ThreadSnapshot thread) {
+            writeInt(thread.type);
+            writeString(thread.name);
+            writeString(thread.daemon);
+            writeInt(thread.priority);
+            writeInt(thread.tid);
+            writeInt(thread.sysTid);
+            writeString(thread.vmState);
+            writeInt(thread.attributeText.size());
+            for (String text: thread.attributeText) {
+                writeString(text);
+            }
+            writeString(thread.heldMutexes);
+            writeBoolean(thread.runnable);
+            writeBoolean(thread.blocked);
+            writeString(thread.outboundBinderPackage);
+            writeString(thread.outboundBinderClass);
+            writeString(thread.outboundBinderMethod);
+            writeString(thread.inboundBinderPackage);
+            writeString(thread.inboundBinderClass);
+            writeString(thread.inboundBinderMethod);
+            writeBoolean(thread.interesting);
+
+            writeInt(thread.frames.size());
+            for (StackFrameSnapshot frame: thread.frames) {
+                writeFrame(frame);
+            }
+
+            writeInt(thread.locks.size());
+            for (LockSnapshot lock: thread.locks.values()) {
+                writeLock(lock);
+            }
+        }
+
+        private void writeFrame(StackFrameSnapshot frame) {
+            writeInt(frame.frameType);
+            writeString(frame.text);
+            if (frame instanceof NativeStackFrameSnapshot) {
+                final NativeStackFrameSnapshot f = (NativeStackFrameSnapshot)frame;
+                writeString(f.library);
+                writeString(f.symbol);
+                writeInt(f.offset);
+            } else if (frame instanceof KernelStackFrameSnapshot) {
+                final KernelStackFrameSnapshot f = (KernelStackFrameSnapshot)frame;
+                writeString(f.syscall);
+                writeInt(f.offset0);
+                writeInt(f.offset1);
+            } else if (frame instanceof JavaStackFrameSnapshot) {
+                final JavaStackFrameSnapshot f = (JavaStackFrameSnapshot)frame;
+                writeString(f.packageName);
+                writeString(f.className);
+                writeString(f.methodName);
+                writeString(f.sourceFile);
+                writeInt(f.sourceLine);
+                writeInt(f.language);
+                writeInt(f.locks.size());
+                for (LockSnapshot lock: f.locks) {
+                    writeLock(lock);
+                }
+            }
+        }
+
+        private void writeLock(LockSnapshot lock) {
+            writeInt(lock.type);
+            writeString(lock.address);
+            writeString(lock.packageName);
+            writeString(lock.className);
+            writeInt(lock.threadId);
+        }
+
+        /**
+         * Write a string that is usually the beginning or the end of whole, like
+         * the header and text of a log line, as just its length when it is.
+         */
+        private void writePart(String whole, String part) {
+            if (part != null && whole != null && whole.startsWith(part)) {
+                writeVarint(mBody, PART_PREFIX);
+                writeVarint(mBody, part.length());
+            } else if (part != null && whole != null && whole.endsWith(part)) {
+                writeVarint(mBody, PART_SUFFIX);
+                writeVarint(mBody, part.length());
+            } else {
+                writeVarint(mBody, PART_STRING);
+                writeString(part);
+            }
+        }
+
+        /**
+         * Strings are written as their index in the table plus one.  Zero is null.
+         */
+        private void writeString(String s) {
+            if (s == null) {
+                writeVarint(mBody, 0);
+                return;
+            }
+            Integer id = mStringIds.get(s);
+            if (id == null) {
+                id = mStrings.size();
+                mStrings.add(s);
+                mStringIds.put(s, id);
+            }
+            writeVarint(mBody, id + 1);
+        }
+
+        private void writeBoolean(boolean b) {
+            mBody.write(b ? 1 : 0);
+        }
+
+        private void writeInt(int i) {
+            writeVarint(mBody, (i << 1) ^ (i >> 31));
+        }
+
+        private void writeFloat(float f) {
+            writeInt(Float.floatToIntBits(f));
+        }
+
+        private void writeLong(long l) {
+            long v = (l << 1) ^ (l >> 63);
+            while ((v & ~0x7fL) != 0) {
+                mBody.write((int)((v & 0x7f) | 0x80));
+                v >>>= 7;
+            }
+            mBody.write((int)v);
+        }
+
+        private static void writeVarint(ByteArrayOutputStream out, int v) {
+            while ((v & ~0x7f) != 0) {
+                out.write((v & 0x7f) | 0x80);
+                v >>>= 7;
+            }
+            out.write(v);
+        }
+    }
+
+    /**
+     * Decodes what Writer wrote.
+     */
+    private static class Reader {
+        private final ByteBuffer mBuffer;
+        private final String[] mStrings;
+
+        /**
+         * Construct a Reader, and read the string table.  The buffer must be positioned
+         * just past the header.
+         */
+        public Reader(ByteBuffer buffer) {
+            mBuffer = buffer;
+            final int N = readVarint();
+            mStrings = new String[N];
+            for (int i=0; i<N; i++) {
+                final byte[] bytes = new byte[readVarint()];
+                mBuffer.get(bytes);
+                mStrings[i] = new String(bytes, StandardCharsets.UTF_8);
+            }
+        }
+
+        public Bugreport readBugreport() {
+            final Bugreport bugreport = new Bugreport();
+            bugreport.buildId = readString();
+            bugreport.startTime = readCalendar();
+            bugreport.endTime = readCalendar();
+
+            int N = readInt();
+            for (int i=0; i<N; i++) {
+                final Section section = new Section(readString(), readString(), 0);
+                section.durationMs = readInt();
+                section.from = readInt();
+                section.to = readInt();
+                bugreport.sections.add(section);
+            }
+
+            bugreport.systemLog = readLogcat();
+            bugreport.eventLog = readLogcat();
+            bugreport.radioLog = readLogcat();
+
+            bugreport.vmTracesJustNow = readVmTraces();
+            bugreport.vmTracesLastAnr = readVmTraces();
+
+            N = readInt();
+            for (int i=0; i<N; i++) {
+                bugreport.cpuUsages.add(readCpuUsageSnapshot());
+            }
+
+            return bugreport;
+        }
+
+        private GregorianCalendar readCalendar() {
+            if (!readBoolean()) {
+                return null;
+            }
+            final GregorianCalendar result = new GregorianCalendar(Utils.UTC);
+            result.setTimeInMillis(readLong());
+            return result;
+        }
+
+        private Logcat readLogcat() {
+            if (!readBoolean()) {
+                return null;
+            }
+            final Logcat logcat = new Logcat();
+            final int N = readInt();
+            for (int i=0; i<N; i++) {
+                final LogLine line = new LogLine();
+                line.lineno = readInt();
+                line.rawText = readString();
+                line.text = readPart(line.rawText);
+                line.bufferBegin = readString();
+                line.header = readPart(line.rawText);
+                line.time = readLong();
+                line.pid = readInt();
+                line.tid = readInt();
+                line.level = (char)readInt();
+                line.tag = readString();
+                final int flags = readInt();
+                line.regionAnr = (flags & 1) != 0;
+                line.regionBugreport = (flags & 2) != 0;
+                logcat.add(line);
+            }
+            return logcat;
+        }
+
+        private VmTraces readVmTraces() {
+            if (!readBoolean()) {
+                return null;
+            }
+            final VmTraces vmTraces = new VmTraces();
+            final int N = readInt();
+            for (int i=0; i<N; i++) {
+                final ProcessSnapshot process = new ProcessSnapshot();
+                process.pid = readInt();
+                process.cmdLine = readString();
+                process.date = readString();
+                final int T = readInt();
+                for (int j=0; j<T; j++) {
+                    process.threads.add(readThread());
+                }
+                vmTraces.processes.add(process);
+            }
+            return vmTraces;
+        }
+
+        private CpuUsageSnapshot readCpuUsageSnapshot() {
+            final CpuUsageSnapshot snapshot = new CpuUsageSnapshot();
+            snapshot.msStart = readLong();
+            snapshot.msEnd = readLong();
+            snapshot.later = readBoolean();
+            snapshot.timeStart = readString();
+            snapshot.timeEnd = readString();
+            snapshot.startTime = readLong();
+            snapshot.endTime = readLong();
+            snapshot.awakePercent = readInt();
+            snapshot.totalPercent = readFloat();
+            snapshot.totalUser = readFloat();
+            snapshot.totalKernel = readFloat();
+            snapshot.totalIoWait = readFloat();
+            snapshot.totalIrq = readFloat();
+            snapshot.totalSoftIrq = readFloat();
+
+            final CpuUsage row = new CpuUsage();
+            final int N = readInt();
+            for (int i=0; i<N; i++) {
+                row.pid = readInt();
+                row.name = readString();
+                row.percent = readFloat();
+                row.user = readFloat();
+                row.kernel = readFloat();
+                row.ioWait = readFloat();
+                row.irq = readFloat();
+                row.softIrq = readFloat();
+                row.minorFaults = readInt();
+                row.majorFaults = readInt();
+                final int flags = readInt();
+                row.thread = (flags & 1) != 0;
+                row.added = (flags & 2) != 0;
+                row.removed = (flags & 4) != 0;
+                snapshot.add(row);
+            }
+            return snapshot;
+        }
+
+        private ThreadSnapshot readThread() {
+            final ThreadSnapshot thread = new ThreadSnapshot();
+            thread.type = readInt();
+            thread.name = readString();
+            thread.daemon = readString();
+            thread.priority = readInt();
+            thread.tid = readInt();
+            thread.sysTid = readInt();
+            thread.vmState = readString();
+            int N = readInt();
+            for (int i=0; i<N; i++) {
+                thread.attributeText.add(readString());
+            }
+            thread.heldMutexes = readString();
+            thread.runnable = readBoolean();
+            thread.blocked = readBoolean();
+            thread.outboundBinderPackage = readString();
+            thread.outboundBinderClass = readString();
+            thread.outboundBinderMethod = readString();
+            thread.inboundBinderPackage = readString();
+            thread.inboundBinderClass = readString();
+            thread.inboundBinderMethod = readString();
+            thread.interesting = readBoolean();
+
+            N = readInt();
+            for (int i=0; i<N; i++) {
+                thread.frames.add(readFrame());
+            }
+
+            N = readInt();
+            for (int i=0; i<N; i++) {
+                final LockSnapshot lock = readLock();
+                thread.locks.put(lock.address, lock);
+            }
+            return thread;
+        }
+
+        private StackFrameSnapshot readFrame() {
+            final int frameType = readInt();
+            final String text = readString();
+            final StackFrameSnapshot result;
+            if (frameType == StackFrameSnapshot.FRAME_TYPE_NATIVE) {
+                final NativeStackFrameSnapshot f = new NativeStackFrameSnapshot();
+                f.library = readString();
+                f.symbol = readString();
+                f.offset = readInt();
+                result = f;
+            } else if (frameType == StackFrameSnapshot.FRAME_TYPE_KERNEL) {
+                final KernelStackFrameSnapshot f = new KernelStackFrameSnapshot();
+                f.syscall = readString();
+                f.offset0 = readInt();
+                f.offset1 = readInt();
+                result = f;
+            } else if (frameType == StackFrameSnapshot.FRAME_TYPE_JAVA) {
+                final JavaStackFrameSnapshot f = new JavaStackFrameSnapshot();
+                f.packageName = readString();
+                f.className = readString();
+                f.methodName = readString();
+                f.sourceFile = readString();
+                f.sourceLine = readInt();
+                f.language = readInt();
+                final int N = readInt();
+                for (int i=0; i<N; i++) {
+                    f.locks.add(readLock());
+                }
+                result = f;
+            } else {
+                result = new StackFrameSnapshot();
+            }
+            result.text = text;
+            return result;
+        }
+
+        private LockSnapshot readLock() {
+            final LockSnapshot lock = new LockSnapshot();
+            lock.type = readInt();
+            lock.address = readString();
+            lock.packageName = readString();
+            lock.className = readString();
+            lock.threadId = readInt();
+            return lock;
+        }
+
+        private String readPart(String whole) {
+            final int kind = readVarint();
+            if (kind == PART_PREFIX) {
+                return whole.substring(0, readVarint());
+            } else if (kind == PART_SUFFIX) {
+                return whole.substring(whole.length() - readVarint());
+            } else {
+                return readString();
+            }
+        }
+
+        private String readString() {
+            final int id = readVarint();
+            return id == 0 ? null : mStrings[id - 1];
+        }
+
+        private boolean readBoolean() {
+            return mBuffer.get() != 0;
+        }
+
+        private int readInt() {
+            final int v = readVarint();
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        private float readFloat() {
+            return Float.intBitsToFloat(readInt());
+        }
+
+        private long readLong() {
+            long v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = mBuffer.get();
+                v |= (long)(b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return (v >>> 1) ^ -(v & 1);
+        }
+
+        private int readVarint() {
+            int v = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = mBuffer.get();
+                v |= (b & 0x7f) << shift;
+                shift += 7;
+            } while ((b & 0x80) != 0);
+            return v;
+        }
+    }
+}
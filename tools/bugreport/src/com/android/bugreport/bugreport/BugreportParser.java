@@ -16,28 +16,35 @@
 
 package com.android.bugreport.bugreport;
 
-import com.android.bugreport.logcat.LogcatParser;
-import com.android.bugreport.stacks.VmTracesParser;
 import com.android.bugreport.util.Utils;
 import com.android.bugreport.util.Line;
 import com.android.bugreport.util.Lines;
 
-import java.io.BufferedReader;
-import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.HashMap;
-import java.util.TimeZone;
+import java.util.ServiceLoader;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
 /**
  * Parses a bugreport text file.  The object can be reused, but can only parse
  * one bugreport at a time (i.e. any single object is not thread-safe).
+ *
+ * Parsing happens in two phases.  First the whole file is scanned for the
+ * section markers, which is cheap.  Then each section that has a registered
+ * SectionParser is parsed on a ForkJoinPool, and the results are merged into
+ * the Bugreport in the order that the sections appear in the file.
  */
 public class BugreportParser {
 
+    /**
+     * All of the section markers begin with this. Lines that don't can be skipped
+     * without decoding them.
+     */
+    private static final String SECTION_PREFIX = "------ ";
+
     private static final Pattern SECTION_BEGIN = Pattern.compile(
             "------ (.*?)(?: \\((.*)\\)) ------");
     private static final Pattern SECTION_BEGIN_NO_CMD = Pattern.compile(
@@ -49,41 +56,51 @@ public class BugreportParser {
     private final Matcher mSectionBeginNoCmd = SECTION_BEGIN_NO_CMD.matcher("");
     private final Matcher mSectionEnd = SECTION_END.matcher("");
 
-    private final HashMap<String,SectionParser> mSectionParsers
-            = new HashMap<String,SectionParser>();
+    private final HashMap<String,ArrayList<SectionParser<?>>> mSectionParsers
+            = new HashMap<String,ArrayList<SectionParser<?>>>();
 
     private final MetadataParser mMetadataParser = new MetadataParser();
 
+    private final ForkJoinPool mPool;
+
     private Bugreport mBugreport;
 
     /**
-     * Base class for bugreport section parsers. They self-report which
-     * sections they are interested in, and BugreportParser will call them
-     * when a section is encountered.  These then call into the other
-     * packges' parsers to do the actual parsing.
+     * Construct the bugreport parser, using the common ForkJoinPool to parse
+     * the sections.
      */
-    private interface SectionParser {
+    public BugreportParser() {
+        this(ForkJoinPool.commonPool());
+    }
 
-        /**
-         * Return the sections that this parser can handle.
-         */
-        public String[] getSectionNames();
+    /**
+     * Construct the bugreport parser, using the supplied pool to parse the sections.
+     */
+    public BugreportParser(ForkJoinPool pool) {
+        mPool = pool;
 
-        /**
-         * Parse the given lines.  Add any information found to mBugreport.
-         */
-        public void parse(String section, String command, Lines<? extends Line> lines);
+        // The built-in section parsers.
+        addSectionParser(new LogcatSectionParser());
+        addSectionParser(new VmTracesSectionParser());
+        addSectionParser(new CpuInfoSectionParser());
+
+        // And any others that are on the classpath.
+        for (SectionParser<?> parser: ServiceLoader.load(SectionParser.class)) {
+            addSectionParser(parser);
+        }
     }
-    
+
     /**
-     * Construct the bugreport parser.
+     * Register a SectionParser. More than one parser may handle the same section.
      */
-    public BugreportParser() {
-        // Initialize the section parsers.
-        for (SectionParser parser: mParserList) {
-            for (String name: parser.getSectionNames()) {
-                mSectionParsers.put(name, parser);
+    public void addSectionParser(SectionParser<?> parser) {
+        for (String name: parser.getSectionNames()) {
+            ArrayList<SectionParser<?>> list = mSectionParsers.get(name);
+            if (list == null) {
+                list = new ArrayList<SectionParser<?>>();
+                mSectionParsers.put(name, list);
             }
+            list.add(parser);
         }
     }
 
@@ -92,14 +109,58 @@ public class BugreportParser {
      */
     public Bugreport parse(Lines<? extends Line> lines) {
         mBugreport = new Bugreport();
-        Matcher m;
-        int pos;
 
         mMetadataParser.setBugreport(mBugreport);
 
+        // Phase one: find where the sections are.
+        mBugreport.sections = scanSections(lines);
+
+        // Phase two: parse the ones we know about in parallel.
+        final ArrayList<SectionTask<?>> tasks = new ArrayList<SectionTask<?>>();
+        for (Section section: mBugreport.sections) {
+            final ArrayList<SectionParser<?>> parsers = mSectionParsers.get(section.name);
+            if (parsers == null) {
+                if (false) {
+                    System.out.println("Skipping section '" + section.name + "' "
+                            + (section.to - section.from) + " lines");
+                }
+                continue;
+            }
+            if (false) {
+                System.out.println("Parsing section  '" + section.name + "' "
+                        + (section.to - section.from) + " lines");
+            }
+            for (SectionParser<?> parser: parsers) {
+                final SectionTask<?> task = SectionTask.create(parser, section,
+                        lines.copy(section.from, section.to));
+                mPool.execute(task);
+                tasks.add(task);
+            }
+        }
+
+        // And merge the results in file order.
+        for (SectionTask<?> task: tasks) {
+            task.merge(mBugreport);
+        }
+
+        return mBugreport;
+    }
+
+    /**
+     * Find the sections.  Also parses the header and footer as they go by.
+     */
+    private ArrayList<Section> scanSections(Lines<? extends Line> lines) {
+        final ArrayList<Section> result = new ArrayList<Section>();
+        Matcher m;
+        int pos;
+
         // Read and parse the preamble -- until the first section beginning
         pos = lines.pos;
         while (lines.hasNext()) {
+            if (!lines.nextStartsWith(SECTION_PREFIX)) {
+                lines.skip();
+                continue;
+            }
             final Line line = lines.next();
             if (Utils.matches(mSectionBegin, line.text)) {
                 lines.rewind();
@@ -108,17 +169,22 @@ public class BugreportParser {
             }
         }
 
-        // Read each section, and then parse it
-        String section = null;
-        String command = null;
+        // Find the beginning and end of each section
+        Section section = null;
         while (lines.hasNext()) {
+            if (!lines.nextStartsWith(SECTION_PREFIX)) {
+                lines.skip();
+                continue;
+            }
             final Line line = lines.next();
             if ((m = Utils.match(mSectionEnd, line.text)) != null) {
                 final int durationMs = (int)(Float.parseFloat(m.group(1)) * 1000);
                 final String endSection = m.group(2);
-                if (section != null && endSection.equals(section)) {
+                if (section != null && endSection.equals(section.name)) {
                     // End of the section
-                    parseSection(section, lines.copy(pos, lines.pos-1), command, durationMs);
+                    section.to = lines.pos - 1;
+                    section.durationMs = durationMs;
+                    result.add(section);
                     pos = lines.pos; // for the footer
                     section = null;
                 } else {
@@ -139,84 +205,54 @@ public class BugreportParser {
                 // Clean out any section that wasn't closed propertly (it happens)
                 if (section != null) {
                     if (false) {
-                        System.out.println("missed end of section " + section);
+                        System.out.println("missed end of section " + section.name);
                     }
-                    parseSection(section, lines.copy(pos, lines.pos-1), null, -1);
+                    section.to = lines.pos - 1;
+                    result.add(section);
                 }
-                section = m.group(1);
-                command = (m.groupCount() > 1) ? command = m.group(2) : null;
-                pos = lines.pos;
+                section = new Section(m.group(1), (m.groupCount() > 1) ? m.group(2) : null,
+                        lines.pos);
             }
         }
 
-        return mBugreport;
-    }
-
-    /**
-     * Parse the stuff in the preamble.
-     */
-    private void parseSection(String section, Lines<? extends Line> lines, String command,
-            int durationMs) {
-        final SectionParser parser = mSectionParsers.get(section);
-        if (parser != null) {
-            if (false) {
-                System.out.println("Parsing section  '" + section + "' " + lines.size() + " lines");
-            }
-            parser.parse(section, command, lines);
-        } else {
-            if (false) {
-                System.out.println("Skipping section '" + section + "' " + lines.size() + " lines");
-            }
-        }
+        return result;
     }
 
     /**
-     * The list of section parsers. Each one handles one or more sections, and adds that
-     * stuff to the Bugreport.
+     * Parses one section on the pool, and then merges it into the Bugreport.
      */
-    final SectionParser[] mParserList = new SectionParser[] {
-        new SectionParser() {
-            private LogcatParser mParser = new LogcatParser();
-
-            @Override
-            public String[] getSectionNames() {
-                return new String[] {
-                    "SYSTEM LOG",
-                    "EVENT LOG",
-                };
-            }
+    private static class SectionTask<T> extends RecursiveTask<T> {
+        private static final long serialVersionUID = 1L;
 
-            @Override
-            public void parse(String section, String command, Lines<? extends Line> lines) {
-                if ("SYSTEM LOG".equals(section)) {
-                    mBugreport.systemLog = mParser.parse(lines);
-                } else if ("EVENT LOG".equals(section)) {
-                    mBugreport.eventLog = mParser.parse(lines);
-                }
-            }
-        },
+        private final SectionParser<T> mParser;
+        private final Section mSection;
+        private final Lines<? extends Line> mLines;
 
-        new SectionParser() {
-            private VmTracesParser mParser = new VmTracesParser();
+        private SectionTask(SectionParser<T> parser, Section section,
+                Lines<? extends Line> lines) {
+            mParser = parser;
+            mSection = section;
+            mLines = lines;
+        }
 
-            @Override
-            public String[] getSectionNames() {
-                return new String[] {
-                    "VM TRACES JUST NOW",
-                    "VM TRACES AT LAST ANR",
-                };
-            }
+        /**
+         * Make a SectionTask with the type of the parser.
+         */
+        public static <T> SectionTask<T> create(SectionParser<T> parser, Section section,
+                Lines<? extends Line> lines) {
+            return new SectionTask<T>(parser, section, lines);
+        }
 
-            @Override
-            public void parse(String section, String command, Lines<? extends Line> lines) {
-                if ("VM TRACES JUST NOW".equals(section)) {
-                    mBugreport.vmTracesJustNow = mParser.parse(lines);
-                } else if ("VM TRACES AT LAST ANR".equals(section)) {
-                    mBugreport.vmTracesLastAnr = mParser.parse(lines);
-                }
-            }
-        },
-        
-    };
+        @Override
+        protected T compute() {
+            return mParser.parse(mSection, mLines);
+        }
 
+        /**
+         * Wait for the parse to finish and merge the result.
+         */
+        public void merge(Bugreport bugreport) {
+            mParser.merge(bugreport, mSection, join());
+        }
+    }
 }
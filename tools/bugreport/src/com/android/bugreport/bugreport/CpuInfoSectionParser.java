@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.bugreport;
+
+import com.android.bugreport.cpuinfo.CpuUsageParser;
+import com.android.bugreport.cpuinfo.CpuUsageSnapshot;
+import com.android.bugreport.util.Line;
+import com.android.bugreport.util.Lines;
+
+import java.util.ArrayList;
+
+/**
+ * Parses the DUMPSYS CPUINFO section.
+ */
+public class CpuInfoSectionParser implements SectionParser<ArrayList<CpuUsageSnapshot>> {
+
+    @Override
+    public String[] getSectionNames() {
+        return new String[] {
+            "DUMPSYS CPUINFO",
+        };
+    }
+
+    @Override
+    public ArrayList<CpuUsageSnapshot> parse(Section section, Lines<? extends Line> lines) {
+        final ArrayList<CpuUsageSnapshot> result = new ArrayList<CpuUsageSnapshot>();
+        final CpuUsageParser parser = new CpuUsageParser();
+        CpuUsageSnapshot snapshot;
+        while ((snapshot = parser.parse(lines)) != null) {
+            result.add(snapshot);
+        }
+        return result;
+    }
+
+    @Override
+    public void merge(Bugreport bugreport, Section section, ArrayList<CpuUsageSnapshot> result) {
+        bugreport.cpuUsages.addAll(result);
+    }
+}
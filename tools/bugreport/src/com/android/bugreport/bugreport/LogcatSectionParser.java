@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.bugreport;
+
+import com.android.bugreport.logcat.Logcat;
+import com.android.bugreport.logcat.LogcatParser;
+import com.android.bugreport.util.Line;
+import com.android.bugreport.util.Lines;
+
+/**
+ * Parses the SYSTEM LOG, EVENT LOG and RADIO LOG sections.
+ */
+public class LogcatSectionParser implements SectionParser<Logcat> {
+
+    @Override
+    public String[] getSectionNames() {
+        return new String[] {
+            "SYSTEM LOG",
+            "EVENT LOG",
+            "RADIO LOG",
+        };
+    }
+
+    @Override
+    public Logcat parse(Section section, Lines<? extends Line> lines) {
+        return (new LogcatParser()).parse(lines);
+    }
+
+    @Override
+    public void merge(Bugreport bugreport, Section section, Logcat result) {
+        if ("SYSTEM LOG".equals(section.name)) {
+            bugreport.systemLog = result;
+        } else if ("EVENT LOG".equals(section.name)) {
+            bugreport.eventLog = result;
+        } else if ("RADIO LOG".equals(section.name)) {
+            bugreport.radioLog = result;
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.bugreport;
+
+/**
+ * The location of one ------ SECTION ------ block of a bugreport.
+ */
+public class Section {
+    /**
+     * The name of the section, e.g. "SYSTEM LOG".
+     */
+    public String name;
+
+    /**
+     * The command that was run to make the section, or null if there wasn't one.
+     */
+    public String command;
+
+    /**
+     * How long dumpstate took to make the section, or -1 if the section wasn't
+     * closed properly.
+     */
+    public int durationMs = -1;
+
+    /**
+     * The index of the first line of the section contents (just after the
+     * beginning marker).
+     */
+    public int from;
+
+    /**
+     * The index just past the last line of the section contents (the end marker,
+     * or the beginning of the next section).
+     */
+    public int to;
+
+    /**
+     * Construct a Section.
+     */
+    public Section(String name, String command, int from) {
+        this.name = name;
+        this.command = command;
+        this.from = from;
+    }
+}
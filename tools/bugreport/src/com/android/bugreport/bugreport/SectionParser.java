@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.bugreport;
+
+import com.android.bugreport.util.Line;
+import com.android.bugreport.util.Lines;
+
+/**
+ * Interface for bugreport section parsers. They self-report which sections
+ * they are interested in, and BugreportParser will call them when a section
+ * is encountered.  These then call into the other packages' parsers to do
+ * the actual parsing.
+ *
+ * Parsers are found with {@link java.util.ServiceLoader}, so additional ones
+ * can be added by listing them in a
+ * META-INF/services/com.android.bugreport.bugreport.SectionParser file on the
+ * classpath.  They can also be added with {@link BugreportParser#addSectionParser}.
+ *
+ * Sections are parsed in parallel, so {@link #parse} may be called on several
+ * threads at once and must not keep any state between calls.  The results are
+ * then handed to {@link #merge} one at a time, in the order that the sections
+ * appear in the file.
+ */
+public interface SectionParser<T> {
+
+    /**
+     * Return the sections that this parser can handle.
+     */
+    public String[] getSectionNames();
+
+    /**
+     * Parse the given lines.  Must not modify the Bugreport.
+     *
+     * @return the parsed result, which will be passed to merge.
+     */
+    public T parse(Section section, Lines<? extends Line> lines);
+
+    /**
+     * Add the result of parse to the Bugreport.
+     */
+    public void merge(Bugreport bugreport, Section section, T result);
+}
@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.bugreport;
+
+import com.android.bugreport.stacks.VmTraces;
+import com.android.bugreport.stacks.VmTracesParser;
+import com.android.bugreport.util.Line;
+import com.android.bugreport.util.Lines;
+
+/**
+ * Parses the VM TRACES JUST NOW and VM TRACES AT LAST ANR sections.
+ */
+public class VmTracesSectionParser implements SectionParser<VmTraces> {
+
+    @Override
+    public String[] getSectionNames() {
+        return new String[] {
+            "VM TRACES JUST NOW",
+            "VM TRACES AT LAST ANR",
+        };
+    }
+
+    @Override
+    public VmTraces parse(Section section, Lines<? extends Line> lines) {
+        return (new VmTracesParser()).parse(lines);
+    }
+
+    @Override
+    public void merge(Bugreport bugreport, Section section, VmTraces result) {
+        if ("VM TRACES JUST NOW".equals(section.name)) {
+            bugreport.vmTracesJustNow = result;
+        } else if ("VM TRACES AT LAST ANR".equals(section.name)) {
+            bugreport.vmTracesLastAnr = result;
+        }
+    }
+}
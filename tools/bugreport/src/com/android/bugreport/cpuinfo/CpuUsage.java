@@ -16,20 +16,56 @@
 
 package com.android.bugreport.cpuinfo;
 
-import java.util.ArrayList;
-
 /**
- * Incomplete - Contains a row from the CPU usage table.
+ * Contains a row from the CPU usage table.  Either a process, or one of the
+ * threads of the process above it.
+ *
+ * The rows are kept in the columns of a {@link CpuUsageSnapshot}.  This is
+ * used to pass one row in and out of it.
  */
 public class CpuUsage {
-    public int percent;
     public int pid;
     public String name;
+    public float percent;
     public float user;
     public float kernel;
+    public float ioWait;
+    public float irq;
+    public float softIrq;
     public int minorFaults;
     public int majorFaults;
 
-    public ArrayList<CpuUsage> children = new ArrayList<CpuUsage>();;
-}
+    /**
+     * Whether this is a thread of the process row before it.
+     */
+    public boolean thread;
 
+    /**
+     * Whether the process or thread started during the sampling period ("+").
+     */
+    public boolean added;
+
+    /**
+     * Whether the process or thread ended during the sampling period ("-").
+     */
+    public boolean removed;
+
+    /**
+     * Reset all the fields, so the object can be used for another row.
+     */
+    public void clear() {
+        pid = -1;
+        name = null;
+        percent = 0;
+        user = 0;
+        kernel = 0;
+        ioWait = 0;
+        irq = 0;
+        softIrq = 0;
+        minorFaults = 0;
+        majorFaults = 0;
+        thread = false;
+        added = false;
+        removed = false;
+    }
+}
@@ -20,63 +20,142 @@ import com.android.bugreport.util.Utils;
 import com.android.bugreport.util.Line;
 import com.android.bugreport.util.Lines;
 
-import java.io.BufferedReader;
-import java.io.IOException;
-import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
 /**
- * Incomplete - Reads a little bit of the cpu usage block printed in the monkey report.
+ * Reads a cpu usage block, like the ones printed in an anr report or by
+ * dumpsys cpuinfo:
+ *
+ *   CPU usage from 5237ms to -2839ms ago (2016-03-14 10:00:20.012 to ...):
+ *     98% 1000/system_server: 60% user + 38% kernel / faults: 1234 minor 5 major
+ *       40% 1010/ActivityManager: 30% user + 10% kernel
+ *    +0% 5000/com.example.new: 0% user + 0% kernel
+ *   67% TOTAL: 40% user + 20% kernel + 5% iowait + 1% irq + 1% softirq
+ *
+ * Thread rows are indented further than process rows, and a + or - in front of
+ * the percent means the process or thread started or ended during the period.
+ *
+ * The parser can be reused, but is not thread safe.
  */
 public class CpuUsageParser {
-    public static final Pattern CPU_USAGE_RE
-            = Pattern.compile("CPU usage from (-?\\d+)ms to (-?\\d+)ms ago \\((.*) to (.*)\\):");
-    private static final Pattern TOTAL_RE
-            = Pattern.compile(".*TOTAL:.*");
-            //= Pattern.compile("(-?\\d*(?:.\\d+)?)% TOTAL: (-?\\d*(?:.\\d+)?)% user \\+ (-?\\d*(?:.\\d+)?)% kernel \\+ (-?\\d*(?:.\\d+)?)% iowait \\+ (-?\\d*(?:.\\d+)?)% softirq");
+    public static final Pattern CPU_USAGE_RE = Pattern.compile(
+            "CPU usage from (-?\\d+)ms to (-?\\d+)ms (ago|later)"
+            + "(?: \\((.*) to (.*)\\))?(?: with (\\d+)% awake)?:");
+    private static final String PERCENT = "(-?\\d+(?:\\.\\d+)?)%";
+    private static final Pattern ROW_RE = Pattern.compile(
+            "(\\s*)([+-])?" + PERCENT + " (?:(\\d+)/)?(.+?): "
+            + PERCENT + " user \\+ " + PERCENT + " kernel"
+            + "(?: \\+ " + PERCENT + " iowait)?"
+            + "(?: \\+ " + PERCENT + " irq)?"
+            + "(?: \\+ " + PERCENT + " softirq)?"
+            + "(?: / faults:(?: (\\d+) minor)?(?: (\\d+) major)?)?\\s*");
+    private static final Pattern TIME_RE = Pattern.compile(Utils.DATE_TIME_MS_PATTERN);
 
+    /**
+     * Process rows are indented by two (one plus the +/- sign), threads by four.
+     */
+    private static final int THREAD_INDENT = 3;
 
+    private final Matcher mCpuUsageRe = CPU_USAGE_RE.matcher("");
+    private final Matcher mRowRe = ROW_RE.matcher("");
+    private final Matcher mTimeRe = TIME_RE.matcher("");
+    private final CpuUsage mRow = new CpuUsage();
+
+    /**
+     * Construct a new parser.
+     */
     public CpuUsageParser() {
     }
 
+    /**
+     * Parse one cpu usage block.  Lines before the "CPU usage from" line are
+     * skipped.  Stops after the TOTAL line, or before the first line that isn't
+     * part of the table.
+     *
+     * @return the snapshot, or null if there wasn't a "CPU usage from" line.
+     */
     public CpuUsageSnapshot parse(Lines<? extends Line> lines) {
-        final CpuUsageSnapshot result = new CpuUsageSnapshot();
-
-        final Matcher cpuUsageRe = CPU_USAGE_RE.matcher("");
-        final Matcher totalRe = TOTAL_RE.matcher("");
+        CpuUsageSnapshot result = null;
 
         while (lines.hasNext()) {
             final Line line = lines.next();
             final String text = line.text;
-            if (Utils.matches(cpuUsageRe, text)) {
-                // System.out.println("CpuUsageParser cpuUsageRe: " + text);
-            } else if (Utils.matches(totalRe, text)) {
-                /*
-                result.totalPercent = Float.parseFloat(totalRe.group(1));
-                result.totalUser = Float.parseFloat(totalRe.group(2));
-                result.totalKernel = Float.parseFloat(totalRe.group(3));
-                result.totalIoWait = Float.parseFloat(totalRe.group(3));
-                result.totalSoftIrq = Float.parseFloat(totalRe.group(3));
-                */
-                break;
-            } else {
+            if (Utils.matches(mCpuUsageRe, text)) {
+                if (result != null) {
+                    // The next block, without a TOTAL line for this one.
+                    lines.rewind();
+                    break;
+                }
+                result = new CpuUsageSnapshot();
+                parseHeader(result);
+            } else if (result == null) {
                 if (false) {
                     System.out.println("CpuUsageParser Dropping: " + text);
                 }
+            } else if (Utils.matches(mRowRe, text)) {
+                if (mRowRe.group(4) == null && "TOTAL".equals(mRowRe.group(5))) {
+                    result.totalPercent = Float.parseFloat(mRowRe.group(3));
+                    result.totalUser = Float.parseFloat(mRowRe.group(6));
+                    result.totalKernel = Float.parseFloat(mRowRe.group(7));
+                    result.totalIoWait = getFloat(mRowRe, 8);
+                    result.totalIrq = getFloat(mRowRe, 9);
+                    result.totalSoftIrq = getFloat(mRowRe, 10);
+                    break;
+                }
+                final CpuUsage row = mRow;
+                row.clear();
+                final String sign = mRowRe.group(2);
+                row.thread = mRowRe.group(1).length() + (sign != null ? 1 : 0) >= THREAD_INDENT;
+                row.added = "+".equals(sign);
+                row.removed = "-".equals(sign);
+                row.percent = Float.parseFloat(mRowRe.group(3));
+                row.pid = Utils.getInt(mRowRe, 4, -1);
+                row.name = mRowRe.group(5);
+                row.user = Float.parseFloat(mRowRe.group(6));
+                row.kernel = Float.parseFloat(mRowRe.group(7));
+                row.ioWait = getFloat(mRowRe, 8);
+                row.irq = getFloat(mRowRe, 9);
+                row.softIrq = getFloat(mRowRe, 10);
+                row.minorFaults = Utils.getInt(mRowRe, 11, 0);
+                row.majorFaults = Utils.getInt(mRowRe, 12, 0);
+                result.add(row);
+            } else {
+                lines.rewind();
+                break;
             }
         }
 
-        if (false) {
-            System.out.println("totalPercent=" + result.totalPercent);
-            System.out.println("totalUser=" + result.totalUser);
-            System.out.println("totalKernel=" + result.totalKernel);
-            System.out.println("totalIoWait=" + result.totalIoWait);
-            System.out.println("totalSoftIrq=" + result.totalSoftIrq);
-        }
-
         return result;
     }
 
-}
+    /**
+     * Fill in the sampling period from the "CPU usage from" line in mCpuUsageRe.
+     */
+    private void parseHeader(CpuUsageSnapshot result) {
+        result.msStart = Long.parseLong(mCpuUsageRe.group(1));
+        result.msEnd = Long.parseLong(mCpuUsageRe.group(2));
+        result.later = "later".equals(mCpuUsageRe.group(3));
+        result.timeStart = mCpuUsageRe.group(4);
+        result.timeEnd = mCpuUsageRe.group(5);
+        result.awakePercent = Utils.getInt(mCpuUsageRe, 6, -1);
+
+        final int defaultYear = (new GregorianCalendar(Utils.UTC)).get(Calendar.YEAR);
+        if (result.timeStart != null && Utils.matches(mTimeRe, result.timeStart)) {
+            result.startTime = Utils.parseTimeMillis(mTimeRe, 1, true, defaultYear) * 1000000L;
+        }
+        if (result.timeEnd != null && Utils.matches(mTimeRe, result.timeEnd)) {
+            result.endTime = Utils.parseTimeMillis(mTimeRe, 1, true, defaultYear) * 1000000L;
+        }
+    }
 
+    /**
+     * Gets a group from the matcher as a float, or 0 if it wasn't set.
+     */
+    private static float getFloat(Matcher matcher, int group) {
+        final String str = matcher.group(group);
+        return str != null ? Float.parseFloat(str) : 0;
+    }
+}
@@ -16,20 +16,255 @@
 
 package com.android.bugreport.cpuinfo;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
- * Incomplete - Contains a set of rows from the cpu usage table.
+ * Contains a set of rows from the cpu usage table, from one "CPU usage from ..."
+ * block up to its TOTAL line.
+ *
+ * Like {@link com.android.bugreport.logcat.Logcat}, the rows are kept in parallel
+ * primitive arrays (columns) instead of one object per row.  Rows are added with
+ * {@link #add} and read back a column at a time, or into a {@link CpuUsage}.
  */
 public class CpuUsageSnapshot {
+    /**
+     * Value of startTime and endTime when the block didn't say.
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
+    private static final int INITIAL_CAPACITY = 32;
+
+    private static final byte FLAG_THREAD = 1;
+    private static final byte FLAG_ADDED = 2;
+    private static final byte FLAG_REMOVED = 4;
+
+    /**
+     * The beginning of the sampling period, in milliseconds before (or after, if
+     * later is set) the block was printed.
+     */
     public long msStart;
+
+    /**
+     * The end of the sampling period, in milliseconds before (or after, if later
+     * is set) the block was printed.
+     */
     public long msEnd;
+
+    /**
+     * Whether the block said "later" instead of "ago".
+     */
+    public boolean later;
+
+    /**
+     * The beginning and end of the sampling period as printed, or null.
+     */
     public String timeStart;
     public String timeEnd;
-    public ArrayList<CpuUsage> cpuUsage = new ArrayList<CpuUsage>();;
+
+    /**
+     * The beginning and end of the sampling period, in nanoseconds since the epoch
+     * (the same as LogLine.time), or NO_TIME.
+     */
+    public long startTime = NO_TIME;
+    public long endTime = NO_TIME;
+
+    /**
+     * How much of the sampling period the device was awake, or -1 if not known.
+     */
+    public int awakePercent = -1;
+
+    /**
+     * The TOTAL line.
+     */
     public float totalPercent;
     public float totalUser;
     public float totalKernel;
     public float totalIoWait;
+    public float totalIrq;
     public float totalSoftIrq;
+
+    // The columns.
+    private int mCount;
+    private int[] mPids = new int[INITIAL_CAPACITY];
+    private String[] mNames = new String[INITIAL_CAPACITY];
+    private float[] mPercents = new float[INITIAL_CAPACITY];
+    private float[] mUsers = new float[INITIAL_CAPACITY];
+    private float[] mKernels = new float[INITIAL_CAPACITY];
+    private float[] mIoWaits = new float[INITIAL_CAPACITY];
+    private float[] mIrqs = new float[INITIAL_CAPACITY];
+    private float[] mSoftIrqs = new float[INITIAL_CAPACITY];
+    private int[] mMinorFaults = new int[INITIAL_CAPACITY];
+    private int[] mMajorFaults = new int[INITIAL_CAPACITY];
+    private byte[] mFlags = new byte[INITIAL_CAPACITY];
+
+    /**
+     * For each row, the row of its process.  A process row points at itself.
+     */
+    private int[] mProcessRows = new int[INITIAL_CAPACITY];
+
+    /**
+     * Add a row to the end of the table.  A thread row belongs to the last
+     * process row added before it.
+     */
+    public void add(CpuUsage row) {
+        if (mCount == mPids.length) {
+            final int capacity = mCount * 2;
+            mPids = Arrays.copyOf(mPids, capacity);
+            mNames = Arrays.copyOf(mNames, capacity);
+            mPercents = Arrays.copyOf(mPercents, capacity);
+            mUsers = Arrays.copyOf(mUsers, capacity);
+            mKernels = Arrays.copyOf(mKernels, capacity);
+            mIoWaits = Arrays.copyOf(mIoWaits, capacity);
+            mIrqs = Arrays.copyOf(mIrqs, capacity);
+            mSoftIrqs = Arrays.copyOf(mSoftIrqs, capacity);
+            mMinorFaults = Arrays.copyOf(mMinorFaults, capacity);
+            mMajorFaults = Arrays.copyOf(mMajorFaults, capacity);
+            mFlags = Arrays.copyOf(mFlags, capacity);
+            mProcessRows = Arrays.copyOf(mProcessRows, capacity);
+        }
+        mPids[mCount] = row.pid;
+        mNames[mCount] = row.name;
+        mPercents[mCount] = row.percent;
+        mUsers[mCount] = row.user;
+        mKernels[mCount] = row.kernel;
+        mIoWaits[mCount] = row.ioWait;
+        mIrqs[mCount] = row.irq;
+        mSoftIrqs[mCount] = row.softIrq;
+        mMinorFaults[mCount] = row.minorFaults;
+        mMajorFaults[mCount] = row.majorFaults;
+        mFlags[mCount] = (byte)((row.thread ? FLAG_THREAD : 0)
+                | (row.added ? FLAG_ADDED : 0)
+                | (row.removed ? FLAG_REMOVED : 0));
+        if (row.thread && mCount > 0) {
+            mProcessRows[mCount] = mProcessRows[mCount - 1];
+        } else {
+            mProcessRows[mCount] = mCount;
+        }
+        mCount++;
+    }
+
+    /**
+     * Return the number of rows, processes and threads together.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Copy the row at index into row, and return it.
+     */
+    public CpuUsage get(int index, CpuUsage row) {
+        row.pid = mPids[index];
+        row.name = mNames[index];
+        row.percent = mPercents[index];
+        row.user = mUsers[index];
+        row.kernel = mKernels[index];
+        row.ioWait = mIoWaits[index];
+        row.irq = mIrqs[index];
+        row.softIrq = mSoftIrqs[index];
+        row.minorFaults = mMinorFaults[index];
+        row.majorFaults = mMajorFaults[index];
+        row.thread = (mFlags[index] & FLAG_THREAD) != 0;
+        row.added = (mFlags[index] & FLAG_ADDED) != 0;
+        row.removed = (mFlags[index] & FLAG_REMOVED) != 0;
+        return row;
+    }
+
+    /**
+     * Return a new CpuUsage with the row at index.
+     */
+    public CpuUsage get(int index) {
+        return get(index, new CpuUsage());
+    }
+
+    /**
+     * Return the pid (or tid, for a thread) of the row at index.
+     */
+    public int getPid(int index) {
+        return mPids[index];
+    }
+
+    /**
+     * Return the process or thread name of the row at index.
+     */
+    public String getName(int index) {
+        return mNames[index];
+    }
+
+    /**
+     * Return the total cpu percent of the row at index.
+     */
+    public float getPercent(int index) {
+        return mPercents[index];
+    }
+
+    /**
+     * Return whether the row at index is a thread.
+     */
+    public boolean isThread(int index) {
+        return (mFlags[index] & FLAG_THREAD) != 0;
+    }
+
+    /**
+     * Return the row of the process that the row at index belongs to.
+     */
+    public int getProcessRow(int index) {
+        return mProcessRows[index];
+    }
+
+    /**
+     * Return the row for the process, or -1 if it isn't in the table.
+     */
+    public int findProcess(int pid) {
+        final int N = mCount;
+        for (int i=0; i<N; i++) {
+            if (mPids[i] == pid && (mFlags[i] & FLAG_THREAD) == 0) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Return the rows of the processes that used the most cpu, busiest first,
+     * and no more than max of them.
+     */
+    public int[] getTopProcesses(int max) {
+        int count = 0;
+        final int N = mCount;
+        final int[] rows = new int[N];
+        for (int i=0; i<N; i++) {
+            if ((mFlags[i] & FLAG_THREAD) == 0) {
+                rows[count++] = i;
+            }
+        }
+        // Insertion sort on percent, keeping the table order for ties.  The
+        // tables are printed busiest first, so this is usually already done.
+        for (int i=1; i<count; i++) {
+            final int row = rows[i];
+            int j = i - 1;
+            while (j >= 0 && mPercents[rows[j]] < mPercents[row]) {
+                rows[j + 1] = rows[j];
+                j--;
+            }
+            rows[j + 1] = row;
+        }
+        return Arrays.copyOf(rows, Math.min(count, max));
+    }
+
+    /**
+     * Return the rows of the threads listed under the process row.
+     */
+    public int[] getThreads(int processRow) {
+        int end = processRow + 1;
+        while (end < mCount && mProcessRows[end] == processRow
+                && (mFlags[end] & FLAG_THREAD) != 0) {
+            end++;
+        }
+        final int[] result = new int[end - processRow - 1];
+        for (int i=0; i<result.length; i++) {
+            result[i] = processRow + 1 + i;
+        }
+        return result;
+    }
 }
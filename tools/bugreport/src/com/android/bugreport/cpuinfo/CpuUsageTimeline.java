@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.cpuinfo;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * The cpu usage snapshots from all of the places that have them (the anr report,
+ * the monkey log, dumpsys cpuinfo), put in time order so they can be looked at
+ * together.
+ *
+ * Snapshots with a time go in order of their start time.  The ones without one
+ * go at the end, in the order they were added.
+ */
+public class CpuUsageTimeline {
+    private final ArrayList<CpuUsageSnapshot> mSnapshots = new ArrayList<CpuUsageSnapshot>();
+    private final ArrayList<String> mSources = new ArrayList<String>();
+
+    /**
+     * Each process's cpu percent in each snapshot.  Made when first asked for.
+     */
+    private HashMap<Integer,float[]> mProcessPercents;
+
+    /**
+     * Add a snapshot.  Source says where it came from, e.g. "anr".  Adding the
+     * same snapshot again does nothing.
+     */
+    public void add(String source, CpuUsageSnapshot snapshot) {
+        final int N = mSnapshots.size();
+        for (int i=0; i<N; i++) {
+            if (mSnapshots.get(i) == snapshot) {
+                return;
+            }
+        }
+
+        int index = N;
+        if (snapshot.startTime != CpuUsageSnapshot.NO_TIME) {
+            for (int i=0; i<N; i++) {
+                final long time = mSnapshots.get(i).startTime;
+                if (time == CpuUsageSnapshot.NO_TIME || time > snapshot.startTime) {
+                    index = i;
+                    break;
+                }
+            }
+        }
+        mSnapshots.add(index, snapshot);
+        mSources.add(index, source);
+        mProcessPercents = null;
+    }
+
+    /**
+     * Return the number of snapshots.
+     */
+    public int size() {
+        return mSnapshots.size();
+    }
+
+    /**
+     * Return the snapshot at index.
+     */
+    public CpuUsageSnapshot get(int index) {
+        return mSnapshots.get(index);
+    }
+
+    /**
+     * Return where the snapshot at index came from.
+     */
+    public String getSource(int index) {
+        return mSources.get(index);
+    }
+
+    /**
+     * Return the indices of the snapshots whose sampling period overlaps the
+     * [begin,end) time range.  Snapshots without a time are never included.
+     */
+    public int[] findOverlapping(long begin, long end) {
+        final int N = mSnapshots.size();
+        final int[] result = new int[N];
+        int count = 0;
+        for (int i=0; i<N; i++) {
+            final CpuUsageSnapshot snapshot = mSnapshots.get(i);
+            if (snapshot.startTime == CpuUsageSnapshot.NO_TIME
+                    || snapshot.endTime == CpuUsageSnapshot.NO_TIME) {
+                continue;
+            }
+            if (snapshot.startTime < end && snapshot.endTime >= begin) {
+                result[count++] = i;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Return the cpu percent of the process in each snapshot, in the same order
+     * as the snapshots.  The entry is NaN for the snapshots the process isn't in.
+     */
+    public float[] getProcessPercents(int pid) {
+        if (mProcessPercents == null) {
+            mProcessPercents = makeProcessPercents();
+        }
+        final float[] result = mProcessPercents.get(pid);
+        if (result != null) {
+            return result;
+        }
+        final float[] missing = new float[mSnapshots.size()];
+        Arrays.fill(missing, Float.NaN);
+        return missing;
+    }
+
+    /**
+     * Go through all the snapshots once and make the series for every process.
+     */
+    private HashMap<Integer,float[]> makeProcessPercents() {
+        final HashMap<Integer,float[]> result = new HashMap<Integer,float[]>();
+        final int N = mSnapshots.size();
+        for (int i=0; i<N; i++) {
+            final CpuUsageSnapshot snapshot = mSnapshots.get(i);
+            final int R = snapshot.size();
+            for (int j=0; j<R; j++) {
+                if (snapshot.isThread(j)) {
+                    continue;
+                }
+                float[] percents = result.get(snapshot.getPid(j));
+                if (percents == null) {
+                    percents = new float[N];
+                    Arrays.fill(percents, Float.NaN);
+                    result.put(snapshot.getPid(j), percents);
+                }
+                percents[i] = snapshot.getPercent(j);
+            }
+        }
+        return result;
+    }
+}
@@ -17,11 +17,13 @@
 package com.android.bugreport.html;
 
 import com.android.bugreport.anr.Anr;
+import com.android.bugreport.anr.AnrIndex;
 import com.android.bugreport.bugreport.Bugreport;
 import com.android.bugreport.cpuinfo.CpuUsage;
 import com.android.bugreport.cpuinfo.CpuUsageSnapshot;
-import com.android.bugreport.logcat.Logcat;
+import com.android.bugreport.cpuinfo.CpuUsageTimeline;
 import com.android.bugreport.logcat.LogLine;
+import com.android.bugreport.logcat.MergedLogcat;
 import com.android.bugreport.stacks.ProcessSnapshot;
 import com.android.bugreport.stacks.JavaStackFrameSnapshot;
 import com.android.bugreport.stacks.KernelStackFrameSnapshot;
@@ -37,36 +39,121 @@ import com.google.clearsilver.jsilver.autoescape.EscapeMode;
 import com.google.clearsilver.jsilver.data.Data;
 import com.google.clearsilver.jsilver.resourceloader.ClassResourceLoader;
 
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.Writer;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 /**
  * Formats a bugreport as html and writes the file.
  */
 public class Renderer {
+    /**
+     * The comment the template leaves where a streamed section goes.
+     */
+    private static final Pattern STREAM_MARKER_RE
+            = Pattern.compile("<!-- STREAM (\\w+) -->");
+
+    /**
+     * The template engine.  It keeps the compiled templates, and can be shared
+     * by Renderers on different threads.
+     */
+    private final JSilver mJsilver;
+
     /**
      * The next id of the panel to use.
      */
     private int mNextPanelId;
 
+    /**
+     * Whether to write the logcat and the stack trace panels straight to the file
+     * instead of building hdf for them.
+     */
+    private boolean mStreaming;
+
+    /**
+     * The panel id of each process, when streaming.
+     */
+    private final IdentityHashMap<ProcessSnapshot,Integer> mPanelIds
+            = new IdentityHashMap<ProcessSnapshot,Integer>();
+
+    /**
+     * How many processes to show for each cpu usage snapshot, and how many threads
+     * for each of those.
+     */
+    private static final int TOP_CPU_PROCESSES = 10;
+    private static final int TOP_CPU_THREADS = 5;
+
+    /**
+     * How many processes to name in the triage panel.
+     */
+    private static final int TRIAGE_CPU_PROCESSES = 3;
+
+    private final CpuUsage mCpuUsage = new CpuUsage();
+
+    private final SimpleDateFormat mDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss");
+
+    /**
+     * Construct a Renderer with its own template engine.
+     */
     public Renderer() {
+        this(createJSilver());
     }
 
     /**
-     * Render the Bugreport into the html file.
+     * Construct a Renderer that uses the given template engine.
+     *
+     * @see #createJSilver
      */
-    public void render(File outFile, Bugreport bugreport) throws IOException {
-        // Load the template and renderer
+    public Renderer(JSilver jsilver) {
+        mJsilver = jsilver;
+    }
+
+    /**
+     * Make the template engine, set up to load the templates from our resources.
+     * The templates are compiled the first time they are used, and then cached.
+     */
+    public static JSilver createJSilver() {
         final JSilverOptions options = new JSilverOptions();
         options.setEscapeMode(EscapeMode.ESCAPE_HTML);
-        final JSilver jsilver = new JSilver(new ClassResourceLoader(getClass()), options);
-        final Data hdf = jsilver.createData(); 
+        options.setCacheTemplates(true);
+        options.setCompileTemplates(true);
+        return new JSilver(new ClassResourceLoader(Renderer.class), options);
+    }
+
+    /**
+     * Set whether to stream the big parts of the page.  When streaming, the triage
+     * panel and the navigation still come from the template, but the logcat and the
+     * stack trace panels are written directly to the file as it goes, so the memory
+     * used doesn't grow with the size of the logcat.
+     *
+     * @see StreamingHtmlWriter
+     */
+    public void setStreaming(boolean streaming) {
+        mStreaming = streaming;
+    }
+
+    /**
+     * Render the Bugreport into the html file.
+     */
+    public void render(File outFile, Bugreport bugreport) throws IOException {
+        final Data hdf = mJsilver.createData();
+        mNextPanelId = 0;
+        mPanelIds.clear();
 
         // Build the hierarchical data format data structure
         makeHdf(hdf, bugreport);
@@ -76,9 +163,71 @@ public class Renderer {
         }
 
         // Render it
+        if (mStreaming) {
+            renderStreaming(outFile, bugreport, hdf);
+        } else {
+            render(outFile, "anr-template.html", hdf);
+        }
+    }
+
+    /**
+     * Render the template, which is small because the hdf doesn't have the big parts,
+     * and write the big parts where the template left markers for them.
+     */
+    private void renderStreaming(File outFile, Bugreport bugreport, Data hdf)
+            throws IOException {
+        final StringBuilder page = new StringBuilder();
+        mJsilver.render("anr-template.html", hdf, page);
+
+        final Writer writer = new BufferedWriter(new FileWriter(outFile));
+        try {
+            final StreamingHtmlWriter html = new StreamingHtmlWriter(writer);
+            final Matcher m = STREAM_MARKER_RE.matcher(page);
+            int pos = 0;
+            while (m.find()) {
+                writer.append(page, pos, m.start());
+                final String section = m.group(1);
+                if ("logcat".equals(section)) {
+                    html.writeLogcat(bugreport.mergedLogcat);
+                } else if ("monkey".equals(section) && bugreport.monkeyAnr != null) {
+                    html.writeProcessPanels(bugreport.monkeyAnr.vmTraces.processes, mPanelIds);
+                } else if ("vmTracesLastAnr".equals(section)
+                        && bugreport.vmTracesLastAnr != null) {
+                    html.writeProcessPanels(bugreport.vmTracesLastAnr.processes, mPanelIds);
+                } else if ("vmTracesJustNow".equals(section)
+                        && bugreport.vmTracesJustNow != null) {
+                    html.writeProcessPanels(bugreport.vmTracesJustNow.processes, mPanelIds);
+                }
+                pos = m.end();
+            }
+            writer.append(page, pos, page.length());
+            writer.close();
+        } catch (IOException ex) {
+            // Delete the file so we don't leave half-written files laying around.
+            try {
+                writer.close();
+            } catch (IOException e) {
+            }
+            outFile.delete();
+            // And rethrow the exception.
+            throw ex;
+        }
+    }
+
+    /**
+     * Make an empty hdf to pass to render(File, String, Data).
+     */
+    public Data createData() {
+        return mJsilver.createData();
+    }
+
+    /**
+     * Render the hdf with the given template into the html file.
+     */
+    public void render(File outFile, String template, Data hdf) throws IOException {
         final FileWriter writer = new FileWriter(outFile);
         try {
-            jsilver.render("anr-template.html", hdf, writer);
+            mJsilver.render(template, hdf, writer);
             writer.close();
         } catch (IOException ex) {
             // Delete the file so we don't leave half-written files laying around.
@@ -101,6 +250,9 @@ public class Renderer {
 
         // Logcat
         makeLogcatHdf(hdf.createChild("logcat"), bugreport);
+        if (mStreaming) {
+            hdf.setValue("streaming", "1");
+        }
 
         // Monkey Anr
         if (bugreport.monkeyAnr != null) {
@@ -114,18 +266,17 @@ public class Renderer {
         // VM Traces Just Now
         makeVmTracesHdf(hdf.createChild("vmTracesJustNow"), bugreport.anr,
                 bugreport.vmTracesJustNow);
+
+        // CPU Usage
+        if (bugreport.cpuUsageTimeline != null) {
+            makeCpuUsageTimelineHdf(hdf.createChild("cpuUsage"), bugreport);
+        }
     }
 
     /**
      * Build the hdf for an Anr.
      */
     private void makeAnrHdf(Data hdf, Anr anr) {
-        // CPU Usage
-        final int N = anr.cpuUsages.size();
-        for (int i=0; i<N; i++) {
-            makeCpuUsageSnapshotHdf(hdf.createChild("monkey.cpuUsage." + i), anr.cpuUsages.get(i));
-        }
-
         // Processes
         makeVmTracesHdf(hdf.createChild("monkey"), anr, anr.vmTraces);
     }
@@ -139,8 +290,17 @@ public class Renderer {
         sortProcesses(anr, vmTraces.processes);
         final int N = vmTraces.processes.size();
         for (int i=0; i<N; i++) {
-            makeProcessSnapshotHdf(processesHdf.createChild(Integer.toString(i)),
-                    vmTraces.processes.get(i));
+            final ProcessSnapshot process = vmTraces.processes.get(i);
+            if (mStreaming) {
+                // Just enough for the navigation.  The panel is streamed.
+                final Data processHdf = processesHdf.createChild(Integer.toString(i));
+                mPanelIds.put(process, mNextPanelId);
+                processHdf.setValue("panelId", Integer.toString(mNextPanelId++));
+                processHdf.setValue("pid", Integer.toString(process.pid));
+                processHdf.setValue("cmdLine", process.cmdLine);
+            } else {
+                makeProcessSnapshotHdf(processesHdf.createChild(Integer.toString(i)), process);
+            }
         }
     }
 
@@ -163,6 +323,28 @@ public class Renderer {
         hdf.setValue("triage.componentClass", anr.componentClass);
         hdf.setValue("triage.pid", Integer.toString(anr.pid));
         hdf.setValue("triage.reason", anr.reason);
+        hdf.setValue("triage.signature", anr.signature);
+
+        // How busy the device was
+        if (anr.busiestCpuUsage != null) {
+            if (anr.cpuBound) {
+                hdf.setValue("triage.cpuBound", "1");
+            }
+            makeCpuUsageSnapshotHdf(hdf.createChild("triage.cpuUsage"), anr.busiestCpuUsage,
+                    TRIAGE_CPU_PROCESSES, 0);
+        }
+
+        // Earlier bugreports with the same anr
+        N = anr.previousOccurrences.size();
+        for (int i=0; i<N; i++) {
+            final AnrIndex.Occurrence occurrence = anr.previousOccurrences.get(i);
+            final Data occurrenceHdf = hdf.createChild("triage.previousOccurrences." + i);
+            occurrenceHdf.setValue("bugreport", occurrence.bugreport);
+            occurrenceHdf.setValue("time", mDateFormat.format(new Date(occurrence.time)));
+            if (occurrence.html != null) {
+                occurrenceHdf.setValue("html", new File(occurrence.html).toURI().toString());
+            }
+        }
 
         final ProcessSnapshot offendingProcess = anr.vmTraces.getProcess(anr.pid);
         final ThreadSnapshot offendingThread = anr.vmTraces.getThread(anr.pid, "main");
@@ -228,21 +410,91 @@ public class Renderer {
     }
 
     /**
-     * Build the hdf for a CpuUsageSnapshot.
+     * Build the hdf for all of the cpu usage snapshots, in time order.
      */
-    private void makeCpuUsageSnapshotHdf(Data hdf, CpuUsageSnapshot snapshot) {
-        int N;
+    private void makeCpuUsageTimelineHdf(Data hdf, Bugreport bugreport) {
+        final CpuUsageTimeline timeline = bugreport.cpuUsageTimeline;
+        final CpuUsageSnapshot busiest = bugreport.anr != null
+                ? bugreport.anr.busiestCpuUsage
+                : null;
 
-        N = snapshot.cpuUsage.size();
+        final int N = timeline.size();
         for (int i=0; i<N; i++) {
-            makeCpuUsageHdf(hdf.createChild(Integer.toString(i)), snapshot.cpuUsage.get(i));
+            final CpuUsageSnapshot snapshot = timeline.get(i);
+            final Data snapshotHdf = hdf.createChild("snapshots." + i);
+            snapshotHdf.setValue("source", timeline.getSource(i));
+            if (snapshot == busiest) {
+                snapshotHdf.setValue("busiest", "1");
+            }
+            makeCpuUsageSnapshotHdf(snapshotHdf, snapshot, TOP_CPU_PROCESSES, TOP_CPU_THREADS);
         }
     }
 
     /**
-     * Build the hdf for a CpuUsage.
+     * Build the hdf for a CpuUsageSnapshot, with the top maxProcesses processes
+     * and the top maxThreads threads of each.
      */
-    private void makeCpuUsageHdf(Data hdf, CpuUsage cpuUsage) {
+    private void makeCpuUsageSnapshotHdf(Data hdf, CpuUsageSnapshot snapshot,
+            int maxProcesses, int maxThreads) {
+        String period = "from " + snapshot.msStart + "ms to " + snapshot.msEnd + "ms "
+                + (snapshot.later ? "later" : "ago");
+        if (snapshot.timeStart != null) {
+            period += " (" + snapshot.timeStart + " to " + snapshot.timeEnd + ")";
+        }
+        hdf.setValue("period", period);
+        if (snapshot.awakePercent >= 0) {
+            hdf.setValue("awakePercent", Integer.toString(snapshot.awakePercent));
+        }
+        hdf.setValue("totalPercent", formatPercent(snapshot.totalPercent));
+        hdf.setValue("totalUser", formatPercent(snapshot.totalUser));
+        hdf.setValue("totalKernel", formatPercent(snapshot.totalKernel));
+        hdf.setValue("totalIoWait", formatPercent(snapshot.totalIoWait));
+        hdf.setValue("totalIrq", formatPercent(snapshot.totalIrq));
+        hdf.setValue("totalSoftIrq", formatPercent(snapshot.totalSoftIrq));
+
+        final int[] processes = snapshot.getTopProcesses(maxProcesses);
+        for (int i=0; i<processes.length; i++) {
+            final Data processHdf = hdf.createChild("processes." + i);
+            makeCpuUsageHdf(processHdf, snapshot, processes[i]);
+
+            final int[] threads = snapshot.getThreads(processes[i]);
+            final int T = Math.min(threads.length, maxThreads);
+            for (int j=0; j<T; j++) {
+                makeCpuUsageHdf(processHdf.createChild("threads." + j), snapshot, threads[j]);
+            }
+        }
+    }
+
+    /**
+     * Build the hdf for one row of a CpuUsageSnapshot.
+     */
+    private void makeCpuUsageHdf(Data hdf, CpuUsageSnapshot snapshot, int row) {
+        final CpuUsage cpuUsage = snapshot.get(row, mCpuUsage);
+        hdf.setValue("pid", Integer.toString(cpuUsage.pid));
+        hdf.setValue("name", cpuUsage.name);
+        hdf.setValue("percent", formatPercent(cpuUsage.percent));
+        hdf.setValue("user", formatPercent(cpuUsage.user));
+        hdf.setValue("kernel", formatPercent(cpuUsage.kernel));
+        hdf.setValue("ioWait", formatPercent(cpuUsage.ioWait));
+        hdf.setValue("minorFaults", Integer.toString(cpuUsage.minorFaults));
+        hdf.setValue("majorFaults", Integer.toString(cpuUsage.majorFaults));
+        if (cpuUsage.added) {
+            hdf.setValue("added", "1");
+        }
+        if (cpuUsage.removed) {
+            hdf.setValue("removed", "1");
+        }
+    }
+
+    /**
+     * Format a percent the way the cpu usage table does: one decimal place under
+     * ten, none otherwise.
+     */
+    private static String formatPercent(float percent) {
+        if (percent < 10 && percent > -10 && percent != (int)percent) {
+            return String.format(Locale.US, "%.1f", percent);
+        }
+        return Integer.toString(Math.round(percent));
     }
 
     /**
@@ -301,7 +553,7 @@ public class Renderer {
     /**
      * Combine package, class and method into fully qualified name.
      */
-    private String buildFunctionName(String pkg, String cls, String meth) {
+    static String buildFunctionName(String pkg, String cls, String meth) {
         final StringBuilder result = new StringBuilder();
         if (pkg != null && pkg.length() > 0) {
             result.append(pkg);
@@ -488,32 +740,38 @@ public class Renderer {
     }
     
     /**
-     * Make the hdf for the logcat panel.
+     * Make the hdf for the logcat panel.  Streams through the merged logcat once,
+     * and numbers the lines by their position in it.  When streaming, only the
+     * interesting lines are put in the hdf.
      */
     private void makeLogcatHdf(Data hdf, Bugreport bugreport) {
-        int N;
+        final Set<LogLine> interesting = Collections.newSetFromMap(
+                new IdentityHashMap<LogLine,Boolean>());
+        interesting.addAll(bugreport.interestingLogLines);
 
         final Data interestingHdf = hdf.createChild("interesting");
-        N = bugreport.interestingLogLines.size();
-        for (int i=0; i<N; i++) {
-            final LogLine line = bugreport.interestingLogLines.get(i);
-            makeLogcatLineHdf(interestingHdf.createChild(Integer.toString(i)), line);
-        }
-
-        final Logcat logcat = bugreport.logcat;
         final Data linesHdf = hdf.createChild("lines");
-        N = logcat.lines.size();
-        for (int i=0; i<N; i++) {
-            final LogLine line = logcat.lines.get(i);
-            makeLogcatLineHdf(linesHdf.createChild(Integer.toString(i)), line);
+        int interestingCount = 0;
+        final MergedLogcat.Cursor cursor = bugreport.mergedLogcat.cursor();
+        while (cursor.next()) {
+            final LogLine line = cursor.getLine();
+            final int position = cursor.getPosition();
+            if (interesting.contains(line)) {
+                makeLogcatLineHdf(interestingHdf.createChild(Integer.toString(interestingCount++)),
+                        line, position);
+            }
+            if (!mStreaming) {
+                makeLogcatLineHdf(linesHdf.createChild(Integer.toString(position - 1)), line,
+                        position);
+            }
         }
     }
 
     /**
      * Make hdf for a line of logcat.
      */
-    private void makeLogcatLineHdf(Data hdf, LogLine line) {
-        hdf.setValue("lineno", Integer.toString(line.lineno));
+    private void makeLogcatLineHdf(Data hdf, LogLine line, int position) {
+        hdf.setValue("lineno", Integer.toString(position));
         if (line.bufferBegin != null) {
             hdf.setValue("bufferBegin", line.bufferBegin);
             hdf.setValue("rawText", line.rawText);
@@ -529,14 +787,21 @@ public class Renderer {
                 hdf.setValue("regionBugreport", "1");
             }
 
-            String title = "Process: ??";
-            if (line.process != null) {
-                title = "Process: " + line.process.cmdLine;
-                if (line.thread != null) {
-                    title += "\nThread: " + line.thread.name;
-                }
+            hdf.setValue("title", makeLogcatLineTitle(line));
+        }
+    }
+
+    /**
+     * Make the tooltip for a line of logcat.
+     */
+    static String makeLogcatLineTitle(LogLine line) {
+        String title = "Process: ??";
+        if (line.process != null) {
+            title = "Process: " + line.process.cmdLine;
+            if (line.thread != null) {
+                title += "\nThread: " + line.thread.name;
             }
-            hdf.setValue("title", title);
         }
+        return title;
     }
 }
@@ -0,0 +1,363 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.html;
+
+import com.android.bugreport.logcat.LogLine;
+import com.android.bugreport.logcat.MergedLogcat;
+import com.android.bugreport.stacks.JavaStackFrameSnapshot;
+import com.android.bugreport.stacks.KernelStackFrameSnapshot;
+import com.android.bugreport.stacks.LockSnapshot;
+import com.android.bugreport.stacks.NativeStackFrameSnapshot;
+import com.android.bugreport.stacks.ProcessSnapshot;
+import com.android.bugreport.stacks.StackFrameSnapshot;
+import com.android.bugreport.stacks.ThreadSnapshot;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+/**
+ * Writes the big parts of the html page, the logcat and the stack traces, straight
+ * to the output instead of building hdf for them.  The markup is the same as what
+ * anr-template.html makes for them.
+ *
+ * The logcat is written in chunks.  Each chunk is in a template element with a
+ * guess at its height, and the javascript in the page only turns a chunk into
+ * real elements when it is scrolled near, so the browser doesn't have to lay out
+ * millions of lines up front either.
+ */
+public class StreamingHtmlWriter {
+    /**
+     * How many logcat lines go in each chunk.
+     */
+    private static final int LOGCAT_CHUNK_SIZE = 1000;
+
+    /**
+     * About how tall a logcat line is, in ems, for the height of chunks that
+     * aren't loaded yet.
+     */
+    private static final double LOGCAT_LINE_HEIGHT_EM = 1.1;
+
+    private final Writer mOut;
+
+    /**
+     * Construct a StreamingHtmlWriter that writes to out.
+     */
+    public StreamingHtmlWriter(Writer out) {
+        mOut = out;
+    }
+
+    /**
+     * Write all of the lines of the logcat, in chunks.
+     */
+    public void writeLogcat(MergedLogcat logcat) throws IOException {
+        final MergedLogcat.Cursor cursor = logcat.cursor();
+        final int N = logcat.size();
+        while (cursor.next()) {
+            final int position = cursor.getPosition();
+            final int offset = (position - 1) % LOGCAT_CHUNK_SIZE;
+            if (offset == 0) {
+                final int count = Math.min(LOGCAT_CHUNK_SIZE, N - position + 1);
+                mOut.write("<div class=\"LogcatChunk\" data-first=\"" + position
+                        + "\" data-last=\"" + (position + count - 1)
+                        + "\" style=\"height: " + (count * LOGCAT_LINE_HEIGHT_EM)
+                        + "em\"><template>\n");
+            }
+            writeLogcatLine(cursor.getLine(), position);
+            if (offset == LOGCAT_CHUNK_SIZE - 1 || position == N) {
+                mOut.write("</template></div>\n");
+            }
+        }
+    }
+
+    /**
+     * Write one line of logcat.
+     */
+    private void writeLogcatLine(LogLine line, int position) throws IOException {
+        mOut.write("<div class=\"LogcatLine LogLevel");
+        if (line.bufferBegin == null) {
+            mOut.write(line.level);
+        }
+        mOut.write("\" id=\"logcat_line_" + position + "\">");
+        final boolean regionAnr = line.bufferBegin == null && line.regionAnr;
+        final boolean regionBugreport = line.bufferBegin == null && line.regionBugreport;
+        mOut.write(regionAnr ? "<div class=\"LogcatMarkerAnr\"></div>"
+                : "<div class=\"LogcatMarkerSpacer\"></div>");
+        mOut.write(regionBugreport ? "<div class=\"LogcatMarkerBugreport\"></div>"
+                : "<div class=\"LogcatMarkerSpacer\"></div>");
+        if (line.bufferBegin != null) {
+            mOut.write("<div class=\"LogcatBufferBegin\">");
+            writeEscaped(line.rawText);
+            mOut.write("</div>");
+        } else {
+            mOut.write("<div class=\"LogcatHeader\" title=\"");
+            writeEscaped(Renderer.makeLogcatLineTitle(line));
+            mOut.write("\">");
+            writeEscaped(line.header);
+            mOut.write("</div><div class=\"LogcatData\"><span class=\"LogcatTag\">");
+            writeEscaped(line.tag);
+            mOut.write("</span><span class=\"LogcatText\">: ");
+            writeEscaped(line.text);
+            mOut.write("</span></div>");
+        }
+        mOut.write("</div>\n");
+    }
+
+    /**
+     * Write a panel for each of the processes.  The panel ids are the ones that
+     * were used for them in the navigation hdf.
+     */
+    public void writeProcessPanels(List<ProcessSnapshot> processes,
+            IdentityHashMap<ProcessSnapshot,Integer> panelIds) throws IOException {
+        for (ProcessSnapshot process: processes) {
+            mOut.write("<div class=\"Panel\" id=\"panel_" + panelIds.get(process) + "\">\n");
+            writeProcess(process);
+            mOut.write("</div> <!-- Panel -->\n");
+        }
+    }
+
+    /**
+     * Write a process and all of its threads.
+     */
+    private void writeProcess(ProcessSnapshot process) throws IOException {
+        mOut.write("<div class=\"Process\">\n<div class=\"ProcessCmdLine\"><b>Process:</b> ");
+        writeEscaped(process.cmdLine);
+        mOut.write("</div>\n<div class=\"ProcessInfo\"><b>PID:</b> " + process.pid
+                + "<br>\n<div class=\"Extra\"><b>Timestamp:</b> ");
+        writeEscaped(process.date);
+        mOut.write("<br></div></div>\n");
+        for (ThreadSnapshot thread: process.threads) {
+            writeThread(process, thread);
+        }
+        mOut.write("</div>\n");
+    }
+
+    /**
+     * Write a thread and its stack.
+     */
+    private void writeThread(ProcessSnapshot process, ThreadSnapshot thread)
+            throws IOException {
+        mOut.write("<div class=\"Thread ");
+        if (thread.blocked) {
+            mOut.write("ThreadBlocked");
+        } else if (thread.isBinder()) {
+            mOut.write("ThreadBinder");
+        } else if (thread.interesting) {
+            mOut.write("ThreadInteresting");
+        }
+        mOut.write("\">\n<div class=\"ThreadName\">");
+        writeEscaped(thread.name);
+        mOut.write(" <span class=\"ThreadTid\">(");
+        writeTids(thread.tid, thread.sysTid);
+        mOut.write(")</span></div>\n<div class=\"ThreadInfo\">\n");
+        if (thread.runnable) {
+            mOut.write("<div>Runnable</div>\n");
+        }
+        final String outbound = Renderer.buildFunctionName(thread.outboundBinderPackage,
+                thread.outboundBinderClass, thread.outboundBinderMethod);
+        if (outbound.length() > 0) {
+            mOut.write("<div>Outbound binder call: ");
+            writeEscaped(outbound);
+            mOut.write("</div>\n");
+        }
+        final String inbound = Renderer.buildFunctionName(thread.inboundBinderPackage,
+                thread.inboundBinderClass, thread.inboundBinderMethod);
+        if (inbound.length() > 0) {
+            mOut.write("<div>Inbound binder call: ");
+            writeEscaped(inbound);
+            mOut.write("</div>\n");
+        }
+        if (thread.heldMutexes != null && thread.heldMutexes.length() > 0) {
+            mOut.write("<div class=\"ThreadHeldMutexes\">Held mutexes: ");
+            writeEscaped(thread.heldMutexes);
+            mOut.write("</div>\n");
+        }
+        mOut.write("<div class=\"ThreadExtras Extra\">VM State: ");
+        writeEscaped(thread.vmState);
+        mOut.write("<br>Priority: " + thread.priority + "<br>");
+        if (thread.daemon != null && thread.daemon.length() > 0) {
+            writeEscaped(thread.daemon);
+            mOut.write("<br>");
+        }
+        for (String attr: thread.attributeText) {
+            writeEscaped(attr);
+            mOut.write("<br>");
+        }
+        mOut.write("</div>\n</div>\n<table class=\"ThreadStack\">\n");
+        for (StackFrameSnapshot frame: thread.frames) {
+            writeFrame(process, frame);
+        }
+        mOut.write("</table>\n</div>\n");
+    }
+
+    /**
+     * Write one stack frame as a table row.
+     */
+    private void writeFrame(ProcessSnapshot process, StackFrameSnapshot frame)
+            throws IOException {
+        if (frame.frameType == StackFrameSnapshot.FRAME_TYPE_NATIVE) {
+            final NativeStackFrameSnapshot f = (NativeStackFrameSnapshot)frame;
+            mOut.write("<tr class=\"NativeFrame\"><td class=\"FrameType\">"
+                    + "<span class=\"FrameUnimportant\">native</span></td>"
+                    + "<td><span class=\"FrameImportant\">");
+            writeEscaped(f.symbol);
+            mOut.write("</span><span class=\"FrameUnimportant\">");
+            if (f.offset >= 0) {
+                mOut.write("+" + f.offset);
+            }
+            mOut.write(" ");
+            writeEscaped(f.library);
+            mOut.write("</span></td></tr>\n");
+
+        } else if (frame.frameType == StackFrameSnapshot.FRAME_TYPE_KERNEL) {
+            final KernelStackFrameSnapshot f = (KernelStackFrameSnapshot)frame;
+            mOut.write("<tr class=\"NativeFrame\"><td class=\"FrameType\">"
+                    + "<span class=\"FrameUnimportant\">kernel</span></td>"
+                    + "<td><span class=\"FrameImportant\">");
+            writeEscaped(f.syscall);
+            mOut.write("</span><span class=\"FrameUnimportant\">+" + f.offset0 + " / "
+                    + f.offset1 + "</span></td></tr>\n");
+
+        } else if (frame.frameType == StackFrameSnapshot.FRAME_TYPE_JAVA) {
+            final JavaStackFrameSnapshot f = (JavaStackFrameSnapshot)frame;
+            mOut.write("<tr class=\"\"><td class=\"FrameType\"><span class=\"FrameUnimportant\">"
+                    + (f.language == JavaStackFrameSnapshot.LANGUAGE_JAVA ? "java" : "jni")
+                    + "</span></td><td><span class=\"FrameImportant\">");
+            if (f.packageName != null && f.packageName.length() > 0) {
+                writeEscaped(f.packageName);
+                mOut.write(".");
+            }
+            writeEscaped(f.className);
+            mOut.write(".");
+            writeEscaped(f.methodName);
+            mOut.write("</span>");
+            if (f.sourceFile != null && f.sourceFile.length() > 0) {
+                mOut.write(" <span class=\"FrameUnimportant\">");
+                writeEscaped(f.sourceFile);
+                if (f.sourceLine != 0) {
+                    mOut.write(":" + f.sourceLine);
+                }
+                mOut.write("</span>");
+            }
+            for (LockSnapshot lock: f.locks) {
+                writeLock(process, lock);
+            }
+            mOut.write("</td></tr>\n");
+
+        } else {
+            mOut.write("<tr class=\"\"><td class=\"FrameType\"></td>"
+                    + "<td><span class=\"FrameUnimportant\">");
+            writeEscaped(frame.text);
+            mOut.write("</span></td></tr>\n");
+        }
+    }
+
+    /**
+     * Write a lock that a java frame has.
+     */
+    private void writeLock(ProcessSnapshot process, LockSnapshot lock) throws IOException {
+        mOut.write("<div class=\"FrameLock\"><span class=\"FrameUnimportant\">");
+        if (lock.type == LockSnapshot.LOCKED) {
+            mOut.write("locked");
+        } else if (lock.type == LockSnapshot.WAITING) {
+            mOut.write("waiting");
+        } else if (lock.type == LockSnapshot.BLOCKED) {
+            mOut.write("blocked");
+        }
+        if (lock.className != null && lock.className.length() > 0) {
+            mOut.write(" on a ");
+            if (lock.packageName != null && lock.packageName.length() > 0) {
+                writeEscaped(lock.packageName);
+                mOut.write(".");
+            }
+            writeEscaped(lock.className);
+            mOut.write(" (0x");
+            writeEscaped(lock.address);
+            mOut.write(")");
+            if (lock.threadId >= 0) {
+                mOut.write(" held by thread ");
+                final ThreadSnapshot referenced = process.getThread(lock.threadId);
+                if (referenced != null) {
+                    mOut.write("\"");
+                    writeEscaped(referenced.name);
+                    mOut.write("\" (");
+                    writeTids(lock.threadId, -1);
+                    mOut.write(")");
+                } else {
+                    mOut.write("tid " + lock.threadId);
+                }
+            }
+        } else {
+            mOut.write(" on an unknown object");
+        }
+        mOut.write("</span></div>");
+    }
+
+    /**
+     * Write the tid and sysTid, the same as render_tids in the template.
+     */
+    private void writeTids(int tid, int sysTid) throws IOException {
+        if (tid >= 0) {
+            mOut.write("tid=" + tid);
+        }
+        if (sysTid >= 0) {
+            if (tid >= 0) {
+                mOut.write(" ");
+            }
+            mOut.write("sysTid=" + sysTid);
+        }
+    }
+
+    /**
+     * Write the text with the html special characters escaped.  Null is written
+     * as nothing.
+     */
+    private void writeEscaped(String text) throws IOException {
+        if (text == null) {
+            return;
+        }
+        final int N = text.length();
+        int start = 0;
+        for (int i=0; i<N; i++) {
+            final String replacement;
+            switch (text.charAt(i)) {
+                case '&':
+                    replacement = "&amp;";
+                    break;
+                case '<':
+                    replacement = "&lt;";
+                    break;
+                case '>':
+                    replacement = "&gt;";
+                    break;
+                case '"':
+                    replacement = "&quot;";
+                    break;
+                case '\'':
+                    replacement = "&#39;";
+                    break;
+                default:
+                    continue;
+            }
+            mOut.write(text, start, i - start);
+            mOut.write(replacement);
+            start = i + 1;
+        }
+        mOut.write(text, start, N - start);
+    }
+}
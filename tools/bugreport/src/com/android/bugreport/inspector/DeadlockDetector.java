@@ -16,228 +16,301 @@
 
 package com.android.bugreport.inspector;
 
-import com.android.bugreport.anr.Anr;
 import com.android.bugreport.stacks.ProcessSnapshot;
-import com.android.bugreport.stacks.JavaStackFrameSnapshot;
 import com.android.bugreport.stacks.LockSnapshot;
-import com.android.bugreport.stacks.StackFrameSnapshot;
 import com.android.bugreport.stacks.ThreadSnapshot;
 import com.android.bugreport.stacks.VmTraces;
 
-import java.util.Map;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Set;
 import java.util.TreeSet;
-import java.util.HashMap;
 
 /**
- * Class to inspect an Anr object and determine which, if any threads are
- * in a cycle of lcoks and binder transactions.
+ * Class to inspect a VmTraces object and determine which, if any threads are
+ * in a cycle of locks and binder transactions.
+ *
+ * All of the threads in all of the processes are put into one wait-for graph.
+ * A thread has an edge to another thread when it is blocked on a lock that the
+ * other thread holds, or when it is making an outgoing binder call to an
+ * interface that the other thread is serving.  The cycles are the strongly
+ * connected components of that graph, which are found with Tarjan's algorithm
+ * in one pass.
  */
 public class DeadlockDetector {
+    private final VmTraces mVmTraces;
 
     /**
-     * Entry in our growing list of involved threads.
+     * All of the threads, indexed by node number.
      */
-    private static class ThreadRecord implements Comparable<ThreadRecord> {
-        public ProcessSnapshot process;
-        public ThreadSnapshot thread;
+    private final ArrayList<ProcessSnapshot> mProcesses = new ArrayList<ProcessSnapshot>();
+    private final ArrayList<ThreadSnapshot> mThreads = new ArrayList<ThreadSnapshot>();
 
-        public ThreadRecord(ProcessSnapshot process, ThreadSnapshot thread) {
-            this.process = process;
-            this.thread = thread;
-        }
+    /**
+     * The outgoing edges for each node.
+     */
+    private int[][] mEdges;
 
-        public boolean equals(ThreadRecord that) {
-            return this.process == that.process
-                    && this.thread == that.thread;
-        }
+    /**
+     * Construct a DeadlockDetector for the given VmTraces.
+     */
+    private DeadlockDetector(VmTraces vmTraces) {
+        mVmTraces = vmTraces;
+    }
 
-        @Override
-        public int hashCode() {
-            int hash = 7;
-            hash = hash * 31 + this.process.hashCode();
-            hash = hash * 31 + this.thread.hashCode();
-            return hash;
-        }
+    /**
+     * Detect all of the thread cycles in the vm traces.  Returns one set of processes for
+     * each cycle.  The processes are copies that contain only the threads in the cycle.
+     */
+    public static ArrayList<Set<ProcessSnapshot>> detectCycles(VmTraces vmTraces) {
+        final DeadlockDetector detector = new DeadlockDetector(vmTraces);
+        detector.buildGraph();
+        return detector.findCycles();
+    }
 
-        public int compareTo(ThreadRecord that) {
-            int cmp = this.process.compareTo(that.process);
-            if (cmp != 0) {
-                return cmp;
+    /**
+     * Detect all of the thread cycles in the vm traces.  Returns copies of the processes
+     * that contain only the threads that are in any cycle.
+     */
+    public static Set<ProcessSnapshot> detectDeadlocks(VmTraces vmTraces) {
+        final DeadlockDetector detector = new DeadlockDetector(vmTraces);
+        detector.buildGraph();
+        final ArrayList<Integer> nodes = new ArrayList<Integer>();
+        for (int[] cycle: detector.findCycleNodes()) {
+            for (int node: cycle) {
+                nodes.add(node);
             }
-            return this.thread.compareTo(that.thread);
         }
+        return detector.makeProcesses(nodes);
     }
 
     /**
-     * Entry in our growing list of involved threads.
+     * Number the threads, index the locks and binder interfaces, and make the edges.
      */
-    private static class LockRecord implements Comparable<LockRecord> {
-        public ProcessSnapshot process;
-        public LockSnapshot lock;
+    private void buildGraph() {
+        // Lock holders, per process.  Lock addresses are only unique within a process.
+        final ArrayList<HashMap<String,ArrayList<Integer>>> lockHolders
+                = new ArrayList<HashMap<String,ArrayList<Integer>>>();
+        final ArrayList<HashMap<Integer,Integer>> tids = new ArrayList<HashMap<Integer,Integer>>();
 
-        public LockRecord(ProcessSnapshot process, LockSnapshot lock) {
-            this.process = process;
-            this.lock = lock;
-        }
+        // Threads serving an incoming binder call, by interface.
+        final HashMap<String,ArrayList<Integer>> binderServers
+                = new HashMap<String,ArrayList<Integer>>();
 
-        public boolean equals(LockRecord that) {
-            return this.process == that.process
-                    && (this.lock.address == that.lock.address
-                            || (this.lock.address != null && that.lock.address != null
-                                && this.lock.address.equals(that.lock.address)));
-        }
+        for (ProcessSnapshot process: mVmTraces.processes) {
+            final HashMap<String,ArrayList<Integer>> holders
+                    = new HashMap<String,ArrayList<Integer>>();
+            final HashMap<Integer,Integer> processTids = new HashMap<Integer,Integer>();
+            for (ThreadSnapshot thread: process.threads) {
+                final int node = mThreads.size();
+                mProcesses.add(process);
+                mThreads.add(thread);
+                lockHolders.add(holders);
+                tids.add(processTids);
 
-        @Override
-        public int hashCode() {
-            int hash = 7;
-            hash = hash * 31 + this.process.hashCode();
-            if (this.lock.address != null) {
-                hash = hash * 31 + this.lock.address.hashCode();
+                if (thread.tid >= 0) {
+                    processTids.put(thread.tid, node);
+                }
+                for (LockSnapshot lock: thread.locks.values()) {
+                    if (lock.address != null && (lock.type & LockSnapshot.LOCKED) != 0) {
+                        getList(holders, lock.address).add(node);
+                    }
+                }
+                if (thread.inboundBinderClass != null) {
+                    getList(binderServers, makeBinderKey(thread.inboundBinderPackage,
+                            thread.inboundBinderClass)).add(node);
+                }
             }
-            return hash;
         }
 
-        public int compareTo(LockRecord that) {
-            int cmp = this.process.compareTo(that.process);
-            if (cmp != 0) {
-                return cmp;
+        final int N = mThreads.size();
+        mEdges = new int[N][];
+        final ArrayList<Integer> edges = new ArrayList<Integer>();
+        for (int node=0; node<N; node++) {
+            final ProcessSnapshot process = mProcesses.get(node);
+            final ThreadSnapshot thread = mThreads.get(node);
+            edges.clear();
+
+            // Locks that this thread is blocked on
+            for (LockSnapshot lock: thread.locks.values()) {
+                if (lock.address == null || (lock.type & LockSnapshot.BLOCKED) == 0) {
+                    continue;
+                }
+                // If the trace told us who holds it, believe that.
+                final Integer holder = lock.threadId >= 0 ? tids.get(node).get(lock.threadId)
+                        : null;
+                if (holder != null) {
+                    addEdge(edges, node, holder);
+                } else {
+                    final ArrayList<Integer> holders = lockHolders.get(node).get(lock.address);
+                    if (holders != null) {
+                        for (int other: holders) {
+                            addEdge(edges, node, other);
+                        }
+                    }
+                }
             }
-            if (this.lock.address == that.lock.address) {
-                return 0;
-            } else if (this.lock.address == null) {
-                return -1;
-            } else if (that.lock.address == null) {
-                return 1;
-            } else {
-                return this.lock.address.compareTo(that.lock.address);
+
+            // The threads that might be serving this thread's binder call
+            if (thread.outboundBinderClass != null) {
+                final ArrayList<Integer> servers = binderServers.get(makeBinderKey(
+                        thread.outboundBinderPackage, thread.outboundBinderClass));
+                if (servers != null) {
+                    for (int other: servers) {
+                        final ThreadSnapshot server = mThreads.get(other);
+                        if (mProcesses.get(other) != process
+                                && (thread.outboundBinderMethod == null
+                                    || server.inboundBinderMethod == null
+                                    || thread.outboundBinderMethod.equals(
+                                        server.inboundBinderMethod))) {
+                            addEdge(edges, node, other);
+                        }
+                    }
+                }
+            }
+
+            final int[] result = new int[edges.size()];
+            for (int i=0; i<result.length; i++) {
+                result[i] = edges.get(i);
+            }
+            mEdges[node] = result;
+        }
+    }
+
+    /**
+     * Find the cycles, and make the copies of the processes for each one.
+     */
+    private ArrayList<Set<ProcessSnapshot>> findCycles() {
+        final ArrayList<Set<ProcessSnapshot>> result = new ArrayList<Set<ProcessSnapshot>>();
+        for (int[] cycle: findCycleNodes()) {
+            final ArrayList<Integer> nodes = new ArrayList<Integer>();
+            for (int node: cycle) {
+                nodes.add(node);
             }
+            result.add(makeProcesses(nodes));
         }
+        return result;
     }
 
     /**
-     * Detect any thread cycles that are affecting the main thread of the given pid.
+     * Find the strongly connected components of the graph that have more than one
+     * thread in them, using Tarjan's algorithm.  It is done with an explicit stack
+     * so that long chains of threads don't overflow the java stack.
      */
-    public static Set<ProcessSnapshot> detectDeadlocks(VmTraces vmTraces, int pid) {
-        final boolean dump = false;
+    private ArrayList<int[]> findCycleNodes() {
+        final ArrayList<int[]> result = new ArrayList<int[]>();
+        final int N = mThreads.size();
+        final int[] index = new int[N];
+        final int[] lowLink = new int[N];
+        final boolean[] onStack = new boolean[N];
+        Arrays.fill(index, -1);
 
-        final TreeSet<ThreadRecord> involvedThreads = new TreeSet<ThreadRecord>();
+        // The nodes that haven't been assigned to a component yet.
+        final int[] stack = new int[N];
+        int stackSize = 0;
 
-        final TreeSet<LockRecord> locksToVisit = new TreeSet<LockRecord>();
-        final TreeSet<LockRecord> locksVisited = new TreeSet<LockRecord>();
+        // The depth first search, and how far through its edges each node is.
+        final int[] callStack = new int[N];
+        final int[] edgePos = new int[N];
+        int nextIndex = 0;
 
-        // Seed the traversal with the locks held by the main thread.
-        final ProcessSnapshot offendingProcess = vmTraces.getProcess(pid);
-        if (offendingProcess == null) {
-            return new TreeSet<ProcessSnapshot>();
-        }
-        final ThreadSnapshot offendingThread = offendingProcess.getThread("main");
-        if (offendingThread == null) {
-            return new TreeSet<ProcessSnapshot>();
-        }
-        addLockRecordsForThread(locksToVisit, locksVisited, offendingProcess, offendingThread);
-
-        if (dump) {
-            if (offendingThread.outboundBinderPackage != null
-                    || offendingThread.outboundBinderClass != null
-                    || offendingThread.inboundBinderMethod != null) {
-                System.out.println("Offending thread:");
-                System.out.print("  pid=" + offendingProcess.pid + " \"" + offendingThread.name
-                        + "\" (tid=" + offendingThread.tid + ")");
-                if (offendingThread.outboundBinderClass != null) {
-                    System.out.print(" outbound=" + offendingThread.outboundBinderPackage + "."
-                            + offendingThread.outboundBinderClass
-                            + "." + offendingThread.outboundBinderMethod);
-                }
-                if (offendingThread.inboundBinderClass != null) {
-                    System.out.print(" inbound=" + offendingThread.inboundBinderPackage + "."
-                            + offendingThread.inboundBinderClass
-                            + "." + offendingThread.inboundBinderMethod);
-                }
-                System.out.println();
+        for (int root=0; root<N; root++) {
+            if (index[root] >= 0) {
+                continue;
             }
-        }
+            int depth = 0;
+            callStack[depth++] = root;
+            index[root] = lowLink[root] = nextIndex++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
 
-        if (locksToVisit.size() == 0) {
-            // There weren't any locks. Just stop here.
-            return new TreeSet<ProcessSnapshot>();
-        }
-
-        involvedThreads.add(new ThreadRecord(offendingProcess, offendingThread));
-
-        // Terminate when we stop finding new locks to look at. We will terminate
-        // eventually because there are a finite number of locks in the system.
-        while (locksToVisit.size() > 0) {
-            final LockRecord lr = locksToVisit.pollFirst();
-            
-            // Don't allow ourselves to re-add this lock
-            locksVisited.add(lr);
-
-            // Find all the threads holding this lock.
-            for (ThreadSnapshot thread: lr.process.threads) {
-                final Map<String,LockSnapshot> locks = thread.locks;
-                if (locks.containsKey(lr.lock.address)) {
-                    if (dump) {
-                        System.out.println("Thread " + thread.tid
-                                + " contains lock " + lr.lock.address);
+            while (depth > 0) {
+                final int node = callStack[depth - 1];
+                final int[] edges = mEdges[node];
+                if (edgePos[node] < edges.length) {
+                    final int next = edges[edgePos[node]++];
+                    if (index[next] < 0) {
+                        index[next] = lowLink[next] = nextIndex++;
+                        stack[stackSize++] = next;
+                        onStack[next] = true;
+                        callStack[depth++] = next;
+                    } else if (onStack[next]) {
+                        lowLink[node] = Math.min(lowLink[node], index[next]);
                     }
-                    // This thread is holding the lock (or trying to).
-                    // Enqeue its other locks that we haven't already done.
-                    addLockRecordsForThread(locksToVisit, locksVisited, lr.process, thread);
-                    involvedThreads.add(new ThreadRecord(lr.process, thread));
+                    continue;
                 }
-            }
-        }
-
-        final HashMap<Integer,ProcessSnapshot> results = new HashMap<Integer,ProcessSnapshot>();
 
-        // Add the process / thread pairs into the results
-        if (dump) System.out.println("Involved threads:");
-        for (ThreadRecord tr: involvedThreads) {
-            if (dump) {
-                System.out.print("  pid=" + tr.process.pid + " \"" + tr.thread.name
-                        + "\" (tid=" + tr.thread.tid + ")");
-                if (tr.thread.outboundBinderClass != null) {
-                    System.out.print(" outbound=" + tr.thread.outboundBinderPackage + "."
-                            + tr.thread.outboundBinderClass + "." + tr.thread.outboundBinderMethod);
+                // Done with this node.
+                depth--;
+                if (depth > 0) {
+                    final int parent = callStack[depth - 1];
+                    lowLink[parent] = Math.min(lowLink[parent], lowLink[node]);
                 }
-                if (tr.thread.inboundBinderClass != null) {
-                    System.out.print(" inbound=" + tr.thread.inboundBinderPackage + "."
-                            + tr.thread.inboundBinderClass + "." + tr.thread.inboundBinderMethod);
+                if (lowLink[node] == index[node]) {
+                    int start = stackSize;
+                    do {
+                        start--;
+                        onStack[stack[start]] = false;
+                    } while (stack[start] != node);
+                    if (stackSize - start > 1) {
+                        result.add(Arrays.copyOfRange(stack, start, stackSize));
+                    }
+                    stackSize = start;
                 }
-                System.out.println();
             }
+        }
+        return result;
+    }
 
-            ProcessSnapshot cloneProcess = results.get(tr.process.pid);
+    /**
+     * Make copies of the processes that contain only the threads for the given nodes.
+     */
+    private Set<ProcessSnapshot> makeProcesses(ArrayList<Integer> nodes) {
+        // Sort by node, which puts the threads in the order they were in the traces.
+        Collections.sort(nodes);
+
+        final HashMap<Integer,ProcessSnapshot> results = new HashMap<Integer,ProcessSnapshot>();
+        for (int node: nodes) {
+            final ProcessSnapshot process = mProcesses.get(node);
+            ProcessSnapshot cloneProcess = results.get(process.pid);
             if (cloneProcess == null) {
-                cloneProcess = tr.process.clone();
+                cloneProcess = process.clone();
                 cloneProcess.threads.clear();
-                results.put(tr.process.pid, cloneProcess);
+                results.put(process.pid, cloneProcess);
             }
-            cloneProcess.threads.add(tr.thread);
+            cloneProcess.threads.add(mThreads.get(node));
         }
-        if (dump) {
-            System.out.println("Involved locks:");
-            for (LockRecord lr: locksVisited) {
-                System.out.println("  pid=" + lr.process.pid + " " + lr.lock.packageName
-                        + "." + lr.lock.className + " - " + lr.lock.address);
-            }
-        }
-
         return new TreeSet<ProcessSnapshot>(results.values());
     }
 
     /**
-     * Add the LockRecords for the locks held by the thread to toVisit, unless
-     * they're already in alreadyVisited.
+     * Add an edge, unless it is from a thread to itself.
      */
-    private static void addLockRecordsForThread(TreeSet<LockRecord> toVisit, 
-            TreeSet<LockRecord> alreadyVisited, ProcessSnapshot process, ThreadSnapshot thread) {
-        for (LockSnapshot lock: thread.locks.values()) {
-            final LockRecord next = new LockRecord(process, lock);
-            if (!alreadyVisited.contains(next)) {
-                toVisit.add(next);
-            }
+    private static void addEdge(ArrayList<Integer> edges, int from, int to) {
+        if (from != to) {
+            edges.add(to);
         }
     }
+
+    /**
+     * Get the list for key, adding an empty one if there isn't one yet.
+     */
+    private static ArrayList<Integer> getList(HashMap<String,ArrayList<Integer>> map,
+            String key) {
+        ArrayList<Integer> list = map.get(key);
+        if (list == null) {
+            list = new ArrayList<Integer>();
+            map.put(key, list);
+        }
+        return list;
+    }
+
+    /**
+     * Make the key for binderServers.
+     */
+    private static String makeBinderKey(String packageName, String className) {
+        return packageName + "." + className;
+    }
 }
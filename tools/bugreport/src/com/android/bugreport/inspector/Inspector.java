@@ -17,13 +17,17 @@
 package com.android.bugreport.inspector;
 
 import com.android.bugreport.anr.Anr;
+import com.android.bugreport.anr.AnrSignature;
 import com.android.bugreport.anr.AnrParser;
 import com.android.bugreport.bugreport.Bugreport;
 import com.android.bugreport.bugreport.ProcessInfo;
 import com.android.bugreport.bugreport.ThreadInfo;
+import com.android.bugreport.cpuinfo.CpuUsageSnapshot;
+import com.android.bugreport.cpuinfo.CpuUsageTimeline;
 import com.android.bugreport.logcat.Logcat;
 import com.android.bugreport.logcat.LogcatParser;
 import com.android.bugreport.logcat.LogLine;
+import com.android.bugreport.logcat.MergedLogcat;
 import com.android.bugreport.stacks.ProcessSnapshot;
 import com.android.bugreport.stacks.JavaStackFrameSnapshot;
 import com.android.bugreport.stacks.LockSnapshot;
@@ -34,8 +38,6 @@ import com.android.bugreport.util.Utils;
 import com.android.bugreport.util.Lines;
 
 import java.util.ArrayList;
-import java.util.Calendar;
-import java.util.GregorianCalendar;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.regex.Pattern;
@@ -51,10 +53,31 @@ public class Inspector {
     private static final String[] NO_JAVA_METHODS = new String[0];
     private static final String[] HANDWRITTEN_BINDER_SUFFIXES = new String[] { "Native", "Proxy" };
 
+    /**
+     * A TOTAL cpu usage at or above this means the whole device was busy.
+     */
+    private static final float CPU_BOUND_PERCENT = 90;
+
+    /**
+     * A process using more cpu than this around the anr is interesting.
+     */
+    private static final float INTERESTING_CPU_PERCENT = 10;
+
     private final Matcher mBufferBeginRe = LogcatParser.BUFFER_BEGIN_RE.matcher("");
 
     private final Bugreport mBugreport;
 
+    /**
+     * The cpu usage snapshots from around the time of the anr.
+     */
+    private final ArrayList<CpuUsageSnapshot> mAnrCpuUsages = new ArrayList<CpuUsageSnapshot>();
+
+    /**
+     * The times of the first and last log lines marked as regionAnr.
+     */
+    private long mAnrRegionBegin = Long.MAX_VALUE;
+    private long mAnrRegionEnd = Long.MIN_VALUE;
+
     /**
      * Inspect a bugreport.
      */
@@ -62,6 +85,34 @@ public class Inspector {
         (new Inspector(bugreport)).inspect();
     }
 
+    /**
+     * Inspect processes that were parsed after the rest of the bugreport, for
+     * example while following a traces file as it is being written.  Only the
+     * passes that look at one process at a time are run.  Deadlocks can span
+     * processes, so finding them is left to the caller.
+     *
+     * @see DeadlockDetector
+     */
+    public static void inspectProcesses(Bugreport bugreport,
+            ArrayList<ProcessSnapshot> processes) {
+        final Inspector inspector = new Inspector(bugreport);
+        inspector.makeProcessInfo(processes);
+        inspector.inspectProcesses(processes);
+    }
+
+    /**
+     * Inspect log lines that were parsed after the rest of the bugreport, for
+     * example while following a logcat as it is being written.  The interesting
+     * ones are added to the bugreport's interestingLogLines.
+     *
+     * @param first The index in logcat of the first new line.
+     */
+    public static void inspectLogLines(Bugreport bugreport, Logcat logcat, int first) {
+        final Inspector inspector = new Inspector(bugreport);
+        inspector.makeInterestingLogcat(logcat.lines.subList(first, logcat.size()));
+        inspector.markLogcatProcessesAndThreads(logcat, first);
+    }
+
     /**
      * Constructor.
      */
@@ -82,16 +133,19 @@ public class Inspector {
 
         if (mBugreport.anr != null) {
             inspectProcesses(mBugreport.anr.vmTraces);
-            markDeadlocks(mBugreport.anr.vmTraces, mBugreport.anr.pid);
+            markDeadlocks(mBugreport.anr.vmTraces);
+            mBugreport.anr.signature = AnrSignature.make(mBugreport.anr);
         }
 
         inventLogcatTimes();
         mergeLogcat();
-        makeInterestingLogcat();
+        makeInterestingLogcat(mBugreport.mergedLogcat);
         markLogcatProcessesAndThreads();
         markAnrLogcatRegions();
         markBugreportRegions();
-        //trimLogcat();
+
+        makeCpuUsageTimeline();
+        markCpuBound();
 
         if (mBugreport.anr != null) {
             makeInterestingProcesses(mBugreport.anr.vmTraces);
@@ -187,10 +241,17 @@ public class Inspector {
      * Do all the process inspection.  Works on any list of processes, not just ANRs.
      */
     private void inspectProcesses(VmTraces vmTraces) {
-        combineLocks(vmTraces.processes);
-        markBinderThreads(vmTraces.processes);
-        markBlockedThreads(vmTraces.processes);
-        markInterestingThreads(vmTraces.processes);
+        inspectProcesses(vmTraces.processes);
+    }
+
+    /**
+     * Do all the process inspection on a list of processes.
+     */
+    private void inspectProcesses(ArrayList<ProcessSnapshot> processes) {
+        combineLocks(processes);
+        markBinderThreads(processes);
+        markBlockedThreads(processes);
+        markInterestingThreads(processes);
     }
 
     /**
@@ -458,9 +519,12 @@ public class Inspector {
             return true;
         }
 
-        // TODO: The CPU usage for this process is > 10%
-        if (false) {
-            return true;
+        // The CPU usage for this process is > 10% around the time of the anr
+        for (CpuUsageSnapshot snapshot: mAnrCpuUsages) {
+            final int row = snapshot.findProcess(process.pid);
+            if (row >= 0 && snapshot.getPercent(row) > INTERESTING_CPU_PERCENT) {
+                return true;
+            }
         }
 
         // Otherwise it's boring
@@ -545,15 +609,12 @@ public class Inspector {
     }
 
     /**
-     * Traverse the threads looking for cyclical dependencies of blocked threads.
-     *
-     * TODO: If pid isn't provided, we should run it for all main threads.  And show all of
-     * the deadlock cycles, with the one from the anr at the top if possible.
+     * Look for cyclical dependencies of blocked threads, in all of the processes.
      *
      * @see DeadlockDetector
      */
-    private void markDeadlocks(VmTraces vmTraces, int pid) {
-        final Set<ProcessSnapshot> deadlock = DeadlockDetector.detectDeadlocks(vmTraces, pid);
+    private void markDeadlocks(VmTraces vmTraces) {
+        final Set<ProcessSnapshot> deadlock = DeadlockDetector.detectDeadlocks(vmTraces);
         vmTraces.deadlockedProcesses.addAll(deadlock);
     }
 
@@ -562,10 +623,17 @@ public class Inspector {
      * the beginning of buffer lines).
      */
     private void inventLogcatTimes() {
-        inventLogcatTimes(mBugreport.systemLog.lines);
-        inventLogcatTimes(mBugreport.eventLog.lines);
+        if (mBugreport.systemLog != null) {
+            inventLogcatTimes(mBugreport.systemLog);
+        }
+        if (mBugreport.eventLog != null) {
+            inventLogcatTimes(mBugreport.eventLog);
+        }
+        if (mBugreport.radioLog != null) {
+            inventLogcatTimes(mBugreport.radioLog);
+        }
         if (mBugreport.logcat != null) {
-            inventLogcatTimes(mBugreport.logcat.lines);
+            inventLogcatTimes(mBugreport.logcat);
         }
     }
 
@@ -573,124 +641,49 @@ public class Inspector {
      * Fill in times for a logcat section by taking the time from an adjacent line.
      * Prefers to get the time from a line after the log line.
      */
-    private void inventLogcatTimes(ArrayList<LogLine> lines) {
-        GregorianCalendar time = null;
-        final int N = lines.size();
+    private void inventLogcatTimes(Logcat logcat) {
+        long time = LogLine.NO_TIME;
+        final int N = logcat.size();
         int i;
         // Going backwards first makes most missing ones get the next time
         // which will pair it with the next log line in the merge, which is
         // what we want.
         for (i=N-1; i>=0; i--) {
-            final LogLine line = lines.get(i);
-            if (line.time == null) {
-                line.time = time;
+            final long t = logcat.getTime(i);
+            if (t == LogLine.NO_TIME) {
+                logcat.setTime(i, time);
             } else {
-                time = line.time;
+                time = t;
             }
         }
 
         // Then go find the last one that's null, and get it a time.
         // If none have times, then... oh well.
         for (i=N-1; i>=0; i--) {
-            final LogLine line = lines.get(i);
-            if (line.time != null) {
-                time = line.time;
+            final long t = logcat.getTime(i);
+            if (t != LogLine.NO_TIME) {
+                time = t;
                 break;
             }
         }
         for (; i<N && i>=0; i++) {
-            final LogLine line = lines.get(i);
-            line.time = time;
+            logcat.setTime(i, time);
         }
     }
 
     /**
-     * Merge the system and event logs by timestamp.
+     * Merge all of the logcat buffers by timestamp.  The lines themselves are
+     * left alone, and the merging is done each time the merged view is read.
+     *
+     * The event log doesn't have a beginning of marker, so the merged view
+     * makes up one for it (and any other buffer without one).
      */
     private void mergeLogcat() {
-        // Only do this if they haven't already supplied a logcat.
-        if (mBugreport.logcat != null) {
-            return;
-        }
-
-        // Renumber the logcat lines.  We mess up the other lists, but that
-        // saves the work of making copies of the logcat lines.  If this
-        // really becomes a problem, then it's not too much work to add
-        // LogLine.clone().
-        int lineno = 1;
-        final Logcat result = mBugreport.logcat =  new Logcat();
-        final ArrayList<LogLine> system = mBugreport.systemLog.lines;
-        final ArrayList<LogLine> event = mBugreport.eventLog.lines;
-
-        final int systemSize = system != null ? system.size() : 0;
-        final int eventSize = event != null ? event.size() : 0;
-
-        int systemIndex = 0;
-        int eventIndex = 0;
-
-        // The event log doesn't have a beginning of marker.  Make up one
-        // when we see the first event line.
-        boolean seenEvent = false;
-
-        while (systemIndex < systemSize && eventIndex < eventSize) {
-            final LogLine systemLine = system.get(systemIndex);
-            final LogLine eventLine = event.get(eventIndex);
-
-            if (systemLine.time == null) {
-                systemLine.lineno = lineno++;
-                result.lines.add(systemLine);
-                systemIndex++;
-                continue;
-            }
-
-            if (eventLine.time == null) {
-                eventLine.lineno = lineno++;
-                result.lines.add(eventLine);
-                eventIndex++;
-                seenEvent = true;
-                continue;
-            }
-
-            if (systemLine.time.compareTo(eventLine.time) <= 0) {
-                systemLine.lineno = lineno++;
-                result.lines.add(systemLine);
-                systemIndex++;
-            } else {
-                if (!seenEvent) {
-                    final LogLine synthetic = new LogLine();
-                    synthetic.lineno = lineno++;
-                    synthetic.rawText = synthetic.text = "--------- beginning of event";
-                    synthetic.bufferBegin = "event";
-                    synthetic.time = eventLine.time;
-                    result.lines.add(synthetic);
-                    seenEvent = true;
-                }
-                eventLine.lineno = lineno++;
-                result.lines.add(eventLine);
-                eventIndex++;
-            }
-        }
-
-        for (; systemIndex < systemSize; systemIndex++) {
-            final LogLine systemLine = system.get(systemIndex);
-            systemLine.lineno = lineno++;
-            result.lines.add(systemLine);
-        }
-
-        for (; eventIndex < eventSize; eventIndex++) {
-            final LogLine eventLine = event.get(eventIndex);
-            if (!seenEvent) {
-                final LogLine synthetic = new LogLine();
-                synthetic.lineno = lineno++;
-                synthetic.rawText = synthetic.text = "--------- beginning of event";
-                synthetic.bufferBegin = "event";
-                synthetic.time = eventLine.time;
-                result.lines.add(synthetic);
-                seenEvent = true;
-            }
-            eventLine.lineno = lineno++;
-            result.lines.add(eventLine);
-        }
+        final MergedLogcat result = mBugreport.mergedLogcat = new MergedLogcat();
+        result.addSource("system", mBugreport.systemLog);
+        result.addSource("event", mBugreport.eventLog);
+        result.addSource("radio", mBugreport.radioLog);
+        result.addSource("logcat", mBugreport.logcat);
     }
 
     /**
@@ -734,11 +727,10 @@ public class Inspector {
      * Mark the log lines to be called out with links at the top of the
      * log and triage sections.
      */
-    private void makeInterestingLogcat() {
-        final Logcat logcat = mBugreport.logcat;
+    private void makeInterestingLogcat(Iterable<LogLine> lines) {
         Matcher m;
 
-        for (LogLine line: logcat.lines) {
+        for (LogLine line: lines) {
             // Beginning of buffer
             if ((m = Utils.match(mBufferBeginRe, line.rawText)) != null) {
                 mBugreport.interestingLogLines.add(line);
@@ -758,16 +750,25 @@ public class Inspector {
      * For each of the log lines, attach a process and a thread.
      */
     private void markLogcatProcessesAndThreads() {
-        final Logcat logcat = mBugreport.logcat;
-
-        final Matcher inputDispatcherRe = Pattern.compile(
-                "Application is not responding: .* It has been (\\d+\\.?\\d*)ms since event,"
-                + " (\\d+\\.?\\d*)ms since wait started.*").matcher("");
+        final MergedLogcat merged = mBugreport.mergedLogcat;
+        final int S = merged.getSourceCount();
+        for (int s=0; s<S; s++) {
+            markLogcatProcessesAndThreads(merged.getSource(s), 0);
+        }
+    }
 
-        for (LogLine line: logcat.lines) {
-            line.process = mBugreport.allKnownProcesses.get(line.pid);
-            if (line.process != null) {
-                line.thread = line.process.threads.get(line.tid);
+    /**
+     * For each of the log lines in logcat starting at first, attach a process and
+     * a thread.
+     */
+    private void markLogcatProcessesAndThreads(Logcat logcat, int first) {
+        final int N = logcat.size();
+        for (int i=first; i<N; i++) {
+            final ProcessInfo process = mBugreport.allKnownProcesses.get(logcat.getPid(i));
+            if (process != null) {
+                final LogLine line = logcat.lines.get(i);
+                line.process = process;
+                line.thread = process.threads.get(logcat.getTid(i));
             }
         }
     }
@@ -775,40 +776,68 @@ public class Inspector {
     /**
      * For each of the log lines that indicate a time range between the beginning
      * of an anr timer and when it went off, mark that range.
+     *
+     * The ranges are collected first, so that each buffer only has to be
+     * walked once more to mark them.
      */
     private void markAnrLogcatRegions() {
-        final Logcat logcat = mBugreport.logcat;
 
         final Matcher inputDispatcherRe = Pattern.compile(
                 "Application is not responding: .* It has been (\\d+\\.?\\d*)ms since event,"
                 + " (\\d+\\.?\\d*)ms since wait started.*").matcher("");
 
-        for (LogLine line: logcat.lines) {
-            if ("InputDispatcher".equals(line.tag)
-                    && Utils.matches(inputDispatcherRe, line.text)) {
-                float f = Float.parseFloat(inputDispatcherRe.group(2));
-                int seconds = (int)(f / 1000);
-                int milliseconds = Math.round(f % 1000);
-                final Calendar begin = (Calendar)line.time.clone();
-                begin.add(Calendar.SECOND, -seconds);
-                begin.add(Calendar.MILLISECOND, -milliseconds);
-                markAnrRegion(begin, line.time);
+        final MergedLogcat merged = mBugreport.mergedLogcat;
+        final int S = merged.getSourceCount();
+        final ArrayList<long[]> ranges = new ArrayList<long[]>();
+        for (int s=0; s<S; s++) {
+            for (LogLine line: merged.getSource(s).filter("InputDispatcher", null)) {
+                if (line.time != LogLine.NO_TIME
+                        && Utils.matches(inputDispatcherRe, line.text)) {
+                    float f = Float.parseFloat(inputDispatcherRe.group(2));
+                    int seconds = (int)(f / 1000);
+                    int milliseconds = Math.round(f % 1000);
+                    final long begin = line.time
+                            - ((seconds * 1000L) + milliseconds) * 1000000L;
+                    ranges.add(new long[] { begin, line.time });
+                }
+            }
+        }
+        if (ranges.size() == 0) {
+            return;
+        }
+
+        for (int s=0; s<S; s++) {
+            final LogLine synthetic = merged.getSyntheticBegin(s);
+            if (synthetic != null && inAnrRegion(ranges, synthetic.time)) {
+                synthetic.regionAnr = true;
+            }
+
+            final Logcat logcat = merged.getSource(s);
+            final int N = logcat.size();
+            for (int i=0; i<N; i++) {
+                final long time = logcat.getTime(i);
+                if (inAnrRegion(ranges, time)) {
+                    logcat.lines.get(i).regionAnr = true;
+                    mAnrRegionBegin = Math.min(mAnrRegionBegin, time);
+                    mAnrRegionEnd = Math.max(mAnrRegionEnd, time);
+                }
             }
         }
     }
 
     /**
-     * Mark the log lines that happened between the begin and end timestamps
-     * as during the period between when an ANR timer is set and when it goes
-     * off.
+     * Return whether the time is in any of the [begin, end) ranges between when an
+     * ANR timer is set and when it goes off.
      */
-    private void markAnrRegion(Calendar begin, Calendar end) {
-        for (LogLine line: mBugreport.logcat.lines) {
-            if (line.time.compareTo(begin) >= 0
-                    && line.time.compareTo(end) < 0) {
-                line.regionAnr = true;
+    private static boolean inAnrRegion(ArrayList<long[]> ranges, long time) {
+        final int R = ranges.size();
+        for (int r=0; r<R; r++) {
+            final long[] range = ranges.get(r);
+            if (time >= range[0] && time < range[1]) {
+                return true;
             }
         }
+        return false;
     }
 
     /**
@@ -817,54 +846,96 @@ public class Inspector {
      * when the user saw the bug that caused them to take a bugreport.
      */
     private void markBugreportRegions() {
-        final Calendar begin = mBugreport.startTime;
-        final Calendar end = mBugreport.endTime;
-        for (LogLine line: mBugreport.logcat.lines) {
-            if (line.time != null) {
-                if (line.time.compareTo(begin) >= 0
-                        && line.time.compareTo(end) < 0) {
-                    line.regionBugreport = true;
+        if (mBugreport.startTime == null || mBugreport.endTime == null) {
+            return;
+        }
+        final long begin = mBugreport.startTime.getTimeInMillis() * 1000000L;
+        final long end = mBugreport.endTime.getTimeInMillis() * 1000000L;
+        final MergedLogcat merged = mBugreport.mergedLogcat;
+        final int S = merged.getSourceCount();
+        for (int s=0; s<S; s++) {
+            final LogLine synthetic = merged.getSyntheticBegin(s);
+            if (synthetic != null && synthetic.time != LogLine.NO_TIME
+                    && synthetic.time >= begin && synthetic.time < end) {
+                synthetic.regionBugreport = true;
+            }
+
+            final Logcat logcat = merged.getSource(s);
+            final int N = logcat.size();
+            for (int i=0; i<N; i++) {
+                final long time = logcat.getTime(i);
+                if (time != LogLine.NO_TIME) {
+                    if (time >= begin && time < end) {
+                        logcat.lines.get(i).regionBugreport = true;
+                    }
                 }
             }
         }
     }
 
     /**
-     * Trim the logcat to show no more than 3 seconds after the beginning of
-     * the bugreport, and no more than 5000 lines before the beginning of the bugreport.
+     * Put all of the cpu usage snapshots into one timeline.
      */
-    private void trimLogcat() {
-        final Calendar end = (Calendar)mBugreport.startTime.clone();
-        end.add(Calendar.SECOND, 3);
+    private void makeCpuUsageTimeline() {
+        final CpuUsageTimeline timeline = mBugreport.cpuUsageTimeline = new CpuUsageTimeline();
+        if (mBugreport.anr != null) {
+            final String source = mBugreport.anr == mBugreport.monkeyAnr ? "monkey" : "anr";
+            for (CpuUsageSnapshot snapshot: mBugreport.anr.cpuUsages) {
+                timeline.add(source, snapshot);
+            }
+        }
+        if (mBugreport.monkeyAnr != null) {
+            for (CpuUsageSnapshot snapshot: mBugreport.monkeyAnr.cpuUsages) {
+                timeline.add("monkey", snapshot);
+            }
+        }
+        for (CpuUsageSnapshot snapshot: mBugreport.cpuUsages) {
+            timeline.add("dumpsys cpuinfo", snapshot);
+        }
+    }
 
-        final ArrayList<LogLine> lines = mBugreport.logcat.lines;
-        int i;
+    /**
+     * Find the cpu usage snapshots from around the time of the anr, and flag the
+     * anr as cpu bound if the device was busy in any of them.  The ones printed
+     * with the anr always count.  The others count if they overlap those, or the
+     * log lines between when the anr timer was started and when it went off.
+     */
+    private void markCpuBound() {
+        final Anr anr = mBugreport.anr;
+        if (anr == null) {
+            return;
+        }
 
-        // Trim the ones at the end
-        int endIndex = lines.size() - 1;
-        for (i=lines.size()-1; i>=0; i--) {
-            final LogLine line = lines.get(i);
-            if (line.time != null) {
-                // If we've gotten to 3s after when the bugreport started getting taken, stop.
-                if (line.time.compareTo(end) > 0) {
-                    endIndex = i;
-                    break;
-                }
+        long begin = Long.MAX_VALUE;
+        long end = Long.MIN_VALUE;
+        for (CpuUsageSnapshot snapshot: anr.cpuUsages) {
+            if (snapshot.startTime != CpuUsageSnapshot.NO_TIME
+                    && snapshot.endTime != CpuUsageSnapshot.NO_TIME) {
+                begin = Math.min(begin, snapshot.startTime);
+                end = Math.max(end, snapshot.endTime);
             }
         }
+        begin = Math.min(begin, mAnrRegionBegin);
+        end = Math.max(end, mAnrRegionEnd);
 
-        // Trim the ones at the beginning
-        int startIndex = 0;
-        int count = 0;
-        for (; i>=0; i--) {
-            final LogLine line = lines.get(i);
-            count++;
-            if (count >= 5000) {
-                startIndex = i;
-                break;
+        mAnrCpuUsages.addAll(anr.cpuUsages);
+        if (begin <= end) {
+            final CpuUsageTimeline timeline = mBugreport.cpuUsageTimeline;
+            for (int i: timeline.findOverlapping(begin, end + 1)) {
+                final CpuUsageSnapshot snapshot = timeline.get(i);
+                if (!anr.cpuUsages.contains(snapshot)) {
+                    mAnrCpuUsages.add(snapshot);
+                }
             }
         }
 
-        mBugreport.logcat.lines = new ArrayList<LogLine>(lines.subList(startIndex, endIndex));
+        for (CpuUsageSnapshot snapshot: mAnrCpuUsages) {
+            if (anr.busiestCpuUsage == null
+                    || snapshot.totalPercent > anr.busiestCpuUsage.totalPercent) {
+                anr.busiestCpuUsage = snapshot;
+            }
+        }
+        anr.cpuBound = anr.busiestCpuUsage != null
+                && anr.busiestCpuUsage.totalPercent >= CPU_BOUND_PERCENT;
     }
 }
@@ -21,13 +21,17 @@ import com.android.bugreport.bugreport.ThreadInfo;
 import com.android.bugreport.util.Line;
 
 import java.util.ArrayList;
-import java.util.GregorianCalendar;
 
 /**
  * A log line.
  */
 public class LogLine extends Line {
 
+    /**
+     * Value of time for lines that don't have a time.
+     */
+    public static final long NO_TIME = Long.MIN_VALUE;
+
     /**
      * The raw text of the log.
      */
@@ -45,9 +49,10 @@ public class LogLine extends Line {
     public String header;
 
     /**
-     * The timestamp of the event. In UTC even though the device might not have been.
+     * The timestamp of the event, in nanoseconds since the epoch. In UTC even though
+     * the device might not have been.  NO_TIME if there isn't one.
      */
-    public GregorianCalendar time;
+    public long time = NO_TIME;
 
     /**
      * The process that emitted the log.
@@ -17,41 +17,156 @@
 package com.android.bugreport.logcat;
 
 import java.util.ArrayList;
-import java.util.GregorianCalendar;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.Set;
 
 /**
  * Class to represent an android log.
+ *
+ * Along with the LogLine objects, the fields that are used for filtering and
+ * sorting are kept in parallel primitive arrays (columns), so that those can be
+ * done with tight loops that don't touch the LogLine objects.  Lines must be
+ * added with {@link #add} and times changed with {@link #setTime} to keep the
+ * columns up to date.
  */
 public class Logcat {
+    private static final int INITIAL_CAPACITY = 64;
+
     /**
-     * The lines contained in this logcat.
+     * The lines contained in this logcat.  Read only; use add() to add lines.
      */
     public ArrayList<LogLine> lines = new ArrayList<LogLine>();
 
+    /**
+     * The interned tags.  The tag column holds indices into this.
+     */
+    private final ArrayList<String> mTags = new ArrayList<String>();
+    private final HashMap<String,Integer> mTagIds = new HashMap<String,Integer>();
+
+    // The columns.
+    private int mCount;
+    private long[] mTimes = new long[INITIAL_CAPACITY];
+    private int[] mPids = new int[INITIAL_CAPACITY];
+    private int[] mTids = new int[INITIAL_CAPACITY];
+    private char[] mLevels = new char[INITIAL_CAPACITY];
+    private int[] mTagColumn = new int[INITIAL_CAPACITY];
+
+    /**
+     * Add a line to the end of the logcat.
+     */
+    public void add(LogLine line) {
+        if (mCount == mTimes.length) {
+            final int capacity = mCount * 2;
+            mTimes = Arrays.copyOf(mTimes, capacity);
+            mPids = Arrays.copyOf(mPids, capacity);
+            mTids = Arrays.copyOf(mTids, capacity);
+            mLevels = Arrays.copyOf(mLevels, capacity);
+            mTagColumn = Arrays.copyOf(mTagColumn, capacity);
+        }
+        mTimes[mCount] = line.time;
+        mPids[mCount] = line.pid;
+        mTids[mCount] = line.tid;
+        mLevels[mCount] = line.level;
+        mTagColumn[mCount] = internTag(line.tag);
+        if (line.tag != null) {
+            // Share one copy of each tag string.
+            line.tag = mTags.get(mTagColumn[mCount]);
+        }
+        mCount++;
+        lines.add(line);
+    }
+
+    /**
+     * Return the number of lines.
+     */
+    public int size() {
+        return mCount;
+    }
+
+    /**
+     * Return the time of the line at index, or LogLine.NO_TIME.
+     */
+    public long getTime(int index) {
+        return mTimes[index];
+    }
+
+    /**
+     * Set the time of the line at index.
+     */
+    public void setTime(int index, long time) {
+        mTimes[index] = time;
+        lines.get(index).time = time;
+    }
+
+    /**
+     * Return the pid of the line at index.
+     */
+    public int getPid(int index) {
+        return mPids[index];
+    }
+
+    /**
+     * Return the tid of the line at index.
+     */
+    public int getTid(int index) {
+        return mTids[index];
+    }
+
     /**
      * Return the lines that match the given log tags and optional log level.
      */
     public ArrayList<LogLine> filter(Set<String> tags, String levels) {
-        final ArrayList<LogLine> result = new ArrayList<LogLine>();
-        for (LogLine line: lines) {
-            if (tags.contains(line.tag) && (levels == null || levels.indexOf(line.level) >= 0)) {
-                result.add(line);
-            }
+        final boolean[] tagMatches = new boolean[mTags.size()];
+        final int T = tagMatches.length;
+        for (int i=0; i<T; i++) {
+            tagMatches[i] = tags.contains(mTags.get(i));
         }
-        return result;
+        return filter(tagMatches, levels);
     }
 
     /**
      * Return the lines that match the given log tag and optional log level.
      */
     public ArrayList<LogLine> filter(String tag, String levels) {
+        final boolean[] tagMatches = new boolean[mTags.size()];
+        final Integer id = mTagIds.get(tag);
+        if (id != null) {
+            tagMatches[id] = true;
+        }
+        return filter(tagMatches, levels);
+    }
+
+    /**
+     * Return the lines whose tag id is set in tagMatches and that match the
+     * optional log levels.
+     */
+    private ArrayList<LogLine> filter(boolean[] tagMatches, String levels) {
         final ArrayList<LogLine> result = new ArrayList<LogLine>();
-        for (LogLine line: lines) {
-            if (tag.equals(line.tag) && (levels == null || levels.indexOf(line.level) >= 0)) {
-                result.add(line);
+        final int N = mCount;
+        for (int i=0; i<N; i++) {
+            final int tagId = mTagColumn[i];
+            if (tagId >= 0 && tagMatches[tagId]
+                    && (levels == null || levels.indexOf(mLevels[i]) >= 0)) {
+                result.add(lines.get(i));
             }
         }
         return result;
     }
+
+    /**
+     * Return the id for the tag, adding it if it's new.  Returns -1 for null.
+     */
+    private int internTag(String tag) {
+        if (tag == null) {
+            return -1;
+        }
+        Integer id = mTagIds.get(tag);
+        if (id == null) {
+            id = mTags.size();
+            mTags.add(tag);
+            mTagIds.put(tag, id);
+        }
+        return id;
+    }
 }
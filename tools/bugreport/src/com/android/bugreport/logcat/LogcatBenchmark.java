@@ -0,0 +1,210 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.logcat;
+
+import com.android.bugreport.util.Line;
+import com.android.bugreport.util.Lines;
+import com.android.bugreport.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.Random;
+import java.util.regex.Matcher;
+
+/**
+ * Times how LogcatParser gets the fields out of each line now, with
+ * ThreadtimeScanner and the regex for the lines that it doesn't take, against
+ * how it did before: LOG_LINE_RE on every line, a GregorianCalendar from
+ * Utils.parseCalendar for the time, and Integer.parseInt on the pid and tid
+ * groups.  First it checks that the two get the same fields from every line.
+ *
+ * The lines come from a logcat file, or are made up with --generate, which
+ * needs a bigger heap than the default for millions of lines:
+ *
+ *   java -cp BugReport.jar com.android.bugreport.logcat.LogcatBenchmark LOGCAT
+ *   java -Xmx2g -cp BugReport.jar com.android.bugreport.logcat.LogcatBenchmark \
+ *       --generate 5000000
+ */
+public class LogcatBenchmark {
+    private static final int ROUNDS = 5;
+
+    private static final String[] TAGS = {
+        "ActivityManager", "WindowManager", "PackageManager", "chatty", "libc",
+        "InputDispatcher", "BluetoothAdapter", "wpa_supplicant", "Zygote", "AudioFlinger",
+        "GCM", "System.err", "View Root Impl", "cr_Ime", "NetworkController.MobileSignalController",
+    };
+
+    private static final String LEVELS = "VDIWEF";
+
+    public static void main(String[] args) throws IOException {
+        final ArrayList<String> texts;
+        if (args.length == 1) {
+            texts = readTexts(new File(args[0]));
+        } else if (args.length == 2 && args[0].equals("--generate")) {
+            texts = generateTexts(Integer.parseInt(args[1]));
+        } else {
+            System.err.println("usage: LogcatBenchmark LOGCAT");
+            System.err.println("       LogcatBenchmark --generate LINES");
+            System.exit(2);
+            return;
+        }
+
+        final int defaultYear = (new GregorianCalendar(Utils.UTC)).get(Calendar.YEAR);
+        final ThreadtimeScanner scanner = new ThreadtimeScanner(defaultYear);
+        final Matcher oldRe = LogcatParser.LOG_LINE_RE.matcher("");
+        final Matcher newRe = LogcatParser.LOG_LINE_RE.matcher("");
+
+        // Check first, which also warms up both of them.
+        long checksum = 0;
+        int scanned = 0;
+        for (String text: texts) {
+            final long sum = parseOld(oldRe, text);
+            if (scanner.scan(text)) {
+                scanned++;
+            }
+            if (parseNew(scanner, newRe, defaultYear, text) != sum) {
+                System.err.println("Mismatch: " + text);
+                System.exit(1);
+            }
+            checksum += sum;
+        }
+        System.out.println(texts.size() + " lines, " + scanned + " scanned, all the same");
+
+        for (int round=0; round<ROUNDS; round++) {
+            long sum = 0;
+            long start = System.nanoTime();
+            for (String text: texts) {
+                sum += parseOld(oldRe, text);
+            }
+            final long oldNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String text: texts) {
+                sum += parseNew(scanner, newRe, defaultYear, text);
+            }
+            final long newNanos = System.nanoTime() - start;
+
+            System.out.printf("regex+calendar %.0f ns/line, scanner %.0f ns/line (%s)%n",
+                    (double)oldNanos / texts.size(), (double)newNanos / texts.size(),
+                    sum == 2 * checksum ? "same" : "DIFFERENT");
+        }
+    }
+
+    /**
+     * Parses the line the way LogcatParser did before it had the scanner, and
+     * returns a sum of the fields, or 0 if it isn't a log line.
+     */
+    private static long parseOld(Matcher matcher, String text) {
+        final Matcher m = Utils.match(matcher, text);
+        if (m == null) {
+            return 0;
+        }
+        final GregorianCalendar time = Utils.parseCalendar(m, 2, true);
+        return sum(m.group(1), time.getTimeInMillis(), Integer.parseInt(m.group(9)),
+                Integer.parseInt(m.group(10)), m.group(11).charAt(0), m.group(12),
+                m.group(13));
+    }
+
+    /**
+     * Parses the line the way LogcatParser does now, and returns the same sum
+     * as parseOld.
+     */
+    private static long parseNew(ThreadtimeScanner scanner, Matcher matcher, int defaultYear,
+            String text) {
+        if (scanner.scan(text)) {
+            return sum(text.substring(0, scanner.tagStart), scanner.timeMillis, scanner.pid,
+                    scanner.tid, scanner.level, text.substring(scanner.tagStart, scanner.tagEnd),
+                    text.substring(scanner.textStart));
+        }
+        final Matcher m = Utils.match(matcher, text);
+        if (m == null) {
+            return 0;
+        }
+        return sum(m.group(1), Utils.parseTimeMillis(m, 2, true, defaultYear),
+                Integer.parseInt(m.group(9)), Integer.parseInt(m.group(10)),
+                m.group(11).charAt(0), m.group(12), m.group(13));
+    }
+
+    /**
+     * Combines the fields of a line, so that the checks compare all of them and
+     * the timed loops can't skip making any of them.
+     */
+    private static long sum(String header, long timeMillis, int pid, int tid, char level,
+            String tag, String message) {
+        long h = timeMillis;
+        h = 31 * h + pid;
+        h = 31 * h + tid;
+        h = 31 * h + level;
+        h = 31 * h + header.hashCode();
+        h = 31 * h + tag.hashCode();
+        h = 31 * h + message.hashCode();
+        return h == 0 ? 1 : h;
+    }
+
+    private static ArrayList<String> readTexts(File file) throws IOException {
+        final Lines<Line> lines = Lines.readLines(file);
+        final ArrayList<String> result = new ArrayList<String>(lines.size());
+        while (lines.hasNext()) {
+            result.add(lines.next().text);
+        }
+        return result;
+    }
+
+    /**
+     * Makes up threadtime lines, a few seconds apart, with a buffer marker now
+     * and then.  Some tags have spaces in them, and some messages have ": " in
+     * them, which the tag has to stop before.  The lines are the same every time.
+     */
+    private static ArrayList<String> generateTexts(int count) {
+        final Random random = new Random(2026);
+        final ArrayList<String> result = new ArrayList<String>(count);
+        final StringBuilder sb = new StringBuilder();
+        long time = Utils.makeTimeMillis(2026, 0, 1, 0, 0, 0, 0);
+        final GregorianCalendar calendar = new GregorianCalendar(Utils.UTC);
+        for (int i=0; i<count; i++) {
+            if (random.nextInt(10000) == 0) {
+                result.add("--------- beginning of main");
+                continue;
+            }
+            time += random.nextInt(3000);
+            calendar.setTimeInMillis(time);
+            sb.setLength(0);
+            sb.append(String.format("%02d-%02d %02d:%02d:%02d.%03d %5d %5d %c %s: ",
+                    calendar.get(Calendar.MONTH) + 1, calendar.get(Calendar.DAY_OF_MONTH),
+                    calendar.get(Calendar.HOUR_OF_DAY), calendar.get(Calendar.MINUTE),
+                    calendar.get(Calendar.SECOND), calendar.get(Calendar.MILLISECOND),
+                    1 + random.nextInt(32767), 1 + random.nextInt(32767),
+                    LEVELS.charAt(random.nextInt(LEVELS.length())),
+                    TAGS[random.nextInt(TAGS.length)]));
+            final int words = 1 + random.nextInt(20);
+            for (int j=0; j<words; j++) {
+                if (j > 0) {
+                    sb.append(random.nextInt(8) == 0 ? ": " : " ");
+                }
+                final int letters = 1 + random.nextInt(10);
+                for (int k=0; k<letters; k++) {
+                    sb.append((char)('a' + random.nextInt(26)));
+                }
+            }
+            result.add(sb.toString());
+        }
+        return result;
+    }
+}
@@ -20,6 +20,8 @@ import com.android.bugreport.util.Line;
 import com.android.bugreport.util.Lines;
 import com.android.bugreport.util.Utils;
 
+import java.util.Calendar;
+import java.util.GregorianCalendar;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -30,7 +32,7 @@ public class LogcatParser {
 
     public static final Pattern BUFFER_BEGIN_RE = Pattern.compile(
             "--------- beginning of (.*)");
-    private static final Pattern LOG_LINE_RE = Pattern.compile(
+    static final Pattern LOG_LINE_RE = Pattern.compile(
             "(" + Utils.DATE_TIME_MS_PATTERN
                 + "\\s+(\\d+)\\s+(\\d+)\\s+(.)\\s+)(.*?):\\s(.*)");
 
@@ -47,16 +49,41 @@ public class LogcatParser {
      * Parse the logcat lines, returning a Logcat object.
      */
     public Logcat parse(Lines<? extends Line> lines) {
-        final Logcat result = new Logcat();
+        return parse(new Logcat(), lines);
+    }
+
+    /**
+     * Parse more logcat lines onto the end of an existing Logcat, for example the
+     * lines that were added to a file that is being followed.  Returns result.
+     */
+    public Logcat parse(Logcat result, Lines<? extends Line> lines) {
+        // Most lines are threadtime, which the scanner can do without the regex.
+        final int defaultYear = (new GregorianCalendar(Utils.UTC)).get(Calendar.YEAR);
+        final ThreadtimeScanner scanner = new ThreadtimeScanner(defaultYear);
 
         Matcher m;
-        int lineno = 0;
+        int lineno = result.size();
 
         while (lines.hasNext()) {
             final Line line = lines.next();
             final String text = line.text;
 
-            if ((m = Utils.match(mBufferBeginRe, text)) != null) {
+            if (scanner.scan(text)) {
+                // Threadtime line
+                final LogLine ll = new LogLine();
+
+                ll.lineno = lineno++;
+                ll.rawText = text;
+                ll.header = text.substring(0, scanner.tagStart);
+                ll.time = scanner.timeMillis * 1000000L;
+                ll.pid = scanner.pid;
+                ll.tid = scanner.tid;
+                ll.level = scanner.level;
+                ll.tag = text.substring(scanner.tagStart, scanner.tagEnd);
+                ll.text = text.substring(scanner.textStart);
+
+                result.add(ll);
+            } else if ((m = Utils.match(mBufferBeginRe, text)) != null) {
                 // Beginning of buffer marker
                 final LogLine ll = new LogLine();
 
@@ -64,7 +91,7 @@ public class LogcatParser {
                 ll.rawText = text;
                 ll.bufferBegin = m.group(1);
 
-                result.lines.add(ll);
+                result.add(ll);
             } else if ((m = Utils.match(mLogLineRe, text)) != null) {
                 // Matched line
                 final LogLine ll = new LogLine();
@@ -72,14 +99,14 @@ public class LogcatParser {
                 ll.lineno = lineno++;
                 ll.rawText = text;
                 ll.header = m.group(1);
-                ll.time = Utils.parseCalendar(m, 2, true);
+                ll.time = Utils.parseTimeMillis(m, 2, true, defaultYear) * 1000000L;
                 ll.pid = Integer.parseInt(m.group(9));
                 ll.tid = Integer.parseInt(m.group(10));
                 ll.level = m.group(11).charAt(0);
                 ll.tag = m.group(12);
                 ll.text = m.group(13);
 
-                result.lines.add(ll);
+                result.add(ll);
 
                 if (false) {
                     System.out.println("LogLine: time=" + ll.time + " pid=" + ll.pid
@@ -0,0 +1,248 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.logcat;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * A time-ordered view of several logcat buffers.
+ *
+ * The merge is done with a min-heap of cursors, one for each source, each
+ * time the view is iterated.  The LogLine objects aren't copied or modified,
+ * so each line keeps its own lineno from its source, and the position in the
+ * merged view is available from the Cursor.
+ *
+ * Lines with the same time come out in the order the sources were added.
+ * Lines without a time come out as soon as they are at the head of their source.
+ */
+public class MergedLogcat implements Iterable<LogLine> {
+    private final ArrayList<Logcat> mSources = new ArrayList<Logcat>();
+    private final ArrayList<String> mNames = new ArrayList<String>();
+
+    /**
+     * Made-up "beginning of" lines for the sources that don't start with one,
+     * or null.
+     */
+    private final ArrayList<LogLine> mSyntheticBegins = new ArrayList<LogLine>();
+
+    /**
+     * Construct an empty MergedLogcat.
+     */
+    public MergedLogcat() {
+    }
+
+    /**
+     * Add a source.  The name is used for the made up "beginning of" line when the
+     * source doesn't start with one.  Null or empty logcats are ignored.
+     */
+    public void addSource(String name, Logcat logcat) {
+        if (logcat == null || logcat.size() == 0) {
+            return;
+        }
+        LogLine synthetic = null;
+        if (logcat.lines.get(0).bufferBegin == null) {
+            synthetic = new LogLine();
+            synthetic.rawText = synthetic.text = "--------- beginning of " + name;
+            synthetic.bufferBegin = name;
+            synthetic.time = logcat.getTime(0);
+        }
+        mSources.add(logcat);
+        mNames.add(name);
+        mSyntheticBegins.add(synthetic);
+    }
+
+    /**
+     * Return the number of sources.
+     */
+    public int getSourceCount() {
+        return mSources.size();
+    }
+
+    /**
+     * Return the name of the source at index.
+     */
+    public String getSourceName(int index) {
+        return mNames.get(index);
+    }
+
+    /**
+     * Return the source at index.
+     */
+    public Logcat getSource(int index) {
+        return mSources.get(index);
+    }
+
+    /**
+     * Return the made up "beginning of" line for the source at index, or null if
+     * the source starts with its own.
+     */
+    public LogLine getSyntheticBegin(int index) {
+        return mSyntheticBegins.get(index);
+    }
+
+    /**
+     * Return the total number of lines in the merged view.
+     */
+    public int size() {
+        int result = 0;
+        final int N = mSources.size();
+        for (int i=0; i<N; i++) {
+            result += mSources.get(i).size();
+            if (mSyntheticBegins.get(i) != null) {
+                result++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return a new cursor, positioned before the first line.
+     */
+    public Cursor cursor() {
+        return new Cursor();
+    }
+
+    /**
+     * Iterate the lines in time order.
+     */
+    @Override
+    public Iterator<LogLine> iterator() {
+        final Cursor cursor = cursor();
+        return new Iterator<LogLine>() {
+            private boolean mHasNext = cursor.next();
+
+            @Override
+            public boolean hasNext() {
+                return mHasNext;
+            }
+
+            @Override
+            public LogLine next() {
+                if (!mHasNext) {
+                    throw new NoSuchElementException();
+                }
+                final LogLine result = cursor.getLine();
+                mHasNext = cursor.next();
+                return result;
+            }
+        };
+    }
+
+    /**
+     * The read position in one source.
+     */
+    private static class SourceCursor {
+        public final int source;
+        public final Logcat logcat;
+
+        /**
+         * Index of the head line in logcat, or -1 for the synthetic begin line.
+         */
+        public int index;
+
+        public SourceCursor(int source, Logcat logcat, boolean hasSynthetic) {
+            this.source = source;
+            this.logcat = logcat;
+            this.index = hasSynthetic ? -1 : 0;
+        }
+
+        /**
+         * The time of the head line, which for the synthetic line is the time of
+         * the first real one.
+         */
+        public long getTime() {
+            return logcat.getTime(Math.max(index, 0));
+        }
+    }
+
+    /**
+     * Walks the merged lines in time order.
+     */
+    public class Cursor {
+        private final PriorityQueue<SourceCursor> mHeap;
+        private LogLine mLine;
+        private int mSource = -1;
+        private int mPosition;
+
+        private Cursor() {
+            final int N = mSources.size();
+            mHeap = new PriorityQueue<SourceCursor>(Math.max(N, 1),
+                    new java.util.Comparator<SourceCursor>() {
+                        @Override
+                        public int compare(SourceCursor a, SourceCursor b) {
+                            final long timeA = a.getTime();
+                            final long timeB = b.getTime();
+                            if (timeA != timeB) {
+                                return timeA < timeB ? -1 : 1;
+                            }
+                            return a.source - b.source;
+                        }
+                    });
+            for (int i=0; i<N; i++) {
+                mHeap.add(new SourceCursor(i, mSources.get(i), mSyntheticBegins.get(i) != null));
+            }
+        }
+
+        /**
+         * Move to the next line.  Returns false if there are no more lines.
+         */
+        public boolean next() {
+            final SourceCursor head = mHeap.poll();
+            if (head == null) {
+                mLine = null;
+                mSource = -1;
+                return false;
+            }
+            if (head.index < 0) {
+                mLine = mSyntheticBegins.get(head.source);
+            } else {
+                mLine = head.logcat.lines.get(head.index);
+            }
+            mSource = head.source;
+            mPosition++;
+            head.index++;
+            if (head.index < head.logcat.size()) {
+                mHeap.add(head);
+            }
+            return true;
+        }
+
+        /**
+         * The current line.
+         */
+        public LogLine getLine() {
+            return mLine;
+        }
+
+        /**
+         * The index of the source that the current line came from.
+         */
+        public int getSource() {
+            return mSource;
+        }
+
+        /**
+         * The position of the current line in the merged view, starting at 1.
+         */
+        public int getPosition() {
+            return mPosition;
+        }
+    }
+}
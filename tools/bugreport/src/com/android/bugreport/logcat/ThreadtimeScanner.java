@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.logcat;
+
+import com.android.bugreport.util.Utils;
+
+/**
+ * Hand written scanner for "logcat -v threadtime" lines:
+ *
+ *   [YYYY-]MM-DD HH:MM:SS.mmm  PID  TID L TAG: TEXT
+ *
+ * This is the fast path for LogcatParser.  It accepts exactly the lines that
+ * LogcatParser's LOG_LINE_RE would match in the obvious way, and gives the same
+ * fields.  When a line is anything other than that, scan returns false and
+ * the caller should fall back to the regex.
+ *
+ * The fields are left in the object after a successful scan, so this object
+ * can be reused, but is not thread safe.
+ */
+public class ThreadtimeScanner {
+    /**
+     * The timestamp, in milliseconds since the epoch, as Utils.parseCalendar would
+     * have computed it.
+     */
+    public long timeMillis;
+
+    public int pid;
+    public int tid;
+    public char level;
+
+    /**
+     * Index of the first character of the tag.  Everything before it is the header.
+     */
+    public int tagStart;
+
+    /**
+     * Index just past the last character of the tag.
+     */
+    public int tagEnd;
+
+    /**
+     * Index of the first character of the message text.
+     */
+    public int textStart;
+
+    private final int mDefaultYear;
+
+    private String mText;
+    private int mPos;
+
+    /**
+     * Construct a scanner.  Lines without a year are given defaultYear.
+     */
+    public ThreadtimeScanner(int defaultYear) {
+        mDefaultYear = defaultYear;
+    }
+
+    /**
+     * Scan the line.  Returns true if it was a threadtime line and the fields
+     * have been set.
+     */
+    public boolean scan(String text) {
+        mText = text;
+        mPos = 0;
+
+        // Date
+        int year = mDefaultYear;
+        if (text.length() > 4 && text.charAt(4) == '-') {
+            year = readFixed(4);
+            if (year < 0 || !expect('-')) {
+                return false;
+            }
+        }
+        final int month = readFixed(2);
+        if (month < 0 || !expect('-')) {
+            return false;
+        }
+        final int day = readFixed(2);
+        if (day < 0 || !skipSpaces()) {
+            return false;
+        }
+
+        // Time
+        final int hour = readFixed(2);
+        if (hour < 0 || !expect(':')) {
+            return false;
+        }
+        final int minute = readFixed(2);
+        if (minute < 0 || !expect(':')) {
+            return false;
+        }
+        final int second = readFixed(2);
+        if (second < 0 || !expect('.')) {
+            return false;
+        }
+        final int millisecond = readFixed(3);
+        if (millisecond < 0 || !skipSpaces()) {
+            return false;
+        }
+
+        // Pid and tid
+        pid = readNumber();
+        if (pid < 0 || !skipSpaces()) {
+            return false;
+        }
+        tid = readNumber();
+        if (tid < 0 || !skipSpaces()) {
+            return false;
+        }
+
+        // Level
+        if (mPos >= text.length() || isLineTerminator(text.charAt(mPos))) {
+            return false;
+        }
+        level = text.charAt(mPos++);
+        if (!skipSpaces()) {
+            return false;
+        }
+
+        // Tag, up to the first ": "
+        final int N = text.length();
+        tagStart = mPos;
+        tagEnd = -1;
+        for (int i=mPos; i<N; i++) {
+            final char c = text.charAt(i);
+            if (isLineTerminator(c)) {
+                return false;
+            }
+            if (c == ':' && i + 1 < N && isSpace(text.charAt(i + 1))) {
+                tagEnd = i;
+                break;
+            }
+        }
+        if (tagEnd < 0) {
+            return false;
+        }
+
+        // Text
+        textStart = tagEnd + 2;
+        for (int i=textStart; i<N; i++) {
+            if (isLineTerminator(text.charAt(i))) {
+                return false;
+            }
+        }
+
+        timeMillis = Utils.makeTimeMillis(year, month, day, hour, minute, second, millisecond);
+        return true;
+    }
+
+    /**
+     * Read exactly count digits.  Returns -1 if they aren't there.
+     */
+    private int readFixed(int count) {
+        if (mPos + count > mText.length()) {
+            return -1;
+        }
+        int result = 0;
+        for (int i=0; i<count; i++) {
+            final char c = mText.charAt(mPos++);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            result = (result * 10) + (c - '0');
+        }
+        return result;
+    }
+
+    /**
+     * Read a run of digits.  Returns -1 if there aren't any, or if there are
+     * too many to fit in an int.
+     */
+    private int readNumber() {
+        final int start = mPos;
+        final int N = mText.length();
+        int result = 0;
+        while (mPos < N) {
+            final char c = mText.charAt(mPos);
+            if (c < '0' || c > '9') {
+                break;
+            }
+            result = (result * 10) + (c - '0');
+            mPos++;
+        }
+        if (mPos == start || mPos - start > 9) {
+            return -1;
+        }
+        return result;
+    }
+
+    /**
+     * Expect the character c.
+     */
+    private boolean expect(char c) {
+        if (mPos < mText.length() && mText.charAt(mPos) == c) {
+            mPos++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Skip at least one whitespace character.
+     */
+    private boolean skipSpaces() {
+        final int start = mPos;
+        final int N = mText.length();
+        while (mPos < N && isSpace(mText.charAt(mPos))) {
+            mPos++;
+        }
+        return mPos > start;
+    }
+
+    /**
+     * Same as \s in a java regex.
+     */
+    private static boolean isSpace(char c) {
+        return c == ' ' || c == '\t' || c == '\n' || c == '\u000B' || c == '\f' || c == '\r';
+    }
+
+    /**
+     * The characters that . in a java regex doesn't match.
+     */
+    private static boolean isLineTerminator(char c) {
+        return c == '\n' || c == '\r' || c == '\u0085' || c == '\u2028' || c == '\u2029';
+    }
+}
@@ -34,12 +34,14 @@ import java.util.regex.Matcher;
 public class ProcessSnapshotParser {
     public static final Pattern BEGIN_PROCESS_RE = Pattern.compile(
                     "----- pid (\\d+) at (\\d{4}-\\d{2}-\\d{2} \\d{2}:\\d{2}:\\d{2}) -----");
-    private static final Pattern END_PROCESS_RE
+    public static final Pattern END_PROCESS_RE
             = Pattern.compile("----- end \\d+ -----");
 
     public static final Pattern CMD_LINE_RE = Pattern.compile(
                     "Cmd line: (.*)");
 
+    private final ThreadSnapshotParser mThreadParser = new ThreadSnapshotParser();
+
     /**
      * Construct a new parser.
      */
@@ -106,8 +108,7 @@ public class ProcessSnapshotParser {
                         || Utils.matches(beginManagedThreadRe, text)
                         || Utils.matches(beginNotAttachedThreadRe, text)) {
                     lines.rewind();
-                    ThreadSnapshotParser parser = new ThreadSnapshotParser(); 
-                    final ThreadSnapshot snapshot = parser.parse(lines);
+                    final ThreadSnapshot snapshot = mThreadParser.parse(lines);
                     if (snapshot != null) {
                         result.threads.add(snapshot);
                     } else {
@@ -70,7 +70,7 @@ public class ThreadSnapshotParser {
                     "  - waiting to lock an unknown object");
     public static final Pattern NO_MANAGED_STACK_FRAME_RE = Pattern.compile(
                     "  (\\(no managed stack frames\\))");
-    private static final Pattern BLANK_RE
+    static final Pattern BLANK_RE
             = Pattern.compile("\\s+");
 
     public static final Pattern SYS_TID_ATTR_RE = Pattern.compile(
@@ -78,6 +78,42 @@ public class ThreadSnapshotParser {
     public static final Pattern STATE_ATTR_RE = Pattern.compile(
                     "  \\| state=R .*");
 
+    /**
+     * Kinds of stack lines, picked from the first token of the line so that only
+     * the patterns that can possibly match it are tried.
+     */
+    private static final int LINE_OTHER = 0;
+    private static final int LINE_NATIVE = 1;
+    private static final int LINE_KERNEL = 2;
+    private static final int LINE_JAVA = 3;
+    private static final int LINE_LOCKED = 4;
+    private static final int LINE_WAITING_ON = 5;
+    private static final int LINE_SLEEPING_ON = 6;
+    private static final int LINE_WAITING_TO_LOCK = 7;
+    private static final int LINE_NO_MANAGED_STACK_FRAME = 8;
+
+    private final Matcher mBeginUnmanagedThreadRe = BEGIN_UNMANAGED_THREAD_RE.matcher("");
+    private final Matcher mBeginManagedThreadRe = BEGIN_MANAGED_THREAD_RE.matcher("");
+    private final Matcher mBeginNotAttachedThreadRe = BEGIN_NOT_ATTACHED_THREAD_RE.matcher("");
+    private final Matcher mAttrRe = ATTR_RE.matcher("");
+    private final Matcher mHeldMutexesRe = HELD_MUTEXES_RE.matcher("");
+    private final Matcher mNativeRe = NATIVE_RE.matcher("");
+    private final Matcher mNativeNoLocRe = NATIVE_NO_LOC_RE.matcher("");
+    private final Matcher mKernelRe = KERNEL_RE.matcher("");
+    private final Matcher mKernelUnknownRe = KERNEL_UNKNOWN_RE.matcher("");
+    private final Matcher mJavaRe = JAVA_RE.matcher("");
+    private final Matcher mJniRe = JNI_RE.matcher("");
+    private final Matcher mLockedRe = LOCKED_RE.matcher("");
+    private final Matcher mWaitingOnRe = WAITING_ON_RE.matcher("");
+    private final Matcher mSleepingOnRe = SLEEPING_ON_RE.matcher("");
+    private final Matcher mWaitingToLockHeldRe = WAITING_TO_LOCK_HELD_RE.matcher("");
+    private final Matcher mWaitingToLockRe = WAITING_TO_LOCK_RE.matcher("");
+    private final Matcher mWaitingToLockUnknownRe = WAITING_TO_LOCK_UNKNOWN_RE.matcher("");
+    private final Matcher mNoManagedStackFrameRe = NO_MANAGED_STACK_FRAME_RE.matcher("");
+    private final Matcher mBlankRe = BLANK_RE.matcher("");
+    private final Matcher mSysTidAttrRe = SYS_TID_ATTR_RE.matcher("");
+    private final Matcher mStateAttrRe = STATE_ATTR_RE.matcher("");
+
     /**
      * Construct a new parser.
      */
@@ -93,30 +129,6 @@ public class ThreadSnapshotParser {
         final ThreadSnapshot result = new ThreadSnapshot();
         JavaStackFrameSnapshot lastJava = null;
 
-        final Matcher beginUnmanagedThreadRe = BEGIN_UNMANAGED_THREAD_RE.matcher("");
-        final Matcher beginManagedThreadRe = BEGIN_MANAGED_THREAD_RE.matcher("");
-        final Matcher beginNotAttachedThreadRe = BEGIN_NOT_ATTACHED_THREAD_RE.matcher("");
-        final Matcher attrRe = ATTR_RE.matcher("");
-        final Matcher heldMutexesRe = HELD_MUTEXES_RE.matcher("");
-        final Matcher nativeRe = NATIVE_RE.matcher("");
-        final Matcher nativeNoLocRe = NATIVE_NO_LOC_RE.matcher("");
-        final Matcher kernelRe = KERNEL_RE.matcher("");
-        final Matcher kernelUnknownRe = KERNEL_UNKNOWN_RE.matcher("");
-        final Matcher javaRe = JAVA_RE.matcher("");
-        final Matcher jniRe = JNI_RE.matcher("");
-        final Matcher lockedRe = LOCKED_RE.matcher("");
-        final Matcher waitingOnRe = WAITING_ON_RE.matcher("");
-        final Matcher sleepingOnRe = SLEEPING_ON_RE.matcher("");
-        final Matcher waitingToLockHeldRe = WAITING_TO_LOCK_HELD_RE.matcher("");
-        final Matcher waitingToLockRe = WAITING_TO_LOCK_RE.matcher("");
-        final Matcher waitingToLockUnknownRe = WAITING_TO_LOCK_UNKNOWN_RE.matcher("");
-        final Matcher noManagedStackFrameRe = NO_MANAGED_STACK_FRAME_RE.matcher("");
-        final Matcher blankRe = BLANK_RE.matcher("");
-
-        final Matcher sysTidAttrRe = SYS_TID_ATTR_RE.matcher("");
-        final Matcher stateAttrRe = STATE_ATTR_RE.matcher("");
-
-
         Line line;
         String text;
 
@@ -126,41 +138,44 @@ public class ThreadSnapshotParser {
             return null;
         }
         line = lines.next();
-        if (Utils.matches(beginUnmanagedThreadRe, line.text)) {
+        if (Utils.matches(mBeginUnmanagedThreadRe, line.text)) {
             result.type = ThreadSnapshot.TYPE_UNMANAGED;
-            result.name = beginUnmanagedThreadRe.group(1);
+            result.name = mBeginUnmanagedThreadRe.group(1);
             result.priority = -1;
             result.tid = -1;
-            result.sysTid = Integer.parseInt(beginUnmanagedThreadRe.group(2));
-        } else if (Utils.matches(beginManagedThreadRe, line.text)) {
+            result.sysTid = Integer.parseInt(mBeginUnmanagedThreadRe.group(2));
+        } else if (Utils.matches(mBeginManagedThreadRe, line.text)) {
             result.type = ThreadSnapshot.TYPE_MANAGED;
-            result.name = beginManagedThreadRe.group(1);
-            result.daemon = beginManagedThreadRe.group(2);
-            result.priority = Utils.getInt(beginManagedThreadRe, 3, -1);
-            result.tid = Utils.getInt(beginManagedThreadRe, 4, -1);
-            result.vmState = beginManagedThreadRe.group(5);
-        } else if (Utils.matches(beginNotAttachedThreadRe, line.text)) {
+            result.name = mBeginManagedThreadRe.group(1);
+            result.daemon = mBeginManagedThreadRe.group(2);
+            result.priority = Utils.getInt(mBeginManagedThreadRe, 3, -1);
+            result.tid = Utils.getInt(mBeginManagedThreadRe, 4, -1);
+            result.vmState = mBeginManagedThreadRe.group(5);
+        } else if (Utils.matches(mBeginNotAttachedThreadRe, line.text)) {
             result.type = ThreadSnapshot.TYPE_MANAGED;
-            result.name = beginNotAttachedThreadRe.group(1);
-            result.daemon = beginNotAttachedThreadRe.group(2);
-            result.priority = Utils.getInt(beginNotAttachedThreadRe, 3, -1);
+            result.name = mBeginNotAttachedThreadRe.group(1);
+            result.daemon = mBeginNotAttachedThreadRe.group(2);
+            result.priority = Utils.getInt(mBeginNotAttachedThreadRe, 3, -1);
             result.tid = -1;
-            result.vmState = beginNotAttachedThreadRe.group(4);
+            result.vmState = mBeginNotAttachedThreadRe.group(4);
         }
 
         // Attributes
         while (lines.hasNext()) {
             line = lines.next();
             text = line.text;
-            if (Utils.matches(heldMutexesRe, text)) {
-                result.attributeText.add(heldMutexesRe.group(1));
-                result.heldMutexes = heldMutexesRe.group(2);
-            } else if (Utils.matches(attrRe, text)) {
-                result.attributeText.add(attrRe.group(1));
-                if (Utils.matches(sysTidAttrRe, text)) {
-                    result.sysTid = Integer.parseInt(sysTidAttrRe.group(1));
+            if (!text.startsWith("  | ")) {
+                lines.rewind();
+                break;
+            } else if (Utils.matches(mHeldMutexesRe, text)) {
+                result.attributeText.add(mHeldMutexesRe.group(1));
+                result.heldMutexes = mHeldMutexesRe.group(2);
+            } else if (Utils.matches(mAttrRe, text)) {
+                result.attributeText.add(mAttrRe.group(1));
+                if (text.startsWith("  | sysTid=") && Utils.matches(mSysTidAttrRe, text)) {
+                    result.sysTid = Integer.parseInt(mSysTidAttrRe.group(1));
                 }
-                if (Utils.matches(stateAttrRe, text)) {
+                if (text.startsWith("  | state=R ") && Utils.matches(mStateAttrRe, text)) {
                     result.runnable = true;
                 }
             } else {
@@ -173,114 +188,117 @@ public class ThreadSnapshotParser {
         while (lines.hasNext()) {
             line = lines.next();
             text = line.text;
-            if (Utils.matches(nativeRe, text)) {
+            final int kind = classifyStackLine(text);
+            if (kind == LINE_NATIVE && Utils.matches(mNativeRe, text)) {
                 final NativeStackFrameSnapshot frame = new NativeStackFrameSnapshot();
                 frame.text = text;
-                frame.library = nativeRe.group(1);
-                frame.symbol = nativeRe.group(2);
-                frame.offset = Integer.parseInt(nativeRe.group(3));
+                frame.library = mNativeRe.group(1);
+                frame.symbol = mNativeRe.group(2);
+                frame.offset = Integer.parseInt(mNativeRe.group(3));
                 result.frames.add(frame);
                 lastJava = null;
-            } else if (Utils.matches(nativeNoLocRe, text)) {
+            } else if (kind == LINE_NATIVE && Utils.matches(mNativeNoLocRe, text)) {
                 final NativeStackFrameSnapshot frame = new NativeStackFrameSnapshot();
                 frame.text = text;
-                frame.library = nativeNoLocRe.group(1);
-                frame.symbol = nativeNoLocRe.group(2);
+                frame.library = mNativeNoLocRe.group(1);
+                frame.symbol = mNativeNoLocRe.group(2);
                 frame.offset = -1;
                 result.frames.add(frame);
                 lastJava = null;
-            } else if (Utils.matches(kernelRe, text)) {
+            } else if (kind == LINE_KERNEL && Utils.matches(mKernelRe, text)) {
                 final KernelStackFrameSnapshot frame = new KernelStackFrameSnapshot();
                 frame.text = text;
-                frame.syscall = kernelRe.group(1);
-                frame.offset0 = Integer.parseInt(kernelRe.group(3), 16);
-                frame.offset1 = Integer.parseInt(kernelRe.group(3), 16);
+                frame.syscall = mKernelRe.group(1);
+                frame.offset0 = Integer.parseInt(mKernelRe.group(3), 16);
+                frame.offset1 = Integer.parseInt(mKernelRe.group(3), 16);
                 result.frames.add(frame);
                 lastJava = null;
-            } else if (Utils.matches(kernelUnknownRe, text)) {
+            } else if (kind == LINE_KERNEL && Utils.matches(mKernelUnknownRe, text)) {
                 final StackFrameSnapshot frame = new StackFrameSnapshot();
                 frame.text = text;
                 result.frames.add(frame);
                 lastJava = null;
-            } else if (Utils.matches(javaRe, text)) {
+            } else if (kind == LINE_JAVA && Utils.matches(mJavaRe, text)) {
                 final JavaStackFrameSnapshot frame = new JavaStackFrameSnapshot();
                 frame.text = text;
-                frame.packageName = javaRe.group(1);
-                frame.className = javaRe.group(2);
-                frame.methodName = javaRe.group(3);
-                frame.sourceFile = javaRe.group(4);
-                frame.sourceLine = Integer.parseInt(javaRe.group(5));
+                frame.packageName = mJavaRe.group(1);
+                frame.className = mJavaRe.group(2);
+                frame.methodName = mJavaRe.group(3);
+                frame.sourceFile = mJavaRe.group(4);
+                frame.sourceLine = Integer.parseInt(mJavaRe.group(5));
                 frame.language = JavaStackFrameSnapshot.LANGUAGE_JAVA;
                 result.frames.add(frame);
                 lastJava = frame;
-            } else if (Utils.matches(jniRe, text)) {
+            } else if (kind == LINE_JAVA && Utils.matches(mJniRe, text)) {
                 final JavaStackFrameSnapshot frame = new JavaStackFrameSnapshot();
                 frame.text = text;
-                frame.packageName = jniRe.group(1);
-                frame.className = jniRe.group(2);
-                frame.methodName = jniRe.group(3);
+                frame.packageName = mJniRe.group(1);
+                frame.className = mJniRe.group(2);
+                frame.methodName = mJniRe.group(3);
                 frame.language = JavaStackFrameSnapshot.LANGUAGE_JNI;
                 result.frames.add(frame);
                 lastJava = frame;
-            } else if (Utils.matches(lockedRe, text)) {
+            } else if (kind == LINE_LOCKED && Utils.matches(mLockedRe, text)) {
                 if (lastJava != null) {
                     final LockSnapshot lock = new LockSnapshot();
                     lock.type = LockSnapshot.LOCKED;
-                    lock.address = lockedRe.group(1);
-                    lock.packageName = lockedRe.group(2);
-                    lock.className = lockedRe.group(3);
+                    lock.address = mLockedRe.group(1);
+                    lock.packageName = mLockedRe.group(2);
+                    lock.className = mLockedRe.group(3);
                     lastJava.locks.add(lock);
                 }
-            } else if (Utils.matches(waitingOnRe, text)) {
+            } else if (kind == LINE_WAITING_ON && Utils.matches(mWaitingOnRe, text)) {
                 if (lastJava != null) {
                     final LockSnapshot lock = new LockSnapshot();
                     lock.type = LockSnapshot.WAITING;
-                    lock.address = waitingOnRe.group(1);
-                    lock.packageName = waitingOnRe.group(2);
-                    lock.className = waitingOnRe.group(3);
+                    lock.address = mWaitingOnRe.group(1);
+                    lock.packageName = mWaitingOnRe.group(2);
+                    lock.className = mWaitingOnRe.group(3);
                     lastJava.locks.add(lock);
                 }
-            } else if (Utils.matches(sleepingOnRe, text)) {
+            } else if (kind == LINE_SLEEPING_ON && Utils.matches(mSleepingOnRe, text)) {
                 if (lastJava != null) {
                     final LockSnapshot lock = new LockSnapshot();
                     lock.type = LockSnapshot.SLEEPING;
-                    lock.address = sleepingOnRe.group(1);
-                    lock.packageName = sleepingOnRe.group(2);
-                    lock.className = sleepingOnRe.group(3);
+                    lock.address = mSleepingOnRe.group(1);
+                    lock.packageName = mSleepingOnRe.group(2);
+                    lock.className = mSleepingOnRe.group(3);
                     lastJava.locks.add(lock);
                 }
-            } else if (Utils.matches(waitingToLockHeldRe, text)) {
+            } else if (kind == LINE_WAITING_TO_LOCK && Utils.matches(mWaitingToLockHeldRe, text)) {
                 if (lastJava != null) {
                     final LockSnapshot lock = new LockSnapshot();
                     lock.type = LockSnapshot.BLOCKED;
-                    lock.address = waitingToLockHeldRe.group(1);
-                    lock.packageName = waitingToLockHeldRe.group(2);
-                    lock.className = waitingToLockHeldRe.group(3);
-                    lock.threadId = Integer.parseInt(waitingToLockHeldRe.group(4));
+                    lock.address = mWaitingToLockHeldRe.group(1);
+                    lock.packageName = mWaitingToLockHeldRe.group(2);
+                    lock.className = mWaitingToLockHeldRe.group(3);
+                    lock.threadId = Integer.parseInt(mWaitingToLockHeldRe.group(4));
                     lastJava.locks.add(lock);
                 }
-            } else if (Utils.matches(waitingToLockRe, text)) {
+            } else if (kind == LINE_WAITING_TO_LOCK && Utils.matches(mWaitingToLockRe, text)) {
                 if (lastJava != null) {
                     final LockSnapshot lock = new LockSnapshot();
                     lock.type = LockSnapshot.BLOCKED;
-                    lock.address = waitingToLockRe.group(1);
-                    lock.packageName = waitingToLockRe.group(2);
-                    lock.className = waitingToLockRe.group(3);
+                    lock.address = mWaitingToLockRe.group(1);
+                    lock.packageName = mWaitingToLockRe.group(2);
+                    lock.className = mWaitingToLockRe.group(3);
                     lock.threadId = -1;
                     lastJava.locks.add(lock);
                 }
-            } else if (Utils.matches(waitingToLockUnknownRe, text)) {
+            } else if (kind == LINE_WAITING_TO_LOCK
+                    && Utils.matches(mWaitingToLockUnknownRe, text)) {
                 if (lastJava != null) {
                     final LockSnapshot lock = new LockSnapshot();
                     lock.type = LockSnapshot.BLOCKED;
                     lastJava.locks.add(lock);
                 }
-            } else if (Utils.matches(noManagedStackFrameRe, text)) {
+            } else if (kind == LINE_NO_MANAGED_STACK_FRAME
+                    && Utils.matches(mNoManagedStackFrameRe, text)) {
                 final StackFrameSnapshot frame = new StackFrameSnapshot();
-                frame.text = noManagedStackFrameRe.group(1);
+                frame.text = mNoManagedStackFrameRe.group(1);
                 result.frames.add(frame);
                 lastJava = null;
-            } else if (text.length() == 0 || Utils.matches(blankRe, text)) {
+            } else if (text.length() == 0 || Utils.matches(mBlankRe, text)) {
                 break;
             } else {
                 final StackFrameSnapshot frame = new StackFrameSnapshot();
@@ -335,5 +353,40 @@ public class ThreadSnapshotParser {
 
         return result;
     }
+
+    /**
+     * Look at the start of a stack line to see what kind of line it could be.
+     * The line still has to match the pattern for that kind.
+     */
+    private static int classifyStackLine(String text) {
+        if (text.length() < 3 || text.charAt(0) != ' ' || text.charAt(1) != ' ') {
+            return LINE_OTHER;
+        }
+        switch (text.charAt(2)) {
+            case '#':
+                return LINE_NATIVE;
+            case 'n':
+                return text.startsWith("native: #", 2) ? LINE_NATIVE : LINE_OTHER;
+            case 'k':
+                return text.startsWith("kernel: ", 2) ? LINE_KERNEL : LINE_OTHER;
+            case 'a':
+                return text.startsWith("at ", 2) ? LINE_JAVA : LINE_OTHER;
+            case '(':
+                return LINE_NO_MANAGED_STACK_FRAME;
+            case '-':
+                if (text.startsWith("- locked ", 2)) {
+                    return LINE_LOCKED;
+                } else if (text.startsWith("- waiting on ", 2)) {
+                    return LINE_WAITING_ON;
+                } else if (text.startsWith("- sleeping on ", 2)) {
+                    return LINE_SLEEPING_ON;
+                } else if (text.startsWith("- waiting to lock ", 2)) {
+                    return LINE_WAITING_TO_LOCK;
+                }
+                return LINE_OTHER;
+            default:
+                return LINE_OTHER;
+        }
+    }
 }
 
@@ -0,0 +1,402 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.stacks;
+
+import com.android.bugreport.util.Line;
+import com.android.bugreport.util.Lines;
+import com.android.bugreport.util.Utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+
+/**
+ * Checks that ThreadSnapshotParser gives the same ThreadSnapshot, field for field,
+ * as the chain of regular expressions that it used to try on every stack line, and
+ * then times the two on every thread of a traces file.  testdata/traces.txt has
+ * each kind of thread header, attribute and stack line that the parser knows:
+ *
+ *   java -cp BugReport.jar com.android.bugreport.stacks.TracesBenchmark TRACES
+ */
+public class TracesBenchmark {
+    private static final int ROUNDS = 10;
+
+    /**
+     * About how many lines each timed pass parses, so that small files are
+     * timed over enough work.
+     */
+    private static final int LINES_PER_PASS = 1000000;
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 1) {
+            System.err.println("usage: TracesBenchmark TRACES");
+            System.exit(2);
+        }
+
+        final Lines<Line> lines = Lines.readLines(new File(args[0]));
+        final ArrayList<Integer> starts = findThreads(lines);
+
+        final ThreadSnapshotParser parser = new ThreadSnapshotParser();
+        final RegexChainParser regexChain = new RegexChainParser();
+
+        // Check first, which also warms up both of them.
+        int threadLines = 0;
+        for (int start: starts) {
+            lines.rewind(start);
+            final String expected = describe(regexChain.parse(lines));
+            lines.rewind(start);
+            final String actual = describe(parser.parse(lines));
+            threadLines += lines.pos - start;
+            if (!actual.equals(expected)) {
+                lines.rewind(start);
+                System.err.println("Mismatch for the thread at line "
+                        + lines.next().lineno + ", expected:");
+                System.err.println(expected);
+                System.err.println("but got:");
+                System.err.println(actual);
+                System.exit(1);
+            }
+        }
+        System.out.println(starts.size() + " threads, " + threadLines + " lines, all the same");
+        if (threadLines == 0) {
+            return;
+        }
+
+        final int passes = Math.max(1, LINES_PER_PASS / threadLines);
+        final long passLines = (long)passes * threadLines;
+        for (int round=0; round<ROUNDS; round++) {
+            int count = 0;
+            long start = System.nanoTime();
+            for (int i=0; i<passes; i++) {
+                for (int thread: starts) {
+                    lines.rewind(thread);
+                    count += regexChain.parse(lines).frames.size();
+                }
+            }
+            final long regexNanos = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (int i=0; i<passes; i++) {
+                for (int thread: starts) {
+                    lines.rewind(thread);
+                    count += parser.parse(lines).frames.size();
+                }
+            }
+            final long parserNanos = System.nanoTime() - start;
+
+            System.out.printf("regex chain %.0f ns/line, dispatch %.0f ns/line (%d)%n",
+                    (double)regexNanos / passLines, (double)parserNanos / passLines, count);
+        }
+    }
+
+    /**
+     * Returns the positions of the lines that begin a thread.
+     */
+    private static ArrayList<Integer> findThreads(Lines<Line> lines) {
+        final Matcher beginUnmanagedThreadRe = ThreadSnapshotParser.BEGIN_UNMANAGED_THREAD_RE
+                .matcher("");
+        final Matcher beginManagedThreadRe = ThreadSnapshotParser.BEGIN_MANAGED_THREAD_RE
+                .matcher("");
+        final Matcher beginNotAttachedThreadRe = ThreadSnapshotParser.BEGIN_NOT_ATTACHED_THREAD_RE
+                .matcher("");
+
+        final ArrayList<Integer> result = new ArrayList<Integer>();
+        while (lines.hasNext()) {
+            final int pos = lines.pos;
+            final String text = lines.next().text;
+            if (Utils.matches(beginUnmanagedThreadRe, text)
+                    || Utils.matches(beginManagedThreadRe, text)
+                    || Utils.matches(beginNotAttachedThreadRe, text)) {
+                result.add(pos);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns every field of the thread and its frames and locks as text.
+     */
+    private static String describe(ThreadSnapshot thread) {
+        final StringBuilder sb = new StringBuilder();
+        sb.append("type=").append(thread.type)
+                .append(" name=").append(thread.name)
+                .append(" daemon=").append(thread.daemon)
+                .append(" priority=").append(thread.priority)
+                .append(" tid=").append(thread.tid)
+                .append(" sysTid=").append(thread.sysTid)
+                .append(" vmState=").append(thread.vmState)
+                .append('\n');
+        for (String text: thread.attributeText) {
+            sb.append("  attr ").append(text).append('\n');
+        }
+        sb.append("  heldMutexes=").append(thread.heldMutexes)
+                .append(" runnable=").append(thread.runnable)
+                .append(" blocked=").append(thread.blocked)
+                .append(" interesting=").append(thread.interesting)
+                .append('\n');
+        sb.append("  outbound=").append(thread.outboundBinderPackage)
+                .append('/').append(thread.outboundBinderClass)
+                .append('/').append(thread.outboundBinderMethod)
+                .append(" inbound=").append(thread.inboundBinderPackage)
+                .append('/').append(thread.inboundBinderClass)
+                .append('/').append(thread.inboundBinderMethod)
+                .append('\n');
+        for (StackFrameSnapshot frame: thread.frames) {
+            sb.append("  frame ").append(frame.frameType).append(" [").append(frame.text)
+                    .append("]");
+            if (frame instanceof NativeStackFrameSnapshot) {
+                final NativeStackFrameSnapshot f = (NativeStackFrameSnapshot)frame;
+                sb.append(" library=").append(f.library)
+                        .append(" symbol=").append(f.symbol)
+                        .append(" offset=").append(f.offset);
+            } else if (frame instanceof KernelStackFrameSnapshot) {
+                final KernelStackFrameSnapshot f = (KernelStackFrameSnapshot)frame;
+                sb.append(" syscall=").append(f.syscall)
+                        .append(" offset0=").append(f.offset0)
+                        .append(" offset1=").append(f.offset1);
+            } else if (frame instanceof JavaStackFrameSnapshot) {
+                final JavaStackFrameSnapshot f = (JavaStackFrameSnapshot)frame;
+                sb.append(" package=").append(f.packageName)
+                        .append(" class=").append(f.className)
+                        .append(" method=").append(f.methodName)
+                        .append(" file=").append(f.sourceFile)
+                        .append(" line=").append(f.sourceLine)
+                        .append(" language=").append(f.language);
+                for (LockSnapshot lock: f.locks) {
+                    sb.append("\n    ");
+                    describe(sb, lock);
+                }
+            }
+            sb.append('\n');
+        }
+        for (LockSnapshot lock: (new TreeMap<String,LockSnapshot>(thread.locks)).values()) {
+            sb.append("  ");
+            describe(sb, lock);
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static void describe(StringBuilder sb, LockSnapshot lock) {
+        sb.append("lock ").append(lock.type)
+                .append(" address=").append(lock.address)
+                .append(" package=").append(lock.packageName)
+                .append(" class=").append(lock.className)
+                .append(" threadId=").append(lock.threadId);
+    }
+
+    /**
+     * ThreadSnapshotParser as it was before it dispatched the stack lines on their
+     * first token: every pattern is tried on every stack line in turn, with new
+     * Matchers for each thread.  Kept as the reference for the check above.
+     */
+    private static class RegexChainParser {
+        public ThreadSnapshot parse(Lines<? extends Line> lines) {
+            final ThreadSnapshot result = new ThreadSnapshot();
+            JavaStackFrameSnapshot lastJava = null;
+
+            final Matcher beginUnmanagedThreadRe = ThreadSnapshotParser.BEGIN_UNMANAGED_THREAD_RE
+                    .matcher("");
+            final Matcher beginManagedThreadRe = ThreadSnapshotParser.BEGIN_MANAGED_THREAD_RE
+                    .matcher("");
+            final Matcher beginNotAttachedThreadRe
+                    = ThreadSnapshotParser.BEGIN_NOT_ATTACHED_THREAD_RE.matcher("");
+            final Matcher attrRe = ThreadSnapshotParser.ATTR_RE.matcher("");
+            final Matcher heldMutexesRe = ThreadSnapshotParser.HELD_MUTEXES_RE.matcher("");
+            final Matcher nativeRe = ThreadSnapshotParser.NATIVE_RE.matcher("");
+            final Matcher nativeNoLocRe = ThreadSnapshotParser.NATIVE_NO_LOC_RE.matcher("");
+            final Matcher kernelRe = ThreadSnapshotParser.KERNEL_RE.matcher("");
+            final Matcher kernelUnknownRe = ThreadSnapshotParser.KERNEL_UNKNOWN_RE.matcher("");
+            final Matcher javaRe = ThreadSnapshotParser.JAVA_RE.matcher("");
+            final Matcher jniRe = ThreadSnapshotParser.JNI_RE.matcher("");
+            final Matcher lockedRe = ThreadSnapshotParser.LOCKED_RE.matcher("");
+            final Matcher waitingOnRe = ThreadSnapshotParser.WAITING_ON_RE.matcher("");
+            final Matcher sleepingOnRe = ThreadSnapshotParser.SLEEPING_ON_RE.matcher("");
+            final Matcher waitingToLockHeldRe = ThreadSnapshotParser.WAITING_TO_LOCK_HELD_RE
+                    .matcher("");
+            final Matcher waitingToLockRe = ThreadSnapshotParser.WAITING_TO_LOCK_RE.matcher("");
+            final Matcher waitingToLockUnknownRe
+                    = ThreadSnapshotParser.WAITING_TO_LOCK_UNKNOWN_RE.matcher("");
+            final Matcher noManagedStackFrameRe = ThreadSnapshotParser.NO_MANAGED_STACK_FRAME_RE
+                    .matcher("");
+            final Matcher blankRe = ThreadSnapshotParser.BLANK_RE.matcher("");
+
+            final Matcher sysTidAttrRe = ThreadSnapshotParser.SYS_TID_ATTR_RE.matcher("");
+            final Matcher stateAttrRe = ThreadSnapshotParser.STATE_ATTR_RE.matcher("");
+
+            Line line;
+            String text;
+
+            // First Line
+            if (!lines.hasNext()) {
+                return null;
+            }
+            line = lines.next();
+            if (Utils.matches(beginUnmanagedThreadRe, line.text)) {
+                result.type = ThreadSnapshot.TYPE_UNMANAGED;
+                result.name = beginUnmanagedThreadRe.group(1);
+                result.priority = -1;
+                result.tid = -1;
+                result.sysTid = Integer.parseInt(beginUnmanagedThreadRe.group(2));
+            } else if (Utils.matches(beginManagedThreadRe, line.text)) {
+                result.type = ThreadSnapshot.TYPE_MANAGED;
+                result.name = beginManagedThreadRe.group(1);
+                result.daemon = beginManagedThreadRe.group(2);
+                result.priority = Utils.getInt(beginManagedThreadRe, 3, -1);
+                result.tid = Utils.getInt(beginManagedThreadRe, 4, -1);
+                result.vmState = beginManagedThreadRe.group(5);
+            } else if (Utils.matches(beginNotAttachedThreadRe, line.text)) {
+                result.type = ThreadSnapshot.TYPE_MANAGED;
+                result.name = beginNotAttachedThreadRe.group(1);
+                result.daemon = beginNotAttachedThreadRe.group(2);
+                result.priority = Utils.getInt(beginNotAttachedThreadRe, 3, -1);
+                result.tid = -1;
+                result.vmState = beginNotAttachedThreadRe.group(4);
+            }
+
+            // Attributes
+            while (lines.hasNext()) {
+                line = lines.next();
+                text = line.text;
+                if (Utils.matches(heldMutexesRe, text)) {
+                    result.attributeText.add(heldMutexesRe.group(1));
+                    result.heldMutexes = heldMutexesRe.group(2);
+                } else if (Utils.matches(attrRe, text)) {
+                    result.attributeText.add(attrRe.group(1));
+                    if (Utils.matches(sysTidAttrRe, text)) {
+                        result.sysTid = Integer.parseInt(sysTidAttrRe.group(1));
+                    }
+                    if (Utils.matches(stateAttrRe, text)) {
+                        result.runnable = true;
+                    }
+                } else {
+                    lines.rewind();
+                    break;
+                }
+            }
+
+            // Stack
+            while (lines.hasNext()) {
+                line = lines.next();
+                text = line.text;
+                if (Utils.matches(nativeRe, text)) {
+                    final NativeStackFrameSnapshot frame = new NativeStackFrameSnapshot();
+                    frame.text = text;
+                    frame.library = nativeRe.group(1);
+                    frame.symbol = nativeRe.group(2);
+                    frame.offset = Integer.parseInt(nativeRe.group(3));
+                    result.frames.add(frame);
+                    lastJava = null;
+                } else if (Utils.matches(nativeNoLocRe, text)) {
+                    final NativeStackFrameSnapshot frame = new NativeStackFrameSnapshot();
+                    frame.text = text;
+                    frame.library = nativeNoLocRe.group(1);
+                    frame.symbol = nativeNoLocRe.group(2);
+                    frame.offset = -1;
+                    result.frames.add(frame);
+                    lastJava = null;
+                } else if (Utils.matches(kernelRe, text)) {
+                    final KernelStackFrameSnapshot frame = new KernelStackFrameSnapshot();
+                    frame.text = text;
+                    frame.syscall = kernelRe.group(1);
+                    frame.offset0 = Integer.parseInt(kernelRe.group(3), 16);
+                    frame.offset1 = Integer.parseInt(kernelRe.group(3), 16);
+                    result.frames.add(frame);
+                    lastJava = null;
+                } else if (Utils.matches(kernelUnknownRe, text)) {
+                    final StackFrameSnapshot frame = new StackFrameSnapshot();
+                    frame.text = text;
+                    result.frames.add(frame);
+                    lastJava = null;
+                } else if (Utils.matches(javaRe, text)) {
+                    final JavaStackFrameSnapshot frame = new JavaStackFrameSnapshot();
+                    frame.text = text;
+                    frame.packageName = javaRe.group(1);
+                    frame.className = javaRe.group(2);
+                    frame.methodName = javaRe.group(3);
+                    frame.sourceFile = javaRe.group(4);
+                    frame.sourceLine = Integer.parseInt(javaRe.group(5));
+                    frame.language = JavaStackFrameSnapshot.LANGUAGE_JAVA;
+                    result.frames.add(frame);
+                    lastJava = frame;
+                } else if (Utils.matches(jniRe, text)) {
+                    final JavaStackFrameSnapshot frame = new JavaStackFrameSnapshot();
+                    frame.text = text;
+                    frame.packageName = jniRe.group(1);
+                    frame.className = jniRe.group(2);
+                    frame.methodName = jniRe.group(3);
+                    frame.language = JavaStackFrameSnapshot.LANGUAGE_JNI;
+                    result.frames.add(frame);
+                    lastJava = frame;
+                } else if (Utils.matches(lockedRe, text)) {
+                    if (lastJava != null) {
+                        lastJava.locks.add(makeLock(LockSnapshot.LOCKED, lockedRe, -1));
+                    }
+                } else if (Utils.matches(waitingOnRe, text)) {
+                    if (lastJava != null) {
+                        lastJava.locks.add(makeLock(LockSnapshot.WAITING, waitingOnRe, -1));
+                    }
+                } else if (Utils.matches(sleepingOnRe, text)) {
+                    if (lastJava != null) {
+                        lastJava.locks.add(makeLock(LockSnapshot.SLEEPING, sleepingOnRe, -1));
+                    }
+                } else if (Utils.matches(waitingToLockHeldRe, text)) {
+                    if (lastJava != null) {
+                        lastJava.locks.add(makeLock(LockSnapshot.BLOCKED, waitingToLockHeldRe,
+                                Integer.parseInt(waitingToLockHeldRe.group(4))));
+                    }
+                } else if (Utils.matches(waitingToLockRe, text)) {
+                    if (lastJava != null) {
+                        lastJava.locks.add(makeLock(LockSnapshot.BLOCKED, waitingToLockRe, -1));
+                    }
+                } else if (Utils.matches(waitingToLockUnknownRe, text)) {
+                    if (lastJava != null) {
+                        final LockSnapshot lock = new LockSnapshot();
+                        lock.type = LockSnapshot.BLOCKED;
+                        lastJava.locks.add(lock);
+                    }
+                } else if (Utils.matches(noManagedStackFrameRe, text)) {
+                    final StackFrameSnapshot frame = new StackFrameSnapshot();
+                    frame.text = noManagedStackFrameRe.group(1);
+                    result.frames.add(frame);
+                    lastJava = null;
+                } else if (text.length() == 0 || Utils.matches(blankRe, text)) {
+                    break;
+                } else {
+                    final StackFrameSnapshot frame = new StackFrameSnapshot();
+                    frame.text = text;
+                    result.frames.add(frame);
+                    lastJava = null;
+                }
+            }
+
+            return result;
+        }
+
+        private static LockSnapshot makeLock(int type, Matcher matcher, int threadId) {
+            final LockSnapshot lock = new LockSnapshot();
+            lock.type = type;
+            lock.address = matcher.group(1);
+            lock.packageName = matcher.group(2);
+            lock.className = matcher.group(3);
+            lock.threadId = threadId;
+            return lock;
+        }
+    }
+}
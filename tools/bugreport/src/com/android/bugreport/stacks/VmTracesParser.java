@@ -39,6 +39,7 @@ import java.util.regex.Matcher;
 public class VmTracesParser {
 
     private final Matcher mBeginProcessRe = ProcessSnapshotParser.BEGIN_PROCESS_RE.matcher("");
+    private final ProcessSnapshotParser mProcessParser = new ProcessSnapshotParser();
     
     /**
      * Construct a new parser.
@@ -68,8 +69,7 @@ public class VmTracesParser {
 
             if (Utils.matches(mBeginProcessRe, text)) {
                 lines.rewind();
-                ProcessSnapshotParser parser = new ProcessSnapshotParser(); 
-                final ProcessSnapshot snapshot = parser.parse(lines);
+                final ProcessSnapshot snapshot = mProcessParser.parse(lines);
                 if (snapshot != null) {
                     result.processes.add(snapshot);
                 } else {
@@ -0,0 +1,175 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Reads the lines that have been added to the end of a file since the last time
+ * it was read, for following a file that is still being written.
+ *
+ * Only whole lines are returned.  A line that doesn't have its newline yet is held
+ * back until the rest of it shows up.  If the file gets shorter, it is assumed to
+ * have been replaced, and it is read again from the beginning.  A file that
+ * doesn't exist, yet or any more, reads as empty.
+ *
+ * Not thread safe.
+ */
+public class FileTailer {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File mFile;
+    private final byte[] mBuffer = new byte[BUFFER_SIZE];
+
+    private long mOffset;
+    private int mLineno;
+    private boolean mReset;
+
+    /**
+     * The beginning of a line that was read without its newline.
+     */
+    private byte[] mPartial = new byte[256];
+    private int mPartialLength;
+
+    /**
+     * Construct a tailer that starts at the beginning of the file.
+     */
+    public FileTailer(File file) {
+        mFile = file;
+    }
+
+    /**
+     * Return the file being read.
+     */
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Return how far into the file has been read, including any partial line.
+     */
+    public long getOffset() {
+        return mOffset;
+    }
+
+    /**
+     * Return whether the last call to readLines started again from the
+     * beginning of the file because it had gotten shorter.
+     */
+    public boolean wasReset() {
+        return mReset;
+    }
+
+    /**
+     * Read the whole lines that have been added since the last call.  The
+     * line numbers carry on from the previous call.  Returns an empty list if
+     * nothing has been added.  If the read fails, nothing is consumed, and
+     * the next call tries the same lines again.
+     */
+    public ArrayList<Line> readLines() throws IOException {
+        final ArrayList<Line> result = new ArrayList<Line>();
+
+        if (!mFile.exists()) {
+            mReset = false;
+            return result;
+        }
+
+        // Where to go back to if the read fails part way.
+        final long offset = mOffset;
+        final int lineno = mLineno;
+        final byte[] partial = Arrays.copyOf(mPartial, mPartialLength);
+        boolean done = false;
+
+        final RandomAccessFile raf = new RandomAccessFile(mFile, "r");
+        try {
+            final long length = raf.length();
+            mReset = length < mOffset;
+            if (mReset) {
+                mOffset = 0;
+                mLineno = 0;
+                mPartialLength = 0;
+            }
+            raf.seek(mOffset);
+
+            while (mOffset < length) {
+                final int count = raf.read(mBuffer, 0,
+                        (int)Math.min(mBuffer.length, length - mOffset));
+                if (count <= 0) {
+                    break;
+                }
+                mOffset += count;
+
+                int start = 0;
+                for (int i=0; i<count; i++) {
+                    if (mBuffer[i] != '\n') {
+                        continue;
+                    }
+                    if (mPartialLength > 0) {
+                        appendPartial(start, i);
+                        addLine(result, mPartial, 0, mPartialLength);
+                        mPartialLength = 0;
+                    } else {
+                        addLine(result, mBuffer, start, i);
+                    }
+                    start = i + 1;
+                }
+                appendPartial(start, count);
+            }
+            done = true;
+        } finally {
+            raf.close();
+            if (!done) {
+                mOffset = offset;
+                mLineno = lineno;
+                System.arraycopy(partial, 0, mPartial, 0, partial.length);
+                mPartialLength = partial.length;
+            }
+        }
+
+        return result;
+    }
+
+    /**
+     * Add the bytes in [start,end) of the read buffer to the partial line.
+     */
+    private void appendPartial(int start, int end) {
+        final int count = end - start;
+        if (mPartialLength + count > mPartial.length) {
+            mPartial = Arrays.copyOf(mPartial, Math.max(mPartial.length * 2,
+                        mPartialLength + count));
+        }
+        System.arraycopy(mBuffer, start, mPartial, mPartialLength, count);
+        mPartialLength += count;
+    }
+
+    /**
+     * Decode the bytes in [start,end) as a line, without any \r before the newline.
+     */
+    private void addLine(ArrayList<Line> result, byte[] bytes, int start, int end) {
+        if (end > start && bytes[end - 1] == '\r') {
+            end--;
+        }
+        mLineno++;
+        result.add(new Line(mLineno, new String(bytes, start, end - start,
+                        StandardCharsets.UTF_8)));
+    }
+}
@@ -21,6 +21,7 @@ import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.regex.Pattern;
 import java.util.regex.Matcher;
 
@@ -29,7 +30,7 @@ import java.util.regex.Matcher;
  * recursive descent parsing.
  */
 public class Lines<T extends Line> {
-    private final ArrayList<? extends Line> mList;
+    private final List<? extends Line> mList;
     private final int mMin;
     private final int mMax;
 
@@ -53,6 +54,20 @@ public class Lines<T extends Line> {
         }
     }
     
+    /**
+     * Memory map the file into a Lines object.  Only the line offsets are read
+     * up front.  The text of each line is decoded when it is read, so sections
+     * of the file that are skipped are cheap.
+     *
+     * Falls back to {@link #readLines(File)} if the file is too large to map.
+     */
+    public static Lines<Line> mapLines(File file) throws IOException {
+        if (file.length() > Integer.MAX_VALUE) {
+            return readLines(file);
+        }
+        return new Lines<Line>(MappedLineList.map(file));
+    }
+
     /**
      * Read the whole file into a Lines object.
      */
@@ -72,7 +87,7 @@ public class Lines<T extends Line> {
     /**
      * Construct with a list of lines.
      */
-    public Lines(ArrayList<? extends Line> list) {
+    public Lines(List<? extends Line> list) {
         this.mList = list;
         mMin = 0;
         mMax = mList.size();
@@ -83,7 +98,7 @@ public class Lines<T extends Line> {
      * read position will be set to min, so the new Lines can be read from
      * the beginning.
      */
-    private Lines(ArrayList<? extends Line> list, int min, int max) {
+    private Lines(List<? extends Line> list, int min, int max) {
         mList = list;
         mMin = min;
         mMax = max;
@@ -109,6 +124,31 @@ public class Lines<T extends Line> {
         }
     }
 
+    /**
+     * Return whether the next line starts with the given prefix, without
+     * reading it or moving the read position.  Returns false if there are
+     * no more lines.
+     *
+     * For memory mapped lines this doesn't decode the line, so it can be
+     * used to skip quickly over lines that can't be interesting.
+     */
+    public boolean nextStartsWith(String prefix) {
+        if (pos < mMin || pos >= mMax) {
+            return false;
+        }
+        if (mList instanceof MappedLineList) {
+            return ((MappedLineList)mList).startsWith(pos, prefix);
+        }
+        return mList.get(pos).text.startsWith(prefix);
+    }
+
+    /**
+     * Move the read position forward by one line without reading it.
+     */
+    public void skip() {
+        pos++;
+    }
+
     /**
      * Move the read position back by one line.
      */
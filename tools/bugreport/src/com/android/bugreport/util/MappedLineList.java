@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.bugreport.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.RandomAccess;
+
+/**
+ * A read-only list of lines backed by a memory mapped file.
+ *
+ * Only the offsets of the beginning of each line are kept in memory. The
+ * text of a line is decoded (as UTF-8) each time it is asked for, so lines
+ * that nobody looks at cost four bytes each.
+ */
+public class MappedLineList extends AbstractList<Line> implements RandomAccess {
+    private final ByteBuffer mBuffer;
+
+    /**
+     * The offset of the beginning of each line.  There is one extra entry
+     * at the end, which is the length of the file.
+     */
+    private final int[] mOffsets;
+    private final int mSize;
+
+    /**
+     * Map the file and build the line index.
+     *
+     * @throws IOException if the file can't be read, or is too large to be
+     *         mapped in one piece.
+     */
+    public static MappedLineList map(File file) throws IOException {
+        final RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            final long length = channel.size();
+            if (length > Integer.MAX_VALUE) {
+                throw new IOException("File too large to map: " + file);
+            }
+            // The mapping stays valid after the channel is closed.
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+            return new MappedLineList(buffer);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Construct with a buffer that contains the whole file, and index the lines.
+     */
+    public MappedLineList(ByteBuffer buffer) {
+        mBuffer = buffer;
+
+        final int length = buffer.limit();
+        int[] offsets = new int[Math.max(16, length / 64)];
+        int count = 0;
+
+        // Same line endings as BufferedReader.readLine: \n, \r or \r\n.
+        int start = 0;
+        int i = 0;
+        while (i < length) {
+            final byte b = buffer.get(i);
+            if (b == '\n' || b == '\r') {
+                if (count + 1 >= offsets.length) {
+                    offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                }
+                offsets[count++] = start;
+                i++;
+                if (b == '\r' && i < length && buffer.get(i) == '\n') {
+                    i++;
+                }
+                start = i;
+            } else {
+                i++;
+            }
+        }
+        if (start < length) {
+            // Last line without a newline
+            if (count + 1 >= offsets.length) {
+                offsets = Arrays.copyOf(offsets, offsets.length + 1);
+            }
+            offsets[count++] = start;
+        }
+        offsets[count] = length;
+
+        mOffsets = offsets;
+        mSize = count;
+    }
+
+    /**
+     * Return the number of lines.
+     */
+    @Override
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Decode the line at index.  A new Line object is returned every time.
+     */
+    @Override
+    public Line get(int index) {
+        if (index < 0 || index >= mSize) {
+            throw new IndexOutOfBoundsException("index=" + index + " size=" + mSize);
+        }
+        final int start = mOffsets[index];
+        final int end = getEnd(index);
+        final byte[] bytes = new byte[end - start];
+        for (int i=0; i<bytes.length; i++) {
+            bytes[i] = mBuffer.get(start + i);
+        }
+        return new Line(index + 1, new String(bytes, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Return whether the line at index starts with the given prefix, without
+     * decoding the line.  The prefix must be ASCII.
+     */
+    public boolean startsWith(int index, String prefix) {
+        final int start = mOffsets[index];
+        final int N = prefix.length();
+        if (getEnd(index) - start < N) {
+            return false;
+        }
+        for (int i=0; i<N; i++) {
+            if (mBuffer.get(start + i) != prefix.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return the offset just past the last character of the line, not including
+     * the line terminator.
+     */
+    private int getEnd(int index) {
+        final int start = mOffsets[index];
+        int end = mOffsets[index + 1];
+        if (end > start && mBuffer.get(end - 1) == '\n') {
+            end--;
+        }
+        if (end > start && mBuffer.get(end - 1) == '\r') {
+            end--;
+        }
+        return end;
+    }
+}
@@ -105,4 +105,55 @@ public class Utils {
 
         return result;
     }
+
+    /**
+     * Gets the date time groups from the matcher and returns the number of milliseconds
+     * since the epoch, the same as {@link #parseCalendar} would give.  The year is
+     * optional, and defaultYear is used if it is missing.
+     *
+     * @param Matcher a matcher
+     * @param startGroup the index of the first group to use
+     * @param milliseconds whether to expect the millisecond group.
+     * @param defaultYear the year to use if there isn't one in the text.
+     *
+     * @see #DATE_TIME_MS_PATTERN
+     * @see #DATE_TIME_PATTERN
+     */
+    public static long parseTimeMillis(Matcher matcher, int startGroup, boolean milliseconds,
+            int defaultYear) {
+        return makeTimeMillis(getInt(matcher, startGroup + 0, defaultYear),
+                Integer.parseInt(matcher.group(startGroup + 1)),
+                Integer.parseInt(matcher.group(startGroup + 2)),
+                Integer.parseInt(matcher.group(startGroup + 3)),
+                Integer.parseInt(matcher.group(startGroup + 4)),
+                Integer.parseInt(matcher.group(startGroup + 5)),
+                milliseconds ? Integer.parseInt(matcher.group(startGroup + 6)) : 0);
+    }
+
+    /**
+     * Returns the number of milliseconds since the epoch for the given UTC date and
+     * time.  Gives the same result as setting the same fields on a lenient
+     * GregorianCalendar, as {@link #parseCalendar} does, so month is zero-based and
+     * out of range values roll over into the next field.  Doesn't allocate.
+     */
+    public static long makeTimeMillis(int year, int month, int day, int hour, int minute,
+            int second, int millisecond) {
+        year += Math.floorDiv(month, 12);
+        month = Math.floorMod(month, 12);
+        final long days = daysFromCivil(year, month + 1, 1) + day - 1;
+        return ((((days * 24) + hour) * 60 + minute) * 60 + second) * 1000 + millisecond;
+    }
+
+    /**
+     * Returns the number of days since 1970-01-01 in the proleptic gregorian calendar.
+     * Month is one-based.
+     */
+    private static long daysFromCivil(long year, int month, int day) {
+        year -= month <= 2 ? 1 : 0;
+        final long era = Math.floorDiv(year, 400);
+        final long yearOfEra = year - era * 400;
+        final long dayOfYear = (153 * (month + (month > 2 ? -3 : 9)) + 2) / 5 + day - 1;
+        final long dayOfEra = yearOfEra * 365 + yearOfEra / 4 - yearOfEra / 100 + dayOfYear;
+        return era * 146097 + dayOfEra - 719468;
+    }
 }
@@ -18,13 +18,10 @@ import java.io.File;
 import java.io.IOException;
 import java.io.BufferedReader;
 import java.io.FileReader;
-import java.nio.file.Files;
-import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Set;
 import java.util.TreeSet;
 import java.util.SortedSet;
 import java.util.regex.Pattern;
@@ -47,6 +44,9 @@ public class Configuration {
     /** The root directory for this tool. */
     public final File toolDirectory;
 
+    /** What the walk found in each directory. */
+    final SourceIndex index;
+
     /** File name used for excluded path files. */
     private static final String EXCLUDED_PATHS = "excluded-paths";
 
@@ -55,7 +55,9 @@ public class Configuration {
 
     /**
      * Constructs a Configuration by traversing the directory tree, looking
-     * for .java and .jar files and identifying source roots.
+     * for .java and .jar files and identifying source roots. Directories
+     * that haven't changed since the last run are taken from the index
+     * instead, see {@link SourceIndex}.
      */
     public Configuration() throws IOException {
         this.toolDirectory = new File("development/tools/idegen");
@@ -66,18 +68,39 @@ public class Configuration {
 
         Stopwatch stopwatch = new Stopwatch();
 
-        Excludes excludes = readExcludes();
+        List<Pattern> patterns = readExcludes(toolDirectory);
+        Excludes excludes = new Excludes(patterns);
+        List<String> patternStrings = new ArrayList<String>();
+        for (Pattern pattern : patterns) {
+            patternStrings.add(pattern.pattern());
+        }
+        SourceIndex previous = SourceIndex.read(patternStrings);
 
         stopwatch.reset("Read excludes");
 
-        List<File> jarFiles = new ArrayList<File>(500);
-        SortedSet<File> excludedDirs = new TreeSet<File>();
-        SortedSet<File> sourceRoots = new TreeSet<File>();
+        long started = SourceIndex.now();
+        TreeWalker walker = new TreeWalker(excludes, previous);
+        TreeWalker.Result result = walker.walk();
+
+        stopwatch.reset("Walked tree");
 
-        traverse(new File("."), sourceRoots, jarFiles, excludedDirs, excludes);
+        Log.info("Listed " + (result.directories - result.reused) + " of "
+                + result.directories + " dirs");
+        this.index = new SourceIndex(started, patternStrings,
+                walker.getIndex());
+        index.write();
 
-        stopwatch.reset("Traversed tree");
+        stopwatch.reset("Wrote index");
 
+        SortedSet<File> sourceRoots = new TreeSet<File>(result.sourceRoots);
+        SortedSet<File> excludedDirs = new TreeSet<File>(result.excludedDirs);
+        // The walk finds jars in no particular order.
+        List<File> jarFiles = result.jarFiles;
+        Collections.sort(jarFiles);
+
+        stopwatch.reset("Sorted results");
+
+        Log.debug(result.directories + " dirs, " + result.files + " files");
         Log.debug(sourceRoots.size() + " source roots");
         Log.debug(jarFiles.size() + " jar files");
         Log.debug(excludedDirs.size() + " excluded dirs");
@@ -88,9 +111,9 @@ public class Configuration {
     }
 
     /**
-     * Reads excluded path files.
+     * Reads excluded path files: the tool's own, the vendors' and the user's.
      */
-    private Excludes readExcludes() throws IOException {
+    static List<Pattern> readExcludes(File toolDirectory) throws IOException {
         List<Pattern> patterns = new ArrayList<Pattern>();
 
         File globalExcludes = new File(toolDirectory, EXCLUDED_PATHS);
@@ -105,12 +128,12 @@ public class Configuration {
             parseFile(localExcludes, patterns);
         }
 
-        return new Excludes(patterns);
+        return patterns;
     }
 
     /**
      * Reads vendor excluded path files.
-     * @see #readExcludes()
+     * @see #readExcludes(File)
      */
     private static void readVendorExcludes(List<Pattern> out) throws IOException {
         File vendorDir = new File(VENDOR_PATH);
@@ -125,86 +148,12 @@ public class Configuration {
         }
     }
 
-    /**
-     * Recursively finds .java source roots, .jar files, and excluded
-     * directories.
-     */
-    private static void traverse(File directory, Set<File> sourceRoots,
-            Collection<File> jarFiles, Collection<File> excludedDirs,
-            Excludes excludes) throws IOException {
-        /*
-         * Note it would be faster to stop traversing a source root as soon as
-         * we encounter the first .java file, but it appears we have nested
-         * source roots in our generated source directory (specifically,
-         * R.java files and aidl .java files don't share the same source
-         * root).
-         */
-
-        boolean firstJavaFile = true;
-        File[] files = directory.listFiles();
-        if (files == null) {
-            return;
-        }
-        for (File file : files) {
-            // Trim preceding "./" from path.
-            String path = file.getPath().substring(2);
-
-            // Skip nonexistent files/diretories, e.g. broken symlinks.
-            if (!file.exists()) {
-                Log.debug("Skipped nonexistent: " + path);
-                continue;
-            }
-
-            if (Files.isSymbolicLink(file.toPath())) {
-                Path target = Files.readSymbolicLink(file.toPath()).normalize();
-                if (target.startsWith("") || target.startsWith(".")
-                    || target.startsWith("..")) {
-                    // Don't recurse symbolic link that targets to parent
-                    // or current directory.
-                    Log.debug("Skipped: " + path);
-                    continue;
-                }
-            }
-
-            if (file.isDirectory()) {
-                // Traverse nested directories.
-                if (excludes.exclude(path)) {
-                    // Don't recurse into excluded dirs.
-                    Log.debug("Excluding: " + path);
-                    excludedDirs.add(file);
-                } else {
-                    traverse(file, sourceRoots, jarFiles, excludedDirs,
-                            excludes);
-                }
-            } else if (path.endsWith(".java")) {
-                // Keep track of source roots for .java files.
-                // Do not check excludes in this branch.
-                if (firstJavaFile) {
-                    // Only parse one .java file per directory.
-                    firstJavaFile = false;
-
-                    File sourceRoot = rootOf(file);
-                    if (sourceRoot != null) {
-                        sourceRoots.add(sourceRoot);
-                    }
-                }
-            } else if (path.endsWith(".jar")) {
-                // Keep track of .jar files.
-                if (excludes.exclude(path)) {
-                    Log.debug("Skipped: " + file);
-                } else {
-                    jarFiles.add(file);
-                }
-            }
-        }
-    }
-
     /**
      * Determines the source root for a given .java file. Returns null
      * if the file doesn't have a package or if the file isn't in the
      * correct directory structure.
      */
-    private static File rootOf(File javaFile) throws IOException {
+    static File rootOf(File javaFile) throws IOException {
         String packageName = parsePackageName(javaFile);
         if (packageName == null) {
             // No package.
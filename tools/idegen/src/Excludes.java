@@ -14,32 +14,289 @@
  * limitations under the License.
  */
 
-import java.util.regex.Pattern;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
 
 /**
  * Decides whether or not to exclude certain paths.
+ *
+ * <p>The patterns are analyzed once, up front. Most excluded-paths entries
+ * are anchored literals like "^development/tools$" or "^out/.*\.jar$", so
+ * the part of each anchored pattern before its first regex construct goes
+ * into a trie of path characters:
+ *
+ * <ul>
+ * <li>"^literal$" patterns match when a path ends on their node.
+ * <li>"^literal" patterns match when a path goes through their node.
+ * <li>Other anchored patterns are only run on paths that go through the node
+ *     of their literal prefix.
+ * </ul>
+ *
+ * <p>Unanchored literals are matched with {@link String#contains}, and the
+ * rest of the patterns are combined into one alternation. The result is the
+ * same as running every pattern with {@code find()}.
+ *
+ * <p>A {@link Node} can also stand for a directory, so that the walker only
+ * has to match the names in that directory against the trie, and skips it
+ * entirely once no anchored pattern can match below the directory.
  */
 public class Excludes {
 
-    private final List<Pattern> patterns;
+    /** Characters that end the literal prefix of a pattern. */
+    private static final String META = "\\^$.|?*+()[]{}";
+
+    /** Characters that make the preceding character optional or repeated. */
+    private static final String QUANTIFIERS = "?*+{";
+
+    private final Node root = new Node();
+    private final List<String> substrings = new ArrayList<String>();
+    private final List<Pattern> regexes = new ArrayList<Pattern>();
 
     /**
      * Constructs a set of excludes matching the given patterns.
      */
     public Excludes(List<Pattern> patterns) {
-        this.patterns = patterns;
+        int exact = 0, prefixes = 0, conditional = 0;
+        List<Pattern> combinable = new ArrayList<Pattern>();
+        for (Pattern pattern : patterns) {
+            String regex = pattern.pattern();
+            if (pattern.flags() != 0 || regex.indexOf('|') != -1) {
+                // Flags and alternations change what a literal prefix means.
+                addRegex(pattern, combinable);
+                continue;
+            }
+
+            boolean anchored = regex.startsWith("^");
+            StringBuilder literal = new StringBuilder();
+            int end = literalPrefix(regex, anchored ? 1 : 0, literal);
+            String rest = regex.substring(end);
+
+            if (!anchored) {
+                if (rest.isEmpty() && literal.length() > 0) {
+                    substrings.add(literal.toString());
+                } else {
+                    addRegex(pattern, combinable);
+                }
+            } else if (rest.isEmpty()) {
+                root.add(literal).prefix = true;
+                prefixes++;
+            } else if (rest.equals("$")) {
+                root.add(literal).exact = true;
+                exact++;
+            } else if (literal.length() > 0) {
+                root.add(literal).patterns.add(pattern);
+                conditional++;
+            } else {
+                addRegex(pattern, combinable);
+            }
+        }
+        root.finish(new Pattern[0]);
+        combine(combinable);
+
+        Log.debug("Excludes: " + exact + " exact, " + prefixes + " prefix, "
+                + conditional + " prefixed regex, " + substrings.size()
+                + " substring, " + regexes.size() + " regex");
+    }
+
+    /**
+     * Reads the literal characters of a pattern, starting at the given index,
+     * into the given builder. Returns the index of the first character that
+     * isn't part of the literal.
+     */
+    private static int literalPrefix(String regex, int start,
+            StringBuilder literal) {
+        int i = start;
+        while (i < regex.length()) {
+            char c = regex.charAt(i);
+            if (c == '\\' && i + 1 < regex.length()
+                    && !Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                // Escaped punctuation, e.g. "\.".
+                literal.append(regex.charAt(i + 1));
+                i += 2;
+            } else if (META.indexOf(c) == -1) {
+                literal.append(c);
+                i++;
+            } else {
+                break;
+            }
+        }
+        if (i < regex.length() && QUANTIFIERS.indexOf(regex.charAt(i)) != -1
+                && literal.length() > 0) {
+            // The last character may not be there, e.g. "^foos?".
+            literal.setLength(literal.length() - 1);
+            return start;
+        }
+        return i;
+    }
+
+    /**
+     * Adds a pattern that has to be run on every path. Patterns that can't be
+     * safely combined with others are kept on their own.
+     */
+    private void addRegex(Pattern pattern, List<Pattern> combinable) {
+        String regex = pattern.pattern();
+        if (pattern.flags() != 0
+                // Quoting and comments can swallow the rest of an alternation.
+                || regex.contains("\\Q") || regex.contains("#")
+                // Back references are numbered across the whole alternation.
+                || regex.matches("(?s).*\\\\([0-9k]).*")) {
+            regexes.add(pattern);
+        } else {
+            combinable.add(pattern);
+        }
+    }
+
+    /**
+     * Combines the given patterns into one alternation, if that's possible.
+     */
+    private void combine(List<Pattern> combinable) {
+        if (combinable.size() < 2) {
+            regexes.addAll(combinable);
+            return;
+        }
+        StringBuilder alternation = new StringBuilder();
+        for (Pattern pattern : combinable) {
+            if (alternation.length() > 0) {
+                alternation.append('|');
+            }
+            alternation.append("(?:").append(pattern.pattern()).append(')');
+        }
+        try {
+            regexes.add(Pattern.compile(alternation.toString()));
+        } catch (PatternSyntaxException e) {
+            // E.g. the same named group in two patterns.
+            regexes.addAll(combinable);
+        }
     }
 
     /**
      * Returns true if the given path should be excluded.
      */
     public boolean exclude(String path) {
-        for (Pattern pattern : patterns) {
+        return exclude(root, path, 0);
+    }
+
+    /**
+     * Returns the node for paths at the root of the tree.
+     */
+    Node root() {
+        return root;
+    }
+
+    /**
+     * Returns true if the given path should be excluded, given the node of
+     * the directory it's in and the index of its name in the path.
+     */
+    boolean exclude(Node directory, String path, int start) {
+        Node node = directory;
+        for (int i = start; i < path.length() && !node.prefix; i++) {
+            node = node.next(path.charAt(i));
+        }
+        if (node.prefix || node.exact) {
+            return true;
+        }
+
+        for (Pattern pattern : node.inherited) {
+            if (pattern.matcher(path).find()) {
+                return true;
+            }
+        }
+        for (String substring : substrings) {
+            if (path.contains(substring)) {
+                return true;
+            }
+        }
+        for (Pattern pattern : regexes) {
             if (pattern.matcher(path).find()) {
                 return true;
             }
         }
         return false;
     }
+
+    /**
+     * Returns the node for the paths in the given directory, given the node
+     * of its parent directory and the index of its name in the path. The
+     * directory itself must not be excluded.
+     */
+    Node enter(Node parent, String path, int start) {
+        Node node = parent;
+        for (int i = start; i < path.length(); i++) {
+            node = node.next(path.charAt(i));
+        }
+        return node.next('/');
+    }
+
+    /**
+     * A node of the trie, for all the paths that start with the same
+     * characters.
+     */
+    static class Node {
+
+        private final Map<Character, Node> children =
+                new HashMap<Character, Node>();
+
+        /** Matches paths that end here. */
+        private boolean exact;
+
+        /** Matches paths that go through here. */
+        private boolean prefix;
+
+        /** Patterns whose literal prefix ends here. */
+        private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+        /** Patterns of this node and all its parents. */
+        private Pattern[] inherited;
+
+        /**
+         * Stands for the paths that go through this node and then leave the
+         * trie. Only the inherited patterns can match them.
+         */
+        private Node leaf;
+
+        private Node add(CharSequence literal) {
+            Node node = this;
+            for (int i = 0; i < literal.length(); i++) {
+                Character c = literal.charAt(i);
+                Node child = node.children.get(c);
+                if (child == null) {
+                    child = new Node();
+                    node.children.put(c, child);
+                }
+                node = child;
+            }
+            return node;
+        }
+
+        private void finish(Pattern[] parentPatterns) {
+            inherited = parentPatterns;
+            if (!patterns.isEmpty()) {
+                List<Pattern> all = new ArrayList<Pattern>();
+                for (Pattern pattern : parentPatterns) {
+                    all.add(pattern);
+                }
+                all.addAll(patterns);
+                inherited = all.toArray(new Pattern[all.size()]);
+            }
+            for (Node child : children.values()) {
+                child.finish(inherited);
+            }
+            if (children.isEmpty() && !exact && !prefix) {
+                leaf = this;
+            } else {
+                leaf = new Node();
+                leaf.inherited = inherited;
+                leaf.leaf = leaf;
+            }
+        }
+
+        private Node next(char c) {
+            Node child = children.get(c);
+            return child != null ? child : leaf;
+        }
+    }
 }
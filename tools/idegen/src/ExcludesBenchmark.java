@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Shows what the excluded-paths files cost the tree walk. It reads the same
+ * lists as {@link Configuration}, then decides every directory and .jar file
+ * that idegen would reach the way {@link TreeWalker} does: one name at a time,
+ * starting from the {@link Excludes} node of the directory it's in. The same
+ * paths are also checked by running every pattern with find(), as idegen did
+ * before Excludes, which must give the same answers. Run it from the root of
+ * the tree, like idegen.sh:
+ *
+ * <pre>
+ * java -cp idegen.jar ExcludesBenchmark
+ * </pre>
+ */
+public class ExcludesBenchmark {
+
+    /** About how many paths each way of deciding is timed on. */
+    private static final int PATHS_TO_TIME = 2000000;
+
+    /** A directory or .jar file that the walker would decide on. */
+    private static class Entry {
+        final String path;
+        /** The index of the name in the path. */
+        final int nameStart;
+        /** The index of the directory it's in, or -1 for the root. */
+        final int parent;
+        final boolean directory;
+
+        Entry(String path, int nameStart, int parent, boolean directory) {
+            this.path = path;
+            this.nameStart = nameStart;
+            this.parent = parent;
+            this.directory = directory;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        File toolDirectory = new File("development/tools/idegen");
+        if (!toolDirectory.isDirectory()) {
+            System.err.println("Error: Run from the root of the tree.");
+            System.exit(1);
+        }
+
+        Stopwatch stopwatch = new Stopwatch();
+        List<Pattern> patterns = Configuration.readExcludes(toolDirectory);
+        Excludes excludes = new Excludes(patterns);
+        stopwatch.reset("Read " + patterns.size() + " patterns");
+
+        List<Entry> entries = new ArrayList<Entry>();
+        listEntries(new File("."), "", -1, patterns, entries);
+        stopwatch.reset("Listed " + entries.size() + " dirs and jars");
+        if (entries.isEmpty()) {
+            return;
+        }
+
+        Excludes.Node[] scopes = new Excludes.Node[entries.size()];
+        int excluded = 0;
+        for (int i = 0; i < entries.size(); i++) {
+            Entry entry = entries.get(i);
+            boolean expected = findAny(patterns, entry.path);
+            if (decide(excludes, entries, scopes, i) != expected) {
+                System.err.println("Error: Excludes disagrees with find() on "
+                        + entry.path + ", which find() "
+                        + (expected ? "excludes." : "keeps."));
+                System.exit(1);
+            }
+            if (expected) {
+                excluded++;
+            }
+        }
+        Log.info(excluded + " excluded, the same with find() and Excludes.");
+
+        int passes = Math.max(1, PATHS_TO_TIME / entries.size());
+        long start = System.nanoTime();
+        int found = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            for (Entry entry : entries) {
+                found += findAny(patterns, entry.path) ? 1 : 0;
+            }
+        }
+        logTime("find()", System.nanoTime() - start, passes, entries.size());
+
+        start = System.nanoTime();
+        int decided = 0;
+        for (int pass = 0; pass < passes; pass++) {
+            for (int i = 0; i < entries.size(); i++) {
+                decided += decide(excludes, entries, scopes, i) ? 1 : 0;
+            }
+        }
+        logTime("Excludes", System.nanoTime() - start, passes, entries.size());
+
+        if (found != decided) {
+            throw new AssertionError(found + " != " + decided);
+        }
+    }
+
+    private static void logTime(String label, long nanos, int passes, int paths) {
+        Log.info(String.format("%s: %dms for %d passes, %.0f ns per path", label,
+                nanos / 1000000, passes, (double) nanos / passes / paths));
+    }
+
+    /**
+     * Decides whether the entry at the given index is excluded, as the walker
+     * would, and keeps the node of each directory that isn't for its entries.
+     * The directory of an entry always comes before it.
+     */
+    private static boolean decide(Excludes excludes, List<Entry> entries,
+            Excludes.Node[] scopes, int index) {
+        Entry entry = entries.get(index);
+        Excludes.Node scope = entry.parent < 0
+                ? excludes.root() : scopes[entry.parent];
+        if (excludes.exclude(scope, entry.path, entry.nameStart)) {
+            return true;
+        }
+        if (entry.directory) {
+            scopes[index] = excludes.enter(scope, entry.path, entry.nameStart);
+        }
+        return false;
+    }
+
+    /**
+     * Adds the directories and jars under the given directory, without going
+     * into excluded directories or following links.
+     */
+    private static void listEntries(File directory, String path, int index,
+            List<Pattern> patterns, List<Entry> out) {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        int nameStart = path.isEmpty() ? 0 : path.length() + 1;
+        for (File file : files) {
+            String name = file.getName();
+            String filePath = path.isEmpty() ? name : path + "/" + name;
+            if (file.isDirectory()) {
+                out.add(new Entry(filePath, nameStart, index, true));
+                boolean link = java.nio.file.Files.isSymbolicLink(file.toPath());
+                if (!link && !findAny(patterns, filePath)) {
+                    listEntries(file, filePath, out.size() - 1, patterns, out);
+                }
+            } else if (name.endsWith(".jar")) {
+                out.add(new Entry(filePath, nameStart, index, false));
+            }
+        }
+    }
+
+    /**
+     * The matching that Excludes replaced.
+     */
+    private static boolean findAny(List<Pattern> patterns, String path) {
+        for (Pattern pattern : patterns) {
+            if (pattern.matcher(path).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -14,13 +14,32 @@
  * limitations under the License.
  */
 
+import java.io.IOException;
+
 /**
  * Generates IntelliJ and Eclipse project configurations.
  */
 public class Main {
 
     public static void main(String[] args) throws Exception {
+        boolean watch = false;
+        for (String arg : args) {
+            if (arg.equals("--watch")) {
+                watch = true;
+            } else {
+                System.err.println("Usage: idegen.sh [--watch]");
+                System.exit(1);
+            }
+        }
+
         Configuration configuration = new Configuration();
+        generateFrom(configuration);
+        if (watch) {
+            new Watcher().watch(configuration);
+        }
+    }
+
+    static void generateFrom(Configuration configuration) throws IOException {
         IntelliJ.generateFrom(configuration);
         Eclipse.generateFrom(configuration);
     }
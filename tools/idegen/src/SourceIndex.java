@@ -0,0 +1,223 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Remembers what the tree walk found in each directory, so that the next
+ * walk only has to list the directories that changed.
+ *
+ * <p>The modification time of a directory changes whenever an entry is
+ * added to, removed from or renamed in it, which covers new and deleted
+ * source roots, jars and subdirectories. Editing a file in place doesn't,
+ * so a .java file whose package line changed keeps its old source root
+ * until something else changes in its directory.
+ */
+class SourceIndex {
+
+    /** Where the index is kept. */
+    static final File FILE = new File("out/idegen.index");
+
+    /** Where the index is written before replacing the old one. */
+    static final File TEMP_FILE = new File("out/idegen.index.tmp");
+
+    private static final int MAGIC = 0x69646978; // "idix"
+    private static final int VERSION = 1;
+
+    /**
+     * Directories modified this long before the walk started, or later, are
+     * listed again on the next walk. Their modification time may not have
+     * changed yet when they were last changed, since file systems only keep
+     * times with limited precision.
+     */
+    private static final long RACY_NANOS = TimeUnit.SECONDS.toNanos(2);
+
+    /** What the walk found in one directory. */
+    static class Directory {
+
+        /** Modification time, in nanoseconds. */
+        final long modified;
+
+        /** The source root of the first .java file, or null. */
+        final String sourceRoot;
+
+        /** Names of the subdirectories that were walked. */
+        final List<String> subdirs;
+
+        /** Names of the excluded subdirectories. */
+        final List<String> excluded;
+
+        /** Names of the .jar files that weren't excluded. */
+        final List<String> jars;
+
+        Directory(long modified, String sourceRoot, List<String> subdirs,
+                List<String> excluded, List<String> jars) {
+            this.modified = modified;
+            this.sourceRoot = sourceRoot;
+            this.subdirs = subdirs;
+            this.excluded = excluded;
+            this.jars = jars;
+        }
+    }
+
+    /** When the walk started, in nanoseconds. */
+    private final long started;
+
+    /** The excluded path patterns the walk used. */
+    private final List<String> patterns;
+
+    /** Directory paths, without "./" ("" for the root), to what they hold. */
+    final Map<String, Directory> directories;
+
+    SourceIndex(long started, List<String> patterns,
+            Map<String, Directory> directories) {
+        this.started = started;
+        this.patterns = patterns;
+        this.directories = directories;
+    }
+
+    /**
+     * Returns what was found in the given directory, or null if it has to be
+     * listed again.
+     */
+    Directory get(String path, long modified) {
+        Directory directory = directories.get(path);
+        if (directory == null || directory.modified != modified
+                || modified >= started - RACY_NANOS) {
+            return null;
+        }
+        return directory;
+    }
+
+    /**
+     * Returns the current time in the unit of the index.
+     */
+    static long now() {
+        return TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+    }
+
+    /**
+     * Reads the index written by a previous run. Returns null if there is
+     * none, or if it was made with other excluded paths.
+     */
+    static SourceIndex read(List<String> patterns) {
+        if (!FILE.exists()) {
+            return null;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(
+                new GZIPInputStream(new FileInputStream(FILE))))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                Log.info("Ignoring old index: " + FILE);
+                return null;
+            }
+            long started = in.readLong();
+            List<String> indexPatterns = readStrings(in);
+            if (!indexPatterns.equals(patterns)) {
+                Log.info("Excluded paths changed, walking the whole tree.");
+                return null;
+            }
+
+            int count = in.readInt();
+            Map<String, Directory> directories =
+                    new HashMap<String, Directory>(count * 4 / 3 + 1);
+            for (int i = 0; i < count; i++) {
+                String path = in.readUTF();
+                long modified = in.readLong();
+                String sourceRoot = in.readBoolean() ? in.readUTF() : null;
+                directories.put(path, new Directory(modified, sourceRoot,
+                        readStrings(in), readStrings(in), readStrings(in)));
+            }
+            return new SourceIndex(started, patterns, directories);
+        } catch (IOException e) {
+            Log.info("Ignoring unreadable index: " + FILE + ": " + e);
+            return null;
+        }
+    }
+
+    /**
+     * Writes the index for the next run. Does nothing if there's no out
+     * directory.
+     */
+    void write() throws IOException {
+        File dir = FILE.getParentFile();
+        if (!dir.isDirectory()) {
+            Log.debug("No " + dir + " directory, not writing the index.");
+            return;
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new GZIPOutputStream(new FileOutputStream(TEMP_FILE))))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(started);
+            writeStrings(out, patterns);
+
+            out.writeInt(directories.size());
+            for (Map.Entry<String, Directory> entry : directories.entrySet()) {
+                Directory directory = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeLong(directory.modified);
+                out.writeBoolean(directory.sourceRoot != null);
+                if (directory.sourceRoot != null) {
+                    out.writeUTF(directory.sourceRoot);
+                }
+                writeStrings(out, directory.subdirs);
+                writeStrings(out, directory.excluded);
+                writeStrings(out, directory.jars);
+            }
+        }
+        java.nio.file.Files.move(TEMP_FILE.toPath(), FILE.toPath(),
+                StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static List<String> readStrings(DataInputStream in)
+            throws IOException {
+        int count = in.readInt();
+        if (count == 0) {
+            return Collections.emptyList();
+        }
+        List<String> strings = new ArrayList<String>(count);
+        for (int i = 0; i < count; i++) {
+            strings.add(in.readUTF());
+        }
+        return strings;
+    }
+
+    private static void writeStrings(DataOutputStream out, List<String> strings)
+            throws IOException {
+        out.writeInt(strings.size());
+        for (String s : strings) {
+            out.writeUTF(s);
+        }
+    }
+}
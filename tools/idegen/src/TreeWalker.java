@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walks the directory tree in parallel, finding .java source roots, .jar
+ * files, and excluded directories.
+ *
+ * <p>Each directory is walked by its own fork/join task, so the work is split
+ * by subtree. The attributes of each entry are read once, without following
+ * links; only symbolic links need a second look at what they point to.
+ * Each task also knows where its directory is in the excludes, so only the
+ * names of its entries are matched against the anchored patterns.
+ *
+ * <p>Given the index of a previous walk, directories that haven't changed
+ * since are not listed again: their entries come from the index, and only
+ * their subdirectories are looked at.
+ */
+class TreeWalker {
+
+    /** What was found in a subtree, in no particular order. */
+    static class Result {
+        final List<File> sourceRoots = new ArrayList<File>();
+        final List<File> jarFiles = new ArrayList<File>();
+        final List<File> excludedDirs = new ArrayList<File>();
+        int directories;
+        int files;
+        int reused;
+
+        void add(Result other) {
+            sourceRoots.addAll(other.sourceRoots);
+            jarFiles.addAll(other.jarFiles);
+            excludedDirs.addAll(other.excludedDirs);
+            directories += other.directories;
+            files += other.files;
+            reused += other.reused;
+        }
+    }
+
+    private final Excludes excludes;
+    private final SourceIndex previous;
+    private final Map<String, SourceIndex.Directory> index =
+            new ConcurrentHashMap<String, SourceIndex.Directory>();
+
+    /**
+     * Constructs a walker. The previous index may be null.
+     */
+    TreeWalker(Excludes excludes, SourceIndex previous) {
+        this.excludes = excludes;
+        this.previous = previous;
+    }
+
+    /**
+     * Walks the tree under the current directory.
+     */
+    Result walk() throws IOException {
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            return pool.invoke(new DirectoryTask(Paths.get("."), "",
+                    excludes.root(), null));
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Returns what the last walk found in each directory, by path.
+     */
+    Map<String, SourceIndex.Directory> getIndex() {
+        return index;
+    }
+
+    /**
+     * Walks one directory, and forks a task for each of its subdirectories.
+     */
+    private class DirectoryTask extends RecursiveTask<Result> {
+
+        private final Path directory;
+
+        /** The path of the directory without "./", or "" for the root. */
+        private final String directoryPath;
+
+        /** Where the directory is in the excludes. */
+        private final Excludes.Node scope;
+
+        /** The attributes of the directory, or null if not read yet. */
+        private BasicFileAttributes directoryAttributes;
+
+        /** The index of the entry names in the paths of the entries. */
+        private final int nameStart;
+
+        DirectoryTask(Path directory, String path, Excludes.Node scope,
+                BasicFileAttributes attributes) {
+            this.directory = directory;
+            this.directoryPath = path;
+            this.scope = scope;
+            this.directoryAttributes = attributes;
+            this.nameStart = path.isEmpty() ? 0 : path.length() + 1;
+        }
+
+        @Override
+        protected Result compute() {
+            try {
+                if (directoryAttributes == null) {
+                    try {
+                        directoryAttributes = Files.readAttributes(directory,
+                                BasicFileAttributes.class);
+                    } catch (NoSuchFileException e) {
+                        // E.g. a symlink whose target went away.
+                        Log.debug("Skipped nonexistent: " + directoryPath);
+                        return new Result();
+                    }
+                }
+                long modified = directoryAttributes.lastModifiedTime().to(
+                        TimeUnit.NANOSECONDS);
+                SourceIndex.Directory known = previous == null
+                        ? null : previous.get(directoryPath, modified);
+                return known != null
+                        ? reuseDirectory(known) : walkDirectory(modified);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        /**
+         * Takes the entries of an unchanged directory from the index.
+         */
+        private Result reuseDirectory(SourceIndex.Directory known) {
+            Result result = new Result();
+            result.directories = 1;
+            result.reused = 1;
+            if (known.sourceRoot != null) {
+                result.sourceRoots.add(new File(known.sourceRoot));
+            }
+            for (String name : known.excluded) {
+                result.excludedDirs.add(directory.resolve(name).toFile());
+            }
+            for (String name : known.jars) {
+                result.jarFiles.add(directory.resolve(name).toFile());
+            }
+            index.put(directoryPath, known);
+
+            List<DirectoryTask> subtasks = new ArrayList<DirectoryTask>();
+            for (String name : known.subdirs) {
+                DirectoryTask subtask = newSubtask(directory.resolve(name), name,
+                        null);
+                subtask.fork();
+                subtasks.add(subtask);
+            }
+            for (DirectoryTask subtask : subtasks) {
+                result.add(subtask.join());
+            }
+            return result;
+        }
+
+        private DirectoryTask newSubtask(Path entry, String name,
+                BasicFileAttributes attributes) {
+            String path = directoryPath.isEmpty()
+                    ? name : directoryPath + "/" + name;
+            return new DirectoryTask(entry, path,
+                    excludes.enter(scope, path, nameStart), attributes);
+        }
+
+        private Result walkDirectory(long modified) throws IOException {
+            /*
+             * Note it would be faster to stop traversing a source root as soon
+             * as we encounter the first .java file, but it appears we have
+             * nested source roots in our generated source directory
+             * (specifically, R.java files and aidl .java files don't share the
+             * same source root).
+             */
+
+            Result result = new Result();
+            result.directories = 1;
+            List<DirectoryTask> subtasks = new ArrayList<DirectoryTask>();
+            boolean firstJavaFile = true;
+            String sourceRootPath = null;
+            List<String> subdirs = new ArrayList<String>();
+            List<String> excluded = new ArrayList<String>();
+            List<String> jars = new ArrayList<String>();
+
+            DirectoryStream<Path> entries;
+            try {
+                entries = Files.newDirectoryStream(directory);
+            } catch (IOException e) {
+                // Unreadable directory.
+                Log.debug("Skipped unreadable: " + directory);
+                return result;
+            }
+            try {
+                for (Path entry : entries) {
+                    // Trim preceding "./" from path.
+                    String path = entry.toString().substring(2);
+                    String name = entry.getFileName().toString();
+
+                    BasicFileAttributes attributes;
+                    try {
+                        attributes = Files.readAttributes(entry,
+                                BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+                        if (attributes.isSymbolicLink()) {
+                            Path target = Files.readSymbolicLink(entry).normalize();
+                            if (target.startsWith("") || target.startsWith(".")
+                                    || target.startsWith("..")) {
+                                // Don't recurse symbolic link that targets to
+                                // parent or current directory.
+                                Log.debug("Skipped: " + path);
+                                continue;
+                            }
+                            attributes = Files.readAttributes(entry,
+                                    BasicFileAttributes.class);
+                        }
+                    } catch (NoSuchFileException e) {
+                        // Skip nonexistent files/diretories, e.g. broken symlinks.
+                        Log.debug("Skipped nonexistent: " + path);
+                        continue;
+                    }
+
+                    if (attributes.isDirectory()) {
+                        // Traverse nested directories.
+                        if (excludes.exclude(scope, path, nameStart)) {
+                            // Don't recurse into excluded dirs.
+                            Log.debug("Excluding: " + path);
+                            result.excludedDirs.add(entry.toFile());
+                            excluded.add(name);
+                        } else {
+                            DirectoryTask subtask = newSubtask(entry, name,
+                                    attributes);
+                            subdirs.add(name);
+                            subtask.fork();
+                            subtasks.add(subtask);
+                        }
+                        continue;
+                    }
+
+                    result.files++;
+                    if (path.endsWith(".java")) {
+                        // Keep track of source roots for .java files.
+                        // Do not check excludes in this branch.
+                        if (firstJavaFile) {
+                            // Only parse one .java file per directory.
+                            firstJavaFile = false;
+
+                            File sourceRoot = Configuration.rootOf(entry.toFile());
+                            if (sourceRoot != null) {
+                                result.sourceRoots.add(sourceRoot);
+                                sourceRootPath = sourceRoot.getPath();
+                            }
+                        }
+                    } else if (path.endsWith(".jar")) {
+                        // Keep track of .jar files.
+                        if (excludes.exclude(scope, path, nameStart)) {
+                            Log.debug("Skipped: " + entry);
+                        } else {
+                            result.jarFiles.add(entry.toFile());
+                            jars.add(name);
+                        }
+                    }
+                }
+            } finally {
+                entries.close();
+            }
+            index.put(directoryPath, new SourceIndex.Directory(modified,
+                    sourceRootPath, subdirs, excluded, jars));
+
+            for (DirectoryTask subtask : subtasks) {
+                result.add(subtask.join());
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps the index and the generated project files up to date as the tree
+ * changes.
+ *
+ * <p>Every walked directory is watched for entries being created or
+ * deleted. Edits to existing files can't change the configuration, so they
+ * aren't watched; that also keeps a build writing into the tree from waking
+ * us up for every file. Once the tree has been quiet for a moment, e.g. after
+ * a sync or a build step, the configuration is made again, which only lists
+ * the directories that changed. The project files are only written again if
+ * the source roots, jars or excluded directories are different.
+ *
+ * <p>An excluded-paths file that is edited in place, rather than replaced,
+ * is only read again after the next change to the tree.
+ */
+class Watcher {
+
+    /** How long the tree has to be quiet before regenerating. */
+    private static final long QUIET_MILLIS = 1000;
+
+    /** Files we write, whose changes don't count. */
+    private static final Set<Path> OUTPUTS = new HashSet<Path>(Arrays.asList(
+            Paths.get("android.ipr"),
+            Paths.get("android.iml"),
+            Paths.get(".classpath"),
+            SourceIndex.FILE.toPath(),
+            SourceIndex.TEMP_FILE.toPath()));
+
+    private final WatchService service;
+    private final Map<Path, WatchKey> keys = new HashMap<Path, WatchKey>();
+
+    /** Set once we run out of watches, so we only say so once. */
+    private boolean full;
+
+    Watcher() throws IOException {
+        this.service = FileSystems.getDefault().newWatchService();
+    }
+
+    /**
+     * Watches the tree of the given configuration, regenerating the project
+     * files whenever it changes. Never returns.
+     */
+    void watch(Configuration configuration) throws IOException,
+            InterruptedException {
+        while (true) {
+            register(configuration);
+            Log.info("Watching " + keys.size() + " dirs...");
+
+            waitForChanges();
+            Log.info("Tree changed, rereading.");
+            Configuration previous = configuration;
+            configuration = new Configuration();
+            if (sameProject(previous, configuration)) {
+                Log.info("Nothing to regenerate.");
+            } else {
+                Main.generateFrom(configuration);
+            }
+        }
+    }
+
+    /**
+     * Returns true if the two configurations would generate the same
+     * project files.
+     */
+    private static boolean sameProject(Configuration a, Configuration b) {
+        return a.sourceRoots.equals(b.sourceRoots)
+                && a.jarFiles.equals(b.jarFiles)
+                && a.excludedDirs.equals(b.excludedDirs);
+    }
+
+    /**
+     * Waits for something to change in the tree, and then for the tree to be
+     * quiet.
+     */
+    private void waitForChanges() throws InterruptedException {
+        boolean changed = false;
+        WatchKey key = service.take();
+        while (true) {
+            changed |= hasChanges(key);
+            key.reset();
+            if (changed) {
+                key = service.poll(QUIET_MILLIS, TimeUnit.MILLISECONDS);
+                if (key == null) {
+                    return;
+                }
+            } else {
+                key = service.take();
+            }
+        }
+    }
+
+    /**
+     * Returns true if the events of the given key are about something other
+     * than the files we write ourselves.
+     */
+    private static boolean hasChanges(WatchKey key) {
+        Path directory = (Path) key.watchable();
+        boolean changed = false;
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                    || !OUTPUTS.contains(
+                            directory.resolve((Path) event.context()))) {
+                changed = true;
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * Watches the directories of the given configuration, and stops watching
+     * the ones that are gone.
+     */
+    private void register(Configuration configuration) throws IOException {
+        Map<String, SourceIndex.Directory> directories =
+                configuration.index.directories;
+        Iterator<Map.Entry<Path, WatchKey>> i = keys.entrySet().iterator();
+        while (i.hasNext()) {
+            Map.Entry<Path, WatchKey> entry = i.next();
+            Path path = entry.getKey();
+            if (!entry.getValue().isValid()
+                    || !directories.containsKey(path.toString())) {
+                entry.getValue().cancel();
+                i.remove();
+            }
+        }
+
+        for (String directory : directories.keySet()) {
+            Path path = Paths.get(directory);
+            if (full || keys.containsKey(path)) {
+                continue;
+            }
+            try {
+                keys.put(path, path.register(service,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE));
+            } catch (NoSuchFileException e) {
+                // Deleted since the walk; the next walk will notice.
+            } catch (IOException e) {
+                // E.g. out of inotify watches.
+                Log.info("Can't watch more than " + keys.size() + " dirs: "
+                        + e.getMessage());
+                full = true;
+            }
+        }
+    }
+}
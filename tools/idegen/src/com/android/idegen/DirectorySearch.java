@@ -210,7 +210,7 @@ public class DirectorySearch {
     private static File templateDirCurrent = null;
     private static File templateDirRoot = null;
 
-    public static File findTemplateDir() throws IOException {
+    public static synchronized File findTemplateDir() throws IOException {
         // Cache optimization.
         if (templateDirCurrent != null && templateDirCurrent.exists()) {
             return templateDirCurrent;
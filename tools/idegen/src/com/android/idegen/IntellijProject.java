@@ -18,6 +18,7 @@ package com.android.idegen;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.io.Files;
 
 import java.io.File;
@@ -26,7 +27,12 @@ import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Logger;
 
 /**
@@ -59,7 +65,17 @@ public class IntellijProject {
     }
 
     public void build() throws IOException {
-        cache.init(indexFile);
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Runtime.getRuntime().availableProcessors());
+        try {
+            build(executor);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private void build(ExecutorService executor) throws IOException {
+        cache.init(indexFile, executor);
         File repoRoot = DirectorySearch.getRepoRoot();
         if (buildFramework) {
             File frameworkDir = new File(repoRoot, FRAMEWORK_MODULE_DIR);
@@ -84,11 +100,22 @@ public class IntellijProject {
                 return;
             }
         }
+        cache.awaitModules();
+        cache.getParseCache().save();
 
         // Finally create iml files for dependencies
-        Iterable<Module> modules = cache.getModules();
-        for (Module mod : modules) {
-            mod.buildImlFile();
+        List<Future<Void>> imlFiles = Lists.newArrayList();
+        for (final Module mod : cache.getModules()) {
+            imlFiles.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws IOException {
+                    mod.buildImlFile();
+                    return null;
+                }
+            }));
+        }
+        for (Future<Void> imlFile : imlFiles) {
+            Futures.getChecked(imlFile, IOException.class);
         }
 
         createProjectFiles();
@@ -108,8 +135,9 @@ public class IntellijProject {
      * frameworks/base/Android.mk
      */
     private void buildFrameWorkModule(File frameworkModuleDir) throws IOException {
+        // Put the module in the cache before anything else, so that modules that depend on
+        // the framework get this one.
         FrameworkModule frameworkModule = new FrameworkModule(frameworkModuleDir);
-        frameworkModule.build();
         cache.put(frameworkModule);
     }
 
@@ -118,9 +146,9 @@ public class IntellijProject {
                 "idea" + File.separator + MODULES_TEMPLATE_FILE_NAME), CHARSET);
         StringBuilder sb = new StringBuilder();
         for (Module mod : modules) {
-            File iml = mod.getImlFile();
-            sb.append("      <module fileurl=\"file://").append(iml.getCanonicalPath()).append(
-                    "\" filepath=\"").append(iml.getCanonicalPath()).append("\" />\n");
+            String iml = cache.getCanonicalPath(mod.getImlFile());
+            sb.append("      <module fileurl=\"file://").append(iml).append(
+                    "\" filepath=\"").append(iml).append("\" />\n");
         }
         modulesContent = modulesContent.replace("@MODULES@", sb.toString());
 
@@ -34,6 +34,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.logging.Logger;
 
 /**
@@ -45,6 +46,7 @@ public class MakeFileParser {
     public static final String VALUE_DELIMITER = "|";
 
     private File makeFile;
+    private ParseCache cache;
     private HashMap<String, String> values;
 
     /**
@@ -55,7 +57,19 @@ public class MakeFileParser {
      * @param makeFile The make file to parse.
      */
     public MakeFileParser(File makeFile) {
+        this(makeFile, null);
+    }
+
+    /**
+     * Create a parser for a given make file, which takes the values from the given cache if the
+     * make file didn't change.
+     *
+     * @param makeFile The make file to parse.
+     * @param cache The cache, or null.
+     */
+    public MakeFileParser(File makeFile, ParseCache cache) {
         this.makeFile = Preconditions.checkNotNull(makeFile);
+        this.cache = cache;
     }
 
     public Iterable<String> getValues(String key) {
@@ -72,10 +86,21 @@ public class MakeFileParser {
      * part is the correct portion for the given module name.
      */
     public void parse() throws IOException {
+        if (cache != null) {
+            Map<String, String> cached = cache.getMakeFile(makeFile);
+            if (cached != null) {
+                values = Maps.newHashMap(cached);
+                return;
+            }
+        }
+
         values = Maps.newHashMap();
         logger.info("Parsing " + makeFile.getCanonicalPath());
 
         Files.readLines(makeFile, Charset.forName("UTF-8"), new MakeFileLineProcessor());
+        if (cache != null) {
+            cache.putMakeFile(makeFile, values);
+        }
     }
 
     @Override
@@ -101,16 +101,17 @@ public class Module {
         this.parseMakeFileForSource = parseMakeFileForSource;
 
         // TODO: auto-detect when framework dependency is needed instead of using coded list.
+        String makeFilePath = moduleCache.getCanonicalPath(makeFile);
         for (String dir : DIRS_WITH_AUTO_DEPENDENCIES) {
             // length + 2 to account for slash
-            boolean isDir = makeFile.getCanonicalPath().startsWith(
+            boolean isDir = makeFilePath.startsWith(
                     DirectorySearch.getRepoRoot() + "/" + dir);
             if (isDir) {
                 Collections.addAll(this.explicitModuleNameDependencies, AUTO_DEPENDENCIES);
             }
         }
 
-        makeFileParser = new MakeFileParser(makeFile);
+        makeFileParser = new MakeFileParser(makeFile, moduleCache.getParseCache());
     }
 
     private String calculateRelativePartToRepoRoot() throws IOException {
@@ -227,7 +228,7 @@ public class Module {
         }
         imlTemplate = imlTemplate.replace("@FACETS@", facetXml);
 
-        String moduleDir = getDir().getCanonicalPath();
+        String moduleDir = moduleCache.getCanonicalPath(getDir());
 
         StringBuilder sourceDirectories = new StringBuilder();
         sourceDirectories.append("    <content url=\"file://$MODULE_DIR$\">\n");
@@ -292,7 +293,7 @@ public class Module {
             if (child == null) {
                 moduleNameDependencies.remove(dependency);
             } else {
-                allDependencies.add(child.getDir().getCanonicalPath());
+                allDependencies.add(moduleCache.getCanonicalPath(child.getDir()));
                 //allDependencies.addAll(child.getAllDependencies());
                 //logger.info("Adding iml " + child.getName() + " " + child.getImlFile());
                 allDependentImlFiles.add(child.getImlFile());
@@ -301,14 +302,14 @@ public class Module {
         }
         // Don't include self.  The current module may have been brought in by framework
         // dependencies which will create a circular reference.
-        allDependencies.remove(this.getDir().getCanonicalPath());
+        allDependencies.remove(moduleCache.getCanonicalPath(this.getDir()));
         allDependentImlFiles.remove(this.getImlFile());
 
         // TODO: add implicit dependencies.  Convert all modules to be based on directory.
         for (File dependency : implicitModulePathDependencies) {
             Module child = moduleCache.getAndCacheByDir(dependency);
             if (child != null) {
-                allDependencies.add(child.getDir().getCanonicalPath());
+                allDependencies.add(moduleCache.getCanonicalPath(child.getDir()));
                 //allDependencies.addAll(child.getAllDependencies());
                 //logger.info("Adding iml " + child.getName() + " " + child.getImlFile());
                 allDependentImlFiles.add(child.getImlFile());
@@ -17,15 +17,25 @@
 package com.android.idegen;
 
 import com.google.common.base.Preconditions;
-import com.google.common.collect.Maps;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Futures;
 
 import java.io.File;
 import java.io.IOException;
-import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
 import java.util.logging.Logger;
 
 /**
  * Cache to hold built modules.
+ *
+ * Modules are built on a worker pool. The first lookup of a module directory creates the module
+ * and starts building it; later lookups, including the ones from modules that depend on each
+ * other, get the same module without waiting for it. Call {@link #awaitModules()} to wait for
+ * all of them to be built.
  */
 public class ModuleCache {
 
@@ -35,9 +45,16 @@ public class ModuleCache {
 
     ModuleIndexes indexes;
 
-    // Mapping of canonical module directory to module.  Use string instead of File since File
-    // does not provide equality based on canonical path.
-    HashMap<String, Module> modulesByPath = Maps.newHashMap();
+    private ParseCache parseCache;
+
+    // Mapping of canonical module directory to the build of that module.  Use string instead of
+    // File since File does not provide equality based on canonical path.
+    ConcurrentHashMap<String, ModuleBuild> modulesByPath = new ConcurrentHashMap<>();
+
+    // Canonical paths, since each one takes a few syscalls to compute.
+    private final ConcurrentHashMap<File, String> canonicalPaths = new ConcurrentHashMap<>();
+
+    private ExecutorService executor;
 
     private ModuleCache() {
     }
@@ -46,25 +63,42 @@ public class ModuleCache {
         return cache;
     }
 
-    public void init(File indexFile) throws IOException {
-        indexes = new ModuleIndexes(indexFile);
+    public void init(File indexFile, ExecutorService executor) throws IOException {
+        this.executor = Preconditions.checkNotNull(executor);
+        parseCache = ParseCache.load(new File(indexFile.getPath() + ".idegen-cache"));
+        indexes = new ModuleIndexes(indexFile, parseCache);
         indexes.build();
     }
 
+    /**
+     * Returns the cache of parsed make files, which is null until {@link #init} is called.
+     */
+    public ParseCache getParseCache() {
+        return parseCache;
+    }
+
+    /**
+     * Returns the module in the given directory, and starts building it if it's new. The module
+     * may still be building.
+     */
     public Module getAndCacheByDir(File moduleDir) throws IOException {
         Preconditions.checkNotNull(moduleDir);
 
-        if (moduleDir.exists()) {
-            Module module = getModule(moduleDir);
-            if (module == null) {
-                module = new Module(moduleDir);
-                // Must put module before building it.  Otherwise infinite loop.
-                putModule(moduleDir, module);
-                module.build();
+        String path = getCanonicalPath(moduleDir);
+        ModuleBuild build = modulesByPath.get(path);
+        if (build == null) {
+            if (!moduleDir.exists()) {
+                return null;
+            }
+            ModuleBuild created = new ModuleBuild(new Module(moduleDir));
+            build = modulesByPath.putIfAbsent(path, created);
+            if (build == null) {
+                // Only the first lookup builds the module, so dependency cycles end here.
+                build = created;
+                executor.execute(build);
             }
-            return module;
         }
-        return null;
+        return build.module;
     }
 
     public Module getAndCacheByName(String moduleName) throws IOException {
@@ -86,20 +120,65 @@ public class ModuleCache {
         return getAndCacheByDir(makeFile.getParentFile());
     }
 
-    private void putModule(File moduleDir, Module module) throws IOException {
-        modulesByPath.put(moduleDir.getCanonicalPath(), module);
+    /**
+     * Waits for all the modules to be built, including the dependencies found along the way.
+     */
+    public void awaitModules() throws IOException {
+        int count;
+        do {
+            count = modulesByPath.size();
+            for (ModuleBuild build : modulesByPath.values()) {
+                Futures.getChecked(build, IOException.class);
+            }
+        } while (modulesByPath.size() != count);
     }
 
-    private Module getModule(File moduleDir) throws IOException {
-        return modulesByPath.get(moduleDir.getCanonicalPath());
+    /**
+     * Returns the canonical path of the given file. It's only computed once per file.
+     */
+    public String getCanonicalPath(File file) throws IOException {
+        String path = canonicalPaths.get(file);
+        if (path == null) {
+            path = file.getCanonicalPath();
+            canonicalPaths.put(file, path);
+        }
+        return path;
     }
 
     public Iterable<Module> getModules() {
-        return modulesByPath.values();
+        List<Module> modules = Lists.newArrayList();
+        for (ModuleBuild build : modulesByPath.values()) {
+            modules.add(build.module);
+        }
+        return modules;
     }
 
+    /**
+     * Adds a module that was made in a special way, and starts building it.
+     */
     public void put(Module module) throws IOException {
         Preconditions.checkNotNull(module);
-        putModule(module.getDir(), module);
+        ModuleBuild build = new ModuleBuild(module);
+        modulesByPath.put(getCanonicalPath(module.getDir()), build);
+        executor.execute(build);
+    }
+
+    /**
+     * A module, and the task that builds it.
+     */
+    private static class ModuleBuild extends FutureTask<Module> {
+
+        final Module module;
+
+        ModuleBuild(final Module module) {
+            super(new Callable<Module>() {
+                @Override
+                public Module call() throws IOException {
+                    module.build();
+                    return module;
+                }
+            });
+            this.module = module;
+        }
     }
 }
@@ -17,6 +17,7 @@
 package com.android.idegen;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
@@ -26,6 +27,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.charset.Charset;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -38,17 +40,40 @@ public class ModuleIndexes {
     private static final Logger logger = Logger.getLogger(ModuleIndexes.class.getName());
 
     private File indexFile;
+    private ParseCache cache;
     private HashMap<String, String> moduleNameToMakeFileMap;
     private HashMap<String, Set<String>> makeFileToModuleNamesMap;
 
     public ModuleIndexes(File indexFile) {
+        this(indexFile, null);
+    }
+
+    /**
+     * Creates the indexes, which are taken from the given cache if the index file didn't
+     * change. The cache may be null.
+     */
+    public ModuleIndexes(File indexFile, ParseCache cache) {
         this.indexFile = indexFile;
+        this.cache = cache;
     }
 
     public void build() throws IOException {
 
         moduleNameToMakeFileMap = Maps.newHashMap();
         makeFileToModuleNamesMap = Maps.newHashMap();
+        if (cache != null) {
+            List<String[]> cached = cache.getIndex(indexFile);
+            if (cached != null) {
+                logger.info("Using cached index of " + indexFile.getCanonicalPath());
+                for (String[] line : cached) {
+                    moduleNameToMakeFileMap.put(line[1], line[0]);
+                    append(line[0], line[1]);
+                }
+                return;
+            }
+        }
+
+        final List<String[]> lines = Lists.newArrayList();
         logger.info("Building index from " + indexFile.getCanonicalPath());
         Files.readLines(indexFile, Charset.forName("UTF-8"),
                 new LineProcessor<Object>() {
@@ -66,6 +91,7 @@ public class ModuleIndexes {
                             String moduleName = arr[1];
                             moduleNameToMakeFileMap.put(moduleName, makeFile);
                             append(makeFile, moduleName);
+                            lines.add(new String[] {makeFile, moduleName});
                         }
                         return true;
                     }
@@ -75,6 +101,9 @@ public class ModuleIndexes {
                         return null;
                     }
                 });
+        if (cache != null) {
+            cache.putIndex(lines);
+        }
     }
 
     private void append(String makeFile, String moduleName) {
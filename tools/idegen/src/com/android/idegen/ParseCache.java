@@ -0,0 +1,349 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.idegen;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the module index and the parsed make files from one run to the next, so that unchanged
+ * files don't have to be parsed again.
+ *
+ * The cache is a binary file that is memory mapped when loaded. Only the position of each make
+ * file is read up front; its values are decoded when that make file is asked for. A file is
+ * unchanged if its size and modification time are the same as when it was parsed. The cache
+ * is saved with the files used by the run, so files that are no longer used drop out of it.
+ *
+ * If a make file's values can't be decoded, e.g. because the cache file was truncated, the
+ * rest of the loaded cache is thrown away too, and the make files are parsed again.
+ */
+public class ParseCache {
+
+    private static final Logger logger = Logger.getLogger(ParseCache.class.getName());
+
+    private static final int MAGIC = 0x69646763; // "idgc"
+    private static final int VERSION = 1;
+
+    private final File cacheFile;
+
+    // The loaded cache, and the positions of the make files in it. Both are replaced, not
+    // changed, when the cache is thrown away, since the modules are built in parallel.
+    private volatile ByteBuffer buffer;
+    private volatile Map<String, Integer> makeFilePositions = Maps.newHashMap();
+    private String indexPath;
+    private Stamp indexStamp;
+    private List<String[]> indexLines;
+
+    // What this run used, for the next run.
+    private final ConcurrentHashMap<String, Entry> makeFiles = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<String, Stamp> pendingStamps = new ConcurrentHashMap<>();
+
+    private final AtomicInteger hits = new AtomicInteger();
+    private final AtomicInteger misses = new AtomicInteger();
+
+    private ParseCache(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
+    /**
+     * Loads the cache from the given file. The cache is empty if the file doesn't exist or
+     * can't be read.
+     */
+    public static ParseCache load(File cacheFile) {
+        ParseCache cache = new ParseCache(Preconditions.checkNotNull(cacheFile));
+        if (cacheFile.exists()) {
+            try {
+                cache.map();
+            } catch (IOException | RuntimeException e) {
+                logger.warning("Ignoring unreadable cache " + cacheFile + ": " + e);
+                cache.buffer = null;
+                cache.makeFilePositions = Collections.emptyMap();
+                cache.indexLines = null;
+            }
+        }
+        return cache;
+    }
+
+    private void map() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(cacheFile, "r")) {
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("not a cache file, or an old one");
+        }
+
+        int[] pos = {8};
+        indexPath = readString(pos);
+        indexStamp = readStamp(pos);
+        int lineCount = readInt(pos);
+        indexLines = Lists.newArrayListWithCapacity(lineCount);
+        for (int i = 0; i < lineCount; i++) {
+            indexLines.add(new String[] {readString(pos), readString(pos)});
+        }
+
+        int makeFileCount = readInt(pos);
+        HashMap<String, Integer> positions = Maps.newHashMap();
+        for (int i = 0; i < makeFileCount; i++) {
+            positions.put(readString(pos), pos[0]);
+            pos[0] += 16; // stamp
+            int valueCount = readInt(pos);
+            for (int j = 0; j < valueCount * 2; j++) {
+                pos[0] += 4 + buffer.getInt(pos[0]);
+            }
+        }
+        makeFilePositions = positions;
+    }
+
+    /**
+     * Returns the (make file, module name) lines of the given index file, or null if the index
+     * changed since it was cached.
+     */
+    public List<String[]> getIndex(File indexFile) throws IOException {
+        if (indexLines != null && indexFile.getCanonicalPath().equals(indexPath)
+                && Stamp.of(indexFile).equals(indexStamp)) {
+            return indexLines;
+        }
+        indexLines = null;
+        indexStamp = Stamp.of(indexFile);
+        indexPath = indexFile.getCanonicalPath();
+        return null;
+    }
+
+    /**
+     * Sets the lines of the index file, after {@link #getIndex(File)} returned null.
+     */
+    public void putIndex(List<String[]> lines) {
+        indexLines = lines;
+    }
+
+    /**
+     * Returns the values of the given make file, or null if it changed since it was cached.
+     */
+    public Map<String, String> getMakeFile(File makeFile) throws IOException {
+        String path = ModuleCache.getInstance().getCanonicalPath(makeFile);
+        Stamp stamp = Stamp.of(makeFile);
+        Entry entry = makeFiles.get(path);
+        if (entry == null) {
+            Integer position = makeFilePositions.get(path);
+            if (position != null) {
+                try {
+                    entry = readEntry(position, stamp);
+                } catch (RuntimeException e) {
+                    // E.g. IndexOutOfBoundsException, if the file was truncated.
+                    discard(e);
+                }
+                if (entry != null) {
+                    makeFiles.put(path, entry);
+                }
+            }
+        } else if (!entry.stamp.equals(stamp)) {
+            entry = null;
+        }
+
+        if (entry == null) {
+            // Remember the stamp from before the file is parsed, in case it changes meanwhile.
+            pendingStamps.put(path, stamp);
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.values;
+    }
+
+    /**
+     * Decodes the values of the make file at the given position, or returns null if the file
+     * changed since they were cached.
+     */
+    private Entry readEntry(int position, Stamp stamp) {
+        int[] pos = {position};
+        if (!readStamp(pos).equals(stamp)) {
+            return null;
+        }
+        int valueCount = readInt(pos);
+        HashMap<String, String> values = Maps.newHashMapWithExpectedSize(valueCount);
+        for (int i = 0; i < valueCount; i++) {
+            values.put(readString(pos), readString(pos));
+        }
+        return new Entry(stamp, values);
+    }
+
+    /**
+     * Stops using the loaded cache, after part of it turned out to be corrupt.
+     */
+    private synchronized void discard(RuntimeException e) {
+        if (buffer != null) {
+            logger.warning("Ignoring corrupt cache " + cacheFile + ": " + e);
+            buffer = null;
+            makeFilePositions = Collections.emptyMap();
+        }
+    }
+
+    /**
+     * Sets the values of the given make file, after {@link #getMakeFile(File)} returned null.
+     */
+    public void putMakeFile(File makeFile, Map<String, String> values) throws IOException {
+        String path = ModuleCache.getInstance().getCanonicalPath(makeFile);
+        Stamp stamp = pendingStamps.remove(path);
+        if (stamp != null) {
+            makeFiles.put(path, new Entry(stamp, Maps.newHashMap(values)));
+        }
+    }
+
+    /**
+     * Writes the cache for the next run.
+     */
+    public void save() throws IOException {
+        logger.info("Parse cache: " + hits + " hits, " + misses + " misses");
+
+        File temp = new File(cacheFile.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(temp)))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            if (indexLines == null) {
+                writeString(out, "");
+                writeStamp(out, new Stamp(-1, -1));
+                out.writeInt(0);
+            } else {
+                writeString(out, indexPath);
+                writeStamp(out, indexStamp);
+                out.writeInt(indexLines.size());
+                for (String[] line : indexLines) {
+                    writeString(out, line[0]);
+                    writeString(out, line[1]);
+                }
+            }
+
+            out.writeInt(makeFiles.size());
+            for (Map.Entry<String, Entry> makeFile : makeFiles.entrySet()) {
+                writeString(out, makeFile.getKey());
+                writeStamp(out, makeFile.getValue().stamp);
+                Map<String, String> values = makeFile.getValue().values;
+                out.writeInt(values.size());
+                for (Map.Entry<String, String> value : values.entrySet()) {
+                    writeString(out, value.getKey());
+                    writeString(out, value.getValue());
+                }
+            }
+        }
+        Files.move(temp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private int readInt(int[] pos) {
+        int value = buffer.getInt(pos[0]);
+        pos[0] += 4;
+        return value;
+    }
+
+    private String readString(int[] pos) {
+        int length = readInt(pos);
+        if (length < 0 || length > buffer.limit() - pos[0]) {
+            throw new IndexOutOfBoundsException("string of " + length + " bytes at " + pos[0]);
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(pos[0], bytes);
+        pos[0] += length;
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private Stamp readStamp(int[] pos) {
+        long size = buffer.getLong(pos[0]);
+        long modified = buffer.getLong(pos[0] + 8);
+        pos[0] += 16;
+        return new Stamp(size, modified);
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException {
+        byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static void writeStamp(DataOutputStream out, Stamp stamp) throws IOException {
+        out.writeLong(stamp.size);
+        out.writeLong(stamp.modified);
+    }
+
+    /**
+     * The size and modification time of a file.
+     */
+    private static class Stamp {
+        final long size;
+        final long modified;
+
+        Stamp(long size, long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        static Stamp of(File file) throws IOException {
+            BasicFileAttributes attributes = Files.readAttributes(file.toPath(),
+                    BasicFileAttributes.class);
+            return new Stamp(attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Stamp)) {
+                return false;
+            }
+            Stamp other = (Stamp) obj;
+            return size == other.size && modified == other.modified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(modified);
+        }
+    }
+
+    /**
+     * A parsed make file.
+     */
+    private static class Entry {
+        final Stamp stamp;
+        final Map<String, String> values;
+
+        Entry(Stamp stamp, Map<String, String> values) {
+            this.stamp = stamp;
+            this.values = values;
+        }
+    }
+}
@@ -18,56 +18,180 @@ package com.android.mkstubs;
 
 import com.android.mkstubs.Main.Logger;
 
-import org.objectweb.asm.ClassReader;
-
+import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.util.Enumeration;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeMap;
-import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
- * Analyzes an input Jar to get all the relevant classes according to the given filter.
+ * Analyzes the input Jars and directories to get all the relevant classes according to the
+ * given filter.
+ * <p/>
+ * Only the central directory of each Jar is read here, and only the file names of each
+ * directory. The bytes of each class are read later by whoever processes it, so that the
+ * inputs never need to be held in memory.
  * <p/>
  * This is mostly a helper extracted for convenience. Callers will want to use
- * {@link #parseInputJar(String)} followed by {@link #filter(Map, Filter, Logger)}.
+ * {@link #parseInputs(List, int, Logger)} followed by {@link #filter(Map, Filter, Logger)}.
  */
 class AsmAnalyzer {
 
     /**
-     * Parses a JAR file and returns a list of all classes founds using a map
-     * class name => ASM ClassReader. Class names are in the form "android.view.View".
+     * One class of the inputs. The class bytes are only read by {@link #read()}.
+     * <p/>
+     * It is safe to read different classes from different threads.
      */
-    Map<String,ClassReader> parseInputJar(String inputJarPath) throws IOException {
-        TreeMap<String, ClassReader> classes = new TreeMap<>();
-
-        ZipFile zip = new ZipFile(inputJarPath);
-        Enumeration<? extends ZipEntry> entries = zip.entries();
-        ZipEntry entry;
-        while (entries.hasMoreElements()) {
-            entry = entries.nextElement();
-            if (entry.getName().endsWith(".class")) {
-                ClassReader cr = new ClassReader(zip.getInputStream(entry));
-                String className = classReaderToAsmName(cr);
-                classes.put(className, cr);
-            }
+    abstract static class InputClass {
+        private final String mClassName;
+        private final File mInput;
+
+        InputClass(String className, File input) {
+            mClassName = className;
+            mInput = input;
+        }
+
+        /** Returns the ASM class name, e.g. android/view/View. */
+        public String getClassName() {
+            return mClassName;
+        }
+
+        /** Returns the path of the class in a Jar, e.g. android/view/View.class. */
+        public String getEntryPath() {
+            return mClassName + ".class";
+        }
+
+        /** Returns the Jar or directory the class comes from. */
+        public File getInput() {
+            return mInput;
         }
 
-        return classes;
+        /** Reads the class bytes. */
+        public abstract byte[] read() throws IOException;
+    }
+
+    /** A class from a Jar. */
+    private static class JarClass extends InputClass {
+        private final MappedJar mJar;
+        private final MappedJar.Entry mEntry;
+
+        JarClass(String className, MappedJar jar, MappedJar.Entry entry) {
+            super(className, jar.getFile());
+            mJar = jar;
+            mEntry = entry;
+        }
+
+        @Override
+        public byte[] read() throws IOException {
+            return mJar.read(mEntry);
+        }
+    }
+
+    /** A class file from a directory. */
+    private static class FileClass extends InputClass {
+        private final File mFile;
+
+        FileClass(String className, File dir, File file) {
+            super(className, dir);
+            mFile = file;
+        }
+
+        @Override
+        public byte[] read() throws IOException {
+            return Files.readAllBytes(mFile.toPath());
+        }
+    }
+
+    /**
+     * Finds the classes of all the inputs, which can be Jars or directories of class files,
+     * and returns them as a map class name => InputClass. Class names are in the ASM internal
+     * form "android/view/View".
+     * <p/>
+     * The inputs are read in parallel. When a class is in more than one input, the first
+     * input in the list wins, like on a class path. Within one Jar, the first entry wins.
+     *
+     * @throws IOException if an input doesn't exist or can't be read.
+     */
+    Map<String, InputClass> parseInputs(List<File> inputs, int threads, Logger log)
+            throws IOException {
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(threads, inputs.size()));
+        try {
+            ArrayList<Future<List<InputClass>>> futures = new ArrayList<>();
+            for (final File input : inputs) {
+                futures.add(pool.submit(new Callable<List<InputClass>>() {
+                    @Override
+                    public List<InputClass> call() throws IOException {
+                        return parseInput(input);
+                    }
+                }));
+            }
+
+            TreeMap<String, InputClass> classes = new TreeMap<>();
+            for (Future<List<InputClass>> future : futures) {
+                for (InputClass ic : StubGenerator.waitFor(future)) {
+                    InputClass first = classes.get(ic.getClassName());
+                    if (first == null) {
+                        classes.put(ic.getClassName(), ic);
+                    } else {
+                        log.debug("- Duplicate class %s in %s, using the one from %s",
+                                ic.getClassName(), ic.getInput().getPath(),
+                                first.getInput().getPath());
+                    }
+                }
+            }
+            return classes;
+        } finally {
+            pool.shutdownNow();
+        }
     }
 
     /**
-     * Utility that returns the fully qualified ASM class name for a ClassReader.
-     * E.g. it returns something like android/view/View.
+     * Finds the classes of one input Jar or directory, in no particular order.
      */
-    static String classReaderToAsmName(ClassReader classReader) {
-        if (classReader == null) {
-            return null;
+    private List<InputClass> parseInput(File input) throws IOException {
+        ArrayList<InputClass> result = new ArrayList<>();
+        if (input.isDirectory()) {
+            addDirectoryClasses(result, input, input, "");
+        } else if (input.isFile()) {
+            MappedJar jar = new MappedJar(input);
+            HashSet<String> names = new HashSet<>();
+            for (MappedJar.Entry entry : jar.getEntries()) {
+                String name = entry.getName();
+                if (!entry.isDirectory() && name.endsWith(".class") && names.add(name)) {
+                    String className = name.substring(0, name.length() - ".class".length());
+                    result.add(new JarClass(className, jar, entry));
+                }
+            }
         } else {
-            return classReader.getClassName();
+            throw new FileNotFoundException("Input not found: " + input.getPath());
+        }
+        return result;
+    }
+
+    private void addDirectoryClasses(List<InputClass> result, File root, File dir,
+            String prefix) throws IOException {
+        File[] files = dir.listFiles();
+        if (files == null) {
+            throw new IOException("Can't list directory: " + dir.getPath());
+        }
+        for (File f : files) {
+            String name = f.getName();
+            if (f.isDirectory()) {
+                addDirectoryClasses(result, root, f, prefix + name + "/");
+            } else if (name.endsWith(".class")) {
+                String className = prefix + name.substring(0, name.length() - ".class".length());
+                result.add(new FileClass(className, root, f));
+            }
         }
     }
 
@@ -80,13 +204,14 @@ class AsmAnalyzer {
      * @param filter  A filter describing which classes to include and which ones to exclude.
      * @param log
      */
-    void filter(Map<String, ClassReader> classes, Filter filter, Logger log) {
+    void filter(Map<String, InputClass> classes, Filter filter, Logger log) {
 
         Set<String> keys = classes.keySet();
         for(Iterator<String> it = keys.iterator(); it.hasNext(); ) {
             String key = it.next();
 
-            // TODO: We *could* filter out all private classes here: classes.get(key).getAccess().
+            // TODO: We *could* filter out all private classes here, but that would mean
+            // reading the class bytes of every entry up front.
 
             // remove if we don't keep it
             if (!filter.accept(key)) {
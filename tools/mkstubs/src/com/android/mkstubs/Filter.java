@@ -16,6 +16,7 @@
 
 package com.android.mkstubs;
 
+import java.util.Arrays;
 import java.util.TreeSet;
 
 /**
@@ -28,13 +29,105 @@ import java.util.TreeSet;
  * <p/>
  * The {@link #accept(String)} method examines a given string against the known
  * pattern to decide if it should be included.
+ * <p/>
+ * The first time a string is examined, all the patterns are compiled into a single trie,
+ * so that examining a string is one walk down the trie no matter how many patterns there
+ * are. The patterns must not be changed after that. Once compiled, the filter can be used
+ * from several threads at once.
  */
 class Filter {
+    /** Flags of a trie node, for the patterns that end at that node. */
+    private static final int INCLUDE_FULL   = 1;
+    private static final int INCLUDE_PREFIX = 2;
+    private static final int EXCLUDE_FULL   = 4;
+    private static final int EXCLUDE_PREFIX = 8;
+
+    /**
+     * Accepts or rejects the members of one class.
+     *
+     * @see Filter#forMembers(String)
+     */
+    interface MemberFilter {
+        /**
+         * Checks if a member passes the rules, as {@link Filter#accept(String)} would
+         * for "class#member".
+         * @param member The member name, e.g. "mField" or "method(I)V".
+         */
+        boolean accept(String member);
+    }
+
+    /**
+     * One node of the pattern trie. The children are sorted on their character.
+     */
+    private static class Node {
+        private static final char[] NO_CHARS = new char[0];
+        private static final Node[] NO_NODES = new Node[0];
+
+        int mFlags;
+        char[] mChars = NO_CHARS;
+        Node[] mNext = NO_NODES;
+
+        /** Returns the child for the given character, or null. */
+        Node find(char c) {
+            int i = Arrays.binarySearch(mChars, c);
+            return i >= 0 ? mNext[i] : null;
+        }
+
+        /** Returns the child for the given character, adding it if needed. */
+        Node add(char c) {
+            int i = Arrays.binarySearch(mChars, c);
+            if (i >= 0) {
+                return mNext[i];
+            }
+            i = -i - 1;
+            int n = mChars.length;
+            char[] chars = new char[n + 1];
+            Node[] next = new Node[n + 1];
+            System.arraycopy(mChars, 0, chars, 0, i);
+            System.arraycopy(mNext, 0, next, 0, i);
+            System.arraycopy(mChars, i, chars, i + 1, n - i);
+            System.arraycopy(mNext, i, next, i + 1, n - i);
+            chars[i] = c;
+            next[i] = new Node();
+            mChars = chars;
+            mNext = next;
+            return next[i];
+        }
+    }
+
+    /**
+     * A member filter that starts walking the trie where the "class#" prefix ended.
+     */
+    private static class TrieMemberFilter implements MemberFilter {
+        private final Node mNode;
+        private final boolean mIncluded;
+        private final boolean mExcluded;
+
+        TrieMemberFilter(Node node, boolean included, boolean excluded) {
+            mNode = node;
+            mIncluded = included;
+            mExcluded = excluded;
+        }
+
+        @Override
+        public boolean accept(String member) {
+            if (mExcluded) {
+                return false;
+            } else if (mNode == null) {
+                return mIncluded;
+            }
+            return walk(mNode, mIncluded, member);
+        }
+    }
+
     private TreeSet<String> mIncludePrefix = new TreeSet<>();
     private TreeSet<String> mIncludeFull   = new TreeSet<>();
     private TreeSet<String> mExcludePrefix = new TreeSet<>();
     private TreeSet<String> mExcludeFull   = new TreeSet<>();
 
+    /** The compiled patterns. Null until the first string is examined. */
+    private volatile Node mRoot;
+
     /**
      * Returns the set of all full patterns to be included.
      */
@@ -74,33 +167,88 @@ class Filter {
      * @return True if the string can be accepted, false if it must be rejected.
      */
     public boolean accept(String s) {
-        
-        // Check if it can be included.
-        boolean accept = mIncludeFull.contains(s);
-        if (!accept) {
-            // Check for a prefix inclusion
-            for (String prefix : mIncludePrefix) {
-                if (s.startsWith(prefix)) {
-                    accept = true;
-                    break;
-                }
+        Node root = getRoot();
+        if ((root.mFlags & EXCLUDE_PREFIX) != 0) {
+            return false;
+        }
+        return walk(root, (root.mFlags & INCLUDE_PREFIX) != 0, s);
+    }
+
+    /**
+     * Returns a filter for the members of the given class. It gives the same answers as
+     * {@link #accept(String)} on "className#member", but the class name part of the walk
+     * is only done once.
+     */
+    public MemberFilter forMembers(String className) {
+        Node node = getRoot();
+        boolean included = (node.mFlags & INCLUDE_PREFIX) != 0;
+        boolean excluded = (node.mFlags & EXCLUDE_PREFIX) != 0;
+        int n = className.length();
+        for (int i = 0; i <= n && node != null && !excluded; i++) {
+            node = node.find(i < n ? className.charAt(i) : '#');
+            if (node != null) {
+                included |= (node.mFlags & INCLUDE_PREFIX) != 0;
+                excluded |= (node.mFlags & EXCLUDE_PREFIX) != 0;
+            }
+        }
+        return new TrieMemberFilter(node, included, excluded);
+    }
+
+    /**
+     * Walks down the trie along s, starting below the given node, whose own prefix flags
+     * have already been applied.
+     *
+     * @param included Whether an include prefix matched before the node.
+     */
+    private static boolean walk(Node node, boolean included, String s) {
+        int n = s.length();
+        for (int i = 0; i < n; i++) {
+            node = node.find(s.charAt(i));
+            if (node == null) {
+                return included;
+            }
+            if ((node.mFlags & EXCLUDE_PREFIX) != 0) {
+                return false;
+            }
+            if ((node.mFlags & INCLUDE_PREFIX) != 0) {
+                included = true;
             }
         }
-        
-        if (accept) {
-            // check for a full exclusion
-            accept = !mExcludeFull.contains(s);
+        if ((node.mFlags & EXCLUDE_FULL) != 0) {
+            return false;
         }
-        if (accept) {
-            // or check for prefix exclusion
-            for (String prefix : mExcludePrefix) {
-                if (s.startsWith(prefix)) {
-                    accept = false;
-                    break;
+        return included || (node.mFlags & INCLUDE_FULL) != 0;
+    }
+
+    /**
+     * Returns the trie, compiling it if it's the first time.
+     */
+    private Node getRoot() {
+        Node root = mRoot;
+        if (root == null) {
+            synchronized (this) {
+                root = mRoot;
+                if (root == null) {
+                    root = new Node();
+                    addPatterns(root, mIncludeFull, INCLUDE_FULL);
+                    addPatterns(root, mIncludePrefix, INCLUDE_PREFIX);
+                    addPatterns(root, mExcludeFull, EXCLUDE_FULL);
+                    addPatterns(root, mExcludePrefix, EXCLUDE_PREFIX);
+                    mRoot = root;
                 }
             }
         }
+        return root;
+    }
 
-        return accept;
-    }    
+    private static void addPatterns(Node root, TreeSet<String> patterns, int flag) {
+        for (String pattern : patterns) {
+            Node node = root;
+            int n = pattern.length();
+            for (int i = 0; i < n; i++) {
+                node = node.add(pattern.charAt(i));
+            }
+            node.mFlags |= flag;
+        }
+    }
 }
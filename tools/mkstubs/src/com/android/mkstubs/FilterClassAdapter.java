@@ -34,6 +34,7 @@ class FilterClassAdapter extends ClassVisitor {
     private final Logger mLog;
     private final Filter mFilter;
     private String mClassName;
+    private Filter.MemberFilter mMemberFilter;
 
     public FilterClassAdapter(ClassVisitor writer, Filter filter, Logger log) {
         super(Main.ASM_VERSION, writer);
@@ -46,6 +47,7 @@ class FilterClassAdapter extends ClassVisitor {
             String superName, String[] interfaces) {
 
         mClassName = name;
+        mMemberFilter = mFilter.forMembers(name);
         super.visit(version, access, name, signature, superName, interfaces);
     }
 
@@ -73,10 +75,8 @@ class FilterClassAdapter extends ClassVisitor {
         }
 
         // filter on field name
-        String filterName = String.format("%s#%s", mClassName, name);
-
-        if (!mFilter.accept(filterName)) {
-            mLog.debug("- Remove field " + filterName);
+        if (!mMemberFilter.accept(name)) {
+            mLog.debug("- Remove field %s#%s", mClassName, name);
             return null;
         }
 
@@ -105,19 +105,15 @@ class FilterClassAdapter extends ClassVisitor {
         }
 
         // filter on method name using the non-generic descriptor
-        String filterName = String.format("%s#%s%s", mClassName, name, desc);
-
-        if (!mFilter.accept(filterName)) {
-            mLog.debug("- Remove method " + filterName);
+        if (!mMemberFilter.accept(name + desc)) {
+            mLog.debug("- Remove method %s#%s%s", mClassName, name, desc);
             return null;
         }
 
         // filter on method name using the generic signature
         if (signature != null) {
-            filterName = String.format("%s#%s%s", mClassName, name, signature);
-
-            if (!mFilter.accept(filterName)) {
-                mLog.debug("- Remove method " + filterName);
+            if (!mMemberFilter.accept(name + signature)) {
+                mLog.debug("- Remove method %s#%s%s", mClassName, name, signature);
                 return null;
             }
         }
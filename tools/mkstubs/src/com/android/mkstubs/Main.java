@@ -16,13 +16,16 @@
 
 package com.android.mkstubs;
 
-import org.objectweb.asm.ClassReader;
+import com.android.mkstubs.AsmAnalyzer.InputClass;
+
 import org.objectweb.asm.Opcodes;
 
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Map;
 
 
@@ -44,12 +47,20 @@ public class Main {
         private Filter mFilter;
         private boolean mVerbose;
         private boolean mDumpSource;
+        private int mThreads;
+        private boolean mIncremental;
+        private String mCacheDirPath;
 
         public Params() {
             mFilter = new Filter();
+            mThreads = Runtime.getRuntime().availableProcessors();
         }
 
-        /** Sets the name of the input jar, where to read classes from. Must not be null. */
+        /**
+         * Sets the name of the input jar, where to read classes from. Must not be null.
+         * It can also be a list of jars and directories of class files, separated like
+         * a class path.
+         */
         public void setInputJarPath(String inputJarPath) {
             mInputJarPath = inputJarPath;
         }
@@ -64,6 +75,17 @@ public class Main {
             return mInputJarPath;
         }
 
+        /** Returns the input jars and directories, in class path order. */
+        public List<File> getInputs() {
+            List<File> inputs = new ArrayList<>();
+            for (String path : mInputJarPath.split(File.pathSeparator)) {
+                if (!path.isEmpty()) {
+                    inputs.add(new File(path));
+                }
+            }
+            return inputs;
+        }
+
         /** Returns the name of the output jar, where to write classes to. */
         public String getOutputJarPath() {
             return mOutputJarPath;
@@ -93,6 +115,35 @@ public class Main {
         public boolean isDumpSource() {
             return mDumpSource;
         }
+
+        /** Sets the number of threads used to stub classes. Default is one per CPU. */
+        public void setThreads(int threads) {
+            mThreads = threads;
+        }
+
+        /** Returns the number of threads used to stub classes. */
+        public int getThreads() {
+            return mThreads;
+        }
+
+        /**
+         * Sets incremental mode on, with the stub cache in the given directory. The directory
+         * can be null to use the default one next to the output jar. Default is off.
+         */
+        public void setIncremental(String cacheDirPath) {
+            mIncremental = true;
+            mCacheDirPath = cacheDirPath;
+        }
+
+        /** Returns true if incremental mode is on. */
+        public boolean isIncremental() {
+            return mIncremental;
+        }
+
+        /** Returns the stub cache directory, or null to use the default one. */
+        public String getCacheDirPath() {
+            return mCacheDirPath;
+        }
     }
 
     /** Logger that writes on stdout depending a conditional verbose mode. */
@@ -133,7 +184,8 @@ public class Main {
      * Grabs command-line arguments.
      * The expected arguments are:
      * <ul>
-     * <li> The filename of the input Jar.
+     * <li> The filename of the input Jar, or a list of Jars and directories separated
+     *      like a class path.
      * <li> The filename of the output Jar.
      * <li> One or more include/exclude patterns or files containing these patterns.
      *      See {@link #addString(Params, String)} for syntax.
@@ -149,6 +201,11 @@ public class Main {
                     p.setVerbose();
                 } else if (arg.startsWith("--s")) {
                     p.setDumpSource();
+                } else if (arg.startsWith("--j")) {
+                    p.setThreads(parseThreads(arg));
+                } else if (arg.startsWith("--i")) {
+                    int pos = arg.indexOf('=');
+                    p.setIncremental(pos > 0 ? arg.substring(pos + 1) : null);
                 } else if (arg.startsWith("--h")) {
                     usage(null);
                 } else {
@@ -170,6 +227,25 @@ public class Main {
         return p;
     }
 
+    /**
+     * Parses the number of threads from a "--j=N" or "--jobs=N" argument.
+     */
+    private int parseThreads(String arg) {
+        int threads = 0;
+        int pos = arg.indexOf('=');
+        if (pos > 0) {
+            try {
+                threads = Integer.parseInt(arg.substring(pos + 1));
+            } catch (NumberFormatException e) {
+                // handled below
+            }
+        }
+        if (threads <= 0) {
+            usage("Expected a positive number of threads: " + arg);
+        }
+        return threads;
+    }
+
     /**
      * Adds one pattern string to the current filter.
      * The syntax must be:
@@ -254,12 +330,22 @@ public class Main {
             System.out.println("ERROR: " + error);
         }
 
-        System.out.println("Usage: mkstub [--h|--s|--v] input.jar output.jar [excluded-class @excluded-classes-file ...]");
+        System.out.println("Usage: mkstub [--h|--s|--v|--j=N|--i[=dir]] input.jar[" +
+                File.pathSeparator + "input2.jar|dir...] output.jar " +
+                "[excluded-class @excluded-classes-file ...]");
+
+        System.out.println("Inputs:\n" +
+                "One or more jars or directories of class files, separated like a class path.\n" +
+                "They are merged into one output jar. When a class is in several inputs,\n" +
+                "the first one wins.\n\n");
 
         System.out.println("Options:\n" +
                 " --h | --help    : print this usage.\n" +
                 " --v | --verbose : verbose mode.\n" +
-                " --s | --source  : dump source equivalent to modified byte code.\n\n");
+                " --s | --source  : dump source equivalent to modified byte code.\n" +
+                " --j=N | --jobs=N : stub classes on N threads. Default is one per CPU.\n" +
+                " --i[=dir] | --incremental[=dir] : reuse the stubs of unchanged classes from\n" +
+                "                   a cache in dir. Default dir is <output_jar_path>_cache.\n\n");
 
         System.out.println("Include syntax:\n" +
                 "+com.package.* : whole package, with glob\n" +
@@ -278,35 +364,56 @@ public class Main {
     /**
      * Performs the main workflow of this app:
      * <ul>
-     * <li> Read the input Jar to get all its classes.
+     * <li> In incremental mode, stop right away if nothing changed since the last run.
+     * <li> Read the directory of all the input Jars, in parallel, to get all their classes.
      * <li> Filter out all classes that should not be included or that should be excluded.
-     * <li> Goes thru the classes, filters methods/fields and generate their source
-     *      in a directory called "&lt;outpath_jar_path&gt;_sources"
-     * <li> Does the same filtering on the classes but this time generates the real stubbed
-     *      output jar.
+     * <li> Goes thru the classes on several threads, filters methods/fields and generates
+     *      the real stubbed output jar. If asked, the same pass also generates their source
+     *      in a directory called "&lt;outpath_jar_path&gt;_sources". In incremental mode,
+     *      the stubs and source of classes that didn't change come from a cache.
      * </ul>
      */
     private void process(Params p) throws IOException {
-        AsmAnalyzer aa = new AsmAnalyzer();
-        Map<String, ClassReader> classes = aa.parseInputJar(p.getInputJarPath());
-
         Logger log = new Logger(p.isVerbose());
+        List<File> inputs = p.getInputs();
+        File dst_jar = new File(p.getOutputJarPath());
+        File dst_src_dir = new File(p.getOutputJarPath() + "_sources");
+
+        StubCache cache = null;
+        if (p.isIncremental()) {
+            String cacheDirPath = p.getCacheDirPath();
+            if (cacheDirPath == null) {
+                cacheDirPath = p.getOutputJarPath() + "_cache";
+            }
+            cache = new StubCache(new File(cacheDirPath));
+            if (cache.isUpToDate(inputs, p.getFilter(), p.isDumpSource(), dst_jar)
+                    && (!p.isDumpSource() || dst_src_dir.isDirectory())) {
+                log.info("Up to date: %s", dst_jar.getPath());
+                return;
+            }
+        }
+
+        AsmAnalyzer aa = new AsmAnalyzer();
+        Map<String, InputClass> classes = aa.parseInputs(inputs, p.getThreads(), log);
         log.info("Classes loaded: %d", classes.size());
 
         aa.filter(classes, p.getFilter(), log);
         log.info("Classes filtered: %d", classes.size());
 
+        StubGenerator stub_gen = new StubGenerator(log, p.getThreads());
+        stub_gen.setCache(cache);
+
         // dump as Java source files, mostly for debugging
         if (p.isDumpSource()) {
-            SourceGenerator src_gen = new SourceGenerator(log);
-            File dst_src_dir = new File(p.getOutputJarPath() + "_sources");
             dst_src_dir.mkdir();
-            src_gen.generateSource(dst_src_dir, classes, p.getFilter());
+            stub_gen.setSourceGenerator(new SourceGenerator(log), dst_src_dir);
         }
 
         // dump the stubbed jar
-        StubGenerator stub_gen = new StubGenerator(log);
-        File dst_jar = new File(p.getOutputJarPath());
         stub_gen.generateStubbedJar(dst_jar, classes, p.getFilter());
+
+        if (cache != null) {
+            cache.finishRun(inputs, p.getFilter(), p.isDumpSource(), dst_jar);
+        }
     }
 }
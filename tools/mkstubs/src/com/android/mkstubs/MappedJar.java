@@ -0,0 +1,270 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mkstubs;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * A Jar (or zip) file that is memory mapped and read directly, without going through
+ * {@link java.util.zip.ZipFile}.
+ * <p/>
+ * The central directory is parsed from the mapping when the Jar is opened, and entries
+ * are read from the mapping on demand. Zip64 Jars are supported. The mapping doesn't need
+ * to be closed, and entries can be read from several threads at once.
+ */
+class MappedJar {
+    private static final int LOCAL_HEADER_SIG = 0x04034b50;
+    private static final int CENTRAL_HEADER_SIG = 0x02014b50;
+    private static final int END_SIG = 0x06054b50;
+    private static final int ZIP64_END_SIG = 0x06064b50;
+    private static final int ZIP64_LOCATOR_SIG = 0x07064b50;
+    private static final int ZIP64_EXTRA_ID = 0x0001;
+
+    private static final int LOCAL_HEADER_SIZE = 30;
+    private static final int CENTRAL_HEADER_SIZE = 46;
+    private static final int END_SIZE = 22;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int MAX_COMMENT_SIZE = 0xFFFF;
+
+    private static final int METHOD_STORED = 0;
+    private static final int METHOD_DEFLATED = 8;
+
+    /** One entry of the central directory. */
+    static class Entry {
+        private final String mName;
+        private final int mMethod;
+        private final long mCompressedSize;
+        private final long mSize;
+        private final long mLocalHeaderOffset;
+
+        Entry(String name, int method, long compressedSize, long size,
+                long localHeaderOffset) {
+            mName = name;
+            mMethod = method;
+            mCompressedSize = compressedSize;
+            mSize = size;
+            mLocalHeaderOffset = localHeaderOffset;
+        }
+
+        /** Returns the path of the entry in the Jar, e.g. android/view/View.class. */
+        public String getName() {
+            return mName;
+        }
+
+        /** Returns true if this entry is a directory. */
+        public boolean isDirectory() {
+            return mName.endsWith("/");
+        }
+    }
+
+    private final File mFile;
+    private final ByteBuffer mBuffer;
+    private final ArrayList<Entry> mEntries = new ArrayList<>();
+
+    /**
+     * Maps the Jar and reads its central directory.
+     * @throws IOException if the file can't be read or is not a valid Jar.
+     */
+    public MappedJar(File file) throws IOException {
+        mFile = file;
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            FileChannel channel = raf.getChannel();
+            long size = channel.size();
+            if (size > Integer.MAX_VALUE) {
+                throw new IOException("Jar is too big to map: " + file.getPath());
+            }
+            mBuffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        readCentralDirectory();
+    }
+
+    /** Returns the file that was mapped. */
+    public File getFile() {
+        return mFile;
+    }
+
+    /** Returns all the entries, in central directory order. */
+    public List<Entry> getEntries() {
+        return mEntries;
+    }
+
+    /**
+     * Reads and uncompresses the data of one entry.
+     * @throws IOException if the entry is corrupt or uses an unsupported compression.
+     */
+    public byte[] read(Entry entry) throws IOException {
+        int offset = checkOffset(entry.mLocalHeaderOffset, LOCAL_HEADER_SIZE);
+        if (mBuffer.getInt(offset) != LOCAL_HEADER_SIG) {
+            throw corrupt("bad local header for " + entry.mName);
+        }
+        long dataOffset = (long) offset + LOCAL_HEADER_SIZE
+                + getUnsignedShort(offset + 26) + getUnsignedShort(offset + 28);
+        int compressedSize = checkSize(entry.mCompressedSize, entry);
+        int size = checkSize(entry.mSize, entry);
+        ByteBuffer data = mBuffer.slice(checkOffset(dataOffset, compressedSize),
+                compressedSize);
+
+        byte[] result = new byte[size];
+        if (entry.mMethod == METHOD_STORED) {
+            data.get(result);
+        } else if (entry.mMethod == METHOD_DEFLATED) {
+            Inflater inflater = new Inflater(true /*nowrap*/);
+            try {
+                inflater.setInput(data);
+                int n = 0;
+                while (n < size && !inflater.finished()) {
+                    int count = inflater.inflate(result, n, size - n);
+                    if (count == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    n += count;
+                }
+                if (n != size) {
+                    throw corrupt("bad compressed data for " + entry.mName);
+                }
+            } catch (DataFormatException e) {
+                throw corrupt("bad compressed data for " + entry.mName);
+            } finally {
+                inflater.end();
+            }
+        } else {
+            throw new IOException("Unsupported compression method " + entry.mMethod
+                    + " for " + entry.mName + " in " + mFile.getPath());
+        }
+        return result;
+    }
+
+    /**
+     * Finds the end of central directory record, and the Zip64 one if there is one, and
+     * reads all the central directory entries.
+     */
+    private void readCentralDirectory() throws IOException {
+        int limit = mBuffer.limit();
+        int end = -1;
+        for (int pos = limit - END_SIZE;
+                pos >= 0 && pos >= limit - END_SIZE - MAX_COMMENT_SIZE; pos--) {
+            if (mBuffer.getInt(pos) == END_SIG) {
+                end = pos;
+                break;
+            }
+        }
+        if (end < 0) {
+            throw corrupt("no end of central directory");
+        }
+
+        long count = getUnsignedShort(end + 10);
+        long offset = getUnsignedInt(end + 16);
+        if (count == 0xFFFF || offset == 0xFFFFFFFFL) {
+            int locator = end - ZIP64_LOCATOR_SIZE;
+            if (locator < 0 || mBuffer.getInt(locator) != ZIP64_LOCATOR_SIG) {
+                throw corrupt("no zip64 end of central directory locator");
+            }
+            int end64 = checkOffset(mBuffer.getLong(locator + 8), 56);
+            if (mBuffer.getInt(end64) != ZIP64_END_SIG) {
+                throw corrupt("bad zip64 end of central directory");
+            }
+            count = mBuffer.getLong(end64 + 32);
+            offset = mBuffer.getLong(end64 + 48);
+        }
+
+        int pos = checkOffset(offset, 0);
+        for (long i = 0; i < count; i++) {
+            checkOffset(pos, CENTRAL_HEADER_SIZE);
+            if (mBuffer.getInt(pos) != CENTRAL_HEADER_SIG) {
+                throw corrupt("bad central directory header");
+            }
+            int method = getUnsignedShort(pos + 10);
+            long compressedSize = getUnsignedInt(pos + 20);
+            long size = getUnsignedInt(pos + 24);
+            int nameLength = getUnsignedShort(pos + 28);
+            int extraLength = getUnsignedShort(pos + 30);
+            int commentLength = getUnsignedShort(pos + 32);
+            long localHeaderOffset = getUnsignedInt(pos + 42);
+
+            int namePos = checkOffset(pos + CENTRAL_HEADER_SIZE,
+                    nameLength + extraLength + commentLength);
+            byte[] nameBytes = new byte[nameLength];
+            mBuffer.get(namePos, nameBytes);
+            String name = new String(nameBytes, StandardCharsets.UTF_8);
+
+            // Values that don't fit are in the zip64 extra field, in this order.
+            int extra = namePos + nameLength;
+            int extraEnd = extra + extraLength;
+            while (extra + 4 <= extraEnd) {
+                int id = getUnsignedShort(extra);
+                int length = getUnsignedShort(extra + 2);
+                if (id == ZIP64_EXTRA_ID) {
+                    int field = extra + 4;
+                    if (size == 0xFFFFFFFFL) {
+                        size = mBuffer.getLong(field);
+                        field += 8;
+                    }
+                    if (compressedSize == 0xFFFFFFFFL) {
+                        compressedSize = mBuffer.getLong(field);
+                        field += 8;
+                    }
+                    if (localHeaderOffset == 0xFFFFFFFFL) {
+                        localHeaderOffset = mBuffer.getLong(field);
+                    }
+                    break;
+                }
+                extra += 4 + length;
+            }
+
+            mEntries.add(new Entry(name, method, compressedSize, size, localHeaderOffset));
+            pos = extraEnd + commentLength;
+        }
+    }
+
+    private int getUnsignedShort(int pos) {
+        return mBuffer.getShort(pos) & 0xFFFF;
+    }
+
+    private long getUnsignedInt(int pos) {
+        return mBuffer.getInt(pos) & 0xFFFFFFFFL;
+    }
+
+    /** Checks that length bytes at offset are inside the Jar, and returns the offset. */
+    private int checkOffset(long offset, int length) throws IOException {
+        if (offset < 0 || offset + length > mBuffer.limit()) {
+            throw corrupt("offset out of range");
+        }
+        return (int) offset;
+    }
+
+    private int checkSize(long size, Entry entry) throws IOException {
+        if (size < 0 || size > Integer.MAX_VALUE) {
+            throw corrupt("bad size for " + entry.mName);
+        }
+        return (int) size;
+    }
+
+    private IOException corrupt(String what) {
+        return new IOException("Invalid jar " + mFile.getPath() + ": " + what);
+    }
+}
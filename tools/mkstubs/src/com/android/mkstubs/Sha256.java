@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mkstubs;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * SHA-256 digests written as hex strings, as used by the {@link StubCache} keys
+ * and the ABI fingerprints.
+ */
+public final class Sha256 {
+
+    private Sha256() {
+    }
+
+    /**
+     * Returns a new SHA-256 digest.
+     */
+    public static MessageDigest newDigest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            // Every Java platform is required to have SHA-256.
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Returns the bytes as lower case hex.
+     */
+    public static String toHex(byte[] bytes) {
+        return toHex(bytes, bytes.length);
+    }
+
+    /**
+     * Returns the first {@code length} bytes as lower case hex.
+     */
+    public static String toHex(byte[] bytes, int length) {
+        StringBuilder sb = new StringBuilder(length * 2);
+        for (int i = 0; i < length; i++) {
+            sb.append(Character.forDigit((bytes[i] >> 4) & 0x0F, 16));
+            sb.append(Character.forDigit(bytes[i] & 0x0F, 16));
+        }
+        return sb.toString();
+    }
+}
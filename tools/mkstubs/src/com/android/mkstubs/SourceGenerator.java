@@ -26,16 +26,15 @@ import org.objectweb.asm.ClassVisitor;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.io.StringWriter;
 import java.io.Writer;
-import java.util.Map;
-import java.util.Map.Entry;
 
 /**
  * Given a set of already filtered classes, this filters out all private members and then
  * generates the Java source for the remaining classes.
  * <p/>
  * This is an helper extracted for convenience. Callers just need to use
- * {@link #generateSource(File, Map, Filter)}.
+ * {@link #generateSource(File, ClassReader, Filter)}.
  */
 class SourceGenerator {
 
@@ -46,21 +45,38 @@ class SourceGenerator {
     }
 
     /**
-     * Generate source for the stubbed classes, mostly for debug purposes.
+     * Generate source for one stubbed class, mostly for debug purposes.
+     * <p/>
+     * This can be called from several threads at once for different classes.
      * @throws IOException
      */
     public void generateSource(File baseDir,
-            Map<String, ClassReader> classes,
+            ClassReader cr,
             Filter filter) throws IOException {
 
-        for (Entry<String, ClassReader> entry : classes.entrySet()) {
-            ClassReader cr = entry.getValue();
+        String name = classNameToJavaPath(cr.getClassName());
 
-            String name = classNameToJavaPath(cr.getClassName());
+        try (FileWriter fw = createWriter(baseDir, name)) {
+            visitClassSource(fw, cr, filter);
+        }
+    }
 
-            try (FileWriter fw = createWriter(baseDir, name)) {
-                visitClassSource(fw, cr, filter);
-            }
+    /**
+     * Generate source for one stubbed class and return it, instead of writing it.
+     */
+    String generateSourceText(ClassReader cr, Filter filter) {
+        StringWriter sw = new StringWriter();
+        visitClassSource(sw, cr, filter);
+        return sw.toString();
+    }
+
+    /**
+     * Writes source for one class, as returned by {@link #generateSourceText}.
+     * @throws IOException
+     */
+    void writeSource(File baseDir, String className, String source) throws IOException {
+        try (FileWriter fw = createWriter(baseDir, classNameToJavaPath(className))) {
+            fw.write(source);
         }
     }
 
@@ -0,0 +1,323 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mkstubs;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An on-disk cache of generated stubs, so that running MkStubs again on a Jar where only a
+ * few classes changed only needs to stub those classes.
+ * <p/>
+ * Entries are addressed by a hash of the input class bytes. Since the stub also depends on
+ * the filter, each entry records every name the filter was asked about while stubbing the
+ * class, and the answer. The entry is only used if the current filter gives the same
+ * answers for all of them, so editing the filter only invalidates the classes it affects.
+ * <p/>
+ * The cache also remembers the input, filter and output of the last complete run, so that
+ * a run where nothing changed at all can stop right away.
+ * <p/>
+ * All the methods except {@link #isUpToDate} and {@link #finishRun} can be called from
+ * several threads at once.
+ */
+class StubCache {
+
+    private static final int ENTRY_VERSION = 2;
+    private static final int RUN_VERSION = 1;
+    private static final String RUN_FILE = "last-run";
+
+    /** A cached stub, and the source generated for it if there was any. */
+    static class Entry {
+        public final StubGenerator.Stub stub;
+        public final String source;
+
+        public Entry(StubGenerator.Stub stub, String source) {
+            this.stub = stub;
+            this.source = source;
+        }
+    }
+
+    /**
+     * A filter that answers like another one, and remembers what it was asked.
+     * It must only be used by one thread.
+     */
+    static class RecordingFilter extends Filter {
+        private final Filter mFilter;
+        private final ArrayList<String> mNames = new ArrayList<>();
+        private final ArrayList<Boolean> mResults = new ArrayList<>();
+
+        public RecordingFilter(Filter filter) {
+            mFilter = filter;
+        }
+
+        @Override
+        public boolean accept(String s) {
+            boolean result = mFilter.accept(s);
+            mNames.add(s);
+            mResults.add(result);
+            return result;
+        }
+
+        @Override
+        public MemberFilter forMembers(final String className) {
+            final MemberFilter members = mFilter.forMembers(className);
+            return new MemberFilter() {
+                @Override
+                public boolean accept(String member) {
+                    boolean result = members.accept(member);
+                    mNames.add(className + '#' + member);
+                    mResults.add(result);
+                    return result;
+                }
+            };
+        }
+    }
+
+    private final File mDir;
+    private final Set<String> mUsedKeys = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger mHits = new AtomicInteger();
+    private final AtomicInteger mMisses = new AtomicInteger();
+
+    public StubCache(File dir) {
+        mDir = dir;
+    }
+
+    /** Returns the number of classes found in the cache so far. */
+    public int getHitCount() {
+        return mHits.get();
+    }
+
+    /** Returns the number of classes that had to be stubbed so far. */
+    public int getMissCount() {
+        return mMisses.get();
+    }
+
+    /** Returns the key of the cache entry for the given class bytes. */
+    public String getKey(byte[] classBytes) {
+        return Sha256.toHex(Sha256.newDigest().digest(classBytes));
+    }
+
+    /**
+     * Returns the cached stub for the class with the given key, or null if there isn't one
+     * that was made with the same filter answers, or it doesn't have the source and
+     * needSource is true. Any problem reading the entry is treated as a miss.
+     */
+    public Entry get(String key, Filter filter, boolean needSource) {
+        mUsedKeys.add(key);
+        File file = getEntryFile(key);
+        if (file.isFile()) {
+            try (DataInputStream in = new DataInputStream(
+                    new BufferedInputStream(new FileInputStream(file)))) {
+                Entry entry = readEntry(in, filter, needSource);
+                if (entry != null) {
+                    mHits.incrementAndGet();
+                    return entry;
+                }
+            } catch (IOException e) {
+                // Treat a broken entry as a miss; it will be written again.
+            }
+        }
+        mMisses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores the stub made for the class with the given key, with the filter that recorded
+     * the questions asked while making it. The source can be null.
+     */
+    public void put(String key, RecordingFilter filter, StubGenerator.Stub stub,
+            String source)
+            throws IOException {
+        File file = getEntryFile(key);
+        file.getParentFile().mkdirs();
+
+        // Write to a temp file and rename it, so a reader never sees half an entry.
+        File tmp = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(ENTRY_VERSION);
+            int n = filter.mNames.size();
+            out.writeInt(n);
+            for (int i = 0; i < n; i++) {
+                out.writeUTF(filter.mNames.get(i));
+                out.writeBoolean(filter.mResults.get(i));
+            }
+            out.writeInt(stub.bytes.length);
+            out.write(stub.bytes);
+            out.writeUTF(stub.fingerprint);
+            out.writeBoolean(source != null);
+            if (source != null) {
+                byte[] b = source.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(b.length);
+                out.write(b);
+            }
+        }
+        if (!tmp.renameTo(file)) {
+            tmp.delete();
+            throw new IOException("Can't write stub cache entry: " + file.getPath());
+        }
+    }
+
+    /**
+     * Returns true if the last complete run had the same input Jar, filter and options,
+     * and the output it wrote is still there unchanged.
+     */
+    public boolean isUpToDate(List<File> inputs, Filter filter, boolean dumpSource,
+            File outputJar) {
+        File file = new File(mDir, RUN_FILE);
+        if (!file.isFile() || !outputJar.isFile()) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(file)))) {
+            return in.readInt() == RUN_VERSION
+                    && in.readUTF().equals(getRunKey(inputs, filter, dumpSource))
+                    && in.readUTF().equals(outputJar.getCanonicalPath())
+                    && in.readLong() == outputJar.length()
+                    && in.readLong() == outputJar.lastModified();
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Records a complete run, for {@link #isUpToDate}, and deletes the entries that weren't
+     * used by it, so the cache doesn't keep growing.
+     */
+    public void finishRun(List<File> inputs, Filter filter, boolean dumpSource, File outputJar)
+            throws IOException {
+        mDir.mkdirs();
+        File[] dirs = mDir.listFiles();
+        if (dirs != null) {
+            for (File dir : dirs) {
+                File[] files = dir.isDirectory() ? dir.listFiles() : null;
+                if (files == null) {
+                    continue;
+                }
+                for (File f : files) {
+                    if (!mUsedKeys.contains(dir.getName() + f.getName())) {
+                        f.delete();
+                    }
+                }
+            }
+        }
+
+        try (DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(new File(mDir, RUN_FILE))))) {
+            out.writeInt(RUN_VERSION);
+            out.writeUTF(getRunKey(inputs, filter, dumpSource));
+            out.writeUTF(outputJar.getCanonicalPath());
+            out.writeLong(outputJar.length());
+            out.writeLong(outputJar.lastModified());
+        }
+    }
+
+    /**
+     * Reads an entry, checking that the filter still gives the same answers.
+     */
+    private static Entry readEntry(DataInputStream in, Filter filter, boolean needSource)
+            throws IOException {
+        if (in.readInt() != ENTRY_VERSION) {
+            return null;
+        }
+        int n = in.readInt();
+        for (int i = 0; i < n; i++) {
+            String name = in.readUTF();
+            if (in.readBoolean() != filter.accept(name)) {
+                return null;
+            }
+        }
+        byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        StubGenerator.Stub stub = new StubGenerator.Stub(bytes, in.readUTF());
+        String source = null;
+        if (in.readBoolean()) {
+            byte[] b = new byte[in.readInt()];
+            in.readFully(b);
+            source = new String(b, StandardCharsets.UTF_8);
+        } else if (needSource) {
+            return null;
+        }
+        return new Entry(stub, source);
+    }
+
+    /**
+     * The entries are spread over 256 directories named by the first two hex digits.
+     */
+    private File getEntryFile(String key) {
+        return new File(new File(mDir, key.substring(0, 2)), key.substring(2));
+    }
+
+    /**
+     * Makes a key for everything a run depends on: the inputs, all the filter patterns
+     * and the options. Input Jars are identified by their path, size and time, and
+     * directories by those of all the files in them.
+     */
+    private static String getRunKey(List<File> inputs, Filter filter, boolean dumpSource)
+            throws IOException {
+        MessageDigest md = Sha256.newDigest();
+        StringBuilder sb = new StringBuilder();
+        for (File input : inputs) {
+            appendFiles(sb, input);
+        }
+        sb.append(dumpSource).append('\n');
+        appendPatterns(sb, "+", filter.getIncludeFull(), "");
+        appendPatterns(sb, "+", filter.getIncludePrefix(), "*");
+        appendPatterns(sb, "-", filter.getExcludeFull(), "");
+        appendPatterns(sb, "-", filter.getExcludePrefix(), "*");
+        return Sha256.toHex(md.digest(sb.toString().getBytes(StandardCharsets.UTF_8)));
+    }
+
+    private static void appendFiles(StringBuilder sb, File file) throws IOException {
+        if (file.isDirectory()) {
+            File[] files = file.listFiles();
+            if (files == null) {
+                throw new IOException("Can't list directory: " + file.getPath());
+            }
+            Arrays.sort(files);
+            for (File f : files) {
+                appendFiles(sb, f);
+            }
+        } else {
+            sb.append(file.getCanonicalPath()).append('\n');
+            sb.append(file.length()).append('\n');
+            sb.append(file.lastModified()).append('\n');
+        }
+    }
+
+    private static void appendPatterns(StringBuilder sb, String mode, TreeSet<String> patterns,
+            String suffix) {
+        for (String s : patterns) {
+            sb.append(mode).append(s).append(suffix).append('\n');
+        }
+    }
+}
@@ -16,7 +16,10 @@
 
 package com.android.mkstubs;
 
+import com.android.mkstubs.AsmAnalyzer.InputClass;
 import com.android.mkstubs.Main.Logger;
+import com.android.mkstubs.StubCache.RecordingFilter;
+import com.android.mkstubs.stubber.AbiFingerprinter;
 import com.android.mkstubs.stubber.ClassStubber;
 
 import org.objectweb.asm.ClassReader;
@@ -26,9 +29,22 @@ import org.objectweb.asm.ClassWriter;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.time.LocalDateTime;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Map;
-import java.util.Map.Entry;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
 
@@ -36,38 +52,141 @@ import java.util.jar.JarOutputStream;
  * Given a set of already filtered classes, this filters out all private members,
  * stubs the remaining classes and then generates a Jar out of them.
  * <p/>
+ * The classes are read and stubbed on a pool of worker threads, while the calling thread
+ * writes the stubs to the Jar in entry path order. Only a few classes per worker thread
+ * are read or stubbed ahead of the one being written, so the memory used doesn't grow
+ * with the size of the input Jar.
+ * <p/>
+ * The same pass also computes the ABI fingerprint of each class, and the Jar ends with
+ * a manifest of the class and package fingerprints. See {@link AbiFingerprinter}.
+ * <p/>
+ * All the entries get the same fixed time, so that the same input always gives exactly the
+ * same Jar.
+ * <p/>
  * This is an helper extracted for convenience. Callers just need to use
  * {@link #generateStubbedJar(File, Map, Filter)}.
  */
 class StubGenerator {
 
+    /** How many classes each worker thread can be ahead of the Jar writer. */
+    private static final int AHEAD_PER_THREAD = 4;
+
+    /** The time of all the Jar entries. */
+    private static final LocalDateTime ENTRY_TIME = LocalDateTime.of(2009, 1, 1, 0, 0);
+
+    /** A stubbed class, and the fingerprint of its ABI. */
+    static class Stub {
+        public final byte[] bytes;
+        public final String fingerprint;
+
+        public Stub(byte[] bytes, String fingerprint) {
+            this.bytes = bytes;
+            this.fingerprint = fingerprint;
+        }
+    }
+
     private Logger mLog;
+    private final int mThreads;
+    private SourceGenerator mSourceGen;
+    private File mSourceDir;
+    private StubCache mCache;
 
     public StubGenerator(Logger log) {
+        this(log, 1);
+    }
+
+    public StubGenerator(Logger log, int threads) {
         mLog = log;
+        mThreads = threads;
     }
 
     /**
-     * Generate source for the stubbed classes, mostly for debug purposes.
+     * Also generates the source of each class with the given generator, in the same pass.
+     */
+    public void setSourceGenerator(SourceGenerator sourceGen, File baseDir) {
+        mSourceGen = sourceGen;
+        mSourceDir = baseDir;
+    }
+
+    /**
+     * Uses the given cache to avoid stubbing classes that haven't changed.
+     */
+    public void setCache(StubCache cache) {
+        mCache = cache;
+    }
+
+    /**
+     * Generate the stubbed Jar.
      * @throws IOException
      */
     public void generateStubbedJar(File destJar,
-            Map<String, ClassReader> classes,
+            Map<String, InputClass> classes,
             Filter filter) throws IOException {
 
-        TreeMap<String, byte[]> all = new TreeMap<>();
+        // The output is sorted on the entry path, which is not quite the order of the
+        // class names, e.g. "Foo$1.class" comes before "Foo.class".
+        ArrayList<InputClass> sorted = new ArrayList<>(classes.values());
+        Collections.sort(sorted, new Comparator<InputClass>() {
+            @Override
+            public int compare(InputClass a, InputClass b) {
+                return a.getEntryPath().compareTo(b.getEntryPath());
+            }
+        });
 
-        for (Entry<String, ClassReader> entry : classes.entrySet()) {
-            ClassReader cr = entry.getValue();
+        // Written next to the destination and moved into place once complete, so that
+        // a failed run doesn't leave a truncated Jar that looks like a good one.
+        File tmpJar = File.createTempFile(destJar.getName(), ".tmp",
+                destJar.getAbsoluteFile().getParentFile());
+        boolean done = false;
+        ExecutorService pool = Executors.newFixedThreadPool(mThreads);
+        try {
+            writeStubbedJar(tmpJar, sorted, filter, pool);
+            Files.move(tmpJar.toPath(), destJar.toPath(),
+                    StandardCopyOption.REPLACE_EXISTING);
+            done = true;
+        } finally {
+            pool.shutdownNow();
+            if (!done) {
+                tmpJar.delete();
+            }
+        }
 
-            byte[] b = visitClassStubber(cr, filter);
-            String name = classNameToEntryPath(cr.getClassName());
-            all.put(name, b);
+        mLog.debug("Wrote %s", destJar.getPath());
+        if (mCache != null) {
+            mLog.info("Stub cache: %d hits, %d misses",
+                    mCache.getHitCount(), mCache.getMissCount());
         }
+    }
 
-        createJar(new FileOutputStream(destJar), all);
+    /**
+     * Stubs the sorted classes on the pool and writes them, then the manifest, to the
+     * given Jar.
+     */
+    private void writeStubbedJar(File destJar, ArrayList<InputClass> sorted, Filter filter,
+            ExecutorService pool) throws IOException {
+        try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(destJar))) {
+            // The stubs still being made, in the order they have to be written.
+            ArrayDeque<Future<Stub>> pending = new ArrayDeque<>();
+            TreeMap<String, String> fingerprints = new TreeMap<>();
+            int maxPending = mThreads * AHEAD_PER_THREAD;
+            int next = 0;
+            int n = sorted.size();
+            for (int i = 0; i < n; i++) {
+                while (next < n && next - i < maxPending) {
+                    pending.add(pool.submit(createStubTask(sorted.get(next), filter)));
+                    next++;
+                }
 
-        mLog.debug("Wrote %s", destJar.getPath());
+                Stub stub = waitFor(pending.remove());
+                String className = sorted.get(i).getClassName();
+                writeEntry(jar, classNameToEntryPath(className), stub.bytes);
+                fingerprints.put(className, stub.fingerprint);
+            }
+
+            String manifest = AbiFingerprinter.createManifest(fingerprints);
+            writeEntry(jar, AbiFingerprinter.MANIFEST_PATH,
+                    manifest.getBytes(StandardCharsets.UTF_8));
+        }
     }
 
     /**
@@ -78,27 +197,79 @@ class StubGenerator {
         return className.replaceAll("\\.", "/").concat(".class");
     }
 
+    private static void writeEntry(JarOutputStream jar, String name, byte[] bytes)
+            throws IOException {
+        JarEntry entry = new JarEntry(name);
+        entry.setTimeLocal(ENTRY_TIME);
+        jar.putNextEntry(entry);
+        jar.write(bytes);
+        jar.closeEntry();
+    }
+
+    /**
+     * Creates the task that reads one class and returns its stub. If there is a source
+     * generator, the task also writes the source of the class. If there is a cache, the
+     * stub and source come from it when possible, and are added to it otherwise.
+     */
+    private Callable<Stub> createStubTask(final InputClass ic, final Filter filter) {
+        return new Callable<Stub>() {
+            @Override
+            public Stub call() throws IOException {
+                byte[] bytes = ic.read();
+                if (mCache == null) {
+                    ClassReader cr = new ClassReader(bytes);
+                    if (mSourceGen != null) {
+                        mSourceGen.generateSource(mSourceDir, cr, filter);
+                    }
+                    return visitClassStubber(cr, filter);
+                }
+
+                String key = mCache.getKey(bytes);
+                StubCache.Entry cached = mCache.get(key, filter, mSourceGen != null);
+                if (cached != null) {
+                    if (mSourceGen != null) {
+                        mSourceGen.writeSource(mSourceDir, ic.getClassName(), cached.source);
+                    }
+                    return cached.stub;
+                }
+
+                ClassReader cr = new ClassReader(bytes);
+                String source = null;
+                if (mSourceGen != null) {
+                    source = mSourceGen.generateSourceText(cr, filter);
+                    mSourceGen.writeSource(mSourceDir, cr.getClassName(), source);
+                }
+                RecordingFilter recorder = new RecordingFilter(filter);
+                Stub stub = visitClassStubber(cr, recorder);
+                mCache.put(key, recorder, stub, source);
+                return stub;
+            }
+        };
+    }
+
     /**
-     * Writes the JAR file.
-     *
-     * @param outStream The file output stream were to write the JAR.
-     * @param all The map of all classes to output.
-     * @throws IOException if an I/O error has occurred
+     * Waits for a task, passing on whatever it threw.
      */
-    void createJar(FileOutputStream outStream, Map<String,byte[]> all) throws IOException {
-        JarOutputStream jar = new JarOutputStream(outStream);
-        for (Entry<String, byte[]> entry : all.entrySet()) {
-            String name = entry.getKey();
-            JarEntry jar_entry = new JarEntry(name);
-            jar.putNextEntry(jar_entry);
-            jar.write(entry.getValue());
-            jar.closeEntry();
+    static <T> T waitFor(Future<T> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException(cause);
         }
-        jar.flush();
-        jar.close();
     }
 
-    byte[] visitClassStubber(ClassReader cr, Filter filter) {
+    Stub visitClassStubber(ClassReader cr, Filter filter) {
         mLog.debug("Stub " + cr.getClassName());
 
         // Rewrite the new class from scratch, without reusing the constant pool from the
@@ -106,8 +277,9 @@ class StubGenerator {
         ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
 
         ClassVisitor stubWriter = new ClassStubber(cw);
-        ClassVisitor classFilter = new FilterClassAdapter(stubWriter, filter, mLog);
+        AbiFingerprinter fingerprinter = new AbiFingerprinter(stubWriter);
+        ClassVisitor classFilter = new FilterClassAdapter(fingerprinter, filter, mLog);
         cr.accept(classFilter, 0 /*flags*/);
-        return cw.toByteArray();
+        return new Stub(cw.toByteArray(), fingerprinter.getFingerprint());
     }
 }
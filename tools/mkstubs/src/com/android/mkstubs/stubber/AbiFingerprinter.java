@@ -0,0 +1,276 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mkstubs.stubber;
+
+import com.android.mkstubs.Main;
+import com.android.mkstubs.Sha256;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.lang.reflect.Array;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Map.Entry;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * A class visitor that computes a fingerprint of the ABI of the visited class, and
+ * passes everything on as-is.
+ * <p/>
+ * It is meant to sit right after the filter, so that only the members that end up in the
+ * stub are part of the fingerprint. The fingerprint covers the class header, the fields
+ * with their constant values, the method signatures, the inner classes and all the
+ * annotations, with their access flags. Method bodies and debug information are not part
+ * of it, and neither is the order of the members, so a change that only touches the
+ * implementation keeps the same fingerprint.
+ * <p/>
+ * {@link #createManifest(SortedMap)} makes the text manifest of the fingerprints of all the
+ * classes and packages of a Jar.
+ */
+public class AbiFingerprinter extends ClassVisitor {
+
+    /** The path of the fingerprint manifest in the output Jar. */
+    public static final String MANIFEST_PATH = "META-INF/ABI-FINGERPRINTS";
+
+    /** Number of bytes of the hash kept in a fingerprint. */
+    private static final int FINGERPRINT_BYTES = 16;
+
+    private final ArrayList<String> mLines = new ArrayList<>();
+    private String mFingerprint;
+
+    public AbiFingerprinter(ClassVisitor cv) {
+        super(Main.ASM_VERSION, cv);
+    }
+
+    /**
+     * Returns the fingerprint of the class, as hex digits. Only valid once the whole class
+     * has been visited.
+     */
+    public String getFingerprint() {
+        return mFingerprint;
+    }
+
+    @Override
+    public void visit(int version, int access, String name, String signature,
+            String superName, String[] interfaces) {
+        // ACC_SUPER only depends on the compiler.
+        mLines.add("class " + (access & ~Opcodes.ACC_SUPER) + " " + name + " " + signature
+                + " " + superName + " " + join(interfaces));
+        super.visit(version, access, name, signature, superName, interfaces);
+    }
+
+    @Override
+    public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+        return new AnnotationRecorder(super.visitAnnotation(desc, visible),
+                "annotation " + desc + " " + visible);
+    }
+
+    @Override
+    public FieldVisitor visitField(int access, String name, String desc, String signature,
+            Object value) {
+        final String field = name + ":" + desc;
+        mLines.add("field " + access + " " + field + " " + signature + " "
+                + valueToString(value));
+        FieldVisitor fv = super.visitField(access, name, desc, signature, value);
+        return new FieldVisitor(Main.ASM_VERSION, fv) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                return new AnnotationRecorder(super.visitAnnotation(desc, visible),
+                        "field-annotation " + field + " " + desc + " " + visible);
+            }
+        };
+    }
+
+    @Override
+    public MethodVisitor visitMethod(int access, String name, String desc, String signature,
+            String[] exceptions) {
+        final String method = name + desc;
+        mLines.add("method " + access + " " + method + " " + signature + " "
+                + join(exceptions));
+        MethodVisitor mv = super.visitMethod(access, name, desc, signature, exceptions);
+        return new MethodVisitor(Main.ASM_VERSION, mv) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String desc, boolean visible) {
+                return new AnnotationRecorder(super.visitAnnotation(desc, visible),
+                        "method-annotation " + method + " " + desc + " " + visible);
+            }
+
+            @Override
+            public AnnotationVisitor visitAnnotationDefault() {
+                return new AnnotationRecorder(super.visitAnnotationDefault(),
+                        "method-default " + method);
+            }
+
+            @Override
+            public AnnotationVisitor visitParameterAnnotation(int parameter, String desc,
+                    boolean visible) {
+                return new AnnotationRecorder(
+                        super.visitParameterAnnotation(parameter, desc, visible),
+                        "parameter-annotation " + method + " " + parameter + " " + desc + " "
+                        + visible);
+            }
+        };
+    }
+
+    @Override
+    public void visitInnerClass(String name, String outerName, String innerName, int access) {
+        mLines.add("inner " + access + " " + name + " " + outerName + " " + innerName);
+        super.visitInnerClass(name, outerName, innerName, access);
+    }
+
+    @Override
+    public void visitEnd() {
+        Collections.sort(mLines);
+        MessageDigest md = Sha256.newDigest();
+        for (String line : mLines) {
+            md.update(line.getBytes(StandardCharsets.UTF_8));
+            md.update((byte) '\n');
+        }
+        mFingerprint = Sha256.toHex(md.digest(), FINGERPRINT_BYTES);
+        super.visitEnd();
+    }
+
+    /**
+     * Creates the text of the fingerprint manifest, from a map of class name => class
+     * fingerprint. There is one "name fingerprint" line per class and per package, sorted
+     * on the name. Package names end with a '/', and the fingerprint of a package is a hash
+     * of the lines of its classes (not including its sub-packages).
+     */
+    public static String createManifest(SortedMap<String, String> classFingerprints) {
+        TreeMap<String, MessageDigest> packages = new TreeMap<>();
+        for (Entry<String, String> entry : classFingerprints.entrySet()) {
+            String className = entry.getKey();
+            String packageName = className.substring(0, className.lastIndexOf('/') + 1);
+            MessageDigest md = packages.get(packageName);
+            if (md == null) {
+                md = Sha256.newDigest();
+                packages.put(packageName, md);
+            }
+            md.update((className + " " + entry.getValue() + "\n")
+                    .getBytes(StandardCharsets.UTF_8));
+        }
+
+        TreeMap<String, String> all = new TreeMap<>(classFingerprints);
+        for (Entry<String, MessageDigest> entry : packages.entrySet()) {
+            // The default package is written as "/".
+            String packageName = entry.getKey().isEmpty() ? "/" : entry.getKey();
+            all.put(packageName, Sha256.toHex(entry.getValue().digest(), FINGERPRINT_BYTES));
+        }
+
+        StringBuilder sb = new StringBuilder();
+        for (Entry<String, String> entry : all.entrySet()) {
+            sb.append(entry.getKey()).append(' ').append(entry.getValue()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    /**
+     * An annotation visitor that adds one line for the whole annotation, including
+     * its nested annotations and arrays, and passes everything on as-is.
+     */
+    private class AnnotationRecorder extends AnnotationVisitor {
+        private final StringBuilder mSb;
+        private final String mSuffix;
+
+        /** Creates the recorder for a top level annotation. */
+        AnnotationRecorder(AnnotationVisitor av, String prefix) {
+            this(av, new StringBuilder(prefix).append(" ("), null);
+        }
+
+        /** Creates the recorder for a nested annotation or array. */
+        private AnnotationRecorder(AnnotationVisitor av, StringBuilder sb, String suffix) {
+            super(Main.ASM_VERSION, av);
+            mSb = sb;
+            mSuffix = suffix;
+        }
+
+        @Override
+        public void visit(String name, Object value) {
+            mSb.append(name).append('=').append(valueToString(value)).append(',');
+            super.visit(name, value);
+        }
+
+        @Override
+        public void visitEnum(String name, String desc, String value) {
+            mSb.append(name).append('=').append(desc).append('.').append(value).append(',');
+            super.visitEnum(name, desc, value);
+        }
+
+        @Override
+        public AnnotationVisitor visitAnnotation(String name, String desc) {
+            mSb.append(name).append("=@").append(desc).append('(');
+            return new AnnotationRecorder(super.visitAnnotation(name, desc), mSb, "),");
+        }
+
+        @Override
+        public AnnotationVisitor visitArray(String name) {
+            mSb.append(name).append("=[");
+            return new AnnotationRecorder(super.visitArray(name), mSb, "],");
+        }
+
+        @Override
+        public void visitEnd() {
+            if (mSuffix != null) {
+                mSb.append(mSuffix);
+            } else {
+                mSb.append(')');
+                mLines.add(mSb.toString());
+            }
+            super.visitEnd();
+        }
+    }
+
+    /**
+     * Converts a constant value to a string that also says what type it is, e.g. "Integer:1"
+     * or "Ljava/lang/String;5:hello". Strings include their length so they can't be mistaken
+     * for the rest of the line.
+     */
+    private static String valueToString(Object value) {
+        if (value == null) {
+            return "null";
+        } else if (value instanceof String) {
+            String s = (String) value;
+            return "Ljava/lang/String;" + s.length() + ":" + s;
+        } else if (value.getClass().isArray()) {
+            StringBuilder sb = new StringBuilder("[");
+            int n = Array.getLength(value);
+            for (int i = 0; i < n; i++) {
+                sb.append(valueToString(Array.get(value, i))).append(',');
+            }
+            return sb.append(']').toString();
+        }
+        return value.getClass().getSimpleName() + ":" + value;
+    }
+
+    private static String join(String[] names) {
+        if (names == null) {
+            return "null";
+        }
+        StringBuilder sb = new StringBuilder();
+        for (String name : names) {
+            sb.append(name).append(',');
+        }
+        return sb.toString();
+    }
+}
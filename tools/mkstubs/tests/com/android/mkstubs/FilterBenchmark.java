@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mkstubs;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeSet;
+
+/**
+ * Times {@link Filter#accept(String)} with a large filter, against the linear
+ * scan over the patterns that it replaced, and checks that both give the same
+ * answer for every name.
+ * <p/>
+ * This is a program rather than a unit test, since its timings mean nothing on
+ * a loaded build machine. Run it with the mkstubs classes and this directory
+ * on the classpath:
+ * <pre>
+ * java com.android.mkstubs.FilterBenchmark [rules [names]]
+ * </pre>
+ * The names look like the "class" and "class#member" strings that MkStubs
+ * checks. The defaults are 10k rules over 280k names, which is about the size
+ * of a filter file for android.jar.
+ */
+public class FilterBenchmark {
+
+    private static final String[] PACKAGES = {
+        "android/", "android/app/", "android/content/", "android/os/", "android/view/",
+        "android/widget/", "com/android/internal/", "com/android/internal/util/",
+        "java/lang/", "java/util/", "java/util/concurrent/", "javax/net/",
+    };
+
+    private static final String[] DESCRIPTORS = {
+        "()V", "(I)V", "(Ljava/lang/String;)V", "()Ljava/lang/Object;", "(JZ)I",
+    };
+
+    public static void main(String[] args) {
+        int ruleCount = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+        int nameCount = args.length > 1 ? Integer.parseInt(args[1]) : 280000;
+
+        // A fixed seed, so that runs can be compared.
+        Random random = new Random(2026);
+        String[] names = makeNames(random, nameCount);
+        Filter filter = makeFilter(random, names, ruleCount);
+
+        // Check the answers first, which also compiles the trie and warms up the JIT.
+        int accepted = 0;
+        for (String name : names) {
+            boolean expected = linearAccept(filter, name);
+            if (filter.accept(name) != expected) {
+                System.err.println("Mismatch for " + name + ", expected " + expected);
+                System.exit(1);
+            }
+            if (expected) {
+                accepted++;
+            }
+        }
+        System.out.printf("%d rules, %d names, %d accepted%n", ruleCount, names.length,
+                accepted);
+
+        // The linear scan is slow enough that a slice of the names is plenty.
+        int linearCount = Math.min(names.length, 20000);
+        for (int run = 0; run < 3; run++) {
+            long start = System.nanoTime();
+            int count = 0;
+            for (int i = 0; i < linearCount; i++) {
+                count += linearAccept(filter, names[i]) ? 1 : 0;
+            }
+            long linearNs = System.nanoTime() - start;
+
+            start = System.nanoTime();
+            for (String name : names) {
+                count += filter.accept(name) ? 1 : 0;
+            }
+            long trieNs = System.nanoTime() - start;
+
+            System.out.printf("linear %.0f ns/check, trie %.0f ns/check (%d)%n",
+                    (double) linearNs / linearCount, (double) trieNs / names.length, count);
+        }
+    }
+
+    /**
+     * Makes class names, each followed by a few of its fields and methods.
+     */
+    private static String[] makeNames(Random random, int count) {
+        ArrayList<String> names = new ArrayList<>(count);
+        while (names.size() < count) {
+            String className = PACKAGES[random.nextInt(PACKAGES.length)]
+                    + makeWord(random, 'A');
+            if (random.nextInt(4) == 0) {
+                className += "$" + makeWord(random, 'A');
+            }
+            names.add(className);
+            int members = random.nextInt(12);
+            for (int i = 0; i < members && names.size() < count; i++) {
+                if (random.nextBoolean()) {
+                    names.add(className + "#m" + makeWord(random, 'A'));
+                } else {
+                    names.add(className + "#" + makeWord(random, 'a')
+                            + DESCRIPTORS[random.nextInt(DESCRIPTORS.length)]);
+                }
+            }
+        }
+        return names.toArray(new String[names.size()]);
+    }
+
+    /**
+     * Makes a short identifier that starts with the given letter case.
+     */
+    private static String makeWord(Random random, char first) {
+        StringBuilder sb = new StringBuilder();
+        sb.append((char) (first + random.nextInt(26)));
+        int length = 3 + random.nextInt(8);
+        for (int i = 1; i < length; i++) {
+            sb.append((char) ('a' + random.nextInt(26)));
+        }
+        return sb.toString();
+    }
+
+    /**
+     * Makes a filter like a typical one: the top level packages are included,
+     * and the rules are names, or the beginnings of names, which are taken from
+     * the names being checked so that they actually match some of them.
+     */
+    private static Filter makeFilter(Random random, String[] names, int ruleCount) {
+        Filter filter = new Filter();
+        filter.getIncludePrefix().add("android/");
+        filter.getIncludePrefix().add("java/");
+        filter.getIncludePrefix().add("com/android/");
+
+        for (int i = 0; i < ruleCount; i++) {
+            String name = names[random.nextInt(names.length)];
+            boolean prefix = random.nextBoolean();
+            if (prefix) {
+                // Never shorter than the package and a letter, or it matches almost anything.
+                int min = name.lastIndexOf('/') + 2;
+                name = name.substring(0, min + random.nextInt(name.length() - min + 1));
+            }
+            boolean include = random.nextInt(8) == 0;
+            if (include) {
+                (prefix ? filter.getIncludePrefix() : filter.getIncludeFull()).add(name);
+            } else {
+                (prefix ? filter.getExcludePrefix() : filter.getExcludeFull()).add(name);
+            }
+        }
+        return filter;
+    }
+
+    /**
+     * The matching that Filter used to do: a loop over every prefix pattern.
+     */
+    private static boolean linearAccept(Filter filter, String s) {
+        boolean accept = filter.getIncludeFull().contains(s)
+                || startsWithAny(s, filter.getIncludePrefix());
+        if (accept) {
+            accept = !filter.getExcludeFull().contains(s)
+                    && !startsWithAny(s, filter.getExcludePrefix());
+        }
+        return accept;
+    }
+
+    private static boolean startsWithAny(String s, TreeSet<String> prefixes) {
+        for (String prefix : prefixes) {
+            if (s.startsWith(prefix)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2026 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.mkstubs;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FilterTest {
+
+    private Filter mFilter;
+
+    @Before
+    public void setUp() throws Exception {
+        mFilter = new Filter();
+        mFilter.getIncludePrefix().add("com/android/");
+        mFilter.getIncludeFull().add("org/Foo");
+        mFilter.getExcludePrefix().add("com/android/internal/");
+        mFilter.getExcludeFull().add("com/android/Bar");
+        mFilter.getExcludeFull().add("com/android/Baz#mField");
+        mFilter.getExcludePrefix().add("com/android/Baz#method(");
+    }
+
+    @Test
+    public void testAcceptClasses() throws Exception {
+        Assert.assertTrue(mFilter.accept("com/android/Baz"));
+        Assert.assertTrue(mFilter.accept("com/android/Bar$Inner"));
+        Assert.assertTrue(mFilter.accept("org/Foo"));
+
+        Assert.assertFalse(mFilter.accept("com/android/Bar"));
+        Assert.assertFalse(mFilter.accept("com/android/internal/Baz"));
+        Assert.assertFalse(mFilter.accept("org/Foo$Inner"));
+        Assert.assertFalse(mFilter.accept("org/Bar"));
+        Assert.assertFalse(mFilter.accept("com/"));
+        Assert.assertFalse(mFilter.accept(""));
+    }
+
+    @Test
+    public void testAcceptMembers() throws Exception {
+        Assert.assertTrue(mFilter.accept("com/android/Baz#mField2"));
+        Assert.assertTrue(mFilter.accept("com/android/Baz#method2()V"));
+
+        Assert.assertFalse(mFilter.accept("com/android/Baz#mField"));
+        Assert.assertFalse(mFilter.accept("com/android/Baz#method(I)V"));
+        Assert.assertFalse(mFilter.accept("com/android/internal/Baz#mField"));
+    }
+
+    @Test
+    public void testForMembers() throws Exception {
+        String[] classes = {
+                "com/android/Baz", "com/android/Bar", "com/android/internal/Baz", "org/Foo",
+                "org/Bar",
+        };
+        String[] members = {
+                "", "mField", "mField2", "method(I)V", "method2()V",
+        };
+        for (String c : classes) {
+            Filter.MemberFilter memberFilter = mFilter.forMembers(c);
+            for (String m : members) {
+                Assert.assertEquals(c + "#" + m,
+                        mFilter.accept(c + "#" + m), memberFilter.accept(m));
+            }
+        }
+    }
+
+    @Test
+    public void testEmptyPrefix() throws Exception {
+        Filter filter = new Filter();
+        filter.getIncludePrefix().add("");
+        filter.getExcludeFull().add("a/B");
+
+        Assert.assertTrue(filter.accept(""));
+        Assert.assertTrue(filter.accept("a/C"));
+        Assert.assertFalse(filter.accept("a/B"));
+        Assert.assertTrue(filter.forMembers("a/B").accept("mField"));
+    }
+}